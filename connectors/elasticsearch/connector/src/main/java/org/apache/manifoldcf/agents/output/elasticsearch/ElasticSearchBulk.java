@@ -0,0 +1,286 @@
+/* $Id$ */
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.manifoldcf.agents.output.elasticsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.Header;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
+import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.system.Logging;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** A request to the _bulk API, carrying any number of index and delete actions.
+* Actions are added, the request is executed once, and then each action's outcome can be examined.
+*/
+public class ElasticSearchBulk extends ElasticSearchConnection
+{
+
+  protected final List<Action> actions = new ArrayList<Action>();
+
+  public ElasticSearchBulk(HttpClient client, ElasticSearchConfig config)
+  {
+    super(config, client);
+  }
+
+  /** Add a document to index.
+  */
+  public void addIndex(String documentURI, RepositoryDocument document, InputStream inputStream)
+  {
+    actions.add(new Action("index", documentURI, document, inputStream));
+  }
+
+  /** Add a document to delete.
+  */
+  public void addDelete(String documentURI)
+  {
+    actions.add(new Action("delete", documentURI, null, null));
+  }
+
+  /** Get the number of actions in the request.
+  */
+  public int getActionCount()
+  {
+    return actions.size();
+  }
+
+  /** Send the request, and sort out what happened to each action.
+  * Actions that ElasticSearch refused because it was overloaded or broken cause a ServiceInterruption,
+  * once every action's outcome has been recorded.
+  */
+  public void execute()
+    throws ManifoldCFException, ServiceInterruption
+  {
+    StringBuffer url = getApiUrl("_bulk", false);
+    HttpPost post = new HttpPost(url.toString());
+    post.setEntity(new BulkRequestEntity());
+    if (call(post) == false)
+    {
+      // The whole request was refused
+      for (Action action : actions)
+      {
+        action.result = Result.ERROR;
+        action.resultDescription = getResultDescription();
+      }
+      return;
+    }
+
+    JSONArray items;
+    try
+    {
+      items = new JSONObject(getResponse()).getJSONArray("items");
+    }
+    catch (JSONException e)
+    {
+      throw new ManifoldCFException("Unparseable bulk response from ElasticSearch: "+e.getMessage(),e);
+    }
+    if (items.length() != actions.size())
+      throw new ManifoldCFException("ElasticSearch bulk response had "+items.length()+" items for "+actions.size()+" actions");
+
+    String retryReason = null;
+    for (int i = 0; i < actions.size(); i++)
+    {
+      Action action = actions.get(i);
+      try
+      {
+        JSONObject item = items.getJSONObject(i).getJSONObject(action.command);
+        int status = item.optInt("status", -1);
+        if (item.has("error"))
+        {
+          String error = item.get("error").toString();
+          action.result = Result.ERROR;
+          action.resultDescription = error;
+          if (status >= 500 || status == 429 || error.indexOf("EsRejectedExecutionException") != -1)
+            retryReason = error;
+          else
+            Logging.connectors.warn("ES: Bulk "+action.command+" of '"+action.documentURI+"' failed: "+error);
+        }
+        else if (action.command.equals("delete") && !item.optBoolean("found", true))
+        {
+          // We thought we needed to delete, but ElasticSearch disagreed.
+          // Log the result as an error, but proceed anyway.
+          action.result = Result.ERROR;
+          action.resultDescription = "Not found";
+          action.accepted = true;
+          Logging.connectors.warn("ES: Delete failed: '"+action.documentURI+"' not found");
+        }
+        else
+        {
+          action.result = Result.OK;
+          action.accepted = true;
+        }
+      }
+      catch (JSONException e)
+      {
+        throw new ManifoldCFException("Unparseable bulk response item from ElasticSearch: "+e.getMessage(),e);
+      }
+    }
+
+    if (retryReason != null)
+    {
+      long currentTime = System.currentTimeMillis();
+      throw new ServiceInterruption("ElasticSearch refused bulk actions: "+retryReason,
+        new ManifoldCFException(retryReason),
+        currentTime + 300000L,
+        currentTime + 20L * 60000L,
+        -1,
+        false);
+    }
+  }
+
+  /** Get an action's outcome.
+  */
+  public Result getResult(int index)
+  {
+    Result rval = actions.get(index).result;
+    if (rval == null)
+      rval = getResult();
+    return rval;
+  }
+
+  /** Get a description of an action's outcome.
+  */
+  public String getResultDescription(int index)
+  {
+    String rval = actions.get(index).resultDescription;
+    if (rval == null)
+      rval = getResultDescription();
+    return rval;
+  }
+
+  /** Find out if an action was carried out.  Deletions of documents that were already gone count as carried out.
+  */
+  public boolean isAccepted(int index)
+  {
+    return actions.get(index).accepted;
+  }
+
+  protected static class Action
+  {
+    protected final String command;
+    protected final String documentURI;
+    protected final RepositoryDocument document;
+    protected final InputStream inputStream;
+    protected Result result = null;
+    protected String resultDescription = null;
+    protected boolean accepted = false;
+
+    public Action(String command, String documentURI, RepositoryDocument document, InputStream inputStream)
+    {
+      this.command = command;
+      this.documentURI = documentURI;
+      this.document = document;
+      this.inputStream = inputStream;
+    }
+  }
+
+  private class BulkRequestEntity implements HttpEntity
+  {
+
+    public BulkRequestEntity()
+    {
+    }
+
+    @Override
+    public boolean isChunked() {
+      return true;
+    }
+    
+    @Override
+    public void consumeContent()
+      throws IOException {
+      EntityUtils.consume(this);
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+      return false;
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return true;
+    }
+    
+    @Override
+    public InputStream getContent()
+      throws IOException, IllegalStateException {
+      return null;
+    }
+    
+    @Override
+    public void writeTo(OutputStream out)
+      throws IOException {
+      PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, "utf-8"));
+      try
+      {
+        for (Action action : actions)
+        {
+          // The action line, then for an index, the source line
+          pw.print("{"+ElasticSearchIndex.jsonStringEscape(action.command)+" : {\"_type\" : "+
+            ElasticSearchIndex.jsonStringEscape(config.getIndexType())+", \"_id\" : "+
+            ElasticSearchIndex.jsonStringEscape(action.documentURI)+"}}\n");
+          if (action.document != null)
+          {
+            ElasticSearchIndex.writeDocument(pw, out, action.document, action.inputStream);
+            pw.print("\n");
+          }
+        }
+      } finally
+      {
+        pw.flush();
+        IOUtils.closeQuietly(pw);
+      }
+    }
+
+    @Override
+    public long getContentLength() {
+      // Unknown (chunked) length
+      return -1L;
+    }
+
+    @Override
+    public Header getContentType() {
+      return new BasicHeader("Content-type","application/x-ndjson");
+    }
+
+    @Override
+    public Header getContentEncoding() {
+      return null;
+    }
+
+  }
+
+}
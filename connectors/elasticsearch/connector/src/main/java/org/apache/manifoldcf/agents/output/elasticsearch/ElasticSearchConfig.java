@@ -33,7 +33,8 @@ public class ElasticSearchConfig extends ElasticSearchParam
   /** Parameters used for the configuration */
   final private static ParameterEnum[] CONFIGURATIONLIST =
   { ParameterEnum.SERVERLOCATION, ParameterEnum.INDEXNAME,
-      ParameterEnum.INDEXTYPE};
+      ParameterEnum.INDEXTYPE, ParameterEnum.BULKMAXDOCUMENTS,
+      ParameterEnum.BULKMAXBYTES};
 
   /** Build a set of ElasticSearchParameters by reading ConfigParams. If the
    * value returned by ConfigParams.getParameter is null, the default value is
@@ -90,4 +91,32 @@ public class ElasticSearchConfig extends ElasticSearchParam
     return get(ParameterEnum.INDEXTYPE);
   }
 
+  /** @return the maximum number of actions to send in one _bulk request.  One means
+  * that bulk requests are not used. */
+  final public int getBulkMaxDocuments()
+  {
+    return getIntValue(ParameterEnum.BULKMAXDOCUMENTS);
+  }
+
+  /** @return the number of content bytes after which a _bulk request is sent, even if it
+  * holds fewer than the maximum number of actions. */
+  final public long getBulkMaxBytes()
+  {
+    return (long)getIntValue(ParameterEnum.BULKMAXBYTES);
+  }
+
+  private int getIntValue(ParameterEnum param)
+  {
+    try
+    {
+      int rval = Integer.parseInt(get(param));
+      if (rval >= 1)
+        return rval;
+    }
+    catch (NumberFormatException e)
+    {
+    }
+    return Integer.parseInt(param.defaultValue);
+  }
+
 }
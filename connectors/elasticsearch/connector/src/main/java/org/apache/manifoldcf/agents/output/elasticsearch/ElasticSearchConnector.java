@@ -419,6 +419,67 @@ public class ElasticSearchConnector extends BaseOutputConnector
     }
   }
 
+  @Override
+  public int getMaxDocumentBatchSize()
+    throws ManifoldCFException
+  {
+    return getConfigParameters(null).getBulkMaxDocuments();
+  }
+
+  /** Add several documents, using _bulk requests.  A request is sent whenever it holds the maximum number of
+  * documents, or the content it holds reaches the maximum size.
+  */
+  @Override
+  public int[] addOrReplaceDocuments(String[] documentURIs, String[] outputDescriptions,
+      RepositoryDocument[] documents, String[] authorityNameStrings,
+      IOutputAddActivity activities) throws ManifoldCFException,
+      ServiceInterruption
+  {
+    ElasticSearchConfig config = getConfigParameters(null);
+    if (documentURIs.length == 1 || config.getBulkMaxDocuments() <= 1)
+      return super.addOrReplaceDocuments(documentURIs,outputDescriptions,documents,authorityNameStrings,activities);
+
+    HttpClient client = getSession();
+    int maxDocuments = config.getBulkMaxDocuments();
+    long maxBytes = config.getBulkMaxBytes();
+    int[] rval = new int[documentURIs.length];
+    int start = 0;
+    while (start < documentURIs.length)
+    {
+      ElasticSearchBulk bulk = new ElasticSearchBulk(client, config);
+      long bytes = 0L;
+      int end = start;
+      while (end < documentURIs.length && (end == start ||
+        (end - start < maxDocuments && bytes + documents[end].getBinaryLength() <= maxBytes)))
+      {
+        bulk.addIndex(documentURIs[end], documents[end], documents[end].getBinaryStream());
+        bytes += documents[end].getBinaryLength();
+        end++;
+      }
+
+      long startTime = System.currentTimeMillis();
+      try
+      {
+        bulk.execute();
+        for (int i = start; i < end; i++)
+        {
+          rval[i] = bulk.isAccepted(i - start)?DOCUMENTSTATUS_ACCEPTED:DOCUMENTSTATUS_REJECTED;
+        }
+      }
+      finally
+      {
+        for (int i = start; i < end; i++)
+        {
+          activities.recordActivity(startTime, ELASTICSEARCH_INDEXATION_ACTIVITY,
+            documents[i].getBinaryLength(), documentURIs[i], bulk.getResult(i - start).name(),
+            bulk.getResultDescription(i - start));
+        }
+      }
+      start = end;
+    }
+    return rval;
+  }
+
   @Override
   public void removeDocument(String documentURI, String outputDescription,
       IOutputRemoveActivity activities) throws ManifoldCFException,
@@ -438,6 +499,49 @@ public class ElasticSearchConnector extends BaseOutputConnector
     }
   }
 
+  /** Remove several documents, using _bulk requests of at most the maximum number of documents.
+  */
+  @Override
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions,
+      IOutputRemoveActivity activities) throws ManifoldCFException,
+      ServiceInterruption
+  {
+    ElasticSearchConfig config = getConfigParameters(null);
+    if (documentURIs.length == 1 || config.getBulkMaxDocuments() <= 1)
+    {
+      super.removeDocuments(documentURIs,outputDescriptions,activities);
+      return;
+    }
+
+    HttpClient client = getSession();
+    int maxDocuments = config.getBulkMaxDocuments();
+    int start = 0;
+    while (start < documentURIs.length)
+    {
+      ElasticSearchBulk bulk = new ElasticSearchBulk(client, config);
+      int end = Math.min(documentURIs.length, start + maxDocuments);
+      for (int i = start; i < end; i++)
+      {
+        bulk.addDelete(documentURIs[i]);
+      }
+
+      long startTime = System.currentTimeMillis();
+      try
+      {
+        bulk.execute();
+      }
+      finally
+      {
+        for (int i = start; i < end; i++)
+        {
+          activities.recordActivity(startTime, ELASTICSEARCH_DELETION_ACTIVITY, null,
+            documentURIs[i], bulk.getResult(i - start).name(), bulk.getResultDescription(i - start));
+        }
+      }
+      start = end;
+    }
+  }
+
   @Override
   public String check() throws ManifoldCFException
   {
@@ -37,6 +37,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
 import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
 import org.apache.manifoldcf.core.common.Base64;
+import org.apache.manifoldcf.core.common.JSONEncoder;
 import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.crawler.system.Logging;
 
@@ -69,7 +70,7 @@ public class ElasticSearchIndex extends ElasticSearchConnection
 
     @Override
     public boolean isChunked() {
-      return false;
+      return true;
     }
     
     @Override
@@ -85,7 +86,7 @@ public class ElasticSearchIndex extends ElasticSearchConnection
 
     @Override
     public boolean isStreaming() {
-      return false;
+      return true;
     }
     
     @Override
@@ -100,39 +101,7 @@ public class ElasticSearchIndex extends ElasticSearchConnection
       PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, "utf-8"));
       try
       {
-        pw.print("{");
-        Iterator<String> i = document.getFields();
-        boolean needComma = false;
-        while (i.hasNext()){
-          String fieldName = i.next();
-          String[] fieldValues = document.getFieldAsStrings(fieldName);
-          needComma = writeField(pw, needComma, fieldName, fieldValues);
-        }
-
-        needComma = writeACLs(pw, needComma, "document", document.getACL(), document.getDenyACL());
-        needComma = writeACLs(pw, needComma, "share", document.getShareACL(), document.getShareDenyACL());
-
-        if(inputStream!=null){
-          if(needComma){
-            pw.print(",");
-          }
-          pw.print("\"type\" : \"attachment\",");
-          String contentType = document.getMimeType();
-          if (contentType != null)
-            pw.print("\"_content_type\" : "+jsonStringEscape(contentType)+",");
-          String fileName = document.getFileName();
-          if (fileName != null)
-            pw.print("\"_name\" : "+jsonStringEscape(fileName)+",");
-          pw.print("\"file\" : \"");
-          Base64 base64 = new Base64();
-          base64.encodeStream(inputStream, pw);
-          pw.print("\"");
-        }
-        
-        pw.print("}");
-      } catch (ManifoldCFException e)
-      {
-        throw new IOException(e.getMessage());
+        writeDocument(pw, out, document, inputStream);
       } finally
       {
         pw.flush();
@@ -158,6 +127,57 @@ public class ElasticSearchIndex extends ElasticSearchConnection
 
   }
 
+  /** Write a document's JSON source.  The source is written on a single line, so that it can also be
+  * used in a bulk request.  The base64-encoded content is written straight to the underlying stream.
+  *@param pw is the writer to use for everything but the content.
+  *@param out is the stream the writer writes to.
+  *@param document is the document.
+  *@param inputStream is the document content, or null if none.
+  */
+  protected static void writeDocument(PrintWriter pw, OutputStream out,
+    RepositoryDocument document, InputStream inputStream)
+    throws IOException
+  {
+    try
+    {
+      pw.print("{");
+      Iterator<String> i = document.getFields();
+      boolean needComma = false;
+      while (i.hasNext()){
+        String fieldName = i.next();
+        String[] fieldValues = document.getFieldAsStrings(fieldName);
+        needComma = writeField(pw, needComma, fieldName, fieldValues);
+      }
+
+      needComma = writeACLs(pw, needComma, "document", document.getACL(), document.getDenyACL());
+      needComma = writeACLs(pw, needComma, "share", document.getShareACL(), document.getShareDenyACL());
+
+      if(inputStream!=null){
+        if(needComma){
+          pw.print(",");
+        }
+        pw.print("\"type\" : \"attachment\",");
+        String contentType = document.getMimeType();
+        if (contentType != null)
+          pw.print("\"_content_type\" : "+jsonStringEscape(contentType)+",");
+        String fileName = document.getFileName();
+        if (fileName != null)
+          pw.print("\"_name\" : "+jsonStringEscape(fileName)+",");
+        pw.print("\"file\" : \"");
+        // Encode the content straight onto the wire, a chunk at a time
+        pw.flush();
+        Base64 base64 = new Base64();
+        base64.encodeStream(inputStream, out);
+        pw.print("\"");
+      }
+      
+      pw.print("}");
+    } catch (ManifoldCFException e)
+    {
+      throw new IOException(e.getMessage());
+    }
+  }
+
   protected static boolean writeField(PrintWriter pw, boolean needComma,
     String fieldName, String[] fieldValues)
     throws IOException
@@ -168,7 +188,9 @@ public class ElasticSearchIndex extends ElasticSearchConnection
       if (needComma)
         pw.print(",");
       String fieldValue = fieldValues[j];
-      pw.print(jsonStringEscape(fieldName)+" : "+jsonStringEscape(fieldValue));
+      JSONEncoder.writeString(pw,fieldName);
+      pw.print(" : ");
+      JSONEncoder.writeString(pw,fieldValue);
       needComma = true;
     }
     return needComma;
@@ -194,16 +216,7 @@ public class ElasticSearchIndex extends ElasticSearchConnection
 
   protected static String jsonStringEscape(String value)
   {
-    StringBuilder sb = new StringBuilder("\"");
-    for (int i = 0; i < value.length(); i++)
-    {
-      char x = value.charAt(i);
-      if (x == '\"' || x == '\\' || x == '/')
-        sb.append('\\');
-      sb.append(x);
-    }
-    sb.append("\"");
-    return sb.toString();
+    return JSONEncoder.encodeString(value);
   }
   
 
@@ -39,6 +39,10 @@ public class ElasticSearchParam extends HashMap<ParameterEnum, String>
 
 		INDEXTYPE("generictype"),
 
+		BULKMAXDOCUMENTS("100"),
+
+		BULKMAXBYTES("10485760"),
+
 		FIELDLIST(""),
 
 		MAXFILESIZE("16777216"),
@@ -39,6 +39,20 @@ function checkConfig() {
       return false;
     }
   }
+  if (editconnection.bulkmaxdocuments) {
+    if (!isInteger(editconnection.bulkmaxdocuments.value) || parseInt(editconnection.bulkmaxdocuments.value) < 1) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxDocumentsMustBePositiveInteger'))");
+      editconnection.bulkmaxdocuments.focus();
+      return false;
+    }
+  }
+  if (editconnection.bulkmaxbytes) {
+    if (!isInteger(editconnection.bulkmaxbytes.value) || parseInt(editconnection.bulkmaxbytes.value) < 1) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxBytesMustBePositiveInteger'))");
+      editconnection.bulkmaxbytes.focus();
+      return false;
+    }
+  }
   return true;
 }
 
@@ -67,6 +81,22 @@ function checkConfigForSave() {
       return false;
     }
   }
+  if (editconnection.bulkmaxdocuments) {
+    if (!isInteger(editconnection.bulkmaxdocuments.value) || parseInt(editconnection.bulkmaxdocuments.value) < 1) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxDocumentsMustBePositiveInteger'))");
+      SelectTab("$Encoder.javascriptBodyEscape($ResourceBundle.getString('ElasticSearchConnector.Parameters'))");
+      editconnection.bulkmaxdocuments.focus();
+      return false;
+    }
+  }
+  if (editconnection.bulkmaxbytes) {
+    if (!isInteger(editconnection.bulkmaxbytes.value) || parseInt(editconnection.bulkmaxbytes.value) < 1) {
+      alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ElasticSearchConnector.BulkMaxBytesMustBePositiveInteger'))");
+      SelectTab("$Encoder.javascriptBodyEscape($ResourceBundle.getString('ElasticSearchConnector.Parameters'))");
+      editconnection.bulkmaxbytes.focus();
+      return false;
+    }
+  }
   return true;
 }
 //-->
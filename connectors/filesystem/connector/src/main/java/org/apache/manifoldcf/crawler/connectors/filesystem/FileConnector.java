@@ -22,6 +22,7 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import org.apache.manifoldcf.crawler.system.Logging;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
 import org.apache.manifoldcf.core.extmimemap.ExtensionMimeMap;
 import java.util.*;
 import java.io.*;
@@ -42,6 +43,28 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
   // Activities list
   protected static final String[] activitiesList = new String[]{ACTIVITY_READ};
 
+  /** The directory to keep directory snapshots in; if not set, directories are always listed */
+  public final static String PROPERTY_SNAPSHOT_DIRECTORY = "org.apache.manifoldcf.crawler.connectors.filesystem.snapshotdirectory";
+  /** The minimum time, in seconds, between writes of a job's snapshot */
+  public final static String PROPERTY_SNAPSHOT_INTERVAL = "org.apache.manifoldcf.crawler.connectors.filesystem.snapshotinterval";
+  /** The time, in seconds, a job's snapshot may go unused before it is written out and dropped from memory */
+  public final static String PROPERTY_SNAPSHOT_IDLE_TIME = "org.apache.manifoldcf.crawler.connectors.filesystem.snapshotidletime";
+  /** The number of days a snapshot file may go unwritten before it is deleted */
+  public final static String PROPERTY_SNAPSHOT_RETENTION = "org.apache.manifoldcf.crawler.connectors.filesystem.snapshotretentiondays";
+
+  /** A directory's modified time must be at least this much older than the listing for the listing
+  * to be remembered, since a change made within the file system's timestamp resolution could otherwise
+  * go unnoticed */
+  protected final static long MODIFIED_TIME_RESOLUTION = 2000L;
+
+  /** The time between looks for idle snapshots and stale snapshot files */
+  protected final static long SNAPSHOT_CLEANUP_INTERVAL = 60000L;
+
+  /** The directory snapshots, keyed by snapshot file name */
+  protected final static Map<String,FileSnapshot> snapshots = new HashMap<String,FileSnapshot>();
+  /** When idle snapshots and stale snapshot files were last looked for */
+  protected static long lastSnapshotCleanupTime = 0L;
+
   // Parameters that this connector cares about
   // public final static String ROOTDIRECTORY = "rootdirectory";
 
@@ -238,18 +261,45 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
           {
             try
             {
-              File[] files = file.listFiles();
-              if (files != null)
+              FileSnapshot snapshot = getSnapshot(spec);
+              // Read the modified time before listing, so a change made during the listing is noticed next time
+              long lastModified = file.lastModified();
+              String[] children = null;
+              if (snapshot != null)
+                children = snapshot.getChildren(documentIdentifier,lastModified);
+              if (children == null)
               {
-                int j = 0;
-                while (j < files.length)
+                List<String> included = new ArrayList<String>();
+                File[] files = file.listFiles();
+                if (files != null)
                 {
-                  File f = files[j++];
-                  String canonicalPath = f.getCanonicalPath();
-                  if (checkInclude(f,canonicalPath,spec))
-                    activities.addDocumentReference(canonicalPath,documentIdentifier,RELATIONSHIP_CHILD);
+                  int j = 0;
+                  while (j < files.length)
+                  {
+                    File f = files[j++];
+                    String canonicalPath = f.getCanonicalPath();
+                    if (checkInclude(f,canonicalPath,spec))
+                      included.add(canonicalPath);
+                  }
                 }
+                children = included.toArray(new String[0]);
+                if (snapshot != null && files != null && startTime - lastModified >= MODIFIED_TIME_RESOLUTION)
+                  snapshot.setChildren(documentIdentifier,lastModified,children);
               }
+              else
+              {
+                if (Logging.connectors.isDebugEnabled())
+                  Logging.connectors.debug("Directory '"+documentIdentifier+"' unchanged; using snapshot of "+Integer.toString(children.length)+" children");
+              }
+
+              int j = 0;
+              while (j < children.length)
+              {
+                activities.addDocumentReference(children[j++],documentIdentifier,RELATIONSHIP_CHILD);
+              }
+
+              if (snapshot != null)
+                snapshot.saveIfNeeded(System.currentTimeMillis(),1000L * (long)ManifoldCF.getIntProperty(PROPERTY_SNAPSHOT_INTERVAL,60));
             }
             catch (IOException e)
             {
@@ -283,12 +333,13 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
                 // Ingest the document.
                 try
                 {
-                  InputStream is = new FileInputStream(file);
+                  long fileBytes = file.length();
+                  // The file itself backs the content, so it can be transferred or replayed without a copy
+                  ContentHandle content = new FileContentHandle(file,fileBytes);
                   try
                   {
-                    long fileBytes = file.length();
                     RepositoryDocument data = new RepositoryDocument();
-                    data.setBinary(is,fileBytes);
+                    data.setBinary(content);
                     String fileName = file.getName();
                     data.setFileName(fileName);
                     data.setMimeType(mapExtensionToMimeType(fileName));
@@ -300,7 +351,7 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
                   }
                   finally
                   {
-                    is.close();
+                    content.close();
                   }
                 }
                 catch (IOException e)
@@ -322,6 +373,102 @@ public class FileConnector extends org.apache.manifoldcf.crawler.connectors.Base
     }
   }
 
+  /** This method is periodically called for all connectors that are connected but not
+  * in active use.
+  */
+  @Override
+  public void poll()
+    throws ManifoldCFException
+  {
+    super.poll();
+    cleanupSnapshots(System.currentTimeMillis());
+  }
+
+  /** Write out and forget the snapshots that have gone unused, and delete the snapshot files that have not
+  * been written for longer than the retention time.  A job that has been deleted, or whose document
+  * specification has changed, never uses its old snapshot again, so this is how those files go away.  An
+  * active job's file is rewritten whenever it is crawled, so only a job that has not been crawled for the
+  * whole retention time loses its snapshot, and that costs nothing more than listing its directories again.
+  *@param currentTime is the current time.
+  */
+  protected static void cleanupSnapshots(long currentTime)
+    throws ManifoldCFException
+  {
+    File snapshotDirectory = ManifoldCF.getFileProperty(PROPERTY_SNAPSHOT_DIRECTORY);
+    if (snapshotDirectory == null)
+      return;
+    long idleTime = 1000L * (long)ManifoldCF.getIntProperty(PROPERTY_SNAPSHOT_IDLE_TIME,3600);
+    long retentionTime = 24L * 60L * 60000L * (long)ManifoldCF.getIntProperty(PROPERTY_SNAPSHOT_RETENTION,30);
+
+    List<FileSnapshot> idleSnapshots = new ArrayList<FileSnapshot>();
+    Set<String> activeFiles = new HashSet<String>();
+    synchronized (snapshots)
+    {
+      if (lastSnapshotCleanupTime + SNAPSHOT_CLEANUP_INTERVAL > currentTime)
+        return;
+      lastSnapshotCleanupTime = currentTime;
+      Iterator<Map.Entry<String,FileSnapshot>> iter = snapshots.entrySet().iterator();
+      while (iter.hasNext())
+      {
+        Map.Entry<String,FileSnapshot> entry = iter.next();
+        if (entry.getValue().isIdle(currentTime,idleTime))
+        {
+          idleSnapshots.add(entry.getValue());
+          iter.remove();
+        }
+        else
+          activeFiles.add(entry.getKey());
+      }
+    }
+
+    for (FileSnapshot snapshot : idleSnapshots)
+    {
+      snapshot.saveIfNeeded(currentTime,0L);
+    }
+
+    if (retentionTime <= 0L)
+      return;
+    File[] files = snapshotDirectory.listFiles();
+    if (files == null)
+      return;
+    for (File file : files)
+    {
+      String name = file.getName();
+      if (!name.endsWith(".snapshot") && !name.endsWith(".snapshot.tmp"))
+        continue;
+      if (activeFiles.contains(name) || file.lastModified() + retentionTime > currentTime)
+        continue;
+      if (file.delete())
+      {
+        if (Logging.connectors.isDebugEnabled())
+          Logging.connectors.debug("File system: Deleted stale snapshot file '"+file+"'");
+      }
+    }
+  }
+
+  /** Get the directory snapshot for a job, or null if snapshots are not in use.  A job is identified
+  * by its document specification, which also determines which children are included.
+  */
+  protected static FileSnapshot getSnapshot(DocumentSpecification spec)
+    throws ManifoldCFException
+  {
+    File snapshotDirectory = ManifoldCF.getFileProperty(PROPERTY_SNAPSHOT_DIRECTORY);
+    if (snapshotDirectory == null)
+      return null;
+    String fileName = ManifoldCF.hash(spec.toXML()) + ".snapshot";
+    synchronized (snapshots)
+    {
+      FileSnapshot snapshot = snapshots.get(fileName);
+      if (snapshot == null)
+      {
+        snapshotDirectory.mkdirs();
+        snapshot = new FileSnapshot(new File(snapshotDirectory,fileName));
+        snapshots.put(fileName,snapshot);
+      }
+      return snapshot;
+    }
+  }
+
   /** Map an extension to a mime type */
   protected static String mapExtensionToMimeType(String fileName)
   {
@@ -0,0 +1,218 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.connectors.filesystem;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+import java.util.*;
+import java.io.*;
+
+/** This class is a snapshot of the directories a file system job has listed: for each directory, the
+* modified time it had when it was listed, and the included children that were found in it.  Adding,
+* removing, or renaming an entry in a directory changes the directory's modified time, so as long as the
+* modified time is the same, the children are too, and the directory need not be listed again.
+* The snapshot is kept in a file, so that it survives from one crawl to the next.  The file is only a
+* cache; if it is lost or out of date, directories are simply listed again.
+*/
+public class FileSnapshot
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The file the snapshot is kept in */
+  protected final File snapshotFile;
+  /** The directories, keyed by canonical path */
+  protected final Map<String,DirectoryEntry> directories = new HashMap<String,DirectoryEntry>();
+  /** True once the snapshot file has been read */
+  protected boolean loaded = false;
+  /** True if there are changes that have not been written */
+  protected boolean dirty = false;
+  /** When the snapshot was last written */
+  protected long lastSaveTime = 0L;
+  /** When the snapshot was last looked at or changed */
+  protected long lastAccessTime;
+
+  /** Constructor.
+  *@param snapshotFile is the file to keep the snapshot in.
+  */
+  public FileSnapshot(File snapshotFile)
+  {
+    this.snapshotFile = snapshotFile;
+    this.lastAccessTime = System.currentTimeMillis();
+  }
+
+  /** Check whether the snapshot has gone unused for a while.
+  *@param currentTime is the current time.
+  *@param idleTime is how long, in milliseconds, the snapshot must have gone unused.
+  *@return true if the snapshot is idle.
+  */
+  public synchronized boolean isIdle(long currentTime, long idleTime)
+  {
+    return lastAccessTime + idleTime <= currentTime;
+  }
+
+  /** Look up the included children of a directory.
+  *@param directoryPath is the canonical path of the directory.
+  *@param lastModified is the directory's current modified time.
+  *@return the canonical paths of the children, or null if the directory must be listed.
+  */
+  public synchronized String[] getChildren(String directoryPath, long lastModified)
+    throws ManifoldCFException
+  {
+    load();
+    lastAccessTime = System.currentTimeMillis();
+    DirectoryEntry entry = directories.get(directoryPath);
+    if (entry == null)
+      return null;
+    if (entry.lastModified != lastModified)
+    {
+      directories.remove(directoryPath);
+      dirty = true;
+      return null;
+    }
+    if (!entry.used)
+    {
+      entry.used = true;
+      dirty = true;
+    }
+    return entry.children;
+  }
+
+  /** Record the included children of a directory.
+  *@param directoryPath is the canonical path of the directory.
+  *@param lastModified is the directory's modified time at the time it was listed.
+  *@param children are the canonical paths of the children.
+  */
+  public synchronized void setChildren(String directoryPath, long lastModified, String[] children)
+    throws ManifoldCFException
+  {
+    load();
+    lastAccessTime = System.currentTimeMillis();
+    directories.put(directoryPath,new DirectoryEntry(lastModified,children,true));
+    dirty = true;
+  }
+
+  /** Write the snapshot, if it has changed and it has not been written recently.  Only the directories
+  * that have been seen since the snapshot was read are written, so directories that are no longer
+  * crawled drop out.
+  *@param currentTime is the current time.
+  *@param interval is the minimum time between writes, in milliseconds.
+  */
+  public synchronized void saveIfNeeded(long currentTime, long interval)
+    throws ManifoldCFException
+  {
+    if (!dirty || lastSaveTime + interval > currentTime)
+      return;
+    lastSaveTime = currentTime;
+    // Write to a scratch file, then move it into place, so a reader never sees a partial snapshot
+    File tempFile = new File(snapshotFile.getPath()+".tmp");
+    try
+    {
+      DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try
+      {
+        for (Map.Entry<String,DirectoryEntry> mapEntry : directories.entrySet())
+        {
+          DirectoryEntry entry = mapEntry.getValue();
+          if (!entry.used)
+            continue;
+          os.writeBoolean(true);
+          os.writeUTF(mapEntry.getKey());
+          os.writeLong(entry.lastModified);
+          os.writeInt(entry.children.length);
+          for (String child : entry.children)
+          {
+            os.writeUTF(child);
+          }
+        }
+        os.writeBoolean(false);
+      }
+      finally
+      {
+        os.close();
+      }
+      snapshotFile.delete();
+      if (!tempFile.renameTo(snapshotFile))
+        throw new IOException("Could not rename '"+tempFile+"' to '"+snapshotFile+"'");
+      dirty = false;
+    }
+    catch (IOException e)
+    {
+      // Losing the snapshot only costs directory listings, so don't fail the crawl
+      Logging.connectors.warn("File system: Couldn't write snapshot file '"+snapshotFile+"': "+e.getMessage(),e);
+      tempFile.delete();
+    }
+  }
+
+  /** Read the snapshot file, if that has not been done yet.
+  */
+  protected void load()
+    throws ManifoldCFException
+  {
+    if (loaded)
+      return;
+    loaded = true;
+    if (!snapshotFile.exists())
+      return;
+    try
+    {
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+      try
+      {
+        while (is.readBoolean())
+        {
+          String directoryPath = is.readUTF();
+          long lastModified = is.readLong();
+          String[] children = new String[is.readInt()];
+          int i = 0;
+          while (i < children.length)
+          {
+            children[i++] = is.readUTF();
+          }
+          directories.put(directoryPath,new DirectoryEntry(lastModified,children,false));
+        }
+      }
+      finally
+      {
+        is.close();
+      }
+    }
+    catch (IOException e)
+    {
+      Logging.connectors.warn("File system: Couldn't read snapshot file '"+snapshotFile+"'; starting over: "+e.getMessage(),e);
+      directories.clear();
+    }
+  }
+
+  /** What the snapshot knows about a directory.
+  */
+  protected static class DirectoryEntry
+  {
+    protected final long lastModified;
+    protected final String[] children;
+    protected boolean used;
+
+    public DirectoryEntry(long lastModified, String[] children, boolean used)
+    {
+      this.lastModified = lastModified;
+      this.children = children;
+      this.used = used;
+    }
+  }
+
+}
@@ -99,6 +99,16 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
 
   // Properties this connector needs (that can only be configured once)
   public final static String PROPERTY_JCIFS_USE_NTLM_V1 = "org.apache.manifoldcf.crawler.connectors.jcifs.usentlmv1";
+  /** Set to "true" to keep what a directory listing tells us about the directory's files, and each share's
+  * security */
+  public final static String PROPERTY_JCIFS_BATCHED_LISTING = "org.apache.manifoldcf.crawler.connectors.jcifs.batchedlisting";
+  /** How long, in seconds, information from a directory listing and share security stay valid */
+  public final static String PROPERTY_JCIFS_INFO_CACHE_LIFETIME = "org.apache.manifoldcf.crawler.connectors.jcifs.infocachelifetime";
+  /** The number of files whose listing information is kept */
+  public final static String PROPERTY_JCIFS_INFO_CACHE_SIZE = "org.apache.manifoldcf.crawler.connectors.jcifs.infocachesize";
+
+  /** File and share information gathered while listing directories, shared by all connection instances */
+  protected final static SharedDriveInfoCache infoCache = new SharedDriveInfoCache();
   
   // Static initialization of various system properties.  This hopefully takes place
   // before jcifs is loaded.
@@ -120,6 +130,13 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
 
   private NtlmPasswordAuthentication pa;
 
+  /** True if batched listing is on */
+  private boolean batchedListing = false;
+  /** Listing information lifetime */
+  private long infoCacheLifetime = 0L;
+  /** Listing information size limit */
+  private int infoCacheSize = 0;
+
   /** Deny access token for default authority */
   private final static String defaultAuthorityDenyToken = "DEAD_AUTHORITY";
 
@@ -156,6 +173,10 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
       if (domain == null || domain.length() == 0)
         domain = null;
       
+      batchedListing = ManifoldCF.getBooleanProperty(PROPERTY_JCIFS_BATCHED_LISTING,false);
+      infoCacheLifetime = 1000L * (long)ManifoldCF.getIntProperty(PROPERTY_JCIFS_INFO_CACHE_LIFETIME,3600);
+      infoCacheSize = ManifoldCF.getIntProperty(PROPERTY_JCIFS_INFO_CACHE_SIZE,100000);
+
       if (Logging.connectors.isDebugEnabled())
         Logging.connectors.debug("Connecting to: " + "smb://" + ((domain==null)?"":domain)+";"+username+":<password>@" + server + "/");
 
@@ -521,18 +542,22 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
         if (Logging.connectors.isDebugEnabled())
           Logging.connectors.debug("JCIFS: getVersions(): documentIdentifiers[" + i + "] is: " + documentIdentifier);
         SmbFile file = new SmbFile(documentIdentifier,pa);
+        // If we listed this file's directory recently, we already know about the file
+        SharedDriveInfoCache.FileInfo info = null;
+        if (batchedListing)
+          info = infoCache.takeFileInfo(makeCacheKey(documentIdentifier),infoCacheLifetime,System.currentTimeMillis());
 
         // File has to exist AND have a non-null canonical path to be readable.  If the canonical path is
         // null, it means that the windows permissions are not right and directory/file is not readable!!!
         String newPath = getFileCanonicalPath(file);
         // We MUST check the specification here, otherwise a recrawl may not delete what it's supposed to!
-        if (fileExists(file) && newPath != null && checkInclude(file,newPath,spec,activities))
+        if ((info != null || fileExists(file)) && newPath != null && checkInclude(file,info,newPath,spec,activities))
         {
-          if (fileIsDirectory(file))
+          if ((info != null)?info.isDirectory():fileIsDirectory(file))
           {
             // It's a directory. The version ID will be the
             // last modified date.
-            long lastModified = fileLastModified(file);
+            long lastModified = (info != null)?info.getLastModified():fileLastModified(file);
             rval[i] = new Long(lastModified).toString();
 
           }
@@ -585,9 +610,10 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
 
             // The stuff from here on down is non-parseable.
             // Get the file's modified date.
-            long lastModified = fileLastModified(file);
+            long lastModified = (info != null)?info.getLastModified():fileLastModified(file);
+            long fileLength = (info != null)?info.getLength():fileLength(file);
             sb.append(new Long(lastModified).toString()).append(":")
-              .append(new Long(fileLength(file)).toString());
+              .append(new Long(fileLength).toString());
             // Also include the specification-based answer for the question of whether fingerprinting is
             // going to be done.  Although we may not consider this to truly be "version" information, the
             // specification does affect whether anything is ingested or not, so it really is.  The alternative
@@ -705,9 +731,11 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
 
             // Use a filter to actually do the work here.  This prevents large arrays from being
             // created when there are big directories.
-            ProcessDocumentsFilter filter = new ProcessDocumentsFilter(activities,spec);
+            ProcessDocumentsFilter filter = new ProcessDocumentsFilter(activities,spec,batchedListing);
             fileListFiles(file,filter);
             filter.checkAndThrow();
+            if (batchedListing)
+              rememberListedFiles(filter);
           }
           else
           {
@@ -1021,11 +1049,6 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
     String[] allowAcls;
     String[] denyAcls;
 
-    int j;
-    int allowCount;
-    int denyCount;
-    ACE[] aces;
-
     if (forcedShareAcls!=null)
     {
       description.append("+");
@@ -1039,59 +1062,36 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
         // the original share may prohibit users that the could nevertheless see the document
         // if they went in the direct way.
 
-
-        // Grab the share permissions.
-        aces = getFileShareSecurity(file, useSIDs);
-
-        if (aces == null)
+        String[][] shareTokens = null;
+        String shareKey = null;
+        if (batchedListing)
         {
-          if (Logging.connectors.isDebugEnabled())
-            Logging.connectors.debug("JCIFS: Share has no ACL for '"+getFileCanonicalPath(file)+"'");
-
-          // "Public" share: S-1-1-0
-          shareAllowAcls = new String[]{"S-1-1-0"};
-          shareDenyAcls = new String[]{defaultAuthorityDenyToken};
+          // Every file on a share has the same share permissions, so only ask once
+          shareKey = makeCacheKey(getShareName(file));
+          shareTokens = infoCache.getShareAcls(shareKey,infoCacheLifetime,System.currentTimeMillis());
         }
-        else
+        if (shareTokens == null)
         {
-          if (Logging.connectors.isDebugEnabled())
-            Logging.connectors.debug("JCIFS: Found "+Integer.toString(aces.length)+" share access tokens for '"+getFileCanonicalPath(file)+"'");
-
-          // We are interested in the read permission, and take
-          // a keen interest in allow/deny
-          allowCount = 0;
-          denyCount = 0;
-          j = 0;
-          while (j < aces.length)
+          // Grab the share permissions.
+          ACE[] aces = getFileShareSecurity(file, useSIDs);
+
+          if (aces == null)
           {
-            ACE ace = aces[j++];
-            if ((ace.getAccessMask() & ACE.FILE_READ_DATA) != 0)
-            {
-              if (ace.isAllow())
-                allowCount++;
-              else
-                denyCount++;
-            }
+            if (Logging.connectors.isDebugEnabled())
+              Logging.connectors.debug("JCIFS: Share has no ACL for '"+getFileCanonicalPath(file)+"'");
           }
-
-          shareAllowAcls = new String[allowCount];
-          shareDenyAcls = new String[denyCount+1];
-          j = 0;
-          allowCount = 0;
-          denyCount = 0;
-          shareDenyAcls[denyCount++] = defaultAuthorityDenyToken;
-          while (j < aces.length)
+          else
           {
-            ACE ace = aces[j++];
-            if ((ace.getAccessMask() & ACE.FILE_READ_DATA) != 0)
-            {
-              if (ace.isAllow())
-                shareAllowAcls[allowCount++] = useSIDs ? ace.getSID().toString() : ace.getSID().getAccountName();
-              else
-                shareDenyAcls[denyCount++] = useSIDs ? ace.getSID().toString() : ace.getSID().getAccountName();
-            }
+            if (Logging.connectors.isDebugEnabled())
+              Logging.connectors.debug("JCIFS: Found "+Integer.toString(aces.length)+" share access tokens for '"+getFileCanonicalPath(file)+"'");
           }
+          shareTokens = convertAces(aces,useSIDs);
+          if (shareKey != null)
+            infoCache.putShareAcls(shareKey,shareTokens,System.currentTimeMillis());
         }
+        // The cached arrays are shared, so sort copies
+        shareAllowAcls = (String[])shareTokens[0].clone();
+        shareDenyAcls = (String[])shareTokens[1].clone();
       }
       else
       {
@@ -1116,56 +1116,20 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
 
       if (forcedacls.length==0)
       {
-        aces = getFileSecurity(file, useSIDs);
+        ACE[] aces = getFileSecurity(file, useSIDs);
         if (aces == null)
         {
           if (Logging.connectors.isDebugEnabled())
             Logging.connectors.debug("JCIFS: Document has no ACL for '"+getFileCanonicalPath(file)+"'");
-
-          // Document is "public", meaning we want S-1-1-0 and the deny token
-          allowAcls = new String[]{"S-1-1-0"};
-          denyAcls = new String[]{defaultAuthorityDenyToken};
         }
         else
         {
           if (Logging.connectors.isDebugEnabled())
             Logging.connectors.debug("JCIFS: Found "+Integer.toString(aces.length)+" document access tokens for '"+getFileCanonicalPath(file)+"'");
-
-          // We are interested in the read permission, and take
-          // a keen interest in allow/deny
-          allowCount = 0;
-          denyCount = 0;
-          j = 0;
-          while (j < aces.length)
-          {
-            ACE ace = aces[j++];
-            if ((ace.getAccessMask() & ACE.FILE_READ_DATA) != 0)
-            {
-              if (ace.isAllow())
-                allowCount++;
-              else
-                denyCount++;
-            }
-          }
-
-          allowAcls = new String[allowCount];
-          denyAcls = new String[denyCount+1];
-          j = 0;
-          allowCount = 0;
-          denyCount = 0;
-          denyAcls[denyCount++] = defaultAuthorityDenyToken;
-          while (j < aces.length)
-          {
-            ACE ace = aces[j++];
-            if ((ace.getAccessMask() & ACE.FILE_READ_DATA) != 0)
-            {
-              if (ace.isAllow())
-                allowAcls[allowCount++] = useSIDs ? ace.getSID().toString() : ace.getSID().getAccountName();
-              else
-                denyAcls[denyCount++] = useSIDs ? ace.getSID().toString() : ace.getSID().getAccountName();
-            }
-          }
         }
+        String[][] tokens = convertAces(aces,useSIDs);
+        allowAcls = tokens[0];
+        denyAcls = tokens[1];
       }
       else
       {
@@ -1185,6 +1149,95 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
 
   }
 
+  /** Turn a file's or share's ACEs into the allow and deny tokens we index.
+  *@param aces are the ACEs, or null if there is no ACL.
+  *@param useSIDs is true if tokens should be SIDs rather than account names.
+  *@return the allow tokens and the deny tokens.
+  */
+  protected static String[][] convertAces(ACE[] aces, boolean useSIDs)
+  {
+    if (aces == null)
+    {
+      // "Public": S-1-1-0, and the deny token
+      return new String[][]{new String[]{"S-1-1-0"},new String[]{defaultAuthorityDenyToken}};
+    }
+
+    // We are interested in the read permission, and take
+    // a keen interest in allow/deny
+    int allowCount = 0;
+    int denyCount = 0;
+    int j = 0;
+    while (j < aces.length)
+    {
+      ACE ace = aces[j++];
+      if ((ace.getAccessMask() & ACE.FILE_READ_DATA) != 0)
+      {
+        if (ace.isAllow())
+          allowCount++;
+        else
+          denyCount++;
+      }
+    }
+
+    String[] allowAcls = new String[allowCount];
+    String[] denyAcls = new String[denyCount+1];
+    j = 0;
+    allowCount = 0;
+    denyCount = 0;
+    denyAcls[denyCount++] = defaultAuthorityDenyToken;
+    while (j < aces.length)
+    {
+      ACE ace = aces[j++];
+      if ((ace.getAccessMask() & ACE.FILE_READ_DATA) != 0)
+      {
+        if (ace.isAllow())
+          allowAcls[allowCount++] = useSIDs ? ace.getSID().toString() : ace.getSID().getAccountName();
+        else
+          denyAcls[denyCount++] = useSIDs ? ace.getSID().toString() : ace.getSID().getAccountName();
+      }
+    }
+    return new String[][]{allowAcls,denyAcls};
+  }
+
+  /** Record what a directory listing told us about the included files.  Only what the listing itself
+  * returned is kept; each file's own security is still fetched by getDocumentVersions(), when the file
+  * is actually versioned, so a large directory costs no more round trips here than the listing did.
+  */
+  protected void rememberListedFiles(ProcessDocumentsFilter filter)
+  {
+    List<String> paths = filter.getListedPaths();
+    List<SharedDriveInfoCache.FileInfo> infos = filter.getListedInfo();
+    int i = 0;
+    while (i < paths.size())
+    {
+      infoCache.putFileInfo(makeCacheKey(paths.get(i)),infos.get(i),infoCacheSize);
+      i++;
+    }
+  }
+
+  /** Build a cache key, which includes the identity of this connection, since that determines what
+  * can be seen.
+  */
+  protected String makeCacheKey(String name)
+  {
+    return ((domain==null)?"":domain)+";"+username+"@"+server+":"+(useSIDs?"S":"N")+":"+name;
+  }
+
+  /** Get the "smb://server/share/" name of the share a file is actually on, looking through DFS.
+  */
+  protected static String getShareName(SmbFile file)
+    throws SmbException
+  {
+    String path = file.getDfsPath();
+    if (path == null)
+      return "smb://"+file.getServer()+"/"+file.getShare()+"/";
+    int index = path.indexOf("/","smb://".length());
+    if (index != -1)
+      index = path.indexOf("/",index+1);
+    if (index == -1)
+      return path;
+    return path.substring(0,index+1);
+  }
 
   protected static void processSMBException(SmbException se, String documentIdentifier, String activity, String operation)
     throws ManifoldCFException, ServiceInterruption
@@ -1404,6 +1457,16 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
   */
   protected boolean checkInclude(SmbFile file, String fileName, DocumentSpecification documentSpecification, IFingerprintActivity activities)
     throws ManifoldCFException, ServiceInterruption
+  {
+    return checkInclude(file,null,fileName,documentSpecification,activities);
+  }
+
+  /** Check if a file or directory should be included, given a document specification.
+  *@param info is what was learned about the file when its directory was listed, or null.
+  */
+  protected boolean checkInclude(SmbFile file, SharedDriveInfoCache.FileInfo info, String fileName,
+    DocumentSpecification documentSpecification, IFingerprintActivity activities)
+    throws ManifoldCFException, ServiceInterruption
   {
     if (Logging.connectors.isDebugEnabled())
       Logging.connectors.debug("JCIFS: In checkInclude for '"+fileName+"'");
@@ -1416,7 +1479,7 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
     {
       String pathPart;
       String filePart;
-      boolean isDirectory = fileIsDirectory(file);
+      boolean isDirectory = (info != null)?info.isDirectory():fileIsDirectory(file);
       if (isDirectory)
       {
 
@@ -1443,7 +1506,7 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
       int i;
       if (!isDirectory)
       {
-        long fileLength = fileLength(file);
+        long fileLength = (info != null)?info.getLength():fileLength(file);
         if (!activities.checkLengthIndexable(fileLength) ||
           !activities.checkMimeTypeIndexable(mapExtensionToMimeType(fileName)))
           return false;
@@ -4761,12 +4824,28 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
     /** Exceptions that we saw.  These are saved here so that they can be rethrown when done */
     protected ManifoldCFException lcfException = null;
     protected ServiceInterruption serviceInterruption = null;
+    /** The included files' canonical paths, and what the listing said about them; null unless remembering */
+    protected List<String> listedPaths = null;
+    protected List<SharedDriveInfoCache.FileInfo> listedInfo = null;
 
     /** Constructor */
     public ProcessDocumentsFilter(IProcessActivity activities, DocumentSpecification spec)
+    {
+      this(activities,spec,false);
+    }
+
+    /** Constructor.
+    *@param rememberFiles is true if the included files and their attributes should be kept.
+    */
+    public ProcessDocumentsFilter(IProcessActivity activities, DocumentSpecification spec, boolean rememberFiles)
     {
       this.activities = activities;
       this.spec = spec;
+      if (rememberFiles)
+      {
+        listedPaths = new ArrayList<String>();
+        listedInfo = new ArrayList<SharedDriveInfoCache.FileInfo>();
+      }
     }
 
     /** Decide if we accept the file.  This is where we will actually do the work. */
@@ -4796,6 +4875,8 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
             if (Logging.connectors.isDebugEnabled())
               Logging.connectors.debug("JCIFS: Recorded path is '" + newPath + "' and is included.");
             activities.addDocumentReference(newPath);
+            if (listedPaths != null)
+              rememberFile(f,newPath);
           }
           else
           {
@@ -4823,6 +4904,34 @@ public class SharedDriveConnector extends org.apache.manifoldcf.crawler.connecto
       }
     }
 
+    /** Keep the attributes the listing returned for a file.  These are still fresh in the SmbFile
+    * object, so reading them costs no round trips.
+    */
+    protected void rememberFile(SmbFile f, String canonicalPath)
+    {
+      try
+      {
+        SharedDriveInfoCache.FileInfo info = new SharedDriveInfoCache.FileInfo(fileIsDirectory(f),
+          fileLastModified(f),fileLength(f),System.currentTimeMillis());
+        listedPaths.add(canonicalPath);
+        listedInfo.add(info);
+      }
+      catch (SmbException e)
+      {
+        // Leave this file for getDocumentVersions() to look at
+      }
+    }
+
+    public List<String> getListedPaths()
+    {
+      return listedPaths;
+    }
+
+    public List<SharedDriveInfoCache.FileInfo> getListedInfo()
+    {
+      return listedInfo;
+    }
+
     /** Check for exception, and throw if there is one */
     public void checkAndThrow()
       throws ServiceInterruption, ManifoldCFException
@@ -0,0 +1,158 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.connectors.sharedrive;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** This class holds what the shared drive connector learned about files while listing their directory,
+* so that it does not have to ask the server again when it works out the files' versions, and the
+* access tokens of each share it has seen.  Entries expire after a caller-supplied lifetime.
+* Keys are expected to include the identity of the connection, since what can be seen depends on it.
+*/
+public class SharedDriveInfoCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** File information, keyed by connection and canonical path, oldest first */
+  protected final LinkedHashMap<String,FileInfo> fileInfo = new LinkedHashMap<String,FileInfo>();
+  /** Share access tokens, keyed by connection and share */
+  protected final Map<String,ShareAcls> shareAcls = new HashMap<String,ShareAcls>();
+
+  /** Constructor */
+  public SharedDriveInfoCache()
+  {
+  }
+
+  /** Remember information about a file.
+  *@param key is the cache key.
+  *@param info is the information.
+  *@param maxEntries is the largest number of files to remember; the oldest are forgotten first.
+  */
+  public synchronized void putFileInfo(String key, FileInfo info, int maxEntries)
+  {
+    fileInfo.remove(key);
+    fileInfo.put(key,info);
+    Iterator<FileInfo> iter = fileInfo.values().iterator();
+    while (fileInfo.size() > maxEntries && iter.hasNext())
+    {
+      iter.next();
+      iter.remove();
+    }
+  }
+
+  /** Retrieve and forget information about a file.  Each file's version is only calculated once per
+  * crawl, so there is no point in keeping the information once it has been used.
+  *@param key is the cache key.
+  *@param lifetime is how long the information stays valid, in milliseconds.
+  *@param currentTime is the current time.
+  *@return the information, or null if there is none that is current.
+  */
+  public synchronized FileInfo takeFileInfo(String key, long lifetime, long currentTime)
+  {
+    FileInfo rval = fileInfo.remove(key);
+    if (rval == null || rval.getCreateTime() + lifetime < currentTime)
+      return null;
+    return rval;
+  }
+
+  /** Look up a share's access tokens.
+  *@param key is the cache key.
+  *@param lifetime is how long the tokens stay valid, in milliseconds.
+  *@param currentTime is the current time.
+  *@return the allow and deny tokens, or null if they are not known.
+  */
+  public synchronized String[][] getShareAcls(String key, long lifetime, long currentTime)
+  {
+    ShareAcls acls = shareAcls.get(key);
+    if (acls == null)
+      return null;
+    if (acls.createTime + lifetime < currentTime)
+    {
+      shareAcls.remove(key);
+      return null;
+    }
+    return acls.acls;
+  }
+
+  /** Remember a share's access tokens.
+  *@param key is the cache key.
+  *@param acls are the allow and deny tokens.
+  *@param currentTime is the current time.
+  */
+  public synchronized void putShareAcls(String key, String[][] acls, long currentTime)
+  {
+    shareAcls.put(key,new ShareAcls(acls,currentTime));
+  }
+
+  /** What is known about a file from listing its directory.
+  */
+  public static class FileInfo
+  {
+    protected final long createTime;
+    protected final boolean isDirectory;
+    protected final long lastModified;
+    protected final long length;
+
+    public FileInfo(boolean isDirectory, long lastModified, long length, long createTime)
+    {
+      this.isDirectory = isDirectory;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.createTime = createTime;
+    }
+
+    public long getCreateTime()
+    {
+      return createTime;
+    }
+
+    public boolean isDirectory()
+    {
+      return isDirectory;
+    }
+
+    public long getLastModified()
+    {
+      return lastModified;
+    }
+
+    public long getLength()
+    {
+      return length;
+    }
+  }
+
+  /** A share's access tokens, and when they were fetched.
+  */
+  protected static class ShareAcls
+  {
+    protected final String[][] acls;
+    protected final long createTime;
+
+    public ShareAcls(String[][] acls, long createTime)
+    {
+      this.acls = acls;
+      this.createTime = createTime;
+    }
+  }
+
+}
@@ -22,6 +22,8 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.database.*;
 import org.apache.manifoldcf.core.jdbcpool.*;
 import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
 
 import java.sql.*;
 import javax.naming.*;
@@ -29,6 +31,9 @@ import javax.sql.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /** This object describes a connection to a particular JDBC instance.
 */
@@ -43,9 +48,18 @@ public class JDBCConnection
   protected String userName = null;
   protected String password = null;
 
+  /** The number of rows the JDBC driver should fetch from the database at a time */
+  public static final String fetchSizeProperty = "org.apache.manifoldcf.crawler.connectors.jdbc.fetchsize";
+  /** The number of rows that may be read ahead of the connector */
+  public static final String rowQueueSizeProperty = "org.apache.manifoldcf.crawler.connectors.jdbc.rowqueuesize";
+
+  protected int fetchSize;
+  protected int rowQueueSize;
+
   /** Constructor.
   */
   public JDBCConnection(String jdbcProvider, boolean useName, String host, String databaseName, String userName, String password)
+    throws ManifoldCFException
   {
     this.jdbcProvider = jdbcProvider;
     this.useName = useName;
@@ -53,17 +67,122 @@ public class JDBCConnection
     this.databaseName = databaseName;
     this.userName = userName;
     this.password = password;
+    this.fetchSize = ManifoldCF.getIntProperty(fetchSizeProperty,1000);
+    this.rowQueueSize = ManifoldCF.getIntProperty(rowQueueSizeProperty,100);
   }
 
-  protected static IResultRow readNextResultRowViaThread(ResultSet rs, ResultSetMetaData rsmd, String[] resultCols)
-    throws ManifoldCFException, ServiceInterruption
+  /** Thread that reads all the rows of a result set, in order, into a bounded queue.  One of these
+  * is used for the life of each result set, so the driver can fetch rows in batches, and the caller
+  * can still be interrupted while the driver is blocked.
+  */
+  protected static class ResultRowReaderThread extends Thread
   {
-    NextResultRowThread t = new NextResultRowThread(rs,rsmd,resultCols);
-    try
+    /** Queued after the last row */
+    protected static final Object END_OF_ROWS = new Object();
+    /** How long to wait for the reader to stop, before cancelling the statement, and again before abandoning it */
+    protected static final long STOP_WAIT_TIME = 10000L;
+    /** How long a blocked reader waits for queue room before checking whether it should stop */
+    protected static final long PUT_WAIT_TIME = 1000L;
+
+    protected final ResultSet rs;
+    protected final ResultSetMetaData rsmd;
+    protected final String[] resultCols;
+    protected final BlockingQueue<Object> rowQueue;
+
+    protected volatile boolean stopRequested = false;
+    protected volatile Throwable exception = null;
+    protected boolean endSeen = false;
+
+    public ResultRowReaderThread(ResultSet rs, ResultSetMetaData rsmd, String[] resultCols, int queueSize)
     {
-      t.start();
-      t.join();
-      Throwable thr = t.getException();
+      super();
+      setDaemon(true);
+      setName("JDBC result reader");
+      this.rs = rs;
+      this.rsmd = rsmd;
+      this.resultCols = resultCols;
+      // Room for at least one row plus the end marker, so a stopped reader can never block
+      this.rowQueue = new ArrayBlockingQueue<Object>(Math.max(queueSize,2));
+    }
+
+    public void run()
+    {
+      try
+      {
+        while (!stopRequested)
+        {
+          IResultRow row = readNextResultRow(rs,rsmd,resultCols);
+          if (row == null)
+            break;
+          if (!queue(row))
+          {
+            discardRow(row);
+            return;
+          }
+        }
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      catch (Throwable e)
+      {
+        this.exception = e;
+      }
+      try
+      {
+        queue(END_OF_ROWS);
+      }
+      catch (InterruptedException e)
+      {
+      }
+      catch (ManifoldCFException e)
+      {
+      }
+    }
+
+    /** Put a row on the queue, waiting for room, unless the reader is asked to stop.
+    *@return false if the reader was asked to stop before the row could be queued.
+    */
+    protected boolean queue(Object o)
+      throws InterruptedException, ManifoldCFException
+    {
+      while (!stopRequested)
+      {
+        if (rowQueue.offer(o,PUT_WAIT_TIME,TimeUnit.MILLISECONDS))
+        {
+          // If we were stopped meanwhile, nobody will take this row, so clean up after ourselves
+          if (stopRequested)
+            discardRows();
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Get the next row.
+    *@return the row, or null if there are no more rows.
+    */
+    public IResultRow getNextRow()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      if (endSeen)
+        return null;
+      Object o;
+      try
+      {
+        o = rowQueue.take();
+      }
+      catch (InterruptedException e)
+      {
+        stopRequested = true;
+        interrupt();
+        throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      }
+      if (o != END_OF_ROWS)
+        return (IResultRow)o;
+      endSeen = true;
+      Throwable thr = exception;
       if (thr != null)
       {
         if (thr instanceof java.sql.SQLException)
@@ -77,53 +196,90 @@ public class JDBCConnection
         else
           throw (Error)thr;
       }
-      return t.getResponse();
-    }
-    catch (InterruptedException e)
-    {
-      t.interrupt();
-      throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      return null;
     }
-  }
-
-  protected static class NextResultRowThread extends Thread
-  {
-    protected ResultSet rs;
-    protected ResultSetMetaData rsmd;
-    protected String[] resultCols;
-
-    protected Throwable exception = null;
-    protected IResultRow response = null;
 
-    public NextResultRowThread(ResultSet rs, ResultSetMetaData rsmd, String[] resultCols)
+    /** Stop reading, wait for the reader to let go of the result set, and discard any rows that
+    * were read but never asked for.  Must be called before the result set is closed.  The reader
+    * may be blocked inside the driver, so the wait is bounded: if the reader does not stop in time,
+    * the statement is cancelled, and if that does not free it either, the reader is abandoned and
+    * the caller goes on to close the result set underneath it.
+    *@param stmt is the statement the result set belongs to.
+    */
+    public void finish(Statement stmt)
+      throws ManifoldCFException
     {
-      super();
-      setDaemon(true);
-      this.rs = rs;
-      this.rsmd = rsmd;
-      this.resultCols = resultCols;
+      stopRequested = true;
+      discardRows();
+      try
+      {
+        join(STOP_WAIT_TIME);
+        if (isAlive())
+        {
+          cancelStatement(stmt);
+          interrupt();
+          join(STOP_WAIT_TIME);
+          if (isAlive())
+            Logging.connectors.warn("JDBC: Result reader did not stop; abandoning it");
+        }
+      }
+      catch (InterruptedException e)
+      {
+        cancelStatement(stmt);
+        interrupt();
+        throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      }
+      finally
+      {
+        discardRows();
+      }
     }
 
-    public void run()
+    /** Ask the driver to abandon the statement a reader is blocked on.
+    */
+    protected static void cancelStatement(Statement stmt)
     {
       try
       {
-        response = readNextResultRow(rs,rsmd,resultCols);
+        stmt.cancel();
       }
-      catch (Throwable e)
+      catch (java.sql.SQLException e)
       {
-        this.exception = e;
+        Logging.connectors.debug("JDBC: Could not cancel statement: "+e.getMessage(),e);
+      }
+      catch (RuntimeException e)
+      {
+        // Some drivers do not support cancel
+        Logging.connectors.debug("JDBC: Could not cancel statement: "+e.getMessage(),e);
       }
     }
 
-    public Throwable getException()
+    /** Throw away queued rows, releasing any temporary files they hold.
+    */
+    protected void discardRows()
+      throws ManifoldCFException
     {
-      return exception;
+      List<Object> rows = new ArrayList<Object>();
+      rowQueue.drainTo(rows);
+      for (Object o : rows)
+      {
+        if (o != END_OF_ROWS)
+          discardRow((IResultRow)o);
+      }
     }
 
-    public IResultRow getResponse()
+    /** Release any temporary files a row holds.
+    */
+    protected static void discardRow(IResultRow row)
+      throws ManifoldCFException
     {
-      return response;
+      Iterator<String> iter = row.getColumns();
+      while (iter.hasNext())
+      {
+        Object value = row.getValue(iter.next());
+        if (value instanceof BinaryInput)
+          ((BinaryInput)value).discard();
+      }
     }
   }
 
@@ -803,6 +959,7 @@ public class JDBCConnection
     protected ResultSetMetaData rsmd;
     protected String[] resultCols;
     protected int maxResults;
+    protected ResultRowReaderThread reader = null;
 
     /** Constructor */
     public JDBCResultSet(String query, int maxResults)
@@ -849,7 +1006,12 @@ public class JDBCConnection
     {
       if (maxResults == -1 || maxResults > 0)
       {
-        IResultRow row = readNextResultRowViaThread(rs,rsmd,resultCols);
+        if (reader == null)
+        {
+          reader = new ResultRowReaderThread(rs,rsmd,resultCols,rowQueueSize);
+          reader.start();
+        }
+        IResultRow row = reader.getNextRow();
         if (row != null && maxResults != -1)
           maxResults--;
         return row;
@@ -865,6 +1027,30 @@ public class JDBCConnection
       ManifoldCFException rval = null;
       Error error = null;
       RuntimeException rtException = null;
+      if (reader != null)
+      {
+        try
+        {
+          reader.finish(stmt);
+        }
+        catch (ManifoldCFException e)
+        {
+          if (rval == null || e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+            rval = e;
+        }
+        catch (Error e)
+        {
+          error = e;
+        }
+        catch (RuntimeException e)
+        {
+          rtException = e;
+        }
+        finally
+        {
+          reader = null;
+        }
+      }
       if (rs != null)
       {
         try
@@ -967,6 +1153,8 @@ public class JDBCConnection
         connection = JDBCConnectionFactory.getConnection(jdbcProvider,host,databaseName,userName,password);
         // lightest statement type
         stmt = connection.getConnection().createStatement();
+        if (fetchSize > 0)
+          stmt.setFetchSize(fetchSize);
         stmt.execute(query);
         rs = stmt.getResultSet();
         rsmd = rs.getMetaData();
@@ -1066,6 +1254,7 @@ public class JDBCConnection
     protected ResultSetMetaData rsmd;
     protected String[] resultCols;
     protected int maxResults;
+    protected ResultRowReaderThread reader = null;
     protected ArrayList params;
 
     /** Constructor */
@@ -1117,7 +1306,12 @@ public class JDBCConnection
     {
       if (maxResults == -1 || maxResults > 0)
       {
-        IResultRow row = readNextResultRowViaThread(rs,rsmd,resultCols);
+        if (reader == null)
+        {
+          reader = new ResultRowReaderThread(rs,rsmd,resultCols,rowQueueSize);
+          reader.start();
+        }
+        IResultRow row = reader.getNextRow();
         if (row != null && maxResults != -1)
           maxResults--;
         return row;
@@ -1133,6 +1327,30 @@ public class JDBCConnection
       ManifoldCFException rval = null;
       Error error = null;
       RuntimeException rtException = null;
+      if (reader != null)
+      {
+        try
+        {
+          reader.finish(ps);
+        }
+        catch (ManifoldCFException e)
+        {
+          if (rval == null || e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+            rval = e;
+        }
+        catch (Error e)
+        {
+          error = e;
+        }
+        catch (RuntimeException e)
+        {
+          rtException = e;
+        }
+        finally
+        {
+          reader = null;
+        }
+      }
       if (rs != null)
       {
         try
@@ -1267,6 +1485,8 @@ public class JDBCConnection
       {
         connection = JDBCConnectionFactory.getConnection(jdbcProvider,host,databaseName,userName,password);
         ps = connection.getConnection().prepareStatement(query);
+        if (fetchSize > 0)
+          ps.setFetchSize(fetchSize);
         loadPS(ps, params);
         rs = ps.executeQuery();
         rsmd = rs.getMetaData();
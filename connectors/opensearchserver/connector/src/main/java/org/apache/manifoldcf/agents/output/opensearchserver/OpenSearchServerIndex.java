@@ -52,7 +52,7 @@ public class OpenSearchServerIndex extends OpenSearchServerConnection {
 
     @Override
     public boolean isChunked() {
-      return false;
+      return true;
     }
     
     @Override
@@ -68,7 +68,7 @@ public class OpenSearchServerIndex extends OpenSearchServerConnection {
 
     @Override
     public boolean isStreaming() {
-      return false;
+      return true;
     }
     
     @Override
@@ -90,8 +90,10 @@ public class OpenSearchServerIndex extends OpenSearchServerConnection {
         pw.print("<binary fileName=\"");
         pw.print(fileName);
         pw.println("\">");
+        // Encode the content straight onto the wire, a chunk at a time
+        pw.flush();
         Base64 base64 = new Base64();
-        base64.encodeStream(inputStream, pw);
+        base64.encodeStream(inputStream, out);
         pw.println("</binary></document>");
         pw.println("</index>");
       } catch (ManifoldCFException e) {
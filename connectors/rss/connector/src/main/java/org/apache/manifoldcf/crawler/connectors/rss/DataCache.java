@@ -190,6 +190,23 @@ public class DataCache
     return f.getData().length();
   }
 
+  /** Fetch binary data entry from the cache as a content handle.  The handle refers to the cached file
+  * directly, so the content can be transferred or replayed without another copy.
+  *@param documentIdentifier is the document identifier (url).
+  *@return the handle, or null if there is no such entry.
+  */
+  public ContentHandle getContent(String documentIdentifier)
+  {
+    DocumentData f;
+    synchronized (this)
+    {
+      f = cacheData.get(documentIdentifier);
+    }
+    if (f == null)
+      return null;
+    return new FileContentHandle(f.getData());
+  }
+
   /** Fetch binary data entry from the cache.
   *@param documentIdentifier is the document identifier (url).
   *@return a binary data stream.
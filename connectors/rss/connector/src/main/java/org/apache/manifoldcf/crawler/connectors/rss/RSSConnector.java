@@ -1457,19 +1457,19 @@ public class RSSConnector extends org.apache.manifoldcf.crawler.connectors.BaseR
             if (minimumOrigTime != null)
               activities.setDocumentOriginationTime(urlValue,minimumOrigTime);
 
-            InputStream is = cache.getData(urlValue);
-            if (is != null)
+            ContentHandle content = cache.getContent(urlValue);
+            if (content != null)
             {
               try
               {
-                rd.setBinary(is,dataSize);
+                rd.setBinary(content);
                 activities.ingestDocument(urlValue,version,ingestURL,rd);
               }
               finally
               {
                 try
                 {
-                  is.close();
+                  content.close();
                 }
                 catch (java.net.SocketTimeoutException e)
                 {
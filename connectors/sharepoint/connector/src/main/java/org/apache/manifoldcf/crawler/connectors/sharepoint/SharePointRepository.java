@@ -1591,11 +1591,11 @@ public class SharePointRepository extends org.apache.manifoldcf.crawler.connecto
                   long documentLength = tempFile.length();
                   if (activities.checkLengthIndexable(documentLength))
                   {
-                    InputStream is = new FileInputStream(tempFile);
+                    ContentHandle content = new FileContentHandle(tempFile,documentLength);
                     try
                     {
                       RepositoryDocument data = new RepositoryDocument();
-                      data.setBinary( is, documentLength );
+                      data.setBinary( content );
 
                       data.setFileName(mapToFileName(documentIdentifier));
                       
@@ -1662,7 +1662,7 @@ public class SharePointRepository extends org.apache.manifoldcf.crawler.connecto
                     {
                       try
                       {
-                        is.close();
+                        content.close();
                       }
                       catch (java.net.SocketTimeoutException e)
                       {
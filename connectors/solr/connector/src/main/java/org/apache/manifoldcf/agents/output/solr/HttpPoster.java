@@ -95,6 +95,8 @@ public class HttpPoster
   // Solrj connection-associated objects
   protected ClientConnectionManager connectionManager = null;
   protected SolrServer solrServer = null;
+  // Shared pool that runs the requests
+  protected SolrRequestExecutor executor = null;
   
   // Action URI pieces
   private String postUpdateAction;
@@ -134,7 +136,7 @@ public class HttpPoster
     String modifiedDateAttributeName, String createdDateAttributeName,
     String fileNameAttributeName, String mimeTypeAttributeName,
     Long maxDocumentLength,
-    String commitWithin)
+    String commitWithin, int maxInFlight)
     throws ManifoldCFException
   {
     // These are the paths to the handlers in Solr that deal with the actions we need to do
@@ -162,6 +164,7 @@ public class HttpPoster
       cloudSolrServer.setDefaultCollection(collection);
       // Set the solrj instance we want to use
       solrServer = cloudSolrServer;
+      executor = SolrRequestExecutor.acquire("zookeeper:"+zookeeperHosts+"/"+collection,maxInFlight);
     }
     catch (MalformedURLException e)
     {
@@ -179,7 +182,7 @@ public class HttpPoster
     String modifiedDateAttributeName, String createdDateAttributeName,
     String fileNameAttributeName, String mimeTypeAttributeName,
     IKeystoreManager keystoreManager, Long maxDocumentLength,
-    String commitWithin)
+    String commitWithin, int maxInFlight)
     throws ManifoldCFException
   {
     // These are the paths to the handlers in Solr that deal with the actions we need to do
@@ -212,7 +215,9 @@ public class HttpPoster
     // Initialize standard solr-j.
     // First, we need an HttpClient where basic auth is properly set up.
     PoolingClientConnectionManager localConnectionManager = new PoolingClientConnectionManager();
-    localConnectionManager.setMaxTotal(1);
+    // One connection for each request that may be in flight
+    localConnectionManager.setMaxTotal(maxInFlight);
+    localConnectionManager.setDefaultMaxPerRoute(maxInFlight);
     SSLSocketFactory myFactory;
     if (keystoreManager != null)
     {
@@ -269,6 +274,7 @@ public class HttpPoster
     HttpSolrServer httpSolrServer = new ModifiedHttpSolrServer(httpSolrServerUrl, localClient, new XMLResponseParser());
     // Set the solrj instance we want to use
     solrServer = httpSolrServer;
+    executor = SolrRequestExecutor.acquire(httpSolrServerUrl,maxInFlight);
   }
 
   /** Shut down the poster.
@@ -281,6 +287,9 @@ public class HttpPoster
     if (connectionManager != null)
       connectionManager.shutdown();
     connectionManager = null;
+    if (executor != null)
+      executor.release();
+    executor = null;
   }
   
   /** Cause a commit to happen.
@@ -297,8 +306,7 @@ public class HttpPoster
       CommitThread t = new CommitThread();
       try
       {
-        t.start();
-        t.join();
+        executor.run(t);
 
         Throwable thr = t.getException();
         if (thr != null)
@@ -316,7 +324,6 @@ public class HttpPoster
       }
       catch (InterruptedException e)
       {
-        t.interrupt();
         throw new ManifoldCFException("Interrupted: "+e.getMessage(),ManifoldCFException.INTERRUPTED);
       }
     }
@@ -495,13 +502,100 @@ public class HttpPoster
     if (Logging.ingest.isDebugEnabled())
       Logging.ingest.debug("indexPost(): '" + documentURI + "'");
 
+    IngestThread t = prepareIndexPost(documentURI,document,arguments,sourceTargets,authorityNameString,activities);
+    if (t == null)
+      return false;
+    try
+    {
+      executor.run(t);
+    }
+    catch (InterruptedException e)
+    {
+      throw new ManifoldCFException("Interrupted: "+e.getMessage(),ManifoldCFException.INTERRUPTED);
+    }
+    recordIndexActivity(t,activities);
+    return completeIndexPost(t);
+  }
+
+  /**
+  * Post several documents to ingest at once.  The posts are made concurrently, up to the in-flight limit.
+  * All posts are allowed to complete before any error is reported, so every document's activity is logged.
+  * @param documentURIs are the documents' uris.
+  * @param documents are the document structures to ingest.
+  * @param arguments are the configuration arguments to pass in each post.
+  * @param sourceTargets are the source/target field mappings for each post.
+  * @param authorityNameStrings are the names of the governing authorities for each document's acls.
+  * @param activities is the activities object, so we can report what's happening.
+  * @return true for each ingestion that was successful, or false for each that is illegal.
+  */
+  public boolean[] indexPost(String[] documentURIs,
+    RepositoryDocument[] documents, Map[] arguments, Map[] sourceTargets,
+    String[] authorityNameStrings, IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    if (Logging.ingest.isDebugEnabled())
+      Logging.ingest.debug("indexPost(): "+Integer.toString(documentURIs.length)+" documents");
+
+    IngestThread[] threads = new IngestThread[documentURIs.length];
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i] = prepareIndexPost(documentURIs[i],documents[i],arguments[i],sourceTargets[i],authorityNameStrings[i],activities);
+    }
+
+    SolrRequestExecutor.Request[] requests = new SolrRequestExecutor.Request[threads.length];
+    try
+    {
+      for (int i = 0; i < threads.length; i++)
+      {
+        if (threads[i] != null)
+          requests[i] = executor.submit(threads[i]);
+      }
+      for (int i = 0; i < requests.length; i++)
+      {
+        if (requests[i] != null)
+          requests[i].waitFor();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      for (int i = 0; i < requests.length; i++)
+      {
+        if (requests[i] != null)
+          requests[i].abandon();
+      }
+      throw new ManifoldCFException("Interrupted: "+e.getMessage(),ManifoldCFException.INTERRUPTED);
+    }
+
+    // Log the activity, if any, regardless of any exception
+    for (int i = 0; i < threads.length; i++)
+    {
+      if (threads[i] != null)
+        recordIndexActivity(threads[i],activities);
+    }
+
+    boolean[] rval = new boolean[threads.length];
+    for (int i = 0; i < threads.length; i++)
+    {
+      rval[i] = (threads[i] != null) && completeIndexPost(threads[i]);
+    }
+    return rval;
+  }
+
+  /** Set up an ingestion, without starting it.
+  * @return the ingestion task, or null if the document cannot be ingested.
+  */
+  protected IngestThread prepareIndexPost(String documentURI,
+    RepositoryDocument document, Map arguments, Map sourceTargets,
+    String authorityNameString, IOutputAddActivity activities)
+    throws ManifoldCFException
+  {
     // The SOLR connector cannot deal with folder-level security at this time.  If they are seen, reject the document.
     if (document.countDirectoryACLs() != 0)
-      return false;
+      return null;
     
     // If the document is too long, reject it.
     if (maxDocumentLength != null && document.getBinaryLength() > maxDocumentLength.longValue())
-      return false;
+      return null;
     
     // Convert the incoming acls to qualified forms
     String[] shareAcls = convertACL(document.getShareACL(),authorityNameString,activities);
@@ -509,37 +603,39 @@ public class HttpPoster
     String[] acls = convertACL(document.getACL(),authorityNameString,activities);
     String[] denyAcls = convertACL(document.getDenyACL(),authorityNameString,activities);
     
-    try
-    {
-      IngestThread t = new IngestThread(documentURI,document,arguments,sourceTargets,shareAcls,shareDenyAcls,acls,denyAcls,commitWithin);
-      try
-      {
-        t.start();
-        t.join();
+    return new IngestThread(documentURI,document,arguments,sourceTargets,shareAcls,shareDenyAcls,acls,denyAcls,commitWithin);
+  }
 
-        // Log the activity, if any, regardless of any exception
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.INGEST_ACTIVITY,t.getActivityBytes(),documentURI,t.getActivityCode(),t.getActivityDetails());
+  /** Log the activity of a finished ingestion, if any.
+  */
+  protected static void recordIndexActivity(IngestThread t, IOutputAddActivity activities)
+    throws ManifoldCFException
+  {
+    if (t.getActivityCode() != null)
+      activities.recordActivity(t.getActivityStart(),SolrConnector.INGEST_ACTIVITY,t.getActivityBytes(),t.getDocumentURI(),t.getActivityCode(),t.getActivityDetails());
+  }
 
-        Throwable thr = t.getException();
-        if (thr != null)
-        {
-          if (thr instanceof SolrServerException)
-            throw (SolrServerException)thr;
-          if (thr instanceof IOException)
-            throw (IOException)thr;
-          if (thr instanceof RuntimeException)
-            throw (RuntimeException)thr;
-          else
-            throw (Error)thr;
-        }
-        return t.getRval();
-      }
-      catch (InterruptedException e)
+  /** Interpret the outcome of a finished ingestion.
+  * @return true if the ingestion was successful, or false if the ingestion is illegal.
+  */
+  protected static boolean completeIndexPost(IngestThread t)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    try
+    {
+      Throwable thr = t.getException();
+      if (thr != null)
       {
-        t.interrupt();
-        throw new ManifoldCFException("Interrupted: "+e.getMessage(),ManifoldCFException.INTERRUPTED);
+        if (thr instanceof SolrServerException)
+          throw (SolrServerException)thr;
+        if (thr instanceof IOException)
+          throw (IOException)thr;
+        if (thr instanceof RuntimeException)
+          throw (RuntimeException)thr;
+        else
+          throw (Error)thr;
       }
+      return t.getRval();
     }
     catch (SolrServerException e)
     {
@@ -573,8 +669,7 @@ public class HttpPoster
       StatusThread t = new StatusThread();
       try
       {
-        t.start();
-        t.join();
+        executor.run(t);
 
         Throwable thr = t.getException();
         if (thr != null)
@@ -592,7 +687,6 @@ public class HttpPoster
       }
       catch (InterruptedException e)
       {
-        t.interrupt();
         throw new ManifoldCFException("Interrupted: "+e.getMessage(),ManifoldCFException.INTERRUPTED);
       }
     }
@@ -619,21 +713,39 @@ public class HttpPoster
   */
   public void deletePost(String documentURI, IOutputRemoveActivity activities)
     throws ManifoldCFException, ServiceInterruption
+  {
+    deletePost(new String[]{documentURI},activities);
+  }
+
+  /** Post a delete request for several documents.  The documents are removed with a single request.
+  *@param documentURIs are the documents' URIs.
+  */
+  public void deletePost(String[] documentURIs, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
   {
     if (Logging.ingest.isDebugEnabled())
-      Logging.ingest.debug("deletePost(): '" + documentURI + "'");
+    {
+      for (String documentURI : documentURIs)
+      {
+        Logging.ingest.debug("deletePost(): '" + documentURI + "'");
+      }
+    }
 
     try
     {
-      DeleteThread t = new DeleteThread(documentURI);
+      DeleteThread t = new DeleteThread(documentURIs);
       try
       {
-        t.start();
-        t.join();
+        executor.run(t);
 
         // Log the activity, if any, regardless of any exception
         if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        {
+          for (String documentURI : documentURIs)
+          {
+            activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+          }
+        }
 
         Throwable thr = t.getException();
         if (thr != null)
@@ -651,7 +763,6 @@ public class HttpPoster
       }
       catch (InterruptedException e)
       {
-        t.interrupt();
         throw new ManifoldCFException("Interrupted: "+e.getMessage(),ManifoldCFException.INTERRUPTED);
       }
     }
@@ -753,13 +864,13 @@ public class HttpPoster
     }
   }
   
-  /** Killable thread that does ingestions.
+  /** Killable task that does ingestions.
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
-  * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
+  * such waits.  So, the places where this happens are run on the request executor's threads so that they can be just abandoned.
   *
-  * This thread does a single document ingestion.
+  * This task does a single document ingestion.
   */
-  protected class IngestThread extends java.lang.Thread
+  protected class IngestThread implements Runnable
   {
     protected String documentURI;
     protected RepositoryDocument document;
@@ -783,8 +894,6 @@ public class HttpPoster
       Map<String,List<String>> arguments, Map<String,String> sourceTargets,
       String[] shareAcls, String[] shareDenyAcls, String[] acls, String[] denyAcls, String commitWithin)
     {
-      super();
-      setDaemon(true);
       this.documentURI = documentURI;
       this.document = document;
       this.arguments = arguments;
@@ -799,7 +908,7 @@ public class HttpPoster
     public void run()
     {
       long length = document.getBinaryLength();
-      InputStream is = document.getBinaryStream();
+      ContentHandle content = document.getBinaryContent();
       String contentType = document.getMimeType();
       String contentName = document.getFileName();
 
@@ -887,7 +996,8 @@ public class HttpPoster
 
           contentStreamUpdateRequest.setParams(out);
           
-          contentStreamUpdateRequest.addContentStream(new RepositoryDocumentStream(is,length,contentType,contentName));
+          RepositoryDocumentStream documentStream = new RepositoryDocumentStream(content,length,contentType,contentName);
+          contentStreamUpdateRequest.addContentStream(documentStream);
 
           // Fire off the request.
           // Note: I need to know whether the document has been permanently rejected or not, but we currently have
@@ -939,6 +1049,10 @@ public class HttpPoster
             // Rethrow; we'll interpret at the next level
             throw e;
           }
+          finally
+          {
+            documentStream.close();
+          }
         }
         catch (IOException ioe)
         {
@@ -961,6 +1075,11 @@ public class HttpPoster
       }
     }
 
+    public String getDocumentURI()
+    {
+      return documentURI;
+    }
+
     public Throwable getException()
     {
       return exception;
@@ -997,26 +1116,24 @@ public class HttpPoster
     }
   }
 
-  /** Killable thread that does deletions.
+  /** Killable task that does deletions.
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
-  * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
+  * such waits.  So, the places where this happens are run on the request executor's threads so that they can be just abandoned.
   *
-  * This thread does a single document deletion.
+  * This task deletes one or more documents in a single request.
   */
-  protected class DeleteThread extends java.lang.Thread
+  protected class DeleteThread implements Runnable
   {
-    protected String documentURI;
+    protected String[] documentURIs;
 
     protected Long activityStart = null;
     protected String activityCode = null;
     protected String activityDetails = null;
     protected Throwable exception = null;
 
-    public DeleteThread(String documentURI)
+    public DeleteThread(String[] documentURIs)
     {
-      super();
-      setDaemon(true);
-      this.documentURI = documentURI;
+      this.documentURIs = documentURIs;
     }
 
     public void run()
@@ -1028,7 +1145,7 @@ public class HttpPoster
         // Open a socket to ingest, and to the response stream to get the post result
         try
         {
-          UpdateResponse response = new UpdateRequest(postRemoveAction).deleteById(documentURI).process(solrServer);
+          UpdateResponse response = new UpdateRequest(postRemoveAction).deleteById(Arrays.asList(documentURIs)).process(solrServer);
             
           // Success
           activityStart = new Long(fullStartTime);
@@ -1097,20 +1214,18 @@ public class HttpPoster
     }
   }
   
-  /** Killable thread that does a commit.
+  /** Killable task that does a commit.
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
-  * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
+  * such waits.  So, the places where this happens are run on the request executor's threads so that they can be just abandoned.
   *
-  * This thread does a commit.
+  * This task does a commit.
   */
-  protected class CommitThread extends java.lang.Thread
+  protected class CommitThread implements Runnable
   {
     protected Throwable exception = null;
 
     public CommitThread()
     {
-      super();
-      setDaemon(true);
     }
 
     public void run()
@@ -1148,20 +1263,18 @@ public class HttpPoster
   }
 
 
-  /** Killable thread that does a status check.
+  /** Killable task that does a status check.
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
-  * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
+  * such waits.  So, the places where this happens are run on the request executor's threads so that they can be just abandoned.
   *
-  * This thread does a status check.
+  * This task does a status check.
   */
-  protected class StatusThread extends java.lang.Thread
+  protected class StatusThread implements Runnable
   {
     protected Throwable exception = null;
 
     public StatusThread()
     {
-      super();
-      setDaemon(true);
     }
 
     public void run()
@@ -1201,14 +1314,15 @@ public class HttpPoster
   */
   protected static class RepositoryDocumentStream extends ContentStreamBase
   {
-    protected final InputStream is;
+    protected final ContentHandle content;
     protected final long length;
     protected final String contentType;
     protected final String contentName;
+    protected final List<InputStream> openedStreams = new ArrayList<InputStream>();
     
-    public RepositoryDocumentStream(InputStream is, long length, String contentType, String contentName)
+    public RepositoryDocumentStream(ContentHandle content, long length, String contentType, String contentName)
     {
-      this.is = is;
+      this.content = content;
       this.length = length;
       this.contentType = contentType;
       this.contentName = contentName;
@@ -1223,7 +1337,35 @@ public class HttpPoster
     @Override
     public InputStream getStream() throws IOException
     {
-      return is;
+      if (content == null)
+        return new ByteArrayInputStream(new byte[0]);
+      // Replayable content gets a fresh stream each time, so that a retried request resends the
+      // whole document, and the connector's own stream is left alone
+      if (content.isReplayable())
+      {
+        InputStream is = content.openStream();
+        openedStreams.add(is);
+        return is;
+      }
+      return content.getStream();
+    }
+
+    /** Close any streams this object opened.
+    */
+    public void close()
+    {
+      for (InputStream is : openedStreams)
+      {
+        try
+        {
+          is.close();
+        }
+        catch (IOException e)
+        {
+          // Nothing more we can do
+        }
+      }
+      openedStreams.clear();
     }
     
     @Override
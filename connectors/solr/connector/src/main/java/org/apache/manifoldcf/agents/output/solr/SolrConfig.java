@@ -105,6 +105,10 @@ public class SolrConfig
   public static final String PARAM_KEYSTORE = "Keystore";
   /** Maximum document length */
   public static final String PARAM_MAXLENGTH = "Maximum document length";
+  /** Maximum number of requests in flight at once */
+  public static final String PARAM_MAXINFLIGHT = "Maximum in-flight requests";
+  /** Default number of requests in flight at once */
+  public static final int MAXINFLIGHT_DEFAULT = 10;
   /** Included mime types */
   public static final String PARAM_INCLUDEDMIMETYPES = "Included mime types";
   /** Excluded mime types */
@@ -219,6 +219,8 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
       }
       
 
+      int maxInFlight = getMaxInFlight();
+
       // Now, initialize Solr-j
       String solrType = params.getParameter(SolrConfig.PARAM_SOLR_TYPE);
       if (solrType == null)
@@ -275,7 +277,7 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
             allowAttributeName,denyAttributeName,idAttributeName,
             modifiedDateAttributeName,createdDateAttributeName,
             fileNameAttributeName,mimeTypeAttributeName,
-            keystoreManager,maxDocumentLength,commitWithin);
+            keystoreManager,maxDocumentLength,commitWithin,maxInFlight);
           
         }
         catch (NumberFormatException e)
@@ -330,7 +332,7 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
             allowAttributeName,denyAttributeName,idAttributeName,
             modifiedDateAttributeName,createdDateAttributeName,
             fileNameAttributeName,mimeTypeAttributeName,
-            maxDocumentLength,commitWithin);
+            maxDocumentLength,commitWithin,maxInFlight);
           
         }
         catch (NumberFormatException e)
@@ -346,6 +348,27 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     expirationTime = System.currentTimeMillis() + EXPIRATION_INTERVAL;
   }
 
+  /** Get the maximum number of requests this connection may have in flight at once.
+  */
+  protected int getMaxInFlight()
+    throws ManifoldCFException
+  {
+    String maxInFlight = params.getParameter(SolrConfig.PARAM_MAXINFLIGHT);
+    if (maxInFlight == null || maxInFlight.length() == 0)
+      return SolrConfig.MAXINFLIGHT_DEFAULT;
+    try
+    {
+      int rval = Integer.parseInt(maxInFlight);
+      if (rval < 1)
+        throw new ManifoldCFException("Parameter '"+SolrConfig.PARAM_MAXINFLIGHT+"' must be at least 1");
+      return rval;
+    }
+    catch (NumberFormatException e)
+    {
+      throw new ManifoldCFException(e.getMessage());
+    }
+  }
+
   /** Parse a mime type field into individual mime types in a hash */
   protected static Map<String,String> parseMimeTypes(String mimeTypes)
     throws ManifoldCFException
@@ -598,6 +621,68 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     // Build the argument map we'll send.
     Map args = new HashMap();
     Map sourceTargets = new HashMap();
+    unpackOutputDescription(outputDescription,args,sourceTargets);
+
+    // Establish a session
+    getSession();
+
+    // Now, go off and call the ingest API.
+    if (poster.indexPost(documentURI,document,args,sourceTargets,authorityNameString,activities))
+      return DOCUMENTSTATUS_ACCEPTED;
+    return DOCUMENTSTATUS_REJECTED;
+  }
+
+  /** Get the maximum number of documents this connector can usefully accept in a single call to addOrReplaceDocuments()
+  * or removeDocuments().  Documents in a batch are posted concurrently, so this is the number of requests the
+  * connection may have in flight.
+  *@return the maximum batch size.
+  */
+  @Override
+  public int getMaxDocumentBatchSize()
+    throws ManifoldCFException
+  {
+    return getMaxInFlight();
+  }
+
+  /** Add (or replace) multiple documents in the output data store using the connector.
+  * The documents are posted to Solr concurrently.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the description strings that were constructed for each document by the getOutputDescription() method.
+  *@param documents are the documents to be processed (handed to the output data store).
+  *@param authorityNameStrings are the names of the authorities responsible for authorizing any access tokens passed in with each repository document.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  *@return the document status (accepted or permanently rejected) for each document.
+  */
+  @Override
+  public int[] addOrReplaceDocuments(String[] documentURIs, String[] outputDescriptions, RepositoryDocument[] documents, String[] authorityNameStrings,
+    IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    Map[] args = new Map[documentURIs.length];
+    Map[] sourceTargets = new Map[documentURIs.length];
+    for (int i = 0; i < documentURIs.length; i++)
+    {
+      args[i] = new HashMap();
+      sourceTargets[i] = new HashMap();
+      unpackOutputDescription(outputDescriptions[i],args[i],sourceTargets[i]);
+    }
+
+    // Establish a session
+    getSession();
+
+    boolean[] results = poster.indexPost(documentURIs,documents,args,sourceTargets,authorityNameStrings,activities);
+    int[] rval = new int[results.length];
+    for (int i = 0; i < rval.length; i++)
+    {
+      rval[i] = results[i]?DOCUMENTSTATUS_ACCEPTED:DOCUMENTSTATUS_REJECTED;
+    }
+    return rval;
+  }
+
+  /** Unpack an output description into the argument map and the source/target map for a post.
+  */
+  protected static void unpackOutputDescription(String outputDescription, Map args, Map sourceTargets)
+  {
     int index = 0;
     ArrayList nameValues = new ArrayList();
     index = unpackList(nameValues,outputDescription,index,'+');
@@ -629,14 +714,6 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
       unpackFixedList(fixedBuffer,x,0,'=');
       sourceTargets.put(fixedBuffer[0],fixedBuffer[1]);
     }
-
-    // Establish a session
-    getSession();
-
-    // Now, go off and call the ingest API.
-    if (poster.indexPost(documentURI,document,args,sourceTargets,authorityNameString,activities))
-      return DOCUMENTSTATUS_ACCEPTED;
-    return DOCUMENTSTATUS_REJECTED;
   }
 
   /** Remove a document using the connector.
@@ -655,6 +732,20 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     poster.deletePost(documentURI,activities);
   }
 
+  /** Remove multiple documents using the connector.  The deletions are sent to Solr as a single request.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for each document by the getOutputDescription() method above.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  @Override
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    // Establish a session
+    getSession();
+    poster.deletePost(documentURIs,activities);
+  }
+
   /** Notify the connector of a completed job.
   * This is meant to allow the connector to flush any internal data structures it has been keeping around, or to tell the output repository that this
   * is a good time to synchronize things.  It is called whenever a job is either completed or aborted.
@@ -796,6 +887,12 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
 "    editconnection.maxdocumentlength.focus();\n"+
 "    return false;\n"+
 "  }\n"+
+"  if (editconnection.maxinflight.value != \"\" && (!isInteger(editconnection.maxinflight.value) || parseInt(editconnection.maxinflight.value) < 1))\n"+
+"  {\n"+
+"    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.MaximumInFlightRequestsMustBeAPositiveInteger")+"\");\n"+
+"    editconnection.maxinflight.focus();\n"+
+"    return false;\n"+
+"  }\n"+
 "  if (editconnection.commitwithin.value != \"\" && !isInteger(editconnection.commitwithin.value))\n"+
 "  {\n"+
 "    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.CommitWithinValueMustBeAnInteger")+"\");\n"+
@@ -890,6 +987,13 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
 "    editconnection.maxdocumentlength.focus();\n"+
 "    return false;\n"+
 "  }\n"+
+"  if (editconnection.maxinflight.value != \"\" && (!isInteger(editconnection.maxinflight.value) || parseInt(editconnection.maxinflight.value) < 1))\n"+
+"  {\n"+
+"    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.MaximumInFlightRequestsMustBeAPositiveInteger")+"\");\n"+
+"    SelectTab(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.Documents")+"\");\n"+
+"    editconnection.maxinflight.focus();\n"+
+"    return false;\n"+
+"  }\n"+
 "  if (editconnection.commitwithin.value != \"\" && !isInteger(editconnection.commitwithin.value))\n"+
 "  {\n"+
 "    alert(\""+Messages.getBodyJavascriptString(locale,"SolrConnector.CommitWithinValueMustBeAnInteger")+"\");\n"+
@@ -1098,6 +1202,10 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     String maxLength = parameters.getParameter(SolrConfig.PARAM_MAXLENGTH);
     if (maxLength == null)
       maxLength = "";
+
+    String maxInFlight = parameters.getParameter(SolrConfig.PARAM_MAXINFLIGHT);
+    if (maxInFlight == null)
+      maxInFlight = Integer.toString(SolrConfig.MAXINFLIGHT_DEFAULT);
     
     String includedMimeTypes = parameters.getParameter(SolrConfig.PARAM_INCLUDEDMIMETYPES);
     if (includedMimeTypes == null)
@@ -1540,6 +1648,12 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
 "    </td>\n"+
 "  </tr>\n"+
 "  <tr>\n"+
+"    <td class=\"description\"><nobr>" + Messages.getBodyString(locale,"SolrConnector.MaximumInFlightRequests") + "</nobr></td>\n"+
+"    <td class=\"value\">\n"+
+"      <input name=\"maxinflight\" type=\"text\" size=\"5\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(maxInFlight)+"\"/>\n"+
+"    </td>\n"+
+"  </tr>\n"+
+"  <tr>\n"+
 "    <td class=\"description\"><nobr>" + Messages.getBodyString(locale,"SolrConnector.IncludedMimeTypes") + "</nobr></td>\n"+
 "    <td class=\"value\">\n"+
 "      <textarea rows=\"10\" cols=\"20\" name=\"includedmimetypes\">"+org.apache.manifoldcf.ui.util.Encoder.bodyEscape(includedMimeTypes)+"</textarea>\n"+
@@ -1558,6 +1672,7 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     {
       out.print(
 "<input type=\"hidden\" name=\"maxdocumentlength\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(maxLength)+"\"/>\n"+
+"<input type=\"hidden\" name=\"maxinflight\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(maxInFlight)+"\"/>\n"+
 "<input type=\"hidden\" name=\"includedmimetypes\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(includedMimeTypes)+"\"/>\n"+
 "<input type=\"hidden\" name=\"excludedmimetypes\" value=\""+org.apache.manifoldcf.ui.util.Encoder.attributeEscape(excludedMimeTypes)+"\"/>\n"
       );
@@ -1835,6 +1950,10 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     if (maxLength != null)
       parameters.setParameter(SolrConfig.PARAM_MAXLENGTH,maxLength);
     
+    String maxInFlight = variableContext.getParameter("maxinflight");
+    if (maxInFlight != null)
+      parameters.setParameter(SolrConfig.PARAM_MAXINFLIGHT,maxInFlight);
+    
     String includedMimeTypes = variableContext.getParameter("includedmimetypes");
     if (includedMimeTypes != null)
       parameters.setParameter(SolrConfig.PARAM_INCLUDEDMIMETYPES,includedMimeTypes);
@@ -0,0 +1,221 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.output.solr;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class runs Solr requests on a bounded pool of daemon threads, shared by every poster that talks to the
+* same Solr endpoint in this JVM.  It replaces the practice of starting a new thread for every request.
+*
+* Requests still run on a thread other than the caller's, because Java does not permit a thread interruption to
+* abort a socket wait.  A caller that is interrupted abandons its request, exactly as it used to abandon its thread:
+* the pool thread is interrupted and the caller returns at once.  An abandoned request continues to hold its slot
+* until it actually finishes, so the number of requests outstanding against the endpoint never exceeds the limit.
+*/
+public class SolrRequestExecutor
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** How long an idle pool thread lives, in seconds */
+  protected final static long KEEPALIVE_SECONDS = 60L;
+
+  /** The executors currently in use, keyed by endpoint and limit */
+  protected final static Map<String,SolrRequestExecutor> executors = new HashMap<String,SolrRequestExecutor>();
+
+  protected final String key;
+  protected final ThreadPoolExecutor pool;
+  protected final Semaphore slots;
+  protected int referenceCount = 0;
+
+  /** Obtain the executor for an endpoint, creating it if needed.  Each call must be balanced by a call to release().
+  *@param endpoint describes the Solr endpoint, e.g. its base URL.
+  *@param maxInFlight is the maximum number of requests that may be outstanding against the endpoint at one time.
+  *@return the executor.
+  */
+  public static SolrRequestExecutor acquire(String endpoint, int maxInFlight)
+  {
+    if (maxInFlight < 1)
+      maxInFlight = 1;
+    String key = endpoint + "#" + Integer.toString(maxInFlight);
+    synchronized (executors)
+    {
+      SolrRequestExecutor rval = executors.get(key);
+      if (rval == null)
+      {
+        rval = new SolrRequestExecutor(key,maxInFlight);
+        executors.put(key,rval);
+      }
+      rval.referenceCount++;
+      return rval;
+    }
+  }
+
+  /** Constructor.
+  */
+  protected SolrRequestExecutor(String key, int maxInFlight)
+  {
+    this.key = key;
+    this.slots = new Semaphore(maxInFlight);
+    // The semaphore bounds the work, so the queue never holds more than a handful of requests
+    this.pool = new ThreadPoolExecutor(maxInFlight,maxInFlight,KEEPALIVE_SECONDS,TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(),new RequestThreadFactory());
+    this.pool.allowCoreThreadTimeOut(true);
+  }
+
+  /** Give up a reference obtained by acquire().  When the last reference is released, the pool is shut down.
+  * Requests that are still running are allowed to finish.
+  */
+  public void release()
+  {
+    synchronized (executors)
+    {
+      if (--referenceCount > 0)
+        return;
+      executors.remove(key);
+    }
+    pool.shutdown();
+  }
+
+  /** Submit a request, waiting for a free slot if the limit has been reached.
+  *@param request is the request to run.
+  *@return the handle for the submitted request.
+  */
+  public Request submit(Runnable request)
+    throws InterruptedException
+  {
+    slots.acquire();
+    Request rval = new Request(request);
+    try
+    {
+      pool.execute(rval);
+    }
+    catch (RejectedExecutionException e)
+    {
+      slots.release();
+      throw e;
+    }
+    return rval;
+  }
+
+  /** Run a request and wait for it to complete.  If the calling thread is interrupted, the request is abandoned.
+  *@param request is the request to run.
+  */
+  public void run(Runnable request)
+    throws InterruptedException
+  {
+    Request r = submit(request);
+    try
+    {
+      r.waitFor();
+    }
+    catch (InterruptedException e)
+    {
+      r.abandon();
+      throw e;
+    }
+  }
+
+  /** Handle for a request submitted to the pool.
+  */
+  public class Request implements Runnable
+  {
+    protected final Runnable body;
+    protected Thread thread = null;
+    protected boolean abandoned = false;
+    protected boolean done = false;
+
+    public Request(Runnable body)
+    {
+      this.body = body;
+    }
+
+    public void run()
+    {
+      try
+      {
+        synchronized (this)
+        {
+          if (abandoned)
+            return;
+          thread = Thread.currentThread();
+        }
+        try
+        {
+          body.run();
+        }
+        finally
+        {
+          synchronized (this)
+          {
+            thread = null;
+          }
+          // Don't let an interruption aimed at this request leak into the next one
+          Thread.interrupted();
+        }
+      }
+      finally
+      {
+        synchronized (this)
+        {
+          done = true;
+          notifyAll();
+        }
+        slots.release();
+      }
+    }
+
+    /** Wait for the request to finish.
+    */
+    public synchronized void waitFor()
+      throws InterruptedException
+    {
+      while (!done)
+        wait();
+    }
+
+    /** Abandon the request.  If it is running, its thread is interrupted; if it has not yet started, it never will.
+    */
+    public synchronized void abandon()
+    {
+      abandoned = true;
+      if (thread != null)
+        thread.interrupt();
+    }
+  }
+
+  /** Factory for the pool threads.
+  */
+  protected static class RequestThreadFactory implements ThreadFactory
+  {
+    protected final AtomicInteger threadCount = new AtomicInteger(0);
+
+    public RequestThreadFactory()
+    {
+    }
+
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r,"Solr request "+Integer.toString(threadCount.incrementAndGet()));
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -26,6 +26,7 @@ import org.apache.manifoldcf.authorities.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.CacheKeyFactory;
 import org.apache.manifoldcf.crawler.system.ManifoldCF;
 import org.apache.manifoldcf.crawler.system.Logging;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
 
 /** This class manages the database table into which we DNS entries for hosts.  The data resides in the database,
@@ -50,9 +51,18 @@ public class DNSManager extends org.apache.manifoldcf.core.database.BaseTable
 {
   public static final String _rcsid = "@(#)$Id: DNSManager.java 988245 2010-08-23 18:39:35Z kwright $";
 
+  /** How long, in seconds, DNS information is kept in memory before the database is consulted again */
+  public final static String PROPERTY_DNS_CACHE_LIFETIME = "org.apache.manifoldcf.crawler.connectors.webcrawler.dnscachelifetime";
+  /** The number of hosts whose DNS information is kept in memory */
+  public final static String PROPERTY_DNS_CACHE_SIZE = "org.apache.manifoldcf.crawler.connectors.webcrawler.dnscachesize";
+
   // Robots cache class.  Only one needed.
   protected static DNSCacheClass dnsCacheClass = new DNSCacheClass();
 
+  /** DNS information, by host, in front of the cache manager and the database.  Failed lookups are
+  * kept too, so unresolvable hosts are not looked up over and over. */
+  protected final static HostDataCache<DNSInfo> dnsInfoCache = new HostDataCache<DNSInfo>();
+
   // Database fields
   protected final static String hostField = "hostname";
   protected final static String fqdnField = "canonicalhostname";
@@ -62,6 +72,10 @@ public class DNSManager extends org.apache.manifoldcf.core.database.BaseTable
   // Cache manager.  This handle is set up during the constructor.
   ICacheManager cacheManager;
 
+  // In-memory cache parameters
+  protected final long cacheLifetime;
+  protected final int cacheSize;
+
   /** Constructor.  Note that one robotsmanager handle is only useful within a specific thread context,
   * so the calling connector object logic must recreate the handle whenever the thread context changes.
   *@param tc is the thread context.
@@ -72,6 +86,8 @@ public class DNSManager extends org.apache.manifoldcf.core.database.BaseTable
   {
     super(database,"dnsdata");
     cacheManager = CacheManagerFactory.make(tc);
+    cacheLifetime = 1000L * (long)ManifoldCF.getIntProperty(PROPERTY_DNS_CACHE_LIFETIME,300);
+    cacheSize = ManifoldCF.getIntProperty(PROPERTY_DNS_CACHE_SIZE,10000);
   }
 
   /** Install the manager.
@@ -123,6 +139,12 @@ public class DNSManager extends org.apache.manifoldcf.core.database.BaseTable
   public DNSInfo lookup(String hostName, long currentTime)
     throws ManifoldCFException
   {
+    // Recently seen hosts are answered from memory.  DNS data is only rewritten once it
+    // has expired, so a copy that has not expired cannot be out of date.
+    DNSInfo rd = dnsInfoCache.get(hostName,currentTime);
+    if (rd != null)
+      return rd;
+
     // Build description objects
     HostDescription[] objectDescriptions = new HostDescription[1];
     StringSetBuffer ssb = new StringSetBuffer();
@@ -133,9 +155,10 @@ public class DNSManager extends org.apache.manifoldcf.core.database.BaseTable
     cacheManager.findObjectsAndExecute(objectDescriptions,null,exec,getTransactionID());
 
     // DNSInfo object must be built if it isn't yet present.
-    DNSInfo rd = exec.getResults();
+    rd = exec.getResults();
     if (rd == null || rd.getExpirationTime() <= currentTime)
       return null;
+    dnsInfoCache.put(hostName,rd,Math.min(rd.getExpirationTime(),currentTime + cacheLifetime),cacheSize);
     return rd;
   }
 
@@ -200,6 +223,7 @@ public class DNSManager extends org.apache.manifoldcf.core.database.BaseTable
       {
         endTransaction();
       }
+      dnsInfoCache.remove(hostName);
     }
     finally
     {
@@ -243,7 +267,7 @@ public class DNSManager extends org.apache.manifoldcf.core.database.BaseTable
 
   /** This is a cached data item.
   */
-  protected static class DNSInfo
+  protected static class DNSInfo implements ICacheSizeEstimate
   {
     protected long expiration;
     protected String hostName;
@@ -259,6 +283,13 @@ public class DNSManager extends org.apache.manifoldcf.core.database.BaseTable
       this.hostName = hostName;
     }
 
+    /** Estimate the memory this item occupies. */
+    public long getEstimatedSize()
+    {
+      return GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(hostName) + GeneralCache.estimateSize(ipaddress) +
+        GeneralCache.estimateSize(fqdn);
+    }
+
     /** Get the ipaddress */
     public String getIPAddress()
     {
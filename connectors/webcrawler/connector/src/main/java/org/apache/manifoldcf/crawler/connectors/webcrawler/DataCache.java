@@ -288,6 +288,19 @@ public class DataCache
     }
   }
 
+  /** Fetch binary data entry from the cache as a content handle.  The handle refers to the cached file
+  * directly, so the content can be transferred or replayed without another copy.
+  *@param documentIdentifier is the document identifier (url).
+  *@return the handle, or null if there is no such entry.
+  */
+  public synchronized ContentHandle getContent(String documentIdentifier)
+  {
+    DocumentData dd = cacheData.get(documentIdentifier);
+    if (dd == null)
+      return null;
+    return new FileContentHandle(dd.getData());
+  }
+
   /** Delete specified item of data.
   *@param documentIdentifier is the document identifier (url).
   */
@@ -0,0 +1,98 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.connectors.webcrawler;
+
+import java.util.*;
+
+/** This class is an in-memory, per-process cache of data about hosts, such as parsed robots data or
+* DNS information.  It sits in front of the database tables that hold the same data, so that looking
+* up a host that was seen recently involves neither the cache manager nor the database.  Each entry
+* carries its own expiration time, and the least recently used entries are discarded when the cache is
+* full.
+*/
+public class HostDataCache<T>
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The entries, in least-recently-used order */
+  protected final LinkedHashMap<String,CacheEntry<T>> entries = new LinkedHashMap<String,CacheEntry<T>>(16,0.75f,true);
+
+  /** Constructor */
+  public HostDataCache()
+  {
+  }
+
+  /** Look up a host's data.
+  *@param hostKey is the host key.
+  *@param currentTime is the current time.
+  *@return the data, or null if there is none that has not expired.
+  */
+  public synchronized T get(String hostKey, long currentTime)
+  {
+    CacheEntry<T> entry = entries.get(hostKey);
+    if (entry == null)
+      return null;
+    if (entry.expirationTime <= currentTime)
+    {
+      entries.remove(hostKey);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /** Remember a host's data.
+  *@param hostKey is the host key.
+  *@param value is the data.
+  *@param expirationTime is the time the entry should be discarded.
+  *@param maxEntries is the largest number of hosts to remember.
+  */
+  public synchronized void put(String hostKey, T value, long expirationTime, int maxEntries)
+  {
+    entries.put(hostKey,new CacheEntry<T>(value,expirationTime));
+    Iterator<CacheEntry<T>> iter = entries.values().iterator();
+    while (entries.size() > maxEntries && iter.hasNext())
+    {
+      iter.next();
+      iter.remove();
+    }
+  }
+
+  /** Forget a host's data.
+  *@param hostKey is the host key.
+  */
+  public synchronized void remove(String hostKey)
+  {
+    entries.remove(hostKey);
+  }
+
+  /** A cached value and its expiration time.
+  */
+  protected static class CacheEntry<T>
+  {
+    protected final T value;
+    protected final long expirationTime;
+
+    public CacheEntry(T value, long expirationTime)
+    {
+      this.value = value;
+      this.expirationTime = expirationTime;
+    }
+  }
+
+}
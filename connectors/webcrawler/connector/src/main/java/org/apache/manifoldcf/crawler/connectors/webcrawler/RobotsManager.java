@@ -26,6 +26,7 @@ import org.apache.manifoldcf.authorities.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.CacheKeyFactory;
 import org.apache.manifoldcf.crawler.system.ManifoldCF;
 import org.apache.manifoldcf.crawler.system.Logging;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
 
 /** This class manages the database table into which we write robots.txt files for hosts.  The data resides in the database,
@@ -48,9 +49,17 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
 {
   public static final String _rcsid = "@(#)$Id: RobotsManager.java 988245 2010-08-23 18:39:35Z kwright $";
 
+  /** How long, in seconds, parsed robots data is kept in memory before the database is consulted again */
+  public final static String PROPERTY_ROBOTS_CACHE_LIFETIME = "org.apache.manifoldcf.crawler.connectors.webcrawler.robotscachelifetime";
+  /** The number of hosts whose parsed robots data is kept in memory */
+  public final static String PROPERTY_ROBOTS_CACHE_SIZE = "org.apache.manifoldcf.crawler.connectors.webcrawler.robotscachesize";
+
   // Robots cache class.  Only one needed.
   protected static RobotsCacheClass robotsCacheClass = new RobotsCacheClass();
 
+  /** Parsed robots data, by host, in front of the cache manager and the database */
+  protected final static HostDataCache<RobotsData> robotsDataCache = new HostDataCache<RobotsData>();
+
   // Database fields
   protected final static String hostField = "hostname";
   protected final static String robotsField = "robotsdata";
@@ -59,6 +68,10 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
   // Cache manager.  This handle is set up during the constructor.
   ICacheManager cacheManager;
 
+  // In-memory cache parameters
+  protected final long cacheLifetime;
+  protected final int cacheSize;
+
   /** Constructor.  Note that one robotsmanager handle is only useful within a specific thread context,
   * so the calling connector object logic must recreate the handle whenever the thread context changes.
   *@param tc is the thread context.
@@ -69,6 +82,8 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
   {
     super(database,"robotsdata");
     cacheManager = CacheManagerFactory.make(tc);
+    cacheLifetime = 1000L * (long)ManifoldCF.getIntProperty(PROPERTY_ROBOTS_CACHE_LIFETIME,300);
+    cacheSize = ManifoldCF.getIntProperty(PROPERTY_ROBOTS_CACHE_SIZE,10000);
   }
 
   /** Install the manager.
@@ -118,20 +133,27 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
     IVersionActivity activities)
     throws ManifoldCFException
   {
-    // Build description objects
-    HostDescription[] objectDescriptions = new HostDescription[1];
-    StringSetBuffer ssb = new StringSetBuffer();
-    ssb.add(getRobotsKey(hostName));
-    objectDescriptions[0] = new HostDescription(hostName,new StringSet(ssb));
-
-    HostExecutor exec = new HostExecutor(this,activities,objectDescriptions[0]);
-    cacheManager.findObjectsAndExecute(objectDescriptions,null,exec,getTransactionID());
-
-    // We do the expiration check here, rather than in the query, so that caching
-    // is possible.
-    RobotsData rd = exec.getResults();
-    if (rd == null || rd.getExpirationTime() <= currentTime)
-      return null;
+    // Recently seen hosts are answered from memory.  Robots data is only rewritten once it
+    // has expired, so a copy that has not expired cannot be out of date.
+    RobotsData rd = robotsDataCache.get(hostName,currentTime);
+    if (rd == null)
+    {
+      // Build description objects
+      HostDescription[] objectDescriptions = new HostDescription[1];
+      StringSetBuffer ssb = new StringSetBuffer();
+      ssb.add(getRobotsKey(hostName));
+      objectDescriptions[0] = new HostDescription(hostName,new StringSet(ssb));
+
+      HostExecutor exec = new HostExecutor(this,activities,objectDescriptions[0]);
+      cacheManager.findObjectsAndExecute(objectDescriptions,null,exec,getTransactionID());
+
+      // We do the expiration check here, rather than in the query, so that caching
+      // is possible.
+      rd = exec.getResults();
+      if (rd == null || rd.getExpirationTime() <= currentTime)
+        return null;
+      robotsDataCache.put(hostName,rd,Math.min(rd.getExpirationTime(),currentTime + cacheLifetime),cacheSize);
+    }
     return new Boolean(rd.isFetchAllowed(userAgent,pathString));
   }
 
@@ -209,6 +231,7 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
         {
           endTransaction();
         }
+        robotsDataCache.remove(hostName);
       }
       finally
       {
@@ -296,7 +319,7 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
 
   /** This is a cached data item.
   */
-  protected static class RobotsData
+  protected static class RobotsData implements ICacheSizeEstimate
   {
     protected long expiration;
     protected ArrayList records = null;
@@ -330,6 +353,21 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
       }
     }
 
+    /** Estimate the memory this item occupies. */
+    public long getEstimatedSize()
+    {
+      long rval = GeneralCache.SMALL_OBJECT_SIZE;
+      if (records != null)
+      {
+        int i = 0;
+        while (i < records.size())
+        {
+          rval += ((Record)records.get(i++)).getEstimatedSize();
+        }
+      }
+      return rval;
+    }
+
     /** Check if fetch is allowed */
     public boolean isFetchAllowed(String userAgent, String pathString)
     {
@@ -842,13 +880,14 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
   }
 
   /** This class represents a record in a robots.txt file.  It contains one or
-  * more user-agents, and one or more disallows.
+  * more user-agents, and one or more disallows.  The allow and disallow paths are compiled
+  * as they are added, so that checking a path does not mean trying every rule in turn.
   */
   protected static class Record
   {
     protected ArrayList userAgents = new ArrayList();
-    protected ArrayList disallows = new ArrayList();
-    protected ArrayList allows = new ArrayList();
+    protected PathRules disallows = new PathRules();
+    protected PathRules allows = new PathRules();
 
     /** Constructor.
     */
@@ -860,21 +899,34 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
     */
     public void addAgent(String agentName)
     {
-      userAgents.add(agentName);
+      userAgents.add(agentName.toUpperCase());
     }
 
     /** Add a disallow.
     */
     public void addDisallow(String disallowPath)
     {
-      disallows.add(disallowPath);
+      disallows.addRule(disallowPath);
     }
 
     /** Add an allow.
     */
     public void addAllow(String allowPath)
     {
-      allows.add(allowPath);
+      allows.addRule(allowPath);
+    }
+
+    /** Estimate the memory this record occupies.
+    */
+    public long getEstimatedSize()
+    {
+      long rval = GeneralCache.SMALL_OBJECT_SIZE + disallows.getEstimatedSize() + allows.getEstimatedSize();
+      int i = 0;
+      while (i < userAgents.size())
+      {
+        rval += GeneralCache.estimateSize((String)userAgents.get(i++));
+      }
+      return rval;
     }
 
     /** See if user-agent matches.
@@ -884,7 +936,7 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
       int i = 0;
       while (i < userAgents.size())
       {
-        String agent = ((String)userAgents.get(i++)).toUpperCase();
+        String agent = (String)userAgents.get(i++);
         if (exactMatch && agent.trim().equals(agentNameUpper))
           return true;
         if (!exactMatch && agentNameUpper.indexOf(agent) != -1)
@@ -899,14 +951,7 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
     */
     public boolean isDisallowed(String path)
     {
-      int i = 0;
-      while (i < disallows.size())
-      {
-        String disallow = (String)disallows.get(i++);
-        if (doesPathMatch(path,disallow))
-          return true;
-      }
-      return false;
+      return disallows.isMatch(path);
     }
 
     /** See if path is allowed.  Only called if user-agent has already
@@ -915,16 +960,122 @@ public class RobotsManager extends org.apache.manifoldcf.core.database.BaseTable
     */
     public boolean isAllowed(String path)
     {
+      return allows.isMatch(path);
+    }
+
+  }
+
+  /** This class is a compiled set of robots path rules.  Plain rules match any path they are a prefix
+  * of, so they are kept in a character trie, which is walked once along the path.  Rules with wildcards
+  * or an end anchor are matched one at a time, as before.
+  */
+  protected static class PathRules
+  {
+    protected final PathNode root = new PathNode();
+    protected final ArrayList<String> wildcardRules = new ArrayList<String>();
+    protected long estimatedSize = GeneralCache.SMALL_OBJECT_SIZE;
+
+    /** Constructor.
+    */
+    public PathRules()
+    {
+    }
+
+    /** Add a rule.
+    */
+    public void addRule(String rule)
+    {
+      if (rule.indexOf("*") != -1 || rule.endsWith("$"))
+      {
+        wildcardRules.add(rule);
+        estimatedSize += GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(rule);
+        return;
+      }
+      PathNode node = root;
+      int i = 0;
+      while (i < rule.length())
+      {
+        char x = rule.charAt(i++);
+        PathNode child = node.getChild(x);
+        if (child == null)
+        {
+          child = node.makeChild(x);
+          // The node, its map entry, and the boxed character
+          estimatedSize += GeneralCache.SMALL_OBJECT_SIZE * 3L;
+        }
+        node = child;
+      }
+      node.isRuleEnd = true;
+    }
+
+    /** Estimate the memory these rules occupy.
+    */
+    public long getEstimatedSize()
+    {
+      return estimatedSize;
+    }
+
+    /** See if any rule matches the path.
+    */
+    public boolean isMatch(String path)
+    {
+      PathNode node = root;
       int i = 0;
-      while (i < allows.size())
+      while (node != null)
       {
-        String allow = (String)allows.get(i++);
-        if (doesPathMatch(path,allow))
+        if (node.isRuleEnd)
+          return true;
+        if (i == path.length())
+          break;
+        node = node.getChild(path.charAt(i++));
+      }
+      i = 0;
+      while (i < wildcardRules.size())
+      {
+        if (doesPathMatch(path,wildcardRules.get(i++)))
           return true;
       }
       return false;
     }
+  }
+
+  /** A node in the path rule trie.
+  */
+  protected static class PathNode
+  {
+    protected Map<Character,PathNode> children = null;
+    protected boolean isRuleEnd = false;
 
+    /** Constructor.
+    */
+    public PathNode()
+    {
+    }
+
+    /** Get the child for a character, or null.
+    */
+    public PathNode getChild(char x)
+    {
+      if (children == null)
+        return null;
+      return children.get(new Character(x));
+    }
+
+    /** Get the child for a character, creating it if needed.
+    */
+    public PathNode makeChild(char x)
+    {
+      if (children == null)
+        children = new HashMap<Character,PathNode>();
+      Character key = new Character(x);
+      PathNode rval = children.get(key);
+      if (rval == null)
+      {
+        rval = new PathNode();
+        children.put(key,rval);
+      }
+      return rval;
+    }
   }
 
 }
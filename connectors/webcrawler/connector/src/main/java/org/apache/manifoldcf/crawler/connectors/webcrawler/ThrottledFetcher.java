@@ -28,6 +28,7 @@ import java.util.*;
 import java.io.*;
 import java.net.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.client.HttpClient;
@@ -106,8 +107,15 @@ public class ThrottledFetcher
   protected static final long TIME_1DAY = 24L * 60L * 60000L;
 
 
-  /** This is the static pool of ConnectionBin's, keyed by bin name. */
-  protected static HashMap connectionBins = new HashMap();
+  /** How long, in seconds, a pooled connection may sit unused before it is closed */
+  public final static String PROPERTY_CONNECTION_IDLE_TIME = "org.apache.manifoldcf.crawler.connectors.webcrawler.connectionidletime";
+
+  /** This is the static pool of ConnectionBin's, keyed by bin name.  Bins are never removed, even once they
+  * are idle, so they can be looked up without locking.  An idle bin holds no connections. */
+  protected static final ConcurrentHashMap<String,ConnectionBin> connectionBins = new ConcurrentHashMap<String,ConnectionBin>();
+  /** This lock is held when a consistent view across all the connection bins is needed, e.g. to update fetch
+  * times in every bin at once.  It is a separate object so that nothing synchronizes on the concurrent map itself. */
+  protected static final Object connectionBinsLock = new Object();
   /** This is the static pool of ThrottleBin's, keyed by bin name. */
   protected static HashMap throttleBins = new HashMap();
 
@@ -115,6 +123,17 @@ public class ThrottledFetcher
   * can get pulled out of all the right pools and wind up in only the hands of one thread. */
   protected static Integer poolLock = new Integer(0);
 
+  /** Secure socket factories, keyed by a hash of the trust store string, least recently used first.  Sharing a
+  * factory means sharing its SSL context, and therefore its session cache, so new connections to a server can
+  * resume TLS sessions.  Trust store strings can be large, and every job may have its own, so only the hash is
+  * kept, and only for a limited number of trust stores. */
+  protected static final LinkedHashMap<String,javax.net.ssl.SSLSocketFactory> secureSocketFactories =
+    new LinkedHashMap<String,javax.net.ssl.SSLSocketFactory>(16,0.75f,true);
+  /** The most secure socket factories kept */
+  protected static final int MAX_SECURE_SOCKET_FACTORIES = 100;
+  /** The key for the factory that trusts everything; no hash is ever empty */
+  protected static final String TRUST_EVERYTHING_KEY = "";
+
   /** Current host name */
   private static String currentHost = null;
   static
@@ -167,18 +186,8 @@ public class ThrottledFetcher
     throws ManifoldCFException
   {
     // Create the https scheme for this connection
-    javax.net.ssl.SSLSocketFactory baseFactory;
-    String trustStoreString;
-    if (trustStore != null)
-    {
-      baseFactory = trustStore.getSecureSocketFactory();
-      trustStoreString = trustStore.getString();
-    }
-    else
-    {
-      baseFactory = KeystoreManagerFactory.getTrustingSecureSocketFactory();
-      trustStoreString = null;
-    }
+    String trustStoreString = (trustStore == null)?null:trustStore.getString();
+    javax.net.ssl.SSLSocketFactory baseFactory = findSecureSocketFactory(trustStore,trustStoreString);
 
 
     ConnectionBin[] bins = new ConnectionBin[binNames.length];
@@ -190,18 +199,7 @@ public class ThrottledFetcher
       String binName = binNames[i];
 
       // Find or create the bin object
-      ConnectionBin cb;
-      synchronized (connectionBins)
-      {
-        cb = (ConnectionBin)connectionBins.get(binName);
-        if (cb == null)
-        {
-          cb = new ConnectionBin(binName);
-          connectionBins.put(binName,cb);
-        }
-        //cb.sanityCheck();
-      }
-      bins[i] = cb;
+      bins[i] = getConnectionBin(binName);
       i++;
     }
 
@@ -224,15 +222,12 @@ public class ThrottledFetcher
         int openCount = 0;
 
         // Lock up everything for a moment
-        synchronized (connectionBins)
+        synchronized (connectionBinsLock)
         {
           // Time out connections that have been idle too long.  To do this, we need to go through
           // all connection bins and look at the pool
-          Iterator binIter = connectionBins.keySet().iterator();
-          while (binIter.hasNext())
+          for (ConnectionBin cb : connectionBins.values())
           {
-            String binName = (String)binIter.next();
-            ConnectionBin cb = (ConnectionBin)connectionBins.get(binName);
             openCount += cb.countConnections();
           }
         }
@@ -251,15 +246,12 @@ public class ThrottledFetcher
 
         // Lock up everything for a moment, since otherwise we could delete something people
         // expect to stick around.
-        synchronized (connectionBins)
+        synchronized (connectionBinsLock)
         {
           // Time out connections that have been idle too long.  To do this, we need to go through
           // all connection bins and look at the pool
-          Iterator binIter = connectionBins.keySet().iterator();
-          while (binIter.hasNext())
+          for (ConnectionBin cb : connectionBins.values())
           {
-            String binName = (String)binIter.next();
-            ConnectionBin cb = (ConnectionBin)connectionBins.get(binName);
             cb.flushIdleConnections(idleTimeout);
           }
         }
@@ -322,7 +314,7 @@ public class ThrottledFetcher
             long currentTime = System.currentTimeMillis();
 
             // Global lock needed to insure that fetch time is updated across all bins simultaneously
-            synchronized (connectionBins)
+            synchronized (connectionBinsLock)
             {
               i = 0;
               while (i < binNames.length)
@@ -358,16 +350,7 @@ public class ThrottledFetcher
               while (k < binNames.length)
               {
                 String binName = binNames[k++];
-                ConnectionBin cb;
-                synchronized (connectionBins)
-                {
-                  cb = (ConnectionBin)connectionBins.get(binName);
-                  if (cb == null)
-                  {
-                    cb = new ConnectionBin(binName);
-                    connectionBins.put(binName,cb);
-                  }
-                }
+                ConnectionBin cb = getConnectionBin(binName);
                 //cb.sanityCheck();
                 cb.addToPool(connectionToReuse);
                 //cb.sanityCheck();
@@ -433,32 +416,75 @@ public class ThrottledFetcher
   }
 
 
+  /** Find or create the secure socket factory for a trust store.
+  *@param trustStore is the trust store, or null if everything is trusted.
+  *@param trustStoreString is the trust store's string form, or null.
+  */
+  protected static javax.net.ssl.SSLSocketFactory findSecureSocketFactory(IKeystoreManager trustStore, String trustStoreString)
+    throws ManifoldCFException
+  {
+    String key = (trustStoreString == null)?TRUST_EVERYTHING_KEY:ManifoldCF.hash(trustStoreString);
+    synchronized (secureSocketFactories)
+    {
+      javax.net.ssl.SSLSocketFactory rval = secureSocketFactories.get(key);
+      if (rval != null)
+        return rval;
+    }
+    // Building a factory can take a while, so do it outside the lock
+    javax.net.ssl.SSLSocketFactory newFactory;
+    if (trustStore == null)
+      newFactory = KeystoreManagerFactory.getTrustingSecureSocketFactory();
+    else
+      newFactory = trustStore.getSecureSocketFactory();
+    synchronized (secureSocketFactories)
+    {
+      javax.net.ssl.SSLSocketFactory rval = secureSocketFactories.get(key);
+      if (rval != null)
+        return rval;
+      secureSocketFactories.put(key,newFactory);
+      Iterator<javax.net.ssl.SSLSocketFactory> iter = secureSocketFactories.values().iterator();
+      while (secureSocketFactories.size() > MAX_SECURE_SOCKET_FACTORIES && iter.hasNext())
+      {
+        iter.next();
+        iter.remove();
+      }
+      return newFactory;
+    }
+  }
+
+  /** Find or create the connection bin with a given name.
+  */
+  protected static ConnectionBin getConnectionBin(String binName)
+  {
+    ConnectionBin cb = connectionBins.get(binName);
+    if (cb == null)
+    {
+      cb = new ConnectionBin(binName);
+      ConnectionBin existingBin = connectionBins.putIfAbsent(binName,cb);
+      if (existingBin != null)
+        cb = existingBin;
+    }
+    return cb;
+  }
+
   /** Flush connections that have timed out from inactivity. */
   public static void flushIdleConnections()
     throws ManifoldCFException
   {
+    long idleTimeout = 1000L * (long)ManifoldCF.getIntProperty(PROPERTY_CONNECTION_IDLE_TIME,60);
     synchronized (poolLock)
     {
       // Lock up everything for a moment, since otherwise we could delete something people
       // expect to stick around.
-      synchronized (connectionBins)
+      synchronized (connectionBinsLock)
       {
         // Time out connections that have been idle too long.  To do this, we need to go through
-        // all connection bins and look at the pool
-        Iterator binIter = connectionBins.keySet().iterator();
-        while (binIter.hasNext())
+        // all connection bins and look at the pool.  Bins that end up empty are kept: they are looked up
+        // without this lock, so a removed bin could still be handed out, and its connections would then
+        // not count against the bin that replaced it.
+        for (ConnectionBin cb : connectionBins.values())
         {
-          String binName = (String)binIter.next();
-          ConnectionBin cb = (ConnectionBin)connectionBins.get(binName);
-          if (cb.flushIdleConnections(60000L))
-          {
-            // Bin is no longer doing anything; get rid of it.
-            // I've determined this is safe - inUseConnections is designed to prevent any active connection from getting
-            // whacked.
-            // Oops.  Hang results again when I enabled this, so out it goes again.
-            //connectionBins.remove(binName);
-            //binIter = connectionBins.keySet().iterator();
-          }
+          cb.flushIdleConnections(idleTimeout);
         }
       }
     }
@@ -602,27 +628,31 @@ public class ThrottledFetcher
         throw new PoolException("Waiting for a connection");
       }
 
-      // A null return means that there is no existing pooled connection that matches, and the  caller is free to create a new connection
-      ThrottledConnection rval = getPoolConnection();
-      if (rval == null)
-        return null;
-
-      // It's okay to call activate since we guarantee that only one thread is trying to grab
-      // a connection at a time.
-      rval.activate();
-      //sanityCheck();
-
-      if (!rval.matches(binNames,protocol,server,port,authentication,trustStoreString,
-        proxyHost,proxyPort,proxyAuthDomain,proxyAuthUsername,proxyAuthPassword))
+      // Prefer a pooled connection to the same server, since it may still have an open
+      // (keep-alive) connection that can be reused.
+      ThrottledConnection rval = getMatchingPoolConnection(binNames,protocol,server,port,authentication,trustStoreString,
+        proxyHost,proxyPort,proxyAuthDomain,proxyAuthUsername,proxyAuthPassword);
+      if (rval != null)
       {
-        // Destroy old connection.  That should free up space for a new creation.
-        rval.destroy();
-        // Return null to indicate that we can create a new connection now
-        return null;
+        // It's okay to call activate since we guarantee that only one thread is trying to grab
+        // a connection at a time.
+        rval.activate();
+        //sanityCheck();
+        return rval;
       }
 
-      // Existing entry matched.  Activate and return it.
-      return rval;
+      // A null return means that there is no existing pooled connection that matches, and the caller is free to create a new connection.
+      // If the bin is full, make room by destroying a pooled connection to some other server first.
+      if (maxConnections > 0 && inUseConnections + freePool.size() >= maxConnections)
+      {
+        rval = getPoolConnection();
+        if (rval != null)
+        {
+          rval.activate();
+          rval.destroy();
+        }
+      }
+      return null;
     }
 
     /** Note a new time for connection fetch for this pool.
@@ -651,14 +681,12 @@ public class ThrottledFetcher
     }
 
     /** Flush any idle connections.
-    *@return true if the connection bin is now, in fact, empty.
     */
-    public synchronized boolean flushIdleConnections(long idleTimeout)
+    public synchronized void flushIdleConnections(long idleTimeout)
     {
       //sanityCheck();
 
-      // We have to time out the pool connections.  When there are no pool connections
-      // left, AND the in-use counts are zero, we can delete the whole thing.
+      // We have to time out the pool connections.
       Iterator iter = freePool.keySet().iterator();
       while (iter.hasNext())
       {
@@ -673,8 +701,6 @@ public class ThrottledFetcher
       }
 
       //sanityCheck();
-
-      return (freePool.size() == 0 && inUseConnections == 0);
     }
 
     /** Grab a connection from the current pool.  This does not remove the connection from the pool;
@@ -689,6 +715,23 @@ public class ThrottledFetcher
       return rval;
     }
 
+    /** Find a pooled connection that matches the given server and parameters, if there is one.
+    */
+    protected ThrottledConnection getMatchingPoolConnection(ConnectionBin[] binNames, String protocol, String server, int port,
+      PageCredentials authentication, String trustStoreString,
+      String proxyHost, int proxyPort, String proxyAuthDomain, String proxyAuthUsername, String proxyAuthPassword)
+    {
+      Iterator iter = freePool.keySet().iterator();
+      while (iter.hasNext())
+      {
+        ThrottledConnection tc = (ThrottledConnection)iter.next();
+        if (tc.matches(binNames,protocol,server,port,authentication,trustStoreString,
+          proxyHost,proxyPort,proxyAuthDomain,proxyAuthUsername,proxyAuthPassword))
+          return tc;
+      }
+      return null;
+    }
+
     /** Check if a connection exists in the pool already.
     */
     protected boolean existsInPool(ThrottledConnection tc)
@@ -1169,12 +1212,9 @@ public class ThrottledFetcher
       {
         connManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
         connManager.closeExpiredConnections();
-        // Need to determine if there's a valid connection in the connection manager still, or if it is empty.
-        //return connManager.getConnectionsInPool() == 0;
-        return true;
       }
-      else
-        return true;
+      // Keep the connection around for reuse until it has been idle for the whole timeout.
+      return inactiveTime + idleTimeout <= System.currentTimeMillis();
     }
 
     /** Log the fetch of a number of bytes, from within a stream. */
@@ -1402,7 +1442,9 @@ public class ThrottledFetcher
         BasicHttpParams params = new BasicHttpParams();
         params.setParameter(ClientPNames.DEFAULT_HOST,fetchHost);
         params.setBooleanParameter(CoreConnectionPNames.TCP_NODELAY,true);
-        params.setBooleanParameter(CoreConnectionPNames.STALE_CONNECTION_CHECK,false);
+        // Pooled connections are kept open for reuse, and servers close idle keep-alive connections on their own
+        // schedule, so check before reusing one.  Requests are never retried, so a stale connection would fail the fetch.
+        params.setBooleanParameter(CoreConnectionPNames.STALE_CONNECTION_CHECK,true);
         params.setBooleanParameter(ClientPNames.ALLOW_CIRCULAR_REDIRECTS,true);
         // MEDIUM_SECURITY compatibility level not supported in HttpComponents.  Try BROWSER_NETSCAPE?
         HttpClientParams.setCookiePolicy(params,CookiePolicy.BROWSER_COMPATIBILITY);
@@ -1949,7 +1991,7 @@ public class ThrottledFetcher
       synchronized (poolLock)
       {
         // Verify that all the connections that exist are in fact sane
-        synchronized (connectionBins)
+        synchronized (connectionBinsLock)
         {
           Iterator iter = connectionBins.keySet().iterator();
           while (iter.hasNext())
@@ -1969,7 +2011,7 @@ public class ThrottledFetcher
           connectionBinArray[i++].addToPool(this);
         }
         // Verify that all the connections that exist are in fact sane
-        synchronized (connectionBins)
+        synchronized (connectionBinsLock)
         {
           Iterator iter = connectionBins.keySet().iterator();
           while (iter.hasNext())
@@ -117,6 +117,9 @@ public class WebcrawlerConnector extends org.apache.manifoldcf.crawler.connector
   }
 
 
+  /** How long, in seconds, a host name that could not be resolved is remembered as such */
+  public final static String PROPERTY_DNS_NEGATIVE_LIFETIME = "org.apache.manifoldcf.crawler.connectors.webcrawler.dnsnegativelifetime";
+
   // Usage flag values
   protected static final int ROBOTS_NONE = 0;
   protected static final int ROBOTS_DATA = 1;
@@ -1392,21 +1395,20 @@ public class WebcrawlerConnector extends org.apache.manifoldcf.crawler.connector
             rd.addField(key,values);
           }
 
-          long length = cache.getDataLength(documentIdentifier);
-          InputStream is = cache.getData(documentIdentifier);
+          ContentHandle content = cache.getContent(documentIdentifier);
 
-          if (is != null)
+          if (content != null)
           {
             try
             {
-              rd.setBinary(is,length);
+              rd.setBinary(content);
               activities.ingestDocument(documentIdentifier,version,documentIdentifier,rd);
             }
             finally
             {
               try
               {
-                is.close();
+                content.close();
               }
               catch (java.net.SocketException e)
               {
@@ -5039,8 +5041,11 @@ public class WebcrawlerConnector extends org.apache.manifoldcf.crawler.connector
           fqdn = ip.getCanonicalHostName();
           ipAddress = ip.getHostAddress();
         }
-        // Write this to the cache - expiration time 6 hours
-        dnsManager.writeDNSData(hostName,fqdn,ipAddress,currentTime + 1000*60*60*6);
+        // Write this to the cache - expiration time 6 hours, or as configured for hosts that could not be found
+        long lifetime = 1000L*60L*60L*6L;
+        if (ipAddress == null)
+          lifetime = 1000L * (long)ManifoldCF.getIntProperty(PROPERTY_DNS_NEGATIVE_LIFETIME,60*60*6);
+        dnsManager.writeDNSData(hostName,fqdn,ipAddress,currentTime + lifetime);
         if (ipAddress == null)
           return RESULTSTATUS_FALSE;
         ipAddressBuffer.append(ipAddress);
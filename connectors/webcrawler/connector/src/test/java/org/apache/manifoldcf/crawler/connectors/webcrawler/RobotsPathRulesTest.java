@@ -0,0 +1,129 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.connectors.webcrawler;
+
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Checks that the compiled robots path rules give the same answers as matching each rule in turn.
+*/
+public class RobotsPathRulesTest
+{
+
+  @Test
+  public void emptyRule()
+  {
+    // An empty rule is a prefix of every path
+    checkSame(new String[]{""},new String[]{"","/","/a","/a/b.html"});
+  }
+
+  @Test
+  public void endAnchorInMiddleOfRule()
+  {
+    // A '$' that is not at the end of a rule is an ordinary character
+    checkSame(new String[]{"/a$b"},new String[]{"/a","/a$","/a$b","/a$bc","/ab","/a$c"});
+    checkSame(new String[]{"/a$b$"},new String[]{"/a$b","/a$b/","/a$bc","/a$"});
+    checkSame(new String[]{"$"},new String[]{"","/","$"});
+    checkSame(new String[]{"/$x","/$"},new String[]{"/","/$","/$x","/$xy","/x"});
+  }
+
+  @Test
+  public void wildcardAndPrefixRules()
+  {
+    String[] paths = new String[]{"","/","/a","/ab","/a/b","/a/b.html","/a/b.htm","/b/a.html","/private","/private/x",
+      "/privatex","/x/private","/cgi-bin/test?x=1","/cgi-bin/","/test?"};
+    checkSame(new String[]{"/a","/*.html$"},paths);
+    checkSame(new String[]{"/a*","/a"},paths);
+    checkSame(new String[]{"/private","/*/private"},paths);
+    checkSame(new String[]{"/cgi-bin/*?","/cgi-bin"},paths);
+    checkSame(new String[]{"*","/a"},paths);
+    checkSame(new String[]{"/a/b","/a/b.htm$","/a**b"},paths);
+    checkSame(new String[]{"/ab","/a"},paths);
+    checkSame(new String[]{"/a","/ab"},paths);
+    checkSame(new String[]{"/*?$","/test"},paths);
+  }
+
+  @Test
+  public void noRules()
+  {
+    checkSame(new String[0],new String[]{"","/","/a"});
+  }
+
+  @Test
+  public void randomRules()
+  {
+    // Small alphabet, so that prefixes, wildcards and anchors overlap a lot
+    char[] alphabet = new char[]{'/','a','b','*','$'};
+    Random random = new Random(17L);
+    int trial = 0;
+    while (trial < 500)
+    {
+      String[] rules = new String[random.nextInt(4) + 1];
+      int i = 0;
+      while (i < rules.length)
+      {
+        rules[i++] = randomString(random,alphabet,5);
+      }
+      String[] paths = new String[20];
+      i = 0;
+      while (i < paths.length)
+      {
+        paths[i++] = randomString(random,alphabet,6);
+      }
+      checkSame(rules,paths);
+      trial++;
+    }
+  }
+
+  protected static String randomString(Random random, char[] alphabet, int maxLength)
+  {
+    int length = random.nextInt(maxLength + 1);
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < length)
+    {
+      sb.append(alphabet[random.nextInt(alphabet.length)]);
+    }
+    return sb.toString();
+  }
+
+  protected static void checkSame(String[] rules, String[] paths)
+  {
+    RobotsManager.PathRules pathRules = new RobotsManager.PathRules();
+    for (String rule : rules)
+    {
+      pathRules.addRule(rule);
+    }
+    for (String path : paths)
+    {
+      boolean expected = false;
+      for (String rule : rules)
+      {
+        if (RobotsManager.doesPathMatch(path,rule))
+        {
+          expected = true;
+          break;
+        }
+      }
+      assertEquals("Rules "+Arrays.asList(rules)+", path '"+path+"'",expected,pathRules.isMatch(path));
+    }
+  }
+
+}
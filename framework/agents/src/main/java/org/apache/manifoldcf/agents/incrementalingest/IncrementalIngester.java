@@ -22,6 +22,7 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.agents.system.Logging;
 import org.apache.manifoldcf.agents.system.ManifoldCF;
+import org.apache.manifoldcf.core.metrics.*;
 import java.util.*;
 import java.io.*;
 
@@ -59,6 +60,13 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
 {
   public static final String _rcsid = "@(#)$Id: IncrementalIngester.java 988245 2010-08-23 18:39:35Z kwright $";
 
+  // Time spent in output connector calls, in microseconds.  Each call is one sample, whether it carries
+  // one document or a batch.
+  protected final static LatencyTimer addTimer = MetricsRegistry.getTimer("output.add");
+  protected final static LatencyTimer removeTimer = MetricsRegistry.getTimer("output.remove");
+  protected final static Counter addedDocuments = MetricsRegistry.getCounter("output.add.documents");
+  protected final static Counter removedDocuments = MetricsRegistry.getCounter("output.remove.documents");
+
   // Fields
   protected final static String idField = "id";
   protected final static String outputConnNameField = "connectionname";
@@ -190,6 +198,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     throws ManifoldCFException
   {
     performDelete("",null,null);
+    IngestStatusIndex.invalidate(lockManager,null);
   }
 
   /** Check if a mime type is indexable.
@@ -515,30 +524,17 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     lockManager.enterCriticalSections(null,null,lockArray);
     try
     {
-
-      ArrayList list = new ArrayList();
-      
       if (oldURI != null && (documentURI == null || !oldURI.equals(documentURI)))
       {
         // Delete all records from the database that match the old URI, except for THIS record.
-        list.clear();
-        String query = buildConjunctionClause(list,new ClauseDescription[]{
-          new UnitaryClause(uriHashField,"=",oldURIHash),
-          new UnitaryClause(outputConnNameField,"=",connection.getName())});
-        list.add(docKey);
-        performDelete("WHERE "+query+" AND "+docKeyField+"!=?",list,null);
+        deleteOtherURIRecords(connection.getName(),oldURIHash,docKey);
         removeDocument(connection,oldURI,oldOutputVersion,activities);
       }
 
       if (documentURI != null)
       {
         // Get rid of all records that match the NEW uri, except for this record.
-        list.clear();
-        String query = buildConjunctionClause(list,new ClauseDescription[]{
-          new UnitaryClause(uriHashField,"=",documentURIHash),
-          new UnitaryClause(outputConnNameField,"=",connection.getName())});
-        list.add(docKey);
-        performDelete("WHERE "+query+" AND "+ docKeyField+"!=?",list,null);
+        deleteOtherURIRecords(connection.getName(),documentURIHash,docKey);
       }
 
       // Now, we know we are ready for the ingest.
@@ -578,6 +574,245 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     }
   }
 
+  /** Get the maximum number of documents the output connection can usefully ingest in a single call
+  * to documentIngestMultiple().
+  *@param outputConnectionName is the name of the output connection.
+  *@return the maximum batch size; 1 means that there is no advantage to batching.
+  */
+  @Override
+  public int getMaxDocumentBatchSize(String outputConnectionName)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    IOutputConnection connection = connectionManager.load(outputConnectionName);
+    IOutputConnector connector = OutputConnectorFactory.grab(threadContext,connection.getClassName(),connection.getConfigParams(),connection.getMaxConnections());
+    if (connector == null)
+      // The connector is not installed; treat this as a service interruption.
+      throw new ServiceInterruption("Output connector not installed",0L);
+    try
+    {
+      return connector.getMaxDocumentBatchSize();
+    }
+    finally
+    {
+      OutputConnectorFactory.release(connector);
+    }
+  }
+
+  /** Ingest multiple documents.
+  * This has the same effect as calling documentIngest() for each document, except that the output connector is
+  * handed all of the documents at once, so that it can send them to the output data store in bulk.
+  * ServiceInterruption is thrown if the ingestion of the documents must be rescheduled.
+  *@param outputConnectionName is the name of the output connection associated with this action.
+  *@param identifierClasses are the names of the spaces in which the identifier hashes should be interpreted.
+  *@param identifierHashes are the hashed document identifiers.
+  *@param documentVersions are the document versions.
+  *@param outputVersion is the output version string constructed from the output specification by the output connector.
+  *@param parameterVersion is the forced parameter version.
+  *@param authorityName is the name of the authority associated with the documents, if any.
+  *@param data is the document data for each document.  The data is closed after ingestion is complete.
+  *@param ingestTime is the time at which the ingestion took place, in milliseconds since epoch.
+  *@param documentURIs are the URIs of the documents, which will be used as the keys of the documents in the index.
+  *@param activities is an object providing a set of methods that the implementer can use to perform the operation.
+  *@return an array with an entry for each document, which is true if the ingest was ok, or false if the ingest is illegal
+  * (and should not be repeated).
+  */
+  @Override
+  public boolean[] documentIngestMultiple(String outputConnectionName,
+    String[] identifierClasses, String[] identifierHashes,
+    String[] documentVersions,
+    String outputVersion,
+    String parameterVersion,
+    String authorityName,
+    RepositoryDocument[] data,
+    long ingestTime, String[] documentURIs,
+    IOutputActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    IOutputConnection connection = connectionManager.load(outputConnectionName);
+
+    String[] docKeys = new String[identifierHashes.length];
+    for (int i = 0; i < docKeys.length; i++)
+    {
+      docKeys[i] = makeKey(identifierClasses[i],identifierHashes[i]);
+      if (Logging.ingest.isDebugEnabled())
+      {
+        Logging.ingest.debug("Ingesting document '"+docKeys[i]+"' into output connection '"+outputConnectionName+"' as part of a batch");
+      }
+    }
+
+    // The batch logic below presumes that every document and every URI appears only once.  If that's not so, the
+    // order of operations matters, so do the documents one at a time.
+    Set<String> seenKeys = new HashSet<String>();
+    Set<String> seenURIs = new HashSet<String>();
+    boolean unique = true;
+    for (int i = 0; i < docKeys.length; i++)
+    {
+      if (!seenKeys.add(docKeys[i]) || (documentURIs[i] != null && !seenURIs.add(documentURIs[i])))
+      {
+        unique = false;
+        break;
+      }
+    }
+    if (!unique)
+    {
+      boolean[] rval = new boolean[docKeys.length];
+      for (int i = 0; i < docKeys.length; i++)
+      {
+        rval[i] = performIngestion(connection,docKeys[i],documentVersions[i],outputVersion,parameterVersion,authorityName,
+          data[i],ingestTime,documentURIs[i],activities);
+      }
+      return rval;
+    }
+
+    return performIngestionMultiple(connection,identifierClasses,identifierHashes,docKeys,documentVersions,outputVersion,parameterVersion,
+      authorityName,data,ingestTime,documentURIs,activities);
+  }
+
+  /** Do the actual ingestion of a batch of distinct documents with distinct URIs.  This follows the same steps as
+  * performIngestion(), but the output connector is called just once to remove documents, and once to add them.
+  */
+  protected boolean[] performIngestionMultiple(IOutputConnection connection,
+    String[] identifierClasses, String[] identifierHashes, String[] docKeys,
+    String[] documentVersions, String outputVersion, String parameterVersion,
+    String authorityNameString,
+    RepositoryDocument[] data,
+    long ingestTime, String[] documentURIs,
+    IOutputActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    // No transactions; not safe because post may take too much time
+
+    String[] documentURIHashes = new String[docKeys.length];
+    for (int i = 0; i < docKeys.length; i++)
+    {
+      if (documentURIs[i] != null)
+        documentURIHashes[i] = ManifoldCF.hash(documentURIs[i]);
+    }
+
+    // See what uris were used before for these docs, if any
+    DeleteInfo[] oldInfo;
+    while (true)
+    {
+      long sleepAmt = 0L;
+      try
+      {
+        oldInfo = getDocumentURIMultiple(connection.getName(),identifierClasses,identifierHashes);
+        break;
+      }
+      catch (ManifoldCFException e)
+      {
+        // Look for deadlock and retry if so
+        if (e.getErrorCode() == e.DATABASE_TRANSACTION_ABORT)
+        {
+          if (Logging.perf.isDebugEnabled())
+            Logging.perf.debug("Aborted select looking for status: "+e.getMessage());
+          sleepAmt = getSleepAmt();
+          continue;
+        }
+        throw e;
+      }
+      finally
+      {
+        sleepFor(sleepAmt);
+      }
+    }
+
+    // Grab critical sections for every uri involved, old and new, just as performIngestion() does for one document.
+    Set<String> lockSet = new HashSet<String>();
+    for (int i = 0; i < docKeys.length; i++)
+    {
+      if (documentURIs[i] != null)
+        lockSet.add(connection.getName()+":"+documentURIs[i]);
+      if (oldInfo[i] != null && oldInfo[i].getURI() != null)
+        lockSet.add(connection.getName()+":"+oldInfo[i].getURI());
+    }
+    String[] lockArray = new String[lockSet.size()];
+    int k = 0;
+    for (String lockName : lockSet)
+    {
+      lockArray[k++] = lockName;
+    }
+
+    lockManager.enterCriticalSections(null,null,lockArray);
+    try
+    {
+      // Remove the old uris that are changing, all in one go
+      List<String> removeURIs = new ArrayList<String>();
+      List<String> removeOutputVersions = new ArrayList<String>();
+      for (int i = 0; i < docKeys.length; i++)
+      {
+        String oldURI = (oldInfo[i] == null)?null:oldInfo[i].getURI();
+        if (oldURI != null && (documentURIs[i] == null || !oldURI.equals(documentURIs[i])))
+        {
+          // Delete all records from the database that match the old URI, except for THIS record.
+          deleteOtherURIRecords(connection.getName(),ManifoldCF.hash(oldURI),docKeys[i]);
+          removeURIs.add(oldURI);
+          removeOutputVersions.add(oldInfo[i].getOutputVersion());
+        }
+      }
+      if (removeURIs.size() > 0)
+        removeDocuments(connection,removeURIs.toArray(new String[0]),removeOutputVersions.toArray(new String[0]),activities);
+
+      // Get rid of all records that match the NEW uris, except for the records for these documents,
+      // and note that something is about to be ingested for each.
+      int ingestCount = 0;
+      for (int i = 0; i < docKeys.length; i++)
+      {
+        if (documentURIs[i] != null)
+        {
+          deleteOtherURIRecords(connection.getName(),documentURIHashes[i],docKeys[i]);
+          noteDocumentIngest(connection.getName(),docKeys[i],null,null,null,null,ingestTime,documentURIs[i],documentURIHashes[i]);
+          ingestCount++;
+        }
+      }
+
+      boolean[] rval = new boolean[docKeys.length];
+      if (ingestCount > 0)
+      {
+        String[] ingestURIs = new String[ingestCount];
+        String[] ingestOutputVersions = new String[ingestCount];
+        RepositoryDocument[] ingestData = new RepositoryDocument[ingestCount];
+        String[] ingestAuthorityNames = new String[ingestCount];
+        int[] ingestIndexes = new int[ingestCount];
+        ingestCount = 0;
+        for (int i = 0; i < docKeys.length; i++)
+        {
+          if (documentURIs[i] != null)
+          {
+            ingestURIs[ingestCount] = documentURIs[i];
+            ingestOutputVersions[ingestCount] = outputVersion;
+            ingestData[ingestCount] = data[i];
+            ingestAuthorityNames[ingestCount] = authorityNameString;
+            ingestIndexes[ingestCount] = i;
+            ingestCount++;
+          }
+        }
+        int[] results = addOrReplaceDocuments(connection,ingestURIs,ingestOutputVersions,ingestData,ingestAuthorityNames,activities);
+        for (int j = 0; j < ingestIndexes.length; j++)
+        {
+          rval[ingestIndexes[j]] = (results[j] == IOutputConnector.DOCUMENTSTATUS_ACCEPTED);
+        }
+      }
+
+      // Record the final state of every document.  Documents with a null uri were merely examined.
+      for (int i = 0; i < docKeys.length; i++)
+      {
+        if (documentURIs[i] != null)
+          noteDocumentIngest(connection.getName(),docKeys[i],documentVersions[i],outputVersion,parameterVersion,authorityNameString,ingestTime,documentURIs[i],documentURIHashes[i]);
+        else
+        {
+          noteDocumentIngest(connection.getName(),docKeys[i],documentVersions[i],outputVersion,parameterVersion,authorityNameString,ingestTime,null,null);
+          rval[i] = true;
+        }
+      }
+      return rval;
+    }
+    finally
+    {
+      lockManager.leaveCriticalSections(null,null,lockArray);
+    }
+  }
+
   /** Note the fact that we checked a document (and found that it did not need to be ingested, because the
   * versions agreed).
   *@param outputConnectionName is the name of the output connection associated with this action.
@@ -591,23 +826,38 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     long checkTime)
     throws ManifoldCFException
   {
+    IngestStatusIndex statusIndex = getStatusIndex(outputConnectionName);
     beginTransaction();
     try
     {
       int maxClauses;
       
+      // The status index usually knows the row id already, or knows there's no row at all.
+      HashMap rowIDSet = new HashMap();
+      boolean useIndex = statusIndex != null && !statusIndex.isVerifying();
+      boolean complete = useIndex && statusIndex.isComplete();
       HashMap docIDValues = new HashMap();
       int j = 0;
       while (j < identifierHashes.length)
       {
         String docDBString = makeKey(identifierClasses[j],identifierHashes[j]);
-        docIDValues.put(docDBString,docDBString);
         j++;
+        if (useIndex)
+        {
+          IngestStatusIndex.Entry entry = statusIndex.lookup(docDBString);
+          if (entry != null && entry.getRowID() != null)
+          {
+            rowIDSet.put(entry.getRowID(),entry.getRowID());
+            continue;
+          }
+          if (entry == null && complete)
+            continue;
+        }
+        docIDValues.put(docDBString,docDBString);
       }
 
       // Now, perform n queries, each of them no larger the maxInClause in length.
       // Create a list of row id's from this.
-      HashMap rowIDSet = new HashMap();
       Iterator iter = docIDValues.keySet().iterator();
       j = 0;
       ArrayList list = new ArrayList();
@@ -773,6 +1023,22 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
 
     // No transactions.  Time for the operation may exceed transaction timeout.
 
+    // The status index must never claim a deleted document is still there, so forget these documents both
+    // before and after the rows go away.
+    IngestStatusIndex statusIndex = IngestStatusIndex.getIndex(lockManager,outputConnectionName);
+    Set<String> removedDocKeys = new HashSet<String>();
+    for (int k = 0 ; k < identifierHashes.length ; k++)
+    {
+      removedDocKeys.add(makeKey(identifierClasses[k],identifierHashes[k]));
+    }
+    if (statusIndex != null)
+    {
+      for (String docKey : removedDocKeys)
+      {
+        statusIndex.noteRemoved(docKey);
+      }
+    }
+
     // Obtain the current URIs of all of these.
     DeleteInfo[] uris = getDocumentURIMultiple(outputConnectionName,identifierClasses,identifierHashes);
 
@@ -804,14 +1070,18 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     lockManager.enterCriticalSections(null,null,lockArray);
     try
     {
-      // Fetch the document URIs for the listed documents
+      // Remove the listed documents from the output data store, in one batch
+      String[] validOutputVersionArray = new String[validURIArray.length];
       int j = 0;
-      while (j < uris.length)
+      i = 0;
+      while (i < uris.length)
       {
-        if (uris[j] != null && uris[j].getURI() != null)
-          removeDocument(connection,uris[j].getURI(),uris[j].getOutputVersion(),activities);
-        j++;
+        if (uris[i] != null && uris[i].getURI() != null)
+          validOutputVersionArray[j++] = uris[i].getOutputVersion();
+        i++;
       }
+      if (validURIArray.length > 0)
+        removeDocuments(connection,validURIArray,validOutputVersionArray,activities);
 
       // Now, get rid of all rows that match the given uris.
       // Do the queries together, then the deletes
@@ -853,7 +1123,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         {
           if (j == maxClauses)
           {
-            findRowIdsForURIs(outputConnectionName,rowIDSet,docURIValues,hashList);
+            findRowIdsForURIs(outputConnectionName,rowIDSet,docURIValues,hashList,removedDocKeys);
             hashList.clear();
             j = 0;
           }
@@ -862,7 +1132,16 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         }
 
         if (j > 0)
-          findRowIdsForURIs(outputConnectionName,rowIDSet,docURIValues,hashList);
+          findRowIdsForURIs(outputConnectionName,rowIDSet,docURIValues,hashList,removedDocKeys);
+
+        // Rows that share a URI with one of these documents belong to other documents
+        if (statusIndex != null)
+        {
+          for (String docKey : removedDocKeys)
+          {
+            statusIndex.noteRemoved(docKey);
+          }
+        }
 
         // Next, go through the list of row IDs, and delete them in chunks
         j = 0;
@@ -950,6 +1229,13 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       finally
       {
         endTransaction();
+        if (statusIndex != null)
+        {
+          for (String docKey : removedDocKeys)
+          {
+            statusIndex.noteRemoved(docKey);
+          }
+        }
       }
     }
     finally
@@ -967,9 +1253,10 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
   }
   
   /** Given values and parameters corresponding to a set of hash values, add corresponding
-  * table row id's to the output map.
+  * table row id's to the output map, and the rows' document keys to a set.
   */
-  protected void findRowIdsForURIs(String outputConnectionName, HashMap rowIDSet, HashMap uris, ArrayList hashParamValues)
+  protected void findRowIdsForURIs(String outputConnectionName, HashMap rowIDSet, HashMap uris, ArrayList hashParamValues,
+    Set<String> docKeys)
     throws ManifoldCFException
   {
     ArrayList list = new ArrayList();
@@ -977,7 +1264,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       new MultiClause(uriHashField,hashParamValues),
       new UnitaryClause(outputConnNameField,outputConnectionName)});
       
-    IResultSet set = performQuery("SELECT "+idField+","+docURIField+" FROM "+
+    IResultSet set = performQuery("SELECT "+idField+","+docKeyField+","+docURIField+" FROM "+
       getTableName()+" WHERE "+query,list,null,null);
       
     int i = 0;
@@ -991,6 +1278,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         {
           Long rowID = (Long)row.getValue(idField);
           rowIDSet.put(rowID,rowID);
+          docKeys.add(row.getValue(docKeyField).toString());
         }
       }
     }
@@ -1198,18 +1486,51 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       i++;
     }
 
+    // Answer what we can from the status index.  Unless we're verifying it, only the rest need to be looked up.
+    IngestStatusIndex statusIndex = getStatusIndex(outputConnectionName);
+    Map<String,IngestStatusIndex.Entry> indexAnswers = null;
+    Map queryMap = indexMap;
+    long readSequence = 0L;
+    if (statusIndex != null)
+    {
+      indexAnswers = new HashMap<String,IngestStatusIndex.Entry>();
+      queryMap = new HashMap();
+      boolean complete = statusIndex.isComplete();
+      Iterator iter = indexMap.keySet().iterator();
+      while (iter.hasNext())
+      {
+        String docKey = (String)iter.next();
+        IngestStatusIndex.Entry entry = statusIndex.lookup(docKey);
+        if (entry != null || complete)
+        {
+          indexAnswers.put(docKey,entry);
+          if (!statusIndex.isVerifying())
+          {
+            if (entry != null)
+              rval[((Integer)indexMap.get(docKey)).intValue()] = entry.getStatus();
+            continue;
+          }
+        }
+        queryMap.put(docKey,indexMap.get(docKey));
+      }
+      if (queryMap.size() == 0)
+        return rval;
+      readSequence = statusIndex.getWriteSequence();
+    }
+
+    Map<String,Long> rowIDs = (statusIndex == null)?null:new HashMap<String,Long>();
     beginTransaction();
     try
     {
       ArrayList list = new ArrayList();
       int maxCount = maxClauseDocumentIngestDataChunk(outputConnectionName);
       int j = 0;
-      Iterator iter = indexMap.keySet().iterator();
+      Iterator iter = queryMap.keySet().iterator();
       while (iter.hasNext())
       {
         if (j == maxCount)
         {
-          getDocumentIngestDataChunk(rval,indexMap,outputConnectionName,list);
+          getDocumentIngestDataChunk(rval,queryMap,outputConnectionName,list,rowIDs);
           j = 0;
           list.clear();
         }
@@ -1217,8 +1538,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         j++;
       }
       if (j > 0)
-        getDocumentIngestDataChunk(rval,indexMap,outputConnectionName,list);
-      return rval;
+        getDocumentIngestDataChunk(rval,queryMap,outputConnectionName,list,rowIDs);
     }
     catch (ManifoldCFException e)
     {
@@ -1234,6 +1554,30 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     {
       endTransaction();
     }
+
+    if (statusIndex != null)
+    {
+      Iterator iter = queryMap.keySet().iterator();
+      while (iter.hasNext())
+      {
+        String docKey = (String)iter.next();
+        DocumentIngestStatus status = rval[((Integer)queryMap.get(docKey)).intValue()];
+        if (indexAnswers.containsKey(docKey))
+        {
+          // Verifying: the table is right, by definition
+          IngestStatusIndex.Entry entry = indexAnswers.get(docKey);
+          if (!sameStatus((entry == null)?null:entry.getStatus(),status))
+          {
+            Logging.ingest.warn("Ingest status index for output connection '"+outputConnectionName+
+              "' disagrees with the table about document '"+docKey+"'");
+            statusIndex.noteMismatch(docKey,(status == null)?null:rowIDs.get(docKey),status);
+          }
+        }
+        else if (status != null)
+          statusIndex.populate(readSequence,docKey,rowIDs.get(docKey),status);
+      }
+    }
+    return rval;
   }
 
   /** Look up ingestion data for a documents.
@@ -1378,6 +1722,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       new UnitaryClause(outputConnNameField,outputConnectionName)});
       
     performUpdate(map,"WHERE "+query,list,null);
+    IngestStatusIndex.invalidate(lockManager,outputConnectionName);
   }
 
   /** Note the ingestion of a document, or the "update" of a document.
@@ -1398,6 +1743,31 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     String authorityNameString,
     long ingestTime, String documentURI, String documentURIHash)
     throws ManifoldCFException
+  {
+    IngestStatusIndex statusIndex = IngestStatusIndex.getIndex(lockManager,outputConnectionName);
+    if (statusIndex == null)
+    {
+      recordDocumentIngest(outputConnectionName,docKey,documentVersion,outputVersion,packedForcedParameters,
+        authorityNameString,ingestTime,documentURI,documentURIHash);
+      return;
+    }
+    // If recording fails part way, the index must not keep the old status
+    statusIndex.noteRemoved(docKey);
+    Long rowID = recordDocumentIngest(outputConnectionName,docKey,documentVersion,outputVersion,packedForcedParameters,
+      authorityNameString,ingestTime,documentURI,documentURIHash);
+    statusIndex.noteWritten(docKey,rowID,new DocumentIngestStatus(documentVersion,outputVersion,
+      (authorityNameString == null)?"":authorityNameString,packedForcedParameters));
+  }
+
+  /** Write the ingestion status row for a document.
+  *@return the row id.
+  */
+  protected Long recordDocumentIngest(String outputConnectionName,
+    String docKey, String documentVersion,
+    String outputVersion, String packedForcedParameters,
+    String authorityNameString,
+    long ingestTime, String documentURI, String documentURIHash)
+    throws ManifoldCFException
   {
     HashMap map = new HashMap();
     while (true)
@@ -1458,16 +1828,17 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
           if (row != null)
           {
             // Update the record
+            Long rowID = (Long)row.getValue(idField);
             list.clear();
             query = buildConjunctionClause(list,new ClauseDescription[]{
-              new UnitaryClause(idField,row.getValue(idField))});
+              new UnitaryClause(idField,rowID)});
             long changeCount = ((Long)row.getValue(changeCountField)).longValue();
             changeCount++;
             map.put(changeCountField,new Long(changeCount));
             performUpdate(map,"WHERE "+query,list,null);
             // Update successful!
             performCommit();
-            return;
+            return rowID;
           }
 
           // Update failed to find a matching record, so try the insert
@@ -1526,7 +1897,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         performInsert(map,null);
         noteModifications(1,0,0);
         performCommit();
-        return;
+        return id;
       }
       catch (ManifoldCFException e)
       {
@@ -1606,8 +1977,10 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
   *@param map is the map from id to index.
   *@param clause is the in clause for the query.
   *@param list is the parameter list for the query.
+  *@param rowIDs is where to put the row id for each document key found, or null.
   */
-  protected void getDocumentIngestDataChunk(DocumentIngestStatus[] rval, Map map, String outputConnectionName, ArrayList list)
+  protected void getDocumentIngestDataChunk(DocumentIngestStatus[] rval, Map map, String outputConnectionName, ArrayList list,
+    Map<String,Long> rowIDs)
     throws ManifoldCFException
   {
     ArrayList newList = new ArrayList();
@@ -1634,8 +2007,117 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         String authorityName = (String)row.getValue(authorityNameField);
         String paramVersion = (String)row.getValue(forcedParamsField);
         rval[position.intValue()] = new DocumentIngestStatus(lastVersion,lastOutputVersion,authorityName,paramVersion);
+        if (rowIDs != null)
+          rowIDs.put(docHash,id);
+      }
+    }
+  }
+
+  /** Delete the records for all documents with a given URI, except one.
+  *@param outputConnectionName is the output connection name.
+  *@param uriHash is the hash of the URI.
+  *@param docKey is the key of the document whose record should be kept.
+  */
+  protected void deleteOtherURIRecords(String outputConnectionName, String uriHash, String docKey)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(uriHashField,"=",uriHash),
+      new UnitaryClause(outputConnNameField,"=",outputConnectionName)});
+    list.add(docKey);
+    IngestStatusIndex statusIndex = IngestStatusIndex.getIndex(lockManager,outputConnectionName);
+    if (statusIndex == null)
+    {
+      performDelete("WHERE "+query+" AND "+docKeyField+"!=?",list,null);
+      return;
+    }
+    // Find out whose records these are, so they can be dropped from the status index before and after
+    IResultSet set = performQuery("SELECT "+docKeyField+" FROM "+getTableName()+" WHERE "+query+" AND "+docKeyField+"!=?",
+      list,null,null);
+    for (int i = 0 ; i < set.getRowCount() ; i++)
+    {
+      statusIndex.noteRemoved(set.getRow(i).getValue(docKeyField).toString());
+    }
+    performDelete("WHERE "+query+" AND "+docKeyField+"!=?",list,null);
+    for (int i = 0 ; i < set.getRowCount() ; i++)
+    {
+      statusIndex.noteRemoved(set.getRow(i).getValue(docKeyField).toString());
+    }
+  }
+
+  /** Get the status index for an output connection, loading it if this is the first use.
+  *@return the index, or null if status indexes are disabled.
+  */
+  protected IngestStatusIndex getStatusIndex(String outputConnectionName)
+    throws ManifoldCFException
+  {
+    IngestStatusIndex statusIndex = IngestStatusIndex.getIndex(lockManager,outputConnectionName);
+    if (statusIndex != null && statusIndex.needsLoad())
+      loadStatusIndex(statusIndex,outputConnectionName);
+    return statusIndex;
+  }
+
+  /** Read every row for an output connection into its status index, if they fit.
+  */
+  protected void loadStatusIndex(IngestStatusIndex statusIndex, String outputConnectionName)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(outputConnNameField,outputConnectionName)});
+    IResultSet set = performQuery("SELECT "+constructCountClause("*")+" AS countcol FROM "+getTableName()+" WHERE "+
+      query,list,null,null);
+    if (set.getRowCount() < 1)
+      throw new ManifoldCFException("Expected at least one row");
+    long rowCount = ((Long)set.getRow(0).getValue("countcol")).longValue();
+    if (!statusIndex.startLoad(rowCount))
+      return;
+    boolean loaded = false;
+    try
+    {
+      set = performQuery("SELECT "+idField+","+docKeyField+","+lastVersionField+","+lastOutputVersionField+","+authorityNameField+","+forcedParamsField+
+        " FROM "+getTableName()+" WHERE "+query,list,null,null);
+      List<String> docKeys = new ArrayList<String>(set.getRowCount());
+      List<Long> rowIDs = new ArrayList<Long>(set.getRowCount());
+      List<DocumentIngestStatus> statuses = new ArrayList<DocumentIngestStatus>(set.getRowCount());
+      for (int i = 0 ; i < set.getRowCount() ; i++)
+      {
+        IResultRow row = set.getRow(i);
+        docKeys.add(row.getValue(docKeyField).toString());
+        rowIDs.add((Long)row.getValue(idField));
+        statuses.add(new DocumentIngestStatus((String)row.getValue(lastVersionField),(String)row.getValue(lastOutputVersionField),
+          (String)row.getValue(authorityNameField),(String)row.getValue(forcedParamsField)));
       }
+      statusIndex.finishLoad(docKeys,rowIDs,statuses);
+      loaded = true;
+      if (Logging.ingest.isDebugEnabled())
+        Logging.ingest.debug("Loaded "+docKeys.size()+" rows into the ingest status index for output connection '"+outputConnectionName+"'");
     }
+    finally
+    {
+      if (!loaded)
+        statusIndex.abandonLoad();
+    }
+  }
+
+  /** Compare two document statuses.
+  */
+  protected static boolean sameStatus(DocumentIngestStatus a, DocumentIngestStatus b)
+  {
+    if (a == null || b == null)
+      return a == b;
+    return sameString(a.getDocumentVersion(),b.getDocumentVersion()) &&
+      sameString(a.getOutputVersion(),b.getOutputVersion()) &&
+      sameString(a.getDocumentAuthorityNameString(),b.getDocumentAuthorityNameString()) &&
+      sameString(a.getParameterVersion(),b.getParameterVersion());
+  }
+
+  protected static boolean sameString(String a, String b)
+  {
+    if (a == null || b == null)
+      return a == b;
+    return a.equals(b);
   }
 
   // Protected methods
@@ -1653,7 +2135,16 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       throw new ServiceInterruption("Output connector not installed",0L);
     try
     {
-      return connector.addOrReplaceDocument(documentURI,outputDescription,document,authorityNameString,activities);
+      long startTime = addTimer.start();
+      try
+      {
+        return connector.addOrReplaceDocument(documentURI,outputDescription,document,authorityNameString,activities);
+      }
+      finally
+      {
+        addTimer.stop(startTime);
+        addedDocuments.increment();
+      }
     }
     finally
     {
@@ -1672,7 +2163,74 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       throw new ServiceInterruption("Output connector not installed",0L);
     try
     {
-      connector.removeDocument(documentURI,outputDescription,activities);
+      long startTime = removeTimer.start();
+      try
+      {
+        connector.removeDocument(documentURI,outputDescription,activities);
+      }
+      finally
+      {
+        removeTimer.stop(startTime);
+        removedDocuments.increment();
+      }
+    }
+    finally
+    {
+      OutputConnectorFactory.release(connector);
+    }
+  }
+
+  /** Add or replace multiple documents, using the specified output connection, via the standard pool.
+  */
+  protected int[] addOrReplaceDocuments(IOutputConnection connection, String[] documentURIs, String[] outputDescriptions,
+    RepositoryDocument[] documents, String[] authorityNameStrings,
+    IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    IOutputConnector connector = OutputConnectorFactory.grab(threadContext,connection.getClassName(),connection.getConfigParams(),connection.getMaxConnections());
+    if (connector == null)
+      // The connector is not installed; treat this as a service interruption.
+      throw new ServiceInterruption("Output connector not installed",0L);
+    try
+    {
+      long startTime = addTimer.start();
+      try
+      {
+        return connector.addOrReplaceDocuments(documentURIs,outputDescriptions,documents,authorityNameStrings,activities);
+      }
+      finally
+      {
+        addTimer.stop(startTime);
+        addedDocuments.add((long)documentURIs.length);
+      }
+    }
+    finally
+    {
+      OutputConnectorFactory.release(connector);
+    }
+  }
+
+  /** Remove multiple documents, using the specified output connection, via the standard pool.
+  */
+  protected void removeDocuments(IOutputConnection connection, String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    IOutputConnector connector = OutputConnectorFactory.grab(threadContext,connection.getClassName(),connection.getConfigParams(),connection.getMaxConnections());
+    if (connector == null)
+      // The connector is not installed; treat this as a service interruption.
+      throw new ServiceInterruption("Output connector not installed",0L);
+    try
+    {
+      long startTime = removeTimer.start();
+      try
+      {
+        connector.removeDocuments(documentURIs,outputDescriptions,activities);
+      }
+      finally
+      {
+        removeTimer.stop(startTime);
+        removedDocuments.add((long)documentURIs.length);
+      }
     }
     finally
     {
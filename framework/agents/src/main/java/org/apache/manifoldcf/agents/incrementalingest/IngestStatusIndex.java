@@ -0,0 +1,407 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.incrementalingest;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.agents.system.Logging;
+import org.apache.manifoldcf.agents.system.ManifoldCF;
+import org.apache.manifoldcf.core.metrics.*;
+import java.util.*;
+
+/** An in-memory index of the ingeststatus rows for one output connection, mapping each document key to
+* its row id and its DocumentIngestStatus.  On recrawls most documents haven't changed, and the index lets
+* IncrementalIngester answer "what version did we last send?" without a database round trip.
+*
+* The index is optional, and is sized by a memory budget per output connection; 0 (the default) turns it off.
+* The first time it is used, it loads every row for the connection if they fit in the budget.  If it holds every row,
+* a document that isn't in it has never been ingested, so that can be answered without the database too.  If they
+* don't fit, the index is filled as rows are read and written, and evicts the least recently used entries.
+*
+* The index is kept in sync by IncrementalIngester whenever it writes a row.  Rows deleted from the table are
+* removed both before and after the deletion, so a stale entry can never claim a document is present when it isn't;
+* a stale entry that holds an older version merely causes a reingestion.  A read that raced with a write is not
+* added to the index.  Changes that affect a whole output connection, such as resetOutputConnection(), bump a
+* generation number in shared lock manager data, which makes every process's index for that connection start over.
+*
+* Deletions and ingestions done by other processes are not seen, so the index is only ever enabled when the lock
+* manager is confined to a single process; otherwise it stays off, whatever the memory budget.
+*
+* In verify mode, every lookup is checked against the table, and differences are logged and counted.
+*/
+public class IngestStatusIndex
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Memory budget for each output connection's index, in bytes; 0 disables the index */
+  public static final String memoryBudgetProperty = "org.apache.manifoldcf.ingest.statusindex.memorybudget";
+  /** Set to "true" to check every answer from the index against the table */
+  public static final String verifyProperty = "org.apache.manifoldcf.ingest.statusindex.verify";
+
+  /** Shared data name prefix for the per-connection generation */
+  protected static final String generationPrefix = "ingeststatus-generation-";
+  /** Shared data name for the generation that applies to all connections */
+  protected static final String globalGeneration = "ingeststatus-generation";
+
+  /** Approximate fixed cost of an entry, in bytes: map entry, entry object, status object, Long */
+  protected static final int ENTRY_OVERHEAD = 200;
+
+  protected final static Counter hits = MetricsRegistry.getCounter("ingest.statusindex.hits");
+  protected final static Counter misses = MetricsRegistry.getCounter("ingest.statusindex.misses");
+  protected final static Counter ruledOut = MetricsRegistry.getCounter("ingest.statusindex.absent");
+  protected final static Counter evictions = MetricsRegistry.getCounter("ingest.statusindex.evictions");
+  protected final static Counter mismatches = MetricsRegistry.getCounter("ingest.statusindex.mismatches");
+
+  /** The indexes, keyed by output connection name */
+  protected static final Map<String,IngestStatusIndex> indexes = new HashMap<String,IngestStatusIndex>();
+  /** Set once we have warned that the index can't be used with a multiprocess lock manager */
+  protected static boolean multiprocessWarned = false;
+
+  protected final String outputConnectionName;
+  protected final long memoryBudget;
+  protected final boolean verify;
+
+  /** The entries, in access order */
+  protected final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16,0.75f,true);
+  protected long memoryUsed = 0L;
+  /** True if the index holds every row for the connection */
+  protected boolean complete = false;
+  /** True once a full load has been tried */
+  protected boolean loadAttempted = false;
+  /** Incremented by every write, so that reads that raced with a write can be recognized */
+  protected long writeSequence = 0L;
+  /** Keys written while a full load is in progress, or null if none is */
+  protected Set<String> writtenDuringLoad = null;
+  /** Set if anything has been evicted since the last full load started */
+  protected boolean evictedSinceLoad = false;
+  /** The shared generation the entries belong to */
+  protected String generation = null;
+
+  protected IngestStatusIndex(String outputConnectionName, long memoryBudget, boolean verify)
+  {
+    this.outputConnectionName = outputConnectionName;
+    this.memoryBudget = memoryBudget;
+    this.verify = verify;
+  }
+
+  /** Get the index for an output connection, checking that it is still current.
+  *@param lockManager is the lock manager, for reading the shared generation.
+  *@param outputConnectionName is the output connection name.
+  *@return the index, or null if indexes are disabled.
+  */
+  public static IngestStatusIndex getIndex(ILockManager lockManager, String outputConnectionName)
+    throws ManifoldCFException
+  {
+    IngestStatusIndex index;
+    synchronized (indexes)
+    {
+      index = indexes.get(outputConnectionName);
+      if (index == null)
+      {
+        long memoryBudget = ManifoldCF.getLongProperty(memoryBudgetProperty,0L);
+        if (memoryBudget <= 0L)
+          return null;
+        // Other processes' writes would never reach us
+        if (!lockManager.isSingleProcess())
+        {
+          if (!multiprocessWarned)
+          {
+            Logging.ingest.warn("Property "+memoryBudgetProperty+" is ignored, because the ingest status index cannot be used when ManifoldCF runs in more than one process");
+            multiprocessWarned = true;
+          }
+          return null;
+        }
+        index = new IngestStatusIndex(outputConnectionName,memoryBudget,
+          ManifoldCF.getBooleanProperty(verifyProperty,false));
+        indexes.put(outputConnectionName,index);
+      }
+    }
+    index.checkGeneration(readGeneration(lockManager,outputConnectionName));
+    return index;
+  }
+
+  /** Make every process start over with its index for an output connection, e.g. because every row was changed.
+  *@param lockManager is the lock manager.
+  *@param outputConnectionName is the output connection name, or null for all connections.
+  */
+  public static void invalidate(ILockManager lockManager, String outputConnectionName)
+    throws ManifoldCFException
+  {
+    String datumName = (outputConnectionName == null)?globalGeneration:generationPrefix+outputConnectionName;
+    String newGeneration = Long.toString(System.currentTimeMillis()) + "-" + Long.toString(new Random().nextLong());
+    try
+    {
+      lockManager.writeData(datumName,newGeneration.getBytes("UTF-8"));
+    }
+    catch (java.io.UnsupportedEncodingException e)
+    {
+      throw new RuntimeException("No utf-8: "+e.getMessage(),e);
+    }
+    synchronized (indexes)
+    {
+      for (IngestStatusIndex index : indexes.values())
+      {
+        if (outputConnectionName == null || index.outputConnectionName.equals(outputConnectionName))
+          index.clear();
+      }
+    }
+  }
+
+  protected static String readGeneration(ILockManager lockManager, String outputConnectionName)
+    throws ManifoldCFException
+  {
+    return decode(lockManager.readData(globalGeneration)) + "/" +
+      decode(lockManager.readData(generationPrefix+outputConnectionName));
+  }
+
+  protected static String decode(byte[] data)
+  {
+    if (data == null)
+      return "";
+    try
+    {
+      return new String(data,"UTF-8");
+    }
+    catch (java.io.UnsupportedEncodingException e)
+    {
+      throw new RuntimeException("No utf-8: "+e.getMessage(),e);
+    }
+  }
+
+  /** Discard the entries if they belong to another generation */
+  protected synchronized void checkGeneration(String currentGeneration)
+  {
+    if (generation == null || !generation.equals(currentGeneration))
+    {
+      clear();
+      generation = currentGeneration;
+    }
+  }
+
+  /** Discard all entries, and allow another full load */
+  protected synchronized void clear()
+  {
+    entries.clear();
+    memoryUsed = 0L;
+    complete = false;
+    loadAttempted = false;
+    writeSequence++;
+    // Any load in progress can no longer be trusted
+    writtenDuringLoad = null;
+  }
+
+  /** Check whether every answer should be checked against the table */
+  public boolean isVerifying()
+  {
+    return verify;
+  }
+
+  /** Check whether the index holds every row for the connection, so a missing key means no row */
+  public synchronized boolean isComplete()
+  {
+    return complete;
+  }
+
+  /** Look up a document key.
+  *@param docKey is the document key.
+  *@return the entry, or null if not found.
+  */
+  public synchronized Entry lookup(String docKey)
+  {
+    Entry rval = entries.get(docKey);
+    if (rval != null)
+      hits.increment();
+    else if (complete)
+      ruledOut.increment();
+    else
+      misses.increment();
+    return rval;
+  }
+
+  /** Get the current write sequence number, to pass to populate() after reading rows from the table.
+  */
+  public synchronized long getWriteSequence()
+  {
+    return writeSequence;
+  }
+
+  /** Add a row read from the table, unless something has been written since the read began.
+  *@param readSequence is the write sequence number from before the read.
+  *@param docKey is the document key.
+  *@param rowID is the row id.
+  *@param status is the row's status.
+  */
+  public synchronized void populate(long readSequence, String docKey, Long rowID, DocumentIngestStatus status)
+  {
+    if (readSequence != writeSequence)
+      return;
+    put(docKey,new Entry(rowID,status));
+  }
+
+  /** Note that a row has been written.
+  *@param docKey is the document key.
+  *@param rowID is the row id.
+  *@param status is the status that was written.
+  */
+  public synchronized void noteWritten(String docKey, Long rowID, DocumentIngestStatus status)
+  {
+    writeSequence++;
+    if (writtenDuringLoad != null)
+      writtenDuringLoad.add(docKey);
+    put(docKey,new Entry(rowID,status));
+  }
+
+  /** Note that a row has been, or is about to be, deleted or changed in some way the index can't follow.
+  *@param docKey is the document key.
+  */
+  public synchronized void noteRemoved(String docKey)
+  {
+    writeSequence++;
+    if (writtenDuringLoad != null)
+      writtenDuringLoad.add(docKey);
+    Entry entry = entries.remove(docKey);
+    if (entry != null)
+      memoryUsed -= entry.getSize(docKey);
+  }
+
+  /** Decide whether to do a full load, given the number of rows the connection has.  Only one load is ever tried
+  * per generation.
+  *@param rowCount is the number of rows.
+  *@return true if the caller should read all rows and call finishLoad().
+  */
+  public synchronized boolean startLoad(long rowCount)
+  {
+    if (loadAttempted)
+      return false;
+    loadAttempted = true;
+    if (rowCount * (long)(ENTRY_OVERHEAD * 2) > memoryBudget)
+      return false;
+    writtenDuringLoad = new HashSet<String>();
+    evictedSinceLoad = false;
+    return true;
+  }
+
+  /** Check whether a full load should be tried */
+  public synchronized boolean needsLoad()
+  {
+    return !loadAttempted;
+  }
+
+  /** Finish a full load.  Rows written while the load was going on are left as they are.
+  *@param docKeys are the document keys that were read.
+  *@param rowIDs are the corresponding row ids.
+  *@param statuses are the corresponding statuses.
+  */
+  public synchronized void finishLoad(List<String> docKeys, List<Long> rowIDs, List<DocumentIngestStatus> statuses)
+  {
+    if (writtenDuringLoad == null)
+      // Cleared while we were loading
+      return;
+    for (int i = 0 ; i < docKeys.size() ; i++)
+    {
+      String docKey = docKeys.get(i);
+      if (!writtenDuringLoad.contains(docKey) && !entries.containsKey(docKey))
+        put(docKey,new Entry(rowIDs.get(i),statuses.get(i)));
+    }
+    writtenDuringLoad = null;
+    complete = !evictedSinceLoad;
+  }
+
+  /** Abandon a full load that failed */
+  public synchronized void abandonLoad()
+  {
+    writtenDuringLoad = null;
+  }
+
+  /** Note that verification found the index to be wrong about a key, and correct it.
+  *@param docKey is the document key.
+  *@param rowID is the row id the table has, or null if there is no row.
+  *@param status is the status the table has, or null if there is no row.
+  */
+  public synchronized void noteMismatch(String docKey, Long rowID, DocumentIngestStatus status)
+  {
+    mismatches.increment();
+    if (status == null)
+      noteRemoved(docKey);
+    else
+      noteWritten(docKey,rowID,status);
+  }
+
+  /** Add an entry, evicting old ones to stay within budget.
+  */
+  protected void put(String docKey, Entry entry)
+  {
+    Entry old = entries.put(docKey,entry);
+    if (old != null)
+      memoryUsed -= old.getSize(docKey);
+    memoryUsed += entry.getSize(docKey);
+    if (memoryUsed > memoryBudget)
+    {
+      Iterator<Map.Entry<String,Entry>> iter = entries.entrySet().iterator();
+      while (memoryUsed > memoryBudget && iter.hasNext())
+      {
+        Map.Entry<String,Entry> eldest = iter.next();
+        iter.remove();
+        memoryUsed -= eldest.getValue().getSize(eldest.getKey());
+        evictions.increment();
+      }
+      // Once anything has been evicted, a missing key tells us nothing
+      complete = false;
+      evictedSinceLoad = true;
+    }
+  }
+
+  /** An index entry.
+  */
+  public static class Entry
+  {
+    protected final Long rowID;
+    protected final DocumentIngestStatus status;
+
+    public Entry(Long rowID, DocumentIngestStatus status)
+    {
+      this.rowID = rowID;
+      this.status = status;
+    }
+
+    public Long getRowID()
+    {
+      return rowID;
+    }
+
+    public DocumentIngestStatus getStatus()
+    {
+      return status;
+    }
+
+    /** Estimate the memory used by this entry and its key, in bytes */
+    public int getSize(String docKey)
+    {
+      return ENTRY_OVERHEAD + 2 * (docKey.length() + length(status.getDocumentVersion()) +
+        length(status.getOutputVersion()) + length(status.getDocumentAuthorityNameString()) +
+        length(status.getParameterVersion()));
+    }
+
+    protected static int length(String value)
+    {
+      return (value == null)?0:value.length();
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.interfaces;
+
+import java.io.*;
+
+/** Content handle for content held in memory.
+*/
+public class ByteArrayContentHandle extends ContentHandle
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final byte[] bytes;
+  protected InputStream primaryStream = null;
+
+  /** Constructor.
+  *@param bytes is the content.  It must not be changed afterwards.
+  */
+  public ByteArrayContentHandle(byte[] bytes)
+  {
+    this.bytes = bytes;
+  }
+
+  public long getLength()
+  {
+    return (long)bytes.length;
+  }
+
+  public synchronized InputStream getStream()
+  {
+    if (primaryStream == null)
+      primaryStream = new ByteArrayInputStream(bytes);
+    return primaryStream;
+  }
+
+  public boolean isReplayable()
+  {
+    return true;
+  }
+
+  public InputStream openStream()
+  {
+    return new ByteArrayInputStream(bytes);
+  }
+
+  public long writeTo(OutputStream os)
+    throws IOException
+  {
+    os.write(bytes);
+    return (long)bytes.length;
+  }
+
+}
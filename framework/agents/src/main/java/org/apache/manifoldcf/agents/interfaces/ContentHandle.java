@@ -0,0 +1,113 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.interfaces;
+
+import java.io.*;
+
+/** This class is a handle to the binary content of a RepositoryDocument.  It lets the code that consumes
+* the content pick the cheapest way of moving it, based on where the content actually lives.
+*
+* Every handle has a primary stream, which is what RepositoryDocument.getBinaryStream() returns; it is read
+* once, to the end.  Handles whose content can be read again (files, and content already in memory) are
+* "replayable", and can also furnish independent streams, which do not disturb the primary stream.
+* writeTo() copies the whole content with no intermediate buffer when the content is already in memory.
+*
+* The code that creates a handle owns it, and must call close() once the document has been ingested.
+*/
+public abstract class ContentHandle
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final static int CHUNK_SIZE = 65536;
+
+  /** Get the content length.
+  *@return the length in bytes.
+  */
+  public abstract long getLength();
+
+  /** Get the primary stream.  Every call returns the same stream.
+  *@return the stream.
+  */
+  public abstract InputStream getStream();
+
+  /** Check whether the content can be read more than once.
+  *@return true if openStream() and writeTo() leave the primary stream alone.
+  */
+  public boolean isReplayable()
+  {
+    return false;
+  }
+
+  /** Open a new stream over the whole content.  The caller must close it.
+  * Only replayable content supports this.
+  *@return the new stream.
+  */
+  public InputStream openStream()
+    throws IOException
+  {
+    throw new IOException("Content cannot be replayed");
+  }
+
+  /** Write the whole content to a stream.  For content that is not replayable, this consumes
+  * the primary stream.
+  *@param os is the stream to write to.
+  *@return the number of bytes written.
+  */
+  public long writeTo(OutputStream os)
+    throws IOException
+  {
+    InputStream is = isReplayable()?openStream():getStream();
+    try
+    {
+      return copy(is,os);
+    }
+    finally
+    {
+      if (isReplayable())
+        is.close();
+    }
+  }
+
+  /** Release any resources the handle holds, such as its primary stream.
+  */
+  public void close()
+    throws IOException
+  {
+  }
+
+  /** Copy a stream to another stream.
+  *@return the number of bytes copied.
+  */
+  protected static long copy(InputStream is, OutputStream os)
+    throws IOException
+  {
+    byte[] buffer = new byte[CHUNK_SIZE];
+    long total = 0L;
+    while (true)
+    {
+      int amt = is.read(buffer);
+      if (amt == -1)
+        break;
+      os.write(buffer,0,amt);
+      total += (long)amt;
+    }
+    return total;
+  }
+
+}
@@ -0,0 +1,151 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.interfaces;
+
+import java.io.*;
+
+/** Content handle for content in a file, such as a document that a connector has spooled to disk.
+* The content is replayable: consumers that need to read it again open a new stream on the file.
+* The handle does not own the file; whoever created the file deletes it after closing the handle.
+*/
+public class FileContentHandle extends ContentHandle
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final File file;
+  protected final long length;
+  protected PrimaryStream primaryStream = null;
+
+  /** Constructor.
+  *@param file is the file.
+  */
+  public FileContentHandle(File file)
+  {
+    this(file,file.length());
+  }
+
+  /** Constructor.
+  *@param file is the file.
+  *@param length is the number of bytes of the file that make up the content.
+  */
+  public FileContentHandle(File file, long length)
+  {
+    this.file = file;
+    this.length = length;
+  }
+
+  /** Get the file.
+  */
+  public File getFile()
+  {
+    return file;
+  }
+
+  public long getLength()
+  {
+    return length;
+  }
+
+  public synchronized InputStream getStream()
+  {
+    if (primaryStream == null)
+      primaryStream = new PrimaryStream();
+    return primaryStream;
+  }
+
+  public boolean isReplayable()
+  {
+    return true;
+  }
+
+  public InputStream openStream()
+    throws IOException
+  {
+    return new FileInputStream(file);
+  }
+
+  public synchronized void close()
+    throws IOException
+  {
+    if (primaryStream != null)
+    {
+      primaryStream.close();
+      primaryStream = null;
+    }
+  }
+
+  /** The primary stream.  The file is not opened until the stream is first read, so a consumer
+  * that only uses openStream() does not hold the file open twice.
+  */
+  protected class PrimaryStream extends InputStream
+  {
+    protected InputStream is = null;
+    protected boolean closed = false;
+
+    public PrimaryStream()
+    {
+    }
+
+    protected InputStream getInputStream()
+      throws IOException
+    {
+      if (closed)
+        throw new IOException("Stream closed");
+      if (is == null)
+        is = openStream();
+      return is;
+    }
+
+    public int read()
+      throws IOException
+    {
+      return getInputStream().read();
+    }
+
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      return getInputStream().read(b,off,len);
+    }
+
+    public long skip(long n)
+      throws IOException
+    {
+      return getInputStream().skip(n);
+    }
+
+    public int available()
+      throws IOException
+    {
+      return getInputStream().available();
+    }
+
+    public void close()
+      throws IOException
+    {
+      closed = true;
+      if (is != null)
+      {
+        is.close();
+        is = null;
+      }
+    }
+  }
+
+}
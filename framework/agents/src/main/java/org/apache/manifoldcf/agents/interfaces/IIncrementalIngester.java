@@ -178,6 +178,43 @@ public interface IIncrementalIngester
     IOutputActivity activities)
     throws ManifoldCFException, ServiceInterruption;
 
+  /** Get the maximum number of documents the output connection can usefully ingest in a single call
+  * to documentIngestMultiple().
+  *@param outputConnectionName is the name of the output connection.
+  *@return the maximum batch size; 1 means that there is no advantage to batching.
+  */
+  public int getMaxDocumentBatchSize(String outputConnectionName)
+    throws ManifoldCFException, ServiceInterruption;
+
+  /** Ingest multiple documents.
+  * This has the same effect as calling documentIngest() for each document, except that the output connector is
+  * handed all of the documents at once, so that it can send them to the output data store in bulk.
+  * ServiceInterruption is thrown if the ingestion of the documents must be rescheduled.
+  *@param outputConnectionName is the name of the output connection associated with this action.
+  *@param identifierClasses are the names of the spaces in which the identifier hashes should be interpreted.
+  *@param identifierHashes are the hashed document identifiers.
+  *@param documentVersions are the document versions.
+  *@param outputVersion is the output version string constructed from the output specification by the output connector.
+  *@param parameterVersion is the forced parameter version.
+  *@param authorityName is the name of the authority associated with the documents, if any.
+  *@param data is the document data for each document.  The data is closed after ingestion is complete.
+  *@param ingestTime is the time at which the ingestion took place, in milliseconds since epoch.
+  *@param documentURIs are the URIs of the documents, which will be used as the keys of the documents in the index.
+  *@param activities is an object providing a set of methods that the implementer can use to perform the operation.
+  *@return an array with an entry for each document, which is true if the ingest was ok, or false if the ingest is illegal
+  * (and should not be repeated).
+  */
+  public boolean[] documentIngestMultiple(String outputConnectionName,
+    String[] identifierClasses, String[] identifierHashes,
+    String[] documentVersions,
+    String outputVersion,
+    String parameterVersion,
+    String authorityName,
+    RepositoryDocument[] data,
+    long ingestTime, String[] documentURIs,
+    IOutputActivity activities)
+    throws ManifoldCFException, ServiceInterruption;
+
   /** Note the fact that we checked a document (and found that it did not need to be ingested, because the
   * versions agreed).
   *@param outputConnectionName is the name of the output connection associated with this action.
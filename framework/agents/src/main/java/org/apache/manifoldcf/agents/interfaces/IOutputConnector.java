@@ -152,6 +152,39 @@ public interface IOutputConnector extends IConnector
   public void removeDocument(String documentURI, String outputDescription, IOutputRemoveActivity activities)
     throws ManifoldCFException, ServiceInterruption;
 
+  /** Get the maximum number of documents this connector can usefully accept in a single call to addOrReplaceDocuments()
+  * or removeDocuments().  Connectors that send each document to the output data store separately should return 1, in which
+  * case the framework will not bother to accumulate documents.
+  *@return the maximum batch size, which must be at least 1.
+  */
+  public int getMaxDocumentBatchSize()
+    throws ManifoldCFException;
+
+  /** Add (or replace) multiple documents in the output data store using the connector.
+  * This is the batch form of addOrReplaceDocument(), and has the same semantics for each document.  A connector may use it to
+  * send all the documents to the output data store in one request.  If a ServiceInterruption is thrown, the framework presumes that
+  * none, some, or all of the documents may have been indexed, and will retry all of them later.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the description strings that were constructed for each document by the getOutputDescription() method.
+  *@param documents are the documents to be processed (handed to the output data store).
+  *@param authorityNameStrings are the names of the authorities responsible for authorizing any access tokens passed in with each repository document.
+  * Individual entries may be null.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  *@return the document status (accepted or permanently rejected) for each document, in the same order as the documents were passed in.
+  */
+  public int[] addOrReplaceDocuments(String[] documentURIs, String[] outputDescriptions, RepositoryDocument[] documents, String[] authorityNameStrings,
+    IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption;
+
+  /** Remove multiple documents using the connector.
+  * This is the batch form of removeDocument(), and has the same semantics for each document.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for each document by the getOutputDescription() method above.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption;
+
   /** Notify the connector of a completed job.
   * This is meant to allow the connector to flush any internal data structures it has been keeping around, or to tell the output repository that this
   * is a good time to synchronize things.  It is called whenever a job is either completed or aborted.
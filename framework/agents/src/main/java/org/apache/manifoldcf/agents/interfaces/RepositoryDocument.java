@@ -31,14 +31,17 @@ import java.io.*;
 * and partly by already-extracted textual data.  These
 * streams MUST BE CLOSED BY THE CALLER when the repository document instance has been ingested.
 * The streams also WILL NOT ever be reset; they are read to the end once only.
+*
+* The binary content may instead be supplied as a ContentHandle, which tells the consumer where the
+* content lives.  Content that is replayable (a file, or bytes in memory) can then be read again through
+* ContentHandle.openStream(), for instance to resend it, without being copied into a buffer first.
 */
 public class RepositoryDocument
 {
   public static final String _rcsid = "@(#)$Id: RepositoryDocument.java 988245 2010-08-23 18:39:35Z kwright $";
 
   // Member variables.
-  protected InputStream binaryFieldData = null;
-  protected long binaryLength = 0;
+  protected ContentHandle binaryContent = null;
   protected Map<String,Object> fields = new HashMap<String,Object>();
   protected Map<String,String[]> stringFields = new HashMap<String,String[]>();
   protected Map<String,Reader[]> readerFields = new HashMap<String,Reader[]>();
@@ -201,8 +204,26 @@ public class RepositoryDocument
   */
   public void setBinary(InputStream binaryFieldData, long binaryLength)
   {
-    this.binaryFieldData = binaryFieldData;
-    this.binaryLength = binaryLength;
+    if (binaryFieldData == null)
+      this.binaryContent = null;
+    else
+      this.binaryContent = new StreamContentHandle(binaryFieldData,binaryLength);
+  }
+
+  /** Set the binary field from a content handle.  The caller remains responsible for closing the handle.
+  *@param binaryContent is the handle.
+  */
+  public void setBinary(ContentHandle binaryContent)
+  {
+    this.binaryContent = binaryContent;
+  }
+
+  /** Get the binary content handle (if any).
+  *@return the handle.
+  */
+  public ContentHandle getBinaryContent()
+  {
+    return binaryContent;
   }
 
   /** Get the binary fields (if any).
@@ -210,7 +231,9 @@ public class RepositoryDocument
   */
   public InputStream getBinaryStream()
   {
-    return binaryFieldData;
+    if (binaryContent == null)
+      return null;
+    return binaryContent.getStream();
   }
   
   /** Set the file name.
@@ -234,7 +257,9 @@ public class RepositoryDocument
   */
   public long getBinaryLength()
   {
-    return binaryLength;
+    if (binaryContent == null)
+      return 0L;
+    return binaryContent.getLength();
   }
 
   /** Add/remove a multivalue date field.
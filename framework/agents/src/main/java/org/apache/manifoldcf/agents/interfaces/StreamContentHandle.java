@@ -0,0 +1,60 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.interfaces;
+
+import java.io.*;
+
+/** Content handle for a stream that can be read only once, such as the body of a fetch.  The stream is
+* handed straight to the consumer, so nothing is copied on the way through.
+*/
+public class StreamContentHandle extends ContentHandle
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final InputStream is;
+  protected final long length;
+
+  /** Constructor.
+  *@param is is the stream.  Closing the handle closes it.
+  *@param length is the number of bytes the stream will deliver.
+  */
+  public StreamContentHandle(InputStream is, long length)
+  {
+    this.is = is;
+    this.length = length;
+  }
+
+  public long getLength()
+  {
+    return length;
+  }
+
+  public InputStream getStream()
+  {
+    return is;
+  }
+
+  public void close()
+    throws IOException
+  {
+    if (is != null)
+      is.close();
+  }
+
+}
@@ -201,6 +201,52 @@ public abstract class BaseOutputConnector extends org.apache.manifoldcf.core.con
     // Does nothing in the base class
   }
   
+  /** Get the maximum number of documents this connector can usefully accept in a single call to addOrReplaceDocuments()
+  * or removeDocuments().
+  *@return the maximum batch size.  The base class does not batch, so it returns 1.
+  */
+  public int getMaxDocumentBatchSize()
+    throws ManifoldCFException
+  {
+    return 1;
+  }
+
+  /** Add (or replace) multiple documents in the output data store using the connector.
+  * The base class implementation simply calls addOrReplaceDocument() for each document in turn.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the description strings that were constructed for each document by the getOutputDescription() method.
+  *@param documents are the documents to be processed (handed to the output data store).
+  *@param authorityNameStrings are the names of the authorities responsible for authorizing any access tokens passed in with each repository document.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  *@return the document status (accepted or permanently rejected) for each document.
+  */
+  public int[] addOrReplaceDocuments(String[] documentURIs, String[] outputDescriptions, RepositoryDocument[] documents, String[] authorityNameStrings,
+    IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    int[] rval = new int[documentURIs.length];
+    for (int i = 0; i < rval.length; i++)
+    {
+      rval[i] = addOrReplaceDocument(documentURIs[i],outputDescriptions[i],documents[i],authorityNameStrings[i],activities);
+    }
+    return rval;
+  }
+
+  /** Remove multiple documents using the connector.
+  * The base class implementation simply calls removeDocument() for each document in turn.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for each document by the getOutputDescription() method above.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    for (int i = 0; i < documentURIs.length; i++)
+    {
+      removeDocument(documentURIs[i],outputDescriptions[i],activities);
+    }
+  }
+
   // UI support methods.
   //
   // These support methods come in two varieties.  The first bunch is involved in setting up connection configuration information.  The second bunch
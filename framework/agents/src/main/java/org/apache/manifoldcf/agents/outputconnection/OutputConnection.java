@@ -21,11 +21,12 @@ package org.apache.manifoldcf.agents.outputconnection;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import java.util.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
 /** An instance of this class represents a persistently-stored output connection description.
 * This is the paper object meant for editing and manipulation.
 */
-public class OutputConnection implements IOutputConnection
+public class OutputConnection implements IOutputConnection, ICacheSizeEstimate
 {
   public static final String _rcsid = "@(#)$Id: OutputConnection.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -43,6 +44,16 @@ public class OutputConnection implements IOutputConnection
   {
   }
 
+  /** Estimate the memory this object occupies, so that cached connections count against the
+  * cache memory budget in proportion to their configuration.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    return GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(name) + GeneralCache.estimateSize(description) +
+      GeneralCache.estimateSize(className) + configParams.getEstimatedSize();
+  }
+
   /** Clone this object.
   *@return the cloned object.
   */
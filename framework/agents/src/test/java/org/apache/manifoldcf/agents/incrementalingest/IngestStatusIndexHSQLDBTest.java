@@ -0,0 +1,173 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.incrementalingest;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.agents.system.ManifoldCF;
+import org.apache.manifoldcf.core.lockmanager.LockManager;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Checks the ingest status index against the real ingeststatus table: that verify mode notices and corrects
+* rows changed behind the index's back, as another process would, and that the index refuses to run when other
+* processes could be writing.
+*/
+public class IngestStatusIndexHSQLDBTest extends org.apache.manifoldcf.agents.tests.BaseHSQLDB
+{
+  protected static final String outputConnectionName = "Test Output";
+
+  protected IThreadContext tc;
+  protected IIncrementalIngester ingester;
+  protected IDBInterface database;
+
+  @Before
+  public void setUpIndex()
+    throws Exception
+  {
+    System.setProperty(IngestStatusIndex.memoryBudgetProperty,"1000000");
+    System.setProperty(IngestStatusIndex.verifyProperty,"true");
+    forgetIndexes();
+
+    tc = ThreadContextFactory.make();
+    IOutputConnectionManager outputMgr = OutputConnectionManagerFactory.make(tc);
+    IOutputConnection outputConn = outputMgr.create();
+    outputConn.setName(outputConnectionName);
+    outputConn.setDescription(outputConnectionName);
+    outputConn.setClassName("org.apache.manifoldcf.agents.output.nullconnector.NullConnector");
+    outputConn.setMaxConnections(10);
+    outputMgr.save(outputConn);
+
+    ingester = IncrementalIngesterFactory.make(tc);
+    database = DBInterfaceFactory.make(tc,
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+  }
+
+  @After
+  public void cleanUpIndex()
+    throws Exception
+  {
+    System.clearProperty(IngestStatusIndex.memoryBudgetProperty);
+    System.clearProperty(IngestStatusIndex.verifyProperty);
+    forgetIndexes();
+  }
+
+  protected static void forgetIndexes()
+  {
+    synchronized (IngestStatusIndex.indexes)
+    {
+      IngestStatusIndex.indexes.clear();
+    }
+  }
+
+  @Test
+  public void verifyCorrectsChangedRow()
+    throws Exception
+  {
+    ingester.documentRecord(outputConnectionName,"test","A","v1",100L,null);
+    assertEquals("v1",getVersion("A"));
+
+    // Change the row without telling the index
+    Map<String,Object> map = new HashMap<String,Object>();
+    map.put(IncrementalIngester.lastVersionField,"v2");
+    database.performUpdate("ingeststatus",map,"WHERE "+IncrementalIngester.docKeyField+"=?",keyParams("A"),null);
+
+    long before = IngestStatusIndex.mismatches.getValue();
+    assertEquals("v2",getVersion("A"));
+    assertEquals(before+1L,IngestStatusIndex.mismatches.getValue());
+    // Corrected, so no further mismatch
+    assertEquals("v2",getVersion("A"));
+    assertEquals(before+1L,IngestStatusIndex.mismatches.getValue());
+  }
+
+  @Test
+  public void verifyCorrectsDeletedRow()
+    throws Exception
+  {
+    ingester.documentRecord(outputConnectionName,"test","A","v1",100L,null);
+    ingester.documentRecord(outputConnectionName,"test","B","v1",100L,null);
+    assertEquals("v1",getVersion("A"));
+
+    database.performDelete("ingeststatus","WHERE "+IncrementalIngester.docKeyField+"=?",keyParams("A"),null);
+
+    long before = IngestStatusIndex.mismatches.getValue();
+    assertNull(getVersion("A"));
+    assertEquals(before+1L,IngestStatusIndex.mismatches.getValue());
+    assertNull(getVersion("A"));
+    assertEquals("v1",getVersion("B"));
+    assertEquals(before+1L,IngestStatusIndex.mismatches.getValue());
+  }
+
+  @Test
+  public void verifySeesNewRow()
+    throws Exception
+  {
+    ingester.documentRecord(outputConnectionName,"test","A","v1",100L,null);
+    // The index now holds every row, so it rules B out
+    assertNull(getVersion("B"));
+    IngestStatusIndex index = IngestStatusIndex.getIndex(LockManagerFactory.make(tc),outputConnectionName);
+    assertTrue(index.isComplete());
+
+    // Write a row and then take it back out of the index, which leaves the index as it would be
+    // had another process written the row
+    ingester.documentRecord(outputConnectionName,"test","B","v1",100L,null);
+    index.noteRemoved(IncrementalIngester.makeKey("test","B"));
+
+    long before = IngestStatusIndex.mismatches.getValue();
+    assertEquals("v1",getVersion("B"));
+    assertEquals(before+1L,IngestStatusIndex.mismatches.getValue());
+    assertEquals("v1",getVersion("B"));
+    assertEquals(before+1L,IngestStatusIndex.mismatches.getValue());
+  }
+
+  @Test
+  public void refusedWhenMultiprocess()
+    throws Exception
+  {
+    assertNotNull(IngestStatusIndex.getIndex(LockManagerFactory.make(tc),outputConnectionName));
+    forgetIndexes();
+    ILockManager multiprocess = new LockManager()
+    {
+      public boolean isSingleProcess()
+      {
+        return false;
+      }
+    };
+    assertNull(IngestStatusIndex.getIndex(multiprocess,outputConnectionName));
+  }
+
+  protected String getVersion(String hash)
+    throws ManifoldCFException
+  {
+    DocumentIngestStatus status = ingester.getDocumentIngestData(outputConnectionName,"test",hash);
+    return (status == null)?null:status.getDocumentVersion();
+  }
+
+  protected static List keyParams(String hash)
+  {
+    List rval = new ArrayList();
+    rval.add(IncrementalIngester.makeKey("test",hash));
+    return rval;
+  }
+
+}
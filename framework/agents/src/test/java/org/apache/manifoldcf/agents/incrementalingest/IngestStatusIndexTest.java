@@ -0,0 +1,154 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.agents.incrementalingest;
+
+import org.apache.manifoldcf.agents.interfaces.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Checks that rows read from the table never overwrite what a concurrent write put in the index.
+*/
+public class IngestStatusIndexTest
+{
+
+  protected static DocumentIngestStatus status(String version)
+  {
+    return new DocumentIngestStatus(version,"output","","params");
+  }
+
+  protected static IngestStatusIndex makeIndex()
+  {
+    return new IngestStatusIndex("test",1000000L,false);
+  }
+
+  @Test
+  public void populateAfterWriteIsIgnored()
+    throws Exception
+  {
+    IngestStatusIndex index = makeIndex();
+    // A reader starts, a writer records a newer version, then the reader's stale row arrives
+    long readSequence = index.getWriteSequence();
+    index.noteWritten("a",new Long(1L),status("2"));
+    index.populate(readSequence,"a",new Long(1L),status("1"));
+    assertEquals("2",index.lookup("a").getStatus().getDocumentVersion());
+  }
+
+  @Test
+  public void populateAfterRemoveIsIgnored()
+    throws Exception
+  {
+    IngestStatusIndex index = makeIndex();
+    long readSequence = index.getWriteSequence();
+    index.noteRemoved("a");
+    index.populate(readSequence,"a",new Long(1L),status("1"));
+    assertNull(index.lookup("a"));
+  }
+
+  @Test
+  public void populateWithoutRaceIsKept()
+    throws Exception
+  {
+    IngestStatusIndex index = makeIndex();
+    long readSequence = index.getWriteSequence();
+    index.populate(readSequence,"a",new Long(1L),status("1"));
+    assertEquals("1",index.lookup("a").getStatus().getDocumentVersion());
+    assertEquals(new Long(1L),index.lookup("a").getRowID());
+  }
+
+  @Test
+  public void loadKeepsConcurrentWrites()
+    throws Exception
+  {
+    IngestStatusIndex index = makeIndex();
+    assertTrue(index.needsLoad());
+    assertTrue(index.startLoad(3L));
+    assertFalse(index.needsLoad());
+    // While the load reads the table, one row is rewritten and another removed
+    index.noteWritten("a",new Long(1L),status("2"));
+    index.noteRemoved("b");
+    index.finishLoad(Arrays.asList("a","b","c"),Arrays.asList(new Long(1L),new Long(2L),new Long(3L)),
+      Arrays.asList(status("1"),status("1"),status("1")));
+    assertTrue(index.isComplete());
+    assertEquals("2",index.lookup("a").getStatus().getDocumentVersion());
+    assertNull(index.lookup("b"));
+    assertEquals("1",index.lookup("c").getStatus().getDocumentVersion());
+    // Only one load per generation
+    assertFalse(index.startLoad(3L));
+  }
+
+  @Test
+  public void loadAbandonedByClear()
+    throws Exception
+  {
+    IngestStatusIndex index = makeIndex();
+    assertTrue(index.startLoad(1L));
+    index.clear();
+    index.finishLoad(Arrays.asList("a"),Arrays.asList(new Long(1L)),Arrays.asList(status("1")));
+    assertFalse(index.isComplete());
+    assertNull(index.lookup("a"));
+    // A clear allows another load
+    assertTrue(index.needsLoad());
+  }
+
+  @Test
+  public void loadTooLargeIsRefused()
+    throws Exception
+  {
+    IngestStatusIndex index = new IngestStatusIndex("test",1000L,false);
+    assertFalse(index.startLoad(1000L));
+    assertFalse(index.isComplete());
+  }
+
+  @Test
+  public void evictionDuringLoadLeavesIndexIncomplete()
+    throws Exception
+  {
+    // Room for the load to start, but not for everything written meanwhile
+    IngestStatusIndex index = new IngestStatusIndex("test",2000L,false);
+    assertTrue(index.startLoad(2L));
+    for (int i = 0; i < 20; i++)
+    {
+      index.noteWritten("w"+Integer.toString(i),new Long((long)i),status("1"));
+    }
+    index.finishLoad(Arrays.asList("a"),Arrays.asList(new Long(100L)),Arrays.asList(status("1")));
+    assertFalse(index.isComplete());
+  }
+
+  @Test
+  public void mismatchCorrectsEntry()
+    throws Exception
+  {
+    IngestStatusIndex index = makeIndex();
+    index.noteWritten("a",new Long(1L),status("1"));
+    index.noteWritten("b",new Long(2L),status("1"));
+    long readSequence = index.getWriteSequence();
+    // The table has a newer version of one document, and no row at all for the other
+    index.noteMismatch("a",new Long(1L),status("2"));
+    index.noteMismatch("b",null,null);
+    assertEquals("2",index.lookup("a").getStatus().getDocumentVersion());
+    assertNull(index.lookup("b"));
+    // A read that began before the correction can't put the wrong answer back
+    index.populate(readSequence,"a",new Long(1L),status("1"));
+    index.populate(readSequence,"b",new Long(2L),status("1"));
+    assertEquals("2",index.lookup("a").getStatus().getDocumentVersion());
+    assertNull(index.lookup("b"));
+  }
+
+}
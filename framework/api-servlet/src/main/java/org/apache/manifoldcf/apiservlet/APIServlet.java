@@ -19,6 +19,7 @@
 package org.apache.manifoldcf.apiservlet;
 
 import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.metrics.MetricsRegistry;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import org.apache.manifoldcf.crawler.system.ManifoldCF;
@@ -73,6 +74,13 @@ public class APIServlet extends HttpServlet
         return;
       }
 
+      // Performance metrics are not an API command, and need no thread context
+      if (pathInfo.equals("/metrics"))
+      {
+        executeMetrics(response);
+        return;
+      }
+
       // Perform the get
       executeRead(tc,response,pathInfo,queryString);
     }
@@ -197,6 +205,29 @@ public class APIServlet extends HttpServlet
 
   // Protected methods
   
+  /** Write this JVM's performance metrics, in the Prometheus text exposition format.
+  */
+  protected static void executeMetrics(HttpServletResponse response)
+    throws IOException
+  {
+    StringWriter sw = new StringWriter();
+    MetricsRegistry.writeText(sw);
+    byte[] responseValue = sw.toString().getBytes("utf-8");
+
+    response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+    response.setIntHeader("Content-Length", (int)responseValue.length);
+    ServletOutputStream out = response.getOutputStream();
+    try
+    {
+      out.write(responseValue,0,responseValue.length);
+      out.flush();
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
   /** Perform a general "read" operation.
   */
   protected static void executeRead(IThreadContext tc, HttpServletResponse response, String pathInfo, String queryString)
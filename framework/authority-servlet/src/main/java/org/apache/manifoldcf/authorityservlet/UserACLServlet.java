@@ -24,6 +24,7 @@ import org.apache.manifoldcf.authorities.system.ManifoldCF;
 import org.apache.manifoldcf.authorities.system.Logging;
 import org.apache.manifoldcf.authorities.system.RequestQueue;
 import org.apache.manifoldcf.authorities.system.AuthRequest;
+import org.apache.manifoldcf.core.metrics.*;
 
 import java.io.*;
 import java.util.*;
@@ -54,6 +55,11 @@ public class UserACLServlet extends HttpServlet
   protected final static String ID_PREFIX = "ID:";
   protected final static String TOKEN_PREFIX = "TOKEN:";
 
+  /** The answer recorded for an authority that does not respond before the deadline */
+  protected final static AuthorizationResponse unreachableResponse = new AuthorizationResponse(null,AuthorizationResponse.RESPONSE_UNREACHABLE);
+
+  protected final static Counter timedOutRequests = MetricsRegistry.getCounter("authority.requests.timedout");
+
   /** The init method.
   */
   public void init(ServletConfig config)
@@ -161,14 +167,14 @@ public class UserACLServlet extends HttpServlet
         if (identifyingString == null || identifyingString.length() == 0)
           identifyingString = ac.getName();
 
-        AuthRequest ar = new AuthRequest(userID,ac.getClassName(),identifyingString,ac.getConfigParams(),ac.getMaxConnections());
-        queue.addRequest(ar);
-
-        requests[i++] = ar;
+        AuthRequest ar = new AuthRequest(userID,ac.getName(),ac.getClassName(),identifyingString,ac.getConfigParams(),ac.getMaxConnections());
+        requests[i++] = queue.addRequest(ar);
       }
 
-      // Now, work through the returning answers.
+      // Now, work through the returning answers.  The authorities all work in parallel, so the
+      // deadline applies to the request as a whole.
       i = 0;
+      long deadline = System.currentTimeMillis() + ManifoldCF.getAuthRequestTimeout();
 
       // Ask all the registered authorities for their ACLs, and merge the final list together.
       StringBuilder sb = new StringBuilder();
@@ -185,13 +191,25 @@ public class UserACLServlet extends HttpServlet
           if (Logging.authorityService.isDebugEnabled())
             Logging.authorityService.debug("Waiting for answer from connector class '"+ac.getClassName()+"' for user '"+userID+"'");
 
-          ar.waitForComplete();
-
-          if (Logging.authorityService.isDebugEnabled())
-            Logging.authorityService.debug("Received answer from connector class '"+ac.getClassName()+"' for user '"+userID+"'");
+          Throwable exception;
+          AuthorizationResponse reply;
+          if (ar.waitForComplete(Math.max(deadline - System.currentTimeMillis(),1L)))
+          {
+            if (Logging.authorityService.isDebugEnabled())
+              Logging.authorityService.debug("Received answer from connector class '"+ac.getClassName()+"' for user '"+userID+"'");
+            exception = ar.getAnswerException();
+            reply = ar.getAnswerResponse();
+          }
+          else
+          {
+            // The authority did not answer in time.  Treat it as unreachable; the request itself carries on,
+            // and later requests for the same user will share its answer.
+            Logging.authorityService.warn("Timed out waiting for authority '"+ar.getIdentifyingString()+"' for user '"+userID+"'");
+            timedOutRequests.increment();
+            exception = null;
+            reply = unreachableResponse;
+          }
 
-          Throwable exception = ar.getAnswerException();
-          AuthorizationResponse reply = ar.getAnswerResponse();
           if (exception != null)
           {
             // Exceptions are always bad now
@@ -20,8 +20,10 @@ package org.apache.manifoldcf.core.cachemanager;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.apache.manifoldcf.core.system.Logging;
 import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.metrics.*;
 import java.io.*;
 
 /** This class implements the cache manager interface, and provides generic cache management
@@ -35,9 +37,22 @@ public class CacheManager implements ICacheManager
 
   protected final static String cacheLockPrefix = "_Cache_";
 
+  /** Default memory budget for each object class, in bytes */
+  public final static String cacheMemoryBudgetProperty = "org.apache.manifoldcf.cache.memorybudget";
+  /** Prefix for the memory budget of a specific object class; the class name follows */
+  public final static String cacheClassMemoryBudgetPropertyPrefix = "org.apache.manifoldcf.cache.memorybudget.";
+
   protected ILockManager lockManager;
   protected static GeneralCache cache = new GeneralCache();
 
+  // Memory budgets, by object class name, once looked up
+  protected final static ConcurrentHashMap<String,Long> memoryBudgets = new ConcurrentHashMap<String,Long>();
+
+  static
+  {
+    MetricsRegistry.registerSource("cache",new CacheMetricsSource());
+  }
+
   // This is the hash mapping transaction id's to CacheTransactionHandle objects.
   // It is thread specific because transactions are thread local.
   protected HashMap transactionHash = new HashMap();
@@ -502,12 +517,51 @@ public class CacheManager implements ICacheManager
     // Update LRU and max counts.  This also flushes the cache to meet the criteria.
     ICacheClass objectClass = objectDescription.getObjectClass();
     if (objectClass != null)
-      cache.setObjectClass(objectDescription,objectClass.getClassName(),objectClass.getMaxLRUCount());
+      cache.setObjectClass(objectDescription,objectClass.getClassName(),objectClass.getMaxLRUCount(),
+        getMemoryBudget(objectClass.getClassName()));
     else
       cache.setObjectClass(objectDescription,null,Integer.MAX_VALUE);
 
   }
 
+  /** Get the memory budget for an object class.
+  *@param objectClassName is the name of the object class.
+  *@return the budget in bytes, or -1 if the class is not limited by memory.
+  */
+  protected static long getMemoryBudget(String objectClassName)
+  {
+    Long rval = memoryBudgets.get(objectClassName);
+    if (rval == null)
+    {
+      String value = ManifoldCF.getProperty(cacheClassMemoryBudgetPropertyPrefix+objectClassName);
+      if (value == null)
+        value = ManifoldCF.getProperty(cacheMemoryBudgetProperty);
+      long budget = -1L;
+      if (value != null)
+      {
+        try
+        {
+          budget = Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+          Logging.cache.warn("Illegal memory budget value '"+value+"' for cache object class '"+objectClassName+"'; ignoring");
+        }
+      }
+      rval = new Long(budget);
+      memoryBudgets.put(objectClassName,rval);
+    }
+    return rval.longValue();
+  }
+
+  /** Get the statistics of the local cache, by object class.
+  *@return a map from object class name to the hit, miss, and eviction counts and the current size of the class.
+  */
+  public static Map<String,GeneralCache.ClassStatistics> getCacheStatistics()
+  {
+    return cache.getStatistics();
+  }
+
   /** Save a newly created object.  The object MUST be one of those identified in the
   * enterCache() method.
   *@param handle is the create handle.
@@ -881,6 +935,34 @@ public class CacheManager implements ICacheManager
   }
 
 
+  /** Reports the local cache statistics of each object class, as cache.<class>.hits, .misses, .evictions,
+  * .count, .memory, and .hitratio.
+  */
+  protected static class CacheMetricsSource extends MetricsSource
+  {
+    public CacheMetricsSource()
+    {
+    }
+
+    public void collect(Map<String,Number> values)
+    {
+      for (Map.Entry<String,GeneralCache.ClassStatistics> entry : cache.getStatistics().entrySet())
+      {
+        String prefix = "cache."+entry.getKey();
+        GeneralCache.ClassStatistics stats = entry.getValue();
+        long hits = stats.getHits();
+        long misses = stats.getMisses();
+        values.put(prefix+".hits",new Long(hits));
+        values.put(prefix+".misses",new Long(misses));
+        values.put(prefix+".evictions",new Long(stats.getEvictions()));
+        values.put(prefix+".count",new Long((long)stats.getCount()));
+        values.put(prefix+".memory",new Long(stats.getMemory()));
+        if (hits + misses > 0L)
+          values.put(prefix+".hitratio",new Double((double)hits / (double)(hits + misses)));
+      }
+    }
+  }
+
   /** This is the local implementation of ICacheHandle.
   */
   protected class CacheHandle implements ICacheHandle
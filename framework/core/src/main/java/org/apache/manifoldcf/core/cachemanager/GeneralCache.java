@@ -20,39 +20,69 @@ package org.apache.manifoldcf.core.cachemanager;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /** General cache class.  This class will be statically instantiated.  It contains all the structures
 * needed to maintain a cache of objects, with both LRU flushing behavior, and timed expiration of
 * objects.
 * This cache is entirely local to a JVM and does NOT have any locking and synchronization semantics
 * cross-JVM.  That is handled at a higher level.
+*
+* The cache is divided into shards by object description, each with its own lock, so that threads working
+* with different objects do not contend.  Lookups do not lock at all.  The LRU limits of an object class
+* (a maximum count, and optionally a memory budget) apply across all shards; when a limit is exceeded,
+* the least recently used object of the class is evicted, whichever shard it lives in.
 */
 public class GeneralCache
 {
   public static final String _rcsid = "@(#)$Id: GeneralCache.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // This table is for looking stuff up by object description
-  protected ObjectRecordTable hashtable = new ObjectRecordTable();
-  // This table is for looking stuff up by cache key - hash table of hash tables
-  protected InvalidationTable invalidationTable = new InvalidationTable();
-  // This table keeps the running count of each object class
-  protected ObjectClassTable objectClassTable = new ObjectClassTable();
-  // This structure is the general expiration tree
-  public ExpirationTree expirationTree = new ExpirationTree();
+  /** The number of shards; must be a power of two */
+  protected final static int SHARD_COUNT = 16;
+
+  /** The size assumed for cached objects that do not provide an estimate of their own */
+  public final static long DEFAULT_OBJECT_SIZE = 1024L;
+  /** The size assumed for a small fixed-size object, such as a boxed number or a map entry */
+  public final static long SMALL_OBJECT_SIZE = 32L;
+
+  // The shards
+  protected final CacheShard[] shards;
+  // Per-object-class counts, memory, and statistics, across all shards
+  protected final ConcurrentHashMap<String,ClassStatistics> classStatistics = new ConcurrentHashMap<String,ClassStatistics>();
+  // Sequence used to order records by last use, across shards
+  protected final AtomicLong lruSequence = new AtomicLong(0L);
 
   public GeneralCache()
   {
+    shards = new CacheShard[SHARD_COUNT];
+    for (int i = 0; i < SHARD_COUNT; i++)
+    {
+      shards[i] = new CacheShard();
+    }
   }
 
   /** Locate an object in the cache, and return it if found.
   *@param objectDescription is the object's unique identifier.
   *@return the object if found, or null if not present in the cache.
   */
-  public synchronized Object lookup(Object objectDescription)
+  public Object lookup(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
+    ObjectRecord o = getShard(objectDescription).hashtable.lookup(objectDescription);
     if (o == null)
+    {
+      // Charge the miss to the class the description says the object would belong to
+      if (objectDescription instanceof ICacheDescription)
+      {
+        ICacheClass objectClass = ((ICacheDescription)objectDescription).getObjectClass();
+        if (objectClass != null)
+          getClassStatistics(objectClass.getClassName()).misses.incrementAndGet();
+      }
       return null;
+    }
+    String objectClass = o.getObjectClass();
+    if (objectClass != null)
+      getClassStatistics(objectClass).hits.incrementAndGet();
     return o.getObject();
   }
 
@@ -60,9 +90,9 @@ public class GeneralCache
   *@param objectDescription is the object's unique identifier.
   *@return the creation time, or -1 if object not found.
   */
-  public synchronized long getObjectCreationTime(Object objectDescription)
+  public long getObjectCreationTime(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
+    ObjectRecord o = getShard(objectDescription).hashtable.lookup(objectDescription);
     if (o == null)
       return -1L;
     return o.getCreationTime();
@@ -72,9 +102,9 @@ public class GeneralCache
   *@param objectDescription is the object's unique identifier.
   *@return the keys, or null if not found.
   */
-  public synchronized StringSet getObjectInvalidationKeys(Object objectDescription)
+  public StringSet getObjectInvalidationKeys(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
+    ObjectRecord o = getShard(objectDescription).hashtable.lookup(objectDescription);
     if (o == null)
       return null;
     return o.getKeys();
@@ -84,9 +114,9 @@ public class GeneralCache
   *@param objectDescription is the object's unique identifier.
   *@return the expiration time (-1L means none).
   */
-  public synchronized long getObjectExpirationTime(Object objectDescription)
+  public long getObjectExpirationTime(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
+    ObjectRecord o = getShard(objectDescription).hashtable.lookup(objectDescription);
     if (o == null)
       return -1L;
     return o.getObjectExpiration();
@@ -95,11 +125,42 @@ public class GeneralCache
   /** Delete a record from the cache.
   *@param objectDescription is the unique description.
   */
-  public synchronized void deleteObject(Object objectDescription)
+  public void deleteObject(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o != null)
-      deleteEntry(o);
+    CacheShard shard = getShard(objectDescription);
+    synchronized (shard)
+    {
+      ObjectRecord o = shard.hashtable.lookup(objectDescription);
+      if (o != null)
+        deleteEntry(shard,o);
+    }
+  }
+
+  /** Estimate the memory a string occupies, for use by ICacheSizeEstimate implementations.
+  *@param value is the string, or null.
+  *@return the approximate number of bytes.
+  */
+  public static long estimateSize(String value)
+  {
+    if (value == null)
+      return 0L;
+    return 40L + 2L * (long)value.length();
+  }
+
+  /** Estimate the memory an arbitrary value occupies, for use by ICacheSizeEstimate implementations.
+  * Strings and objects that provide their own estimate are measured; anything else is assumed to be small.
+  *@param value is the value, or null.
+  *@return the approximate number of bytes.
+  */
+  public static long estimateSize(Object value)
+  {
+    if (value == null)
+      return 0L;
+    if (value instanceof String)
+      return estimateSize((String)value);
+    if (value instanceof ICacheSizeEstimate)
+      return ((ICacheSizeEstimate)value).getEstimatedSize();
+    return SMALL_OBJECT_SIZE;
   }
 
   /** Add a newly created object to the cache.  Use ONLY for newly created objects!
@@ -108,37 +169,54 @@ public class GeneralCache
   *@param keys are the invalidation keys for the newly created object.
   *@param timestamp is the creation timestamp for this object (used for cross-JVM invalidation)
   */
-  public synchronized void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
+  public void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
   {
-    ObjectRecord record = new ObjectRecord(objectDescription,object,keys,timestamp);
-    hashtable.add(record);
-    // Make an entry in the invalidation hash
-    invalidationTable.addKeys(keys,record);
-    // Object has no expiration or class yet, so don't add it to the expiration tree, or to the object
-    // class trees
+    long size;
+    if (object instanceof ICacheSizeEstimate)
+      size = ((ICacheSizeEstimate)object).getEstimatedSize();
+    else
+      size = DEFAULT_OBJECT_SIZE;
+    ObjectRecord record = new ObjectRecord(objectDescription,object,keys,timestamp,size);
+    CacheShard shard = getShard(objectDescription);
+    synchronized (shard)
+    {
+      // If there's an older copy of the object, get rid of it properly, so it does not linger in the other structures
+      ObjectRecord existing = shard.hashtable.lookup(objectDescription);
+      if (existing != null)
+        deleteEntry(shard,existing);
+      shard.hashtable.add(record);
+      // Make an entry in the invalidation hash
+      shard.invalidationTable.addKeys(keys,record);
+      // Object has no expiration or class yet, so don't add it to the expiration tree, or to the object
+      // class trees
+    }
   }
 
   /** Set an object's expiration time.
   *@param objectDescription is the object's unique description.
   *@param expirationTime is the object's new expiration time, in milliseconds since epoch.
   */
-  public synchronized void setObjectExpiration(Object objectDescription, long expirationTime)
+  public void setObjectExpiration(Object objectDescription, long expirationTime)
   {
-    // Find existing object
-    ObjectRecord existing = hashtable.lookup(objectDescription);
-    if (existing == null)
-      return;
-    if (existing.getObjectExpiration() != -1)
-    {
-      // Pull the object from the expiration tree
-      expirationTree.removeEntry(existing);
-    }
-    // Set the new expiration
-    existing.setObjectExpiration(expirationTime);
-    if (expirationTime != -1)
+    CacheShard shard = getShard(objectDescription);
+    synchronized (shard)
     {
-      //Put the object back into the expiration tree
-      expirationTree.addEntry(existing);
+      // Find existing object
+      ObjectRecord existing = shard.hashtable.lookup(objectDescription);
+      if (existing == null)
+        return;
+      if (existing.getObjectExpiration() != -1)
+      {
+        // Pull the object from the expiration tree
+        shard.expirationTree.removeEntry(existing);
+      }
+      // Set the new expiration
+      existing.setObjectExpiration(expirationTime);
+      if (expirationTime != -1)
+      {
+        //Put the object back into the expiration tree
+        shard.expirationTree.addEntry(existing);
+      }
     }
   }
 
@@ -149,69 +227,85 @@ public class GeneralCache
   *@param maxCount is the maximum number of objects of the class to permit to
   * remain in the cache.
   */
-  public synchronized void setObjectClass(Object objectDescription, String objectClass,
+  public void setObjectClass(Object objectDescription, String objectClass,
     int maxCount)
   {
-    // Lookup the existing object class
-    ObjectRecord existing = hashtable.lookup(objectDescription);
-    if (existing == null)
-      return;
-    if (existing.getObjectClass() != null)
-    {
-      // Pull the object from the object class expiration tree
-      objectClassTable.removeEntry(existing);
-    }
-    // Set the new object class & LRU value
-    existing.setObjectClass(objectClass);
-    if (objectClass != null)
-    {
-      // Put the object into the object class expiration tree
-      objectClassTable.addEntry(existing);
+    setObjectClass(objectDescription,objectClass,maxCount,-1L);
+  }
 
-      if (maxCount >= 0)
+  /** Set an object's class, maximum count, and memory budget.  This will clean up extra objects
+  * in a Least Recently Used fashion until both the count and the budget are met.
+  *@param objectDescription is the object's unique description.
+  *@param objectClass is the object's "class", or grouping for the purposes of LRU.
+  *@param maxCount is the maximum number of objects of the class to permit to
+  * remain in the cache.
+  *@param maxMemory is the maximum estimated size, in bytes, of all the objects of the class
+  * to permit to remain in the cache, or -1 if there is no limit.
+  */
+  public void setObjectClass(Object objectDescription, String objectClass,
+    int maxCount, long maxMemory)
+  {
+    CacheShard shard = getShard(objectDescription);
+    synchronized (shard)
+    {
+      // Lookup the existing object class
+      ObjectRecord existing = shard.hashtable.lookup(objectDescription);
+      if (existing == null)
+        return;
+      if (existing.getObjectClass() != null)
       {
-        // Now, clean up objects to meet the count
-        while (objectClassTable.getCurrentMemberCount(objectClass) > maxCount)
-        {
-          ObjectRecord oldestRecord = objectClassTable.getOldestEntry(objectClass);
-          // Delete this entry from all places it lives
-          deleteEntry(oldestRecord);
-        }
-
+        // Pull the object from the object class expiration tree
+        removeClassEntry(shard,existing);
       }
+      // Set the new object class & LRU value
+      existing.setObjectClass(objectClass);
+      if (objectClass == null)
+        return;
+      // Put the object into the object class expiration tree
+      existing.setLRUStamp(lruSequence.incrementAndGet());
+      shard.objectClassTable.addEntry(existing);
+      ClassStatistics stats = getClassStatistics(objectClass);
+      stats.count.incrementAndGet();
+      stats.memory.addAndGet(existing.getSize());
     }
 
+    // Now, clean up objects to meet the limits.  This is done without holding any shard lock, since the
+    // least recently used object may be in any shard.
+    ClassStatistics stats = getClassStatistics(objectClass);
+    while ((maxCount >= 0 && stats.count.get() > maxCount) ||
+      (maxMemory >= 0L && stats.memory.get() > maxMemory))
+    {
+      if (!evictOldest(objectClass))
+        break;
+      stats.evictions.incrementAndGet();
+    }
   }
 
   /** Invalidate a set of keys.  This causes all objects that have any of the specified
   * keys as invalidation keys to be removed from the cache.
   *@param keys is the StringSet describing the keys to invalidate.
   */
-  public synchronized void invalidateKeys(StringSet keys)
+  public void invalidateKeys(StringSet keys)
   {
-    Iterator enum2 = keys.getKeys();
-    while (enum2.hasNext())
+    for (CacheShard shard : shards)
     {
-      String invalidateKey = (String)enum2.next();
-      Iterator enum1 = invalidationTable.getObjectRecordsForKey(invalidateKey);
-      while (enum1.hasNext())
+      synchronized (shard)
       {
-        ObjectRecord record = (ObjectRecord)enum1.next();
-        hashtable.remove(record);
-        // Remove from object class table
-        if (record.getObjectClass() != null)
-        {
-          objectClassTable.removeEntry(record);
-        }
-        // Remove from expiration table
-        if (record.getExpirationTime() >= 0)
+        Iterator enum2 = keys.getKeys();
+        while (enum2.hasNext())
         {
-          expirationTree.removeEntry(record);
+          String invalidateKey = (String)enum2.next();
+          // Copy the records, since deleting them modifies the invalidation table
+          ObjectRecord[] records = shard.invalidationTable.getObjectRecordsForKey(invalidateKey);
+          if (records == null)
+            continue;
+          for (ObjectRecord record : records)
+          {
+            deleteEntry(shard,record);
+          }
+          shard.invalidationTable.removeKey(invalidateKey);
         }
-
       }
-      // We do this last, because we are enumerating over something in here!
-      invalidationTable.removeKey(invalidateKey);
     }
   }
 
@@ -219,72 +313,229 @@ public class GeneralCache
   * @param expireTime is the time to compare against, in milliseconds since epoch.
   */
   public void expireRecords(long expireTime)
+  {
+    for (CacheShard shard : shards)
+    {
+      while (true)
+      {
+        // Do the synchronizer inside the loop.  Cleanup is slower,
+        // but the cache does not get locked for long periods.
+        synchronized (shard)
+        {
+          // Get the oldest record, if any
+          ObjectRecord x = shard.expirationTree.getOldestEntry();
+          if (x == null)
+            break;
+          if (x.getExpirationTime() > expireTime)
+            break;
+          // Remove the entry
+          deleteEntry(shard,x);
+        }
+      }
+    }
+  }
+
+  /** Get the statistics for all object classes the cache has seen.
+  *@return a map from object class name to statistics.  The statistics are live.
+  */
+  public Map<String,ClassStatistics> getStatistics()
+  {
+    return Collections.unmodifiableMap(classStatistics);
+  }
+
+  /** Find the shard for an object description.
+  */
+  protected CacheShard getShard(Object objectDescription)
+  {
+    // Spread the hash bits, since descriptions often have poor low-order bits
+    int h = objectDescription.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return shards[h & (SHARD_COUNT-1)];
+  }
+
+  /** Get (creating if needed) the statistics record for an object class.
+  */
+  protected ClassStatistics getClassStatistics(String objectClass)
+  {
+    ClassStatistics rval = classStatistics.get(objectClass);
+    if (rval == null)
+    {
+      rval = new ClassStatistics();
+      ClassStatistics existing = classStatistics.putIfAbsent(objectClass,rval);
+      if (existing != null)
+        rval = existing;
+    }
+    return rval;
+  }
+
+  /** Evict the least recently used object of a class, across all shards.
+  *@return false if there was nothing of the class to evict.
+  */
+  protected boolean evictOldest(String objectClass)
   {
     while (true)
     {
-      // Do the synchronizer inside the loop.  Cleanup is slower,
-      // but the cache does not get locked for long periods.
-      synchronized (this)
+      // Find the shard whose oldest member of the class is oldest overall
+      CacheShard oldestShard = null;
+      ObjectRecord oldestRecord = null;
+      long oldestStamp = Long.MAX_VALUE;
+      for (CacheShard shard : shards)
+      {
+        synchronized (shard)
+        {
+          ObjectRecord record = shard.objectClassTable.getOldestEntry(objectClass);
+          if (record != null && record.getLRUStamp() < oldestStamp)
+          {
+            oldestShard = shard;
+            oldestRecord = record;
+            oldestStamp = record.getLRUStamp();
+          }
+        }
+      }
+      if (oldestShard == null)
+        return false;
+      synchronized (oldestShard)
       {
-        // Get the oldest record, if any
-        ObjectRecord x = expirationTree.getOldestEntry();
-        if (x == null)
-          break;
-        if (x.getExpirationTime() > expireTime)
-          break;
-        // Remove the entry
-        deleteEntry(x);
+        // If another thread got there first, look again
+        if (oldestShard.objectClassTable.getOldestEntry(objectClass) == oldestRecord &&
+          oldestRecord.getLRUStamp() == oldestStamp)
+        {
+          deleteEntry(oldestShard,oldestRecord);
+          return true;
+        }
       }
     }
   }
 
+  /** Remove a record from its object class, within a shard, keeping the class totals right.
+  * Call this only while synchronized on the shard.
+  */
+  protected void removeClassEntry(CacheShard shard, ObjectRecord record)
+  {
+    shard.objectClassTable.removeEntry(record);
+    ClassStatistics stats = getClassStatistics(record.getObjectClass());
+    stats.count.decrementAndGet();
+    stats.memory.addAndGet(-record.getSize());
+  }
+
   /** Delete a record from the cache. NOTE WELL: This method cannot be used
   * if the data associated with the record is currently being processed with
   * an enumeration (for example), since it modifies the structures that the
-  * enumeration is based on!
+  * enumeration is based on!  Call this only while synchronized on the shard.
+  *@param shard is the shard the record lives in.
   *@param record is the object record.
   */
-  protected void deleteEntry(ObjectRecord record)
+  protected void deleteEntry(CacheShard shard, ObjectRecord record)
   {
     // Delete from the main cache
-    hashtable.remove(record);
+    shard.hashtable.remove(record);
     // Delete from key hash
-    invalidationTable.removeObjectRecord(record);
+    shard.invalidationTable.removeObjectRecord(record);
     // Remove from object class table
     if (record.getObjectClass() != null)
     {
-      objectClassTable.removeEntry(record);
+      removeClassEntry(shard,record);
+      record.setObjectClass(null);
     }
     // Remove from expiration table
     if (record.getExpirationTime() >= 0)
     {
-      expirationTree.removeEntry(record);
+      shard.expirationTree.removeEntry(record);
+      record.setObjectExpiration(-1L);
+    }
+
+  }
+
+  /** Statistics for one object class.
+  */
+  public static class ClassStatistics
+  {
+    protected final AtomicInteger count = new AtomicInteger(0);
+    protected final AtomicLong memory = new AtomicLong(0L);
+    protected final AtomicLong hits = new AtomicLong(0L);
+    protected final AtomicLong misses = new AtomicLong(0L);
+    protected final AtomicLong evictions = new AtomicLong(0L);
+
+    public ClassStatistics()
+    {
+    }
+
+    /** Get the number of objects of the class currently in the cache */
+    public int getCount()
+    {
+      return count.get();
     }
 
+    /** Get the estimated size, in bytes, of the objects of the class currently in the cache */
+    public long getMemory()
+    {
+      return memory.get();
+    }
+
+    /** Get the number of lookups that found an object */
+    public long getHits()
+    {
+      return hits.get();
+    }
+
+    /** Get the number of lookups that did not find an object */
+    public long getMisses()
+    {
+      return misses.get();
+    }
+
+    /** Get the number of objects evicted to meet the count or memory limits */
+    public long getEvictions()
+    {
+      return evictions.get();
+    }
+  }
+
+  /** One shard of the cache.  All structural changes happen while synchronized on the shard.
+  */
+  protected class CacheShard
+  {
+    // This table is for looking stuff up by object description
+    public final ObjectRecordTable hashtable = new ObjectRecordTable();
+    // This table is for looking stuff up by cache key - hash table of hash tables
+    public final InvalidationTable invalidationTable = new InvalidationTable();
+    // This table keeps the LRU order of each object class
+    public final ObjectClassTable objectClassTable = new ObjectClassTable();
+    // This structure is the general expiration tree
+    public final ExpirationTree expirationTree = new ExpirationTree();
+
+    public CacheShard()
+    {
+    }
   }
 
   /** This class represents a cached object.  It has enough hooks to allow it
   * to live in all the various data structures the general cache maintains.
+  * The fields that lookups read without locking are final or volatile.
   */
   protected class ObjectRecord
   {
-    protected Object objectDescription;
-    protected Object theObject;
-    protected StringSet invalidationKeys;
-    protected long creationTime;
-    protected long expirationTime = -1;
-    protected String objectClass = null;
+    protected final Object objectDescription;
+    protected final Object theObject;
+    protected final StringSet invalidationKeys;
+    protected final long creationTime;
+    protected final long size;
+    protected volatile long expirationTime = -1;
+    protected volatile String objectClass = null;
+    protected long lruStamp = 0L;
     protected ObjectRecord prevLRU = null;
     protected ObjectRecord nextLRU = null;
     protected ObjectRecord sameExpirationPrev = null;
     protected ObjectRecord sameExpirationNext = null;
 
-    public ObjectRecord(Object objectDescription, Object theObject, StringSet invalidationKeys, long creationTime)
+    public ObjectRecord(Object objectDescription, Object theObject, StringSet invalidationKeys, long creationTime, long size)
     {
       this.creationTime = creationTime;
       this.objectDescription = objectDescription;
       this.theObject = theObject;
       this.invalidationKeys = invalidationKeys;
+      this.size = size;
     }
 
     public long getCreationTime()
@@ -292,6 +543,21 @@ public class GeneralCache
       return creationTime;
     }
 
+    public long getSize()
+    {
+      return size;
+    }
+
+    public void setLRUStamp(long stamp)
+    {
+      lruStamp = stamp;
+    }
+
+    public long getLRUStamp()
+    {
+      return lruStamp;
+    }
+
     public void setSameExpirationPrev(ObjectRecord x)
     {
       sameExpirationPrev = x;
@@ -387,11 +653,11 @@ public class GeneralCache
   }
 
   /** This class describes a table of object records, looked up
-  * by the unique object description.
+  * by the unique object description.  It may be read without locking.
   */
   protected class ObjectRecordTable
   {
-    protected HashMap hashtable = new HashMap();
+    protected ConcurrentHashMap<Object,ObjectRecord> hashtable = new ConcurrentHashMap<Object,ObjectRecord>();
 
     public ObjectRecordTable()
     {
@@ -409,21 +675,22 @@ public class GeneralCache
 
     public void remove(ObjectRecord record)
     {
-      hashtable.remove(record.getObjectDescription());
+      hashtable.remove(record.getObjectDescription(),record);
     }
 
     public ObjectRecord lookup(Object objectDescription)
     {
-      return (ObjectRecord)hashtable.get(objectDescription);
+      return hashtable.get(objectDescription);
     }
   }
 
   /** This class describes a table of invalidation keys, each of which points
-  * to a set of object records.
+  * to a set of object records.  This is the reverse index that lets invalidation
+  * find the affected objects without scanning.
   */
   protected class InvalidationTable
   {
-    protected HashMap hashtable = new HashMap();
+    protected HashMap<String,Set<ObjectRecord>> hashtable = new HashMap<String,Set<ObjectRecord>>();
 
     public InvalidationTable()
     {
@@ -435,25 +702,24 @@ public class GeneralCache
       while (enum1.hasNext())
       {
         String key = (String)enum1.next();
-        HashMap ht = (HashMap)hashtable.get(key);
+        Set<ObjectRecord> ht = hashtable.get(key);
         if (ht == null)
         {
-          ht = new HashMap();
+          ht = new HashSet<ObjectRecord>();
           hashtable.put(key,ht);
         }
-        ht.put(objectRecord,objectRecord);
+        ht.add(objectRecord);
       }
     }
 
-    public Iterator getObjectRecordsForKey(String key)
+    /** Get the records for a key, as a copy, or null if there are none.
+    */
+    public ObjectRecord[] getObjectRecordsForKey(String key)
     {
-      HashMap ht = (HashMap)hashtable.get(key);
+      Set<ObjectRecord> ht = hashtable.get(key);
       if (ht == null)
-      {
-        ht = new HashMap();
-        hashtable.put(key,ht);
-      }
-      return ht.keySet().iterator();
+        return null;
+      return ht.toArray(new ObjectRecord[ht.size()]);
     }
 
     public void removeKey(String key)
@@ -475,16 +741,16 @@ public class GeneralCache
 
     public void removeObjectRecordFromKey(String key, ObjectRecord objectRecord)
     {
-      HashMap ht = (HashMap)hashtable.get(key);
+      Set<ObjectRecord> ht = hashtable.get(key);
       if (ht == null)
         return;
       ht.remove(objectRecord);
+      if (ht.size() == 0)
+        hashtable.remove(key);
     }
 
   }
 
-  /** This class describes a set of object classes, each with its own LRU behavior.
-  */
   protected class ObjectClassTable
   {
     protected HashMap hashtable = new HashMap();
@@ -38,6 +38,20 @@ public class Base64
       '8', '9', '+', '/'
   };
 
+  /** The encoding characters, as ASCII bytes */
+  private static final byte[] base64ByteArray;
+  static
+  {
+    base64ByteArray = new byte[base64CharacterArray.length];
+    for (int i = 0; i < base64CharacterArray.length; i++)
+    {
+      base64ByteArray[i] = (byte)base64CharacterArray[i];
+    }
+  }
+
+  /** The number of input bytes encoded at a time by the stream encoders.  Must be a multiple of three. */
+  protected static final int ENCODE_CHUNK_SIZE = 3 * 4096;
+
   private static final byte[] mapArray;
   static
   {
@@ -245,15 +259,158 @@ public class Base64
   }
 
   /** Encode a full stream, to the end.
+  * The data is encoded a chunk at a time, so the memory used does not depend on the length of the stream.
   *@param inputStream is the input stream.
   *@param outputWriter is the output writer.
   */
   public void encodeStream(InputStream inputStream, Writer outputWriter)
     throws ManifoldCFException
   {
-    while (encodeNextWord(inputStream,outputWriter))
+    try
+    {
+      byte[] inputChunk = new byte[ENCODE_CHUNK_SIZE];
+      char[] outputChunk = new char[(ENCODE_CHUNK_SIZE / 3) * 4];
+      while (true)
+      {
+        int inputLength = fillChunk(inputStream,inputChunk);
+        if (inputLength == 0)
+          break;
+        int outputLength = encodeChunk(inputChunk,inputLength,outputChunk);
+        outputWriter.write(outputChunk,0,outputLength);
+        if (inputLength < inputChunk.length)
+          break;
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ManifoldCFException("IO error encoding in base64",e);
+    }
+  }
+
+  /** Encode a full stream, to the end, writing the encoded characters as ASCII bytes.
+  * The data is encoded a chunk at a time, so the memory used does not depend on the length of the stream,
+  * and no character set conversion is needed on the way out.
+  *@param inputStream is the input stream.
+  *@param outputStream is the output stream.
+  */
+  public void encodeStream(InputStream inputStream, OutputStream outputStream)
+    throws ManifoldCFException
+  {
+    try
+    {
+      byte[] inputChunk = new byte[ENCODE_CHUNK_SIZE];
+      byte[] outputChunk = new byte[(ENCODE_CHUNK_SIZE / 3) * 4];
+      while (true)
+      {
+        int inputLength = fillChunk(inputStream,inputChunk);
+        if (inputLength == 0)
+          break;
+        int outputLength = encodeChunk(inputChunk,inputLength,outputChunk);
+        outputStream.write(outputChunk,0,outputLength);
+        if (inputLength < inputChunk.length)
+          break;
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ManifoldCFException("IO error encoding in base64",e);
+    }
+  }
+
+  /** Read until the chunk is full or the stream ends.  Padding may only appear at the very end
+  * of the encoded output, so a short read must not be mistaken for the end of the data.
+  *@return the number of bytes read; less than the chunk size only at end of stream.
+  */
+  protected static int fillChunk(InputStream inputStream, byte[] chunk)
+    throws IOException
+  {
+    int length = 0;
+    while (length < chunk.length)
+    {
+      int amt = inputStream.read(chunk,length,chunk.length-length);
+      if (amt == -1)
+        break;
+      length += amt;
+    }
+    return length;
+  }
+
+  /** Encode a chunk of bytes into characters.  If the length is not a multiple of three, the output is padded.
+  *@return the number of characters produced.
+  */
+  protected static int encodeChunk(byte[] input, int inputLength, char[] output)
+  {
+    int outputIndex = 0;
+    int i = 0;
+    int limit = inputLength - inputLength % 3;
+    while (i < limit)
+    {
+      int word = ((input[i]&0xff)<<16) + ((input[i+1]&0xff)<<8) + (input[i+2]&0xff);
+      output[outputIndex++] = base64CharacterArray[word>>18];
+      output[outputIndex++] = base64CharacterArray[(word>>12)&0x3f];
+      output[outputIndex++] = base64CharacterArray[(word>>6)&0x3f];
+      output[outputIndex++] = base64CharacterArray[word&0x3f];
+      i += 3;
+    }
+    switch (inputLength - limit)
+    {
+    case 1:
+      int word1 = input[i]&0xff;
+      output[outputIndex++] = base64CharacterArray[word1>>2];
+      output[outputIndex++] = base64CharacterArray[(word1<<4)&0x3f];
+      output[outputIndex++] = base64PadCharacter;
+      output[outputIndex++] = base64PadCharacter;
+      break;
+    case 2:
+      int word2 = ((input[i]&0xff)<<8) + (input[i+1]&0xff);
+      output[outputIndex++] = base64CharacterArray[word2>>10];
+      output[outputIndex++] = base64CharacterArray[(word2>>4)&0x3f];
+      output[outputIndex++] = base64CharacterArray[(word2<<2)&0x3f];
+      output[outputIndex++] = base64PadCharacter;
+      break;
+    default:
+      break;
+    }
+    return outputIndex;
+  }
+
+  /** Encode a chunk of bytes into ASCII bytes.  If the length is not a multiple of three, the output is padded.
+  *@return the number of bytes produced.
+  */
+  protected static int encodeChunk(byte[] input, int inputLength, byte[] output)
+  {
+    int outputIndex = 0;
+    int i = 0;
+    int limit = inputLength - inputLength % 3;
+    while (i < limit)
+    {
+      int word = ((input[i]&0xff)<<16) + ((input[i+1]&0xff)<<8) + (input[i+2]&0xff);
+      output[outputIndex++] = base64ByteArray[word>>18];
+      output[outputIndex++] = base64ByteArray[(word>>12)&0x3f];
+      output[outputIndex++] = base64ByteArray[(word>>6)&0x3f];
+      output[outputIndex++] = base64ByteArray[word&0x3f];
+      i += 3;
+    }
+    switch (inputLength - limit)
     {
+    case 1:
+      int word1 = input[i]&0xff;
+      output[outputIndex++] = base64ByteArray[word1>>2];
+      output[outputIndex++] = base64ByteArray[(word1<<4)&0x3f];
+      output[outputIndex++] = (byte)base64PadCharacter;
+      output[outputIndex++] = (byte)base64PadCharacter;
+      break;
+    case 2:
+      int word2 = ((input[i]&0xff)<<8) + (input[i+1]&0xff);
+      output[outputIndex++] = base64ByteArray[word2>>10];
+      output[outputIndex++] = base64ByteArray[(word2>>4)&0x3f];
+      output[outputIndex++] = base64ByteArray[(word2<<2)&0x3f];
+      output[outputIndex++] = (byte)base64PadCharacter;
+      break;
+    default:
+      break;
     }
+    return outputIndex;
   }
 
   /** Encode a byte array to a string.
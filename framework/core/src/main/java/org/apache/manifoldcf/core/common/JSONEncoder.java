@@ -0,0 +1,124 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.common;
+
+import java.io.*;
+
+/** Class to write JSON string literals directly to a character stream.
+* Values are escaped a chunk at a time as they are written, so no escaped copy of the value is ever built.
+*/
+public class JSONEncoder
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The number of characters escaped at a time */
+  protected static final int CHUNK_SIZE = 1024;
+
+  private static final char[] hexDigits = {'0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f'};
+
+  private JSONEncoder()
+  {
+  }
+
+  /** Write a value as a quoted, escaped JSON string.
+  *@param outputWriter is the output writer.
+  *@param value is the value to write.
+  */
+  public static void writeString(Writer outputWriter, String value)
+    throws IOException
+  {
+    // Worst case, each character becomes a six-character unicode escape
+    char[] output = new char[Math.min(value.length(),CHUNK_SIZE) * 6 + 2];
+    int outputIndex = 0;
+    output[outputIndex++] = '"';
+    int i = 0;
+    while (i < value.length())
+    {
+      int limit = Math.min(value.length(),i + CHUNK_SIZE);
+      while (i < limit)
+      {
+        char x = value.charAt(i++);
+        switch (x)
+        {
+        case '"':
+        case '\\':
+        case '/':
+          output[outputIndex++] = '\\';
+          output[outputIndex++] = x;
+          break;
+        case '\b':
+          output[outputIndex++] = '\\';
+          output[outputIndex++] = 'b';
+          break;
+        case '\f':
+          output[outputIndex++] = '\\';
+          output[outputIndex++] = 'f';
+          break;
+        case '\n':
+          output[outputIndex++] = '\\';
+          output[outputIndex++] = 'n';
+          break;
+        case '\r':
+          output[outputIndex++] = '\\';
+          output[outputIndex++] = 'r';
+          break;
+        case '\t':
+          output[outputIndex++] = '\\';
+          output[outputIndex++] = 't';
+          break;
+        default:
+          if (x < 0x20)
+          {
+            output[outputIndex++] = '\\';
+            output[outputIndex++] = 'u';
+            output[outputIndex++] = '0';
+            output[outputIndex++] = '0';
+            output[outputIndex++] = hexDigits[(x >> 4) & 0xf];
+            output[outputIndex++] = hexDigits[x & 0xf];
+          }
+          else
+            output[outputIndex++] = x;
+          break;
+        }
+      }
+      outputWriter.write(output,0,outputIndex);
+      outputIndex = 0;
+    }
+    output[outputIndex++] = '"';
+    outputWriter.write(output,0,outputIndex);
+  }
+
+  /** Encode a value as a quoted, escaped JSON string.
+  *@param value is the value to encode.
+  *@return the JSON string literal.
+  */
+  public static String encodeString(String value)
+  {
+    StringWriter sw = new StringWriter(value.length() + 2);
+    try
+    {
+      writeString(sw,value);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException("Unexpected IO exception writing to a string: "+e.getMessage(),e);
+    }
+    return sw.toString();
+  }
+}
@@ -0,0 +1,85 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import java.util.*;
+
+/** A query parameter whose value is a whole array of values, for databases that can bind arrays,
+* e.g. the PostgreSQL construct "column = ANY(?)".  This lets a large set of values be looked up
+* with one statement whose text does not depend on the number of values.
+*/
+public class ArrayParameter
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The database's name for the type of the elements, e.g. "int8" */
+  protected final String elementType;
+  /** The values */
+  protected final Object[] values;
+
+  /** Constructor.
+  *@param elementType is the database's name for the element type.
+  *@param values are the values.
+  */
+  public ArrayParameter(String elementType, Object[] values)
+  {
+    this.elementType = elementType;
+    this.values = values;
+  }
+
+  /** Get the element type name */
+  public String getElementType()
+  {
+    return elementType;
+  }
+
+  /** Get the values */
+  public Object[] getValues()
+  {
+    return values;
+  }
+
+  /** Get the number of values */
+  public int getLength()
+  {
+    return values.length;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof ArrayParameter))
+      return false;
+    ArrayParameter other = (ArrayParameter)o;
+    return elementType.equals(other.elementType) && Arrays.equals(values,other.values);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return elementType.hashCode() + Arrays.hashCode(values);
+  }
+
+  @Override
+  public String toString()
+  {
+    return Arrays.toString(values);
+  }
+
+}
@@ -68,6 +68,17 @@ public class BaseTable
     dbInterface.performInsert(tableName,parameterMap,invalidateKeys);
   }
 
+  /** Perform an insert of many rows at once.
+  *@param invalidateKeys are the cache keys that should be
+  * invalidated.
+  *@param parameterMaps is the list of maps of column name/values to write, one per row.
+  */
+  protected void performInsertMultiple(List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    dbInterface.performInsertMultiple(tableName,parameterMaps,invalidateKeys);
+  }
+
   /** Perform an update operation.
   *@param invalidateKeys are the cache keys that should be invalidated.
   *@param parameterMap is the map of column name/values to write.
@@ -95,6 +95,10 @@ public class ConnectionFactory
       }
       return getConnectionWithRetries(cp);
     }
+    catch (ManifoldCFException e)
+    {
+      throw e;
+    }
     catch (Exception e)
     {
       throw new ManifoldCFException("Error getting connection: "+e.getMessage(),e,ManifoldCFException.DATABASE_ERROR);
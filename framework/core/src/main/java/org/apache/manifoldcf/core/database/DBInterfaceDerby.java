@@ -1211,6 +1211,15 @@ public class DBInterfaceDerby extends Database implements IDBInterface
     return 1;
   }
 
+  /** Get the largest number of parameters to put into a single multi-row insert statement.
+  * Derby compiles each statement to bytecode, so large VALUES lists are expensive to prepare.
+  */
+  @Override
+  protected int getMaxInsertParameters()
+  {
+    return 250;
+  }
+
   /** For windowed report queries, e.g. maxActivity or maxBandwidth, obtain the maximum number of rows
   * that can reasonably be expected to complete in an acceptable time.
   *@return the maximum number of rows.
@@ -22,6 +22,7 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.system.ManifoldCF;
 import org.apache.manifoldcf.core.system.Logging;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 public class DBInterfacePostgreSQL extends Database implements IDBInterface
 {
@@ -33,6 +34,8 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
   public static final String postgresqlPortProperty = "org.apache.manifoldcf.postgresql.port";
   /** PostgreSQL ssl property */
   public static final String postgresqlSslProperty = "org.apache.manifoldcf.postgresql.ssl";
+  /** Largest number of values to bind as one array parameter; no larger than the IN clause maximum disables array binding */
+  public static final String postgresqlMaxArraySizeProperty = "org.apache.manifoldcf.postgresql.maxarraysize";
 
   private static final String _defaultUrl = "jdbc:postgresql://localhost/";
   private static final String _driver = "org.postgresql.Driver";
@@ -74,6 +77,18 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
   protected static final String statslockAnalyzePrefix = "statslock-analyze-";
   protected static final String statsAnalyzePrefix = "stats-analyze-";
   
+  /** The smallest set of values that is bound as an array rather than listed in an IN clause.  Small sets
+  * are mostly status codes and the like, which live in CHAR columns that don't compare well against arrays. */
+  protected static final int MIN_ARRAY_VALUES = 16;
+  /** The statement time that array lookups aim for, in nanoseconds */
+  protected static final long TARGET_ARRAY_QUERY_NANOS = 100000000L;
+
+  /** The number of values currently handed out per array lookup, adjusted from observed latency, and shared by all threads */
+  protected static final AtomicInteger arrayBatchSize = new AtomicInteger(0);
+
+  /** The largest number of values to bind as one array */
+  protected final int maxArraySize;
+
 
   public DBInterfacePostgreSQL(IThreadContext tc, String databaseName, String userName, String password)
     throws ManifoldCFException
@@ -81,6 +96,7 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
     super(tc,getJdbcUrl(databaseName),_driver,databaseName,userName,password);
     cacheKey = CacheKeyFactory.makeDatabaseKey(this.databaseName);
     lockManager = LockManagerFactory.make(tc);
+    maxArraySize = ManifoldCF.getIntProperty(postgresqlMaxArraySizeProperty,1000);
   }
   
   private static String getJdbcUrl(final String databaseName)
@@ -112,7 +128,8 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
   public void openDatabase()
     throws ManifoldCFException
   {
-    // Nothing to do
+    // Table maintenance happens in the background
+    PostgreSQLMaintenanceService.start(databaseName,userName,password);
   }
   
   /** Uninitialize.  This method is called during JVM shutdown, in order to close
@@ -122,7 +139,7 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
   public void closeDatabase()
     throws ManifoldCFException
   {
-    // Nothing to do
+    PostgreSQLMaintenanceService.stop(databaseName);
   }
 
   /** Get the database general cache key.
@@ -1047,6 +1064,98 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
     return 100;
   }
 
+  /* Calculate the number of values a particular clause can have, given the values for all the other clauses.
+  * Multiple values are bound as a single array, so the answer is limited only by how long the statement
+  * should take; it starts at the IN clause maximum and moves up or down according to observed latency.
+  */
+  @Override
+  public int findConjunctionClauseMax(ClauseDescription[] otherClauseDescriptions)
+  {
+    int minSize = getMaxInClause();
+    if (maxArraySize <= minSize)
+      return minSize;
+    int size = arrayBatchSize.get();
+    if (size < minSize)
+      return minSize;
+    return Math.min(size,maxArraySize);
+  }
+
+  /** Append the part of a conjunction clause that follows the column name, when the column may
+  * have any of several values.  Large sets of values of a single type are bound as one array, so the
+  * statement text doesn't depend on how many values there are.
+  */
+  @Override
+  protected void buildMultiValueClause(StringBuilder sb, List outputParameters, List values)
+  {
+    String elementType = null;
+    if (maxArraySize > getMaxInClause() && values.size() >= MIN_ARRAY_VALUES)
+      elementType = findArrayElementType(values);
+    if (elementType == null)
+    {
+      super.buildMultiValueClause(sb,outputParameters,values);
+      return;
+    }
+    sb.append(" = ANY(?)");
+    outputParameters.add(new ArrayParameter(elementType,values.toArray()));
+  }
+
+  /** Find the PostgreSQL array element type for a set of values, or null if they can't be bound as an array.
+  */
+  protected static String findArrayElementType(List values)
+  {
+    Class valueClass = values.get(0).getClass();
+    String elementType;
+    if (valueClass == String.class)
+      elementType = "varchar";
+    else if (valueClass == Long.class)
+      elementType = "int8";
+    else if (valueClass == Integer.class)
+      elementType = "int4";
+    else
+      return null;
+    for (int i = 1 ; i < values.size() ; i++)
+    {
+      Object value = values.get(i);
+      if (value == null || value.getClass() != valueClass)
+        return null;
+    }
+    return elementType;
+  }
+
+  /** Note how long a parameterized statement took.  Array lookups that were close to the current batch
+  * size adjust it: up by a quarter if the statement was faster than the target, down by half if it took
+  * more than twice as long.
+  */
+  @Override
+  protected void noteQueryTime(List params, long elapsedNanos)
+  {
+    int minSize = getMaxInClause();
+    if (maxArraySize <= minSize)
+      return;
+    int arrayLength = 0;
+    for (int i = 0 ; i < params.size() ; i++)
+    {
+      Object x = params.get(i);
+      if (x instanceof ArrayParameter)
+        arrayLength = Math.max(arrayLength,((ArrayParameter)x).getLength());
+    }
+    if (arrayLength == 0)
+      return;
+    int size = Math.max(arrayBatchSize.get(),minSize);
+    // Only lookups that used most of a batch say anything about whether the batch size is right
+    if (arrayLength * 2 < size)
+      return;
+    int newSize;
+    if (elapsedNanos < TARGET_ARRAY_QUERY_NANOS)
+      newSize = Math.min(size + size/4,maxArraySize);
+    else if (elapsedNanos > 2L * TARGET_ARRAY_QUERY_NANOS)
+      newSize = Math.max(size/2,minSize);
+    else
+      return;
+    if (newSize != size)
+      arrayBatchSize.set(newSize);
+  }
+
   /** Obtain the maximum number of individual clauses that should be
   * present in a sequence of OR clauses.  Exceeding this amount will potentially cause the query performance
   * to drop.
@@ -1411,16 +1520,7 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
     lockManager.enterWriteCriticalSection(tableStatisticsLock);
     try
     {
-      Integer threshold = reindexThresholds.get(tableName);
-      int reindexThreshold;
-      if (threshold == null)
-      {
-        // Look for this parameter; if we don't find it, use a default value.
-        reindexThreshold = ManifoldCF.getIntProperty("org.apache.manifoldcf.db.postgres.reindex."+tableName,250000);
-        reindexThresholds.put(tableName,new Integer(reindexThreshold));
-      }
-      else
-        reindexThreshold = threshold.intValue();
+      int reindexThreshold = getReindexThreshold(tableName);
       
       TableStatistics ts = currentReindexStatistics.get(tableName);
       if (ts == null)
@@ -1441,10 +1541,20 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
           oldEventCount += ts.getEventCount();
           if (oldEventCount >= reindexThreshold)
           {
-            // Time to reindex this table!
-            reindexTableInternal(tableName);
-            // Now, clear out the data
-            writeDatum(eventDatum,0);
+            PostgreSQLMaintenanceService service = PostgreSQLMaintenanceService.getService(databaseName);
+            if (service != null)
+            {
+              // Time to reindex this table, but leave it to the background service, which will clear the count
+              service.requestMaintenance(tableName,PostgreSQLMaintenanceService.OPERATION_REINDEX);
+              writeDatum(eventDatum,oldEventCount);
+            }
+            else
+            {
+              // Time to reindex this table!
+              reindexTableInternal(tableName);
+              // Now, clear out the data
+              writeDatum(eventDatum,0);
+            }
           }
           else
             writeDatum(eventDatum,oldEventCount);
@@ -1468,16 +1578,7 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
     lockManager.enterWriteCriticalSection(tableStatisticsLock);
     try
     {
-      Integer threshold = analyzeThresholds.get(tableName);
-      int analyzeThreshold;
-      if (threshold == null)
-      {
-        // Look for this parameter; if we don't find it, use a default value.
-        analyzeThreshold = ManifoldCF.getIntProperty("org.apache.manifoldcf.db.postgres.analyze."+tableName,2000);
-        analyzeThresholds.put(tableName,new Integer(analyzeThreshold));
-      }
-      else
-        analyzeThreshold = threshold.intValue();
+      int analyzeThreshold = getAnalyzeThreshold(tableName);
       
       TableStatistics ts = currentAnalyzeStatistics.get(tableName);
       if (ts == null)
@@ -1498,10 +1599,20 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
           oldEventCount += ts.getEventCount();
           if (oldEventCount >= analyzeThreshold)
           {
-            // Time to reindex this table!
-            analyzeTableInternal(tableName);
-            // Now, clear out the data
-            writeDatum(eventDatum,0);
+            PostgreSQLMaintenanceService service = PostgreSQLMaintenanceService.getService(databaseName);
+            if (service != null)
+            {
+              // Time to analyze this table, but leave it to the background service, which will clear the count
+              service.requestMaintenance(tableName,PostgreSQLMaintenanceService.OPERATION_ANALYZE);
+              writeDatum(eventDatum,oldEventCount);
+            }
+            else
+            {
+              // Time to analyze this table!
+              analyzeTableInternal(tableName);
+              // Now, clear out the data
+              writeDatum(eventDatum,0);
+            }
           }
           else
             writeDatum(eventDatum,oldEventCount);
@@ -1521,6 +1632,112 @@ public class DBInterfacePostgreSQL extends Database implements IDBInterface
   }
   
 
+  /** Get the number of tuple deletions (deletes plus updates) after which a table should be reindexed.
+  */
+  protected static int getReindexThreshold(String tableName)
+    throws ManifoldCFException
+  {
+    synchronized (reindexThresholds)
+    {
+      Integer threshold = reindexThresholds.get(tableName);
+      if (threshold == null)
+      {
+        // Look for this parameter; if we don't find it, use a default value.
+        threshold = new Integer(ManifoldCF.getIntProperty("org.apache.manifoldcf.db.postgres.reindex."+tableName,250000));
+        reindexThresholds.put(tableName,threshold);
+      }
+      return threshold.intValue();
+    }
+  }
+
+  /** Get the number of tuple additions (inserts plus updates) after which a table should be analyzed.
+  */
+  protected static int getAnalyzeThreshold(String tableName)
+    throws ManifoldCFException
+  {
+    synchronized (analyzeThresholds)
+    {
+      Integer threshold = analyzeThresholds.get(tableName);
+      if (threshold == null)
+      {
+        // Look for this parameter; if we don't find it, use a default value.
+        threshold = new Integer(ManifoldCF.getIntProperty("org.apache.manifoldcf.db.postgres.analyze."+tableName,2000));
+        analyzeThresholds.put(tableName,threshold);
+      }
+      return threshold.intValue();
+    }
+  }
+
+  /** Analyze a table on behalf of the maintenance service, if its shared modification count is still over
+  * the threshold.  The modifications counted before the analysis started are then subtracted from the count.
+  *@param tableName is the table.
+  *@return the number of modifications the analysis accounted for, or 0 if it wasn't needed.
+  */
+  protected int performPendingAnalyze(String tableName)
+    throws ManifoldCFException
+  {
+    String tableStatisticsLock = statslockAnalyzePrefix+tableName;
+    String eventDatum = statsAnalyzePrefix+tableName;
+    int eventCount = readSharedCount(tableStatisticsLock,eventDatum);
+    if (eventCount < getAnalyzeThreshold(tableName))
+      return 0;
+    analyzeTableInternal(tableName);
+    subtractSharedCount(tableStatisticsLock,eventDatum,eventCount);
+    return eventCount;
+  }
+
+  /** Reindex a table on behalf of the maintenance service, if its shared modification count is still over
+  * the threshold.  The modifications counted before the reindex started are then subtracted from the count.
+  *@param tableName is the table.
+  *@return the number of modifications the reindex accounted for, or 0 if it wasn't needed.
+  */
+  protected int performPendingReindex(String tableName)
+    throws ManifoldCFException
+  {
+    String tableStatisticsLock = statslockReindexPrefix+tableName;
+    String eventDatum = statsReindexPrefix+tableName;
+    int eventCount = readSharedCount(tableStatisticsLock,eventDatum);
+    if (eventCount < getReindexThreshold(tableName))
+      return 0;
+    reindexTableInternal(tableName);
+    subtractSharedCount(tableStatisticsLock,eventDatum,eventCount);
+    return eventCount;
+  }
+
+  /** Read a table's shared modification count.
+  */
+  protected int readSharedCount(String tableStatisticsLock, String eventDatum)
+    throws ManifoldCFException
+  {
+    lockManager.enterReadLock(tableStatisticsLock);
+    try
+    {
+      return readDatum(eventDatum);
+    }
+    finally
+    {
+      lockManager.leaveReadLock(tableStatisticsLock);
+    }
+  }
+
+  /** Take a number of modifications off a table's shared modification count, leaving any that
+  * have been counted since.
+  */
+  protected void subtractSharedCount(String tableStatisticsLock, String eventDatum, int eventCount)
+    throws ManifoldCFException
+  {
+    lockManager.enterWriteLock(tableStatisticsLock);
+    try
+    {
+      int currentCount = readDatum(eventDatum);
+      writeDatum(eventDatum,Math.max(0,currentCount - eventCount));
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(tableStatisticsLock);
+    }
+  }
+
   /** Table accumulation records.
   */
   protected static class TableStatistics
@@ -20,6 +20,7 @@ package org.apache.manifoldcf.core.database;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.jdbcpool.*;
+import org.apache.manifoldcf.core.metrics.*;
 import org.apache.manifoldcf.core.system.Logging;
 import org.apache.manifoldcf.core.system.ManifoldCF;
 
@@ -53,9 +54,16 @@ public abstract class Database
   protected Map<String,Modifications> modificationsSet = new HashMap<String,Modifications>();
 
   protected long maxQueryTime;
+  /** The number of prepared statements to keep open per connection */
+  protected int statementCacheSize;
   
   protected static Random random = new Random();
 
+  /** Time spent executing statements, in microseconds */
+  protected final static LatencyTimer queryTimer = MetricsRegistry.getTimer("database.query");
+  /** Statements that failed */
+  protected final static Counter queryErrors = MetricsRegistry.getCounter("database.query.errors");
+
   protected final static String _TRANSACTION_ = "_TRANSACTION_";
 
   public Database(IThreadContext context, String jdbcUrl, String jdbcDriverClass, String databaseName, String userName, String password)
@@ -69,6 +77,7 @@ public abstract class Database
     this.password = password;
     
     this.maxQueryTime = ((long)ManifoldCF.getIntProperty(ManifoldCF.databaseQueryMaxTimeProperty,60)) * 1000L;
+    this.statementCacheSize = ManifoldCF.getIntProperty(ManifoldCF.databaseStatementCacheSizeProperty,50);
     this.cacheManager = CacheManagerFactory.make(context);
   }
 
@@ -125,6 +134,101 @@ public abstract class Database
   {
     return rawLabelName;
   }
+
+  /** Perform a general database modification query.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param invalidateKeys are the cache keys to invalidate.
+  */
+  public abstract void performModification(String query, List params, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
+  /** Get the largest number of parameters to put into a single multi-row insert statement.
+  */
+  protected int getMaxInsertParameters()
+  {
+    return 1000;
+  }
+
+  /** Perform an insert of many rows at once.  Consecutive rows that set the same columns are written
+  * with a single INSERT ... VALUES (...),(...) statement, up to the parameter limit.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the maps of column name/values to write, one per row.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  public void performInsertMultiple(String tableName, List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    int maxParameters = getMaxInsertParameters();
+    int i = 0;
+    while (i < parameterMaps.size())
+    {
+      // The columns are the non-null values of the first row
+      List<String> columns = new ArrayList<String>();
+      for (Map.Entry<String,Object> e : parameterMaps.get(i).entrySet())
+      {
+        if (e.getValue() != null)
+          columns.add(e.getKey());
+      }
+      int maxRows = Math.max(1,maxParameters / Math.max(1,columns.size()));
+
+      StringBuilder bf = new StringBuilder();
+      bf.append("INSERT INTO ").append(tableName).append(" (");
+      StringBuilder rowValues = new StringBuilder("(");
+      for (int j = 0; j < columns.size(); j++)
+      {
+        if (j > 0)
+        {
+          bf.append(',');
+          rowValues.append(',');
+        }
+        bf.append(columns.get(j));
+        rowValues.append('?');
+      }
+      bf.append(") VALUES ");
+      rowValues.append(')');
+
+      List paramArray = new ArrayList();
+      int rowCount = 0;
+      while (i < parameterMaps.size() && rowCount < maxRows)
+      {
+        Map<String,Object> row = parameterMaps.get(i);
+        if (!sameColumns(row,columns))
+          break;
+        if (rowCount > 0)
+          bf.append(',');
+        bf.append(rowValues);
+        for (String column : columns)
+        {
+          paramArray.add(row.get(column));
+        }
+        rowCount++;
+        i++;
+      }
+
+      performModification(bf.toString(),paramArray,invalidateKeys);
+    }
+  }
+
+  /** Check whether a row sets exactly the given columns to non-null values.
+  */
+  protected static boolean sameColumns(Map<String,Object> row, List<String> columns)
+  {
+    int count = 0;
+    for (Map.Entry<String,Object> e : row.entrySet())
+    {
+      if (e.getValue() != null)
+        count++;
+    }
+    if (count != columns.size())
+      return false;
+    for (String column : columns)
+    {
+      if (row.get(column) == null)
+        return false;
+    }
+    return true;
+  }
   
   /** Execute arbitrary database query, and optionally cache the result.  Cached results are
   * returned for this operation if they are valid and appropriate.  Note that any cached results
@@ -577,17 +681,7 @@ public abstract class Database
       if (values != null)
       {
         if (values.size() > 1)
-        {
-          sb.append(" IN (");
-          for (int j = 0 ; j < values.size() ; j++)
-          {
-            if (j > 0)
-              sb.append(",");
-            sb.append("?");
-            outputParameters.add(values.get(j));
-          }
-          sb.append(")");
-        }
+          buildMultiValueClause(sb,outputParameters,values);
         else
         {
           sb.append(operation).append("?");
@@ -604,6 +698,26 @@ public abstract class Database
     return sb.toString();
   }
 
+  /** Append the part of a conjunction clause that follows the column name, when the column may
+  * have any of several values.
+  *@param sb is where the clause is being built.
+  *@param outputParameters is the list of query parameters to add to.
+  *@param values are the values, more than one.
+  */
+  protected void buildMultiValueClause(StringBuilder sb, List outputParameters, List values)
+  {
+    // Base implementation uses "IN" for multiple values, since this seems to be widely accepted.
+    sb.append(" IN (");
+    for (int j = 0 ; j < values.size() ; j++)
+    {
+      if (j > 0)
+        sb.append(",");
+      sb.append("?");
+      outputParameters.add(values.get(j));
+    }
+    sb.append(")");
+  }
+
   /** Class to keep track of modifications while we're in a transaction.
   */
   protected static class Modifications
@@ -803,6 +917,8 @@ public abstract class Database
     throws ManifoldCFException
   {
     IResultSet rval = null;
+    long timerStartTime = queryTimer.start();
+    long startNanos = System.nanoTime();
     try
     {
       try
@@ -850,10 +966,18 @@ public abstract class Database
           {
             stmt.close();
           }
+          // Cached statements may no longer be valid once the schema changes, on any connection
+          if (isSchemaChange(query))
+          {
+            StatementCache.noteSchemaChange();
+            StatementCache.discard(connection);
+          }
         }
         else
         {
-          PreparedStatement ps = connection.prepareStatement(query);
+          StatementCache cache = (statementCacheSize > 0)?StatementCache.getCache(connection,statementCacheSize):null;
+          PreparedStatement ps = (cache == null)?connection.prepareStatement(query):cache.prepare(query);
+          boolean succeeded = false;
           try
           {
             loadPS(ps, params);
@@ -876,17 +1000,23 @@ public abstract class Database
               ps.executeUpdate();
               rval = getData(null,false,0,spec,null);
             }
+            succeeded = true;
           }
           finally
           {
-            ps.close();
+            if (cache == null)
+              ps.close();
+            else if (!succeeded)
+              cache.invalidate(query);
           }
+          noteQueryTime(params,System.nanoTime() - startNanos);
         }
         if (Logging.db.isDebugEnabled())
           Logging.db.debug("Done actual query ("+new Long(System.currentTimeMillis()-queryStartTime).toString()+"ms): ["+query+"]");
       }
       catch (java.sql.SQLException e)
       {
+        queryErrors.increment();
         // There are a lot of different sorts of error that can be embedded here.  Unfortunately, it's database dependent how
         // to interpret the error.  So toss a generic error, and let the caller figure out if it needs to treat it differently.
         throw new ManifoldCFException("SQLException doing query"+((e.getSQLState() != null)?" ("+e.getSQLState()+")":"")+": "+e.getMessage(),e,ManifoldCFException.DATABASE_CONNECTION_ERROR);
@@ -894,6 +1024,7 @@ public abstract class Database
     }
     finally
     {
+      queryTimer.stop(timerStartTime);
       // Cleanup of input parameters ALWAYS occurs, because whether we succeed or fail, we are done with any input streams.
       if (params != null)
         cleanupParameters(params);
@@ -901,6 +1032,25 @@ public abstract class Database
     return rval;
   }
 
+  /** Note how long a parameterized statement took to execute.  Databases that tune how they build
+  * queries according to observed performance override this.
+  *@param params are the statement's parameters.
+  *@param elapsedNanos is the time taken, in nanoseconds.
+  */
+  protected void noteQueryTime(List params, long elapsedNanos)
+  {
+  }
+
+  /** Check whether a statement changes the schema, which invalidates prepared statements.
+  */
+  protected static boolean isSchemaChange(String query)
+  {
+    String trimmed = query.trim();
+    return trimmed.regionMatches(true,0,"CREATE ",0,7) ||
+      trimmed.regionMatches(true,0,"ALTER ",0,6) ||
+      trimmed.regionMatches(true,0,"DROP ",0,5);
+  }
+
   // Read data from a resultset
   protected IResultSet getData(ResultSet rs, boolean bResults, int maxResults, ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
@@ -1085,6 +1235,11 @@ public abstract class Database
         {
           ps.setFloat(i+1,((Float)x).floatValue());
         }
+        if (x instanceof ArrayParameter)
+        {
+          ArrayParameter value = (ArrayParameter)x;
+          ps.setArray(i+1,ps.getConnection().createArrayOf(value.getElementType(),value.getValues()));
+        }
       }
     }
   }
@@ -0,0 +1,508 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.metrics.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.system.Logging;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** This class runs PostgreSQL table maintenance (ANALYZE and REINDEX) in the background, so that the
+* worker thread whose modifications happen to cross a table's threshold doesn't stall while it runs.
+* Worker threads still count modifications, in DBInterfacePostgreSQL.noteModificationsNoTransactions(), but
+* when a table's count crosses its threshold they just queue the table here.
+*
+* There is one service per database per JVM, started when the database is opened.  Every so often,
+* or as soon as a table is queued, it tries to take a cluster-wide lock; only the holder does a pass, so
+* there is never more than one pass going on at a time across the cluster.  During a pass, each queued table
+* whose shared modification count is still over its threshold is analyzed or reindexed.  Thresholds are per
+* table (see DBInterfacePostgreSQL).  REINDEX, which blocks writers for as long as it runs, is put off while
+* the current time is inside one of the configured quiet-hours windows; ANALYZE is cheap and runs any time.
+*
+* The most recent operations are kept, and published as metrics, so it is possible to check that statistics
+* for busy tables like jobqueue stay fresh.
+*/
+public class PostgreSQLMaintenanceService
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Seconds between maintenance checks */
+  public static final String maintenanceIntervalProperty = "org.apache.manifoldcf.db.postgres.maintenance.interval";
+  /** Windows of local time during which REINDEX is not run, e.g. "08:00-12:00,13:00-18:00" */
+  public static final String quietHoursProperty = "org.apache.manifoldcf.db.postgres.maintenance.quiethours";
+
+  /** The operation names */
+  public static final String OPERATION_ANALYZE = "analyze";
+  public static final String OPERATION_REINDEX = "reindex";
+
+  /** The cluster-wide lock held during a maintenance pass */
+  protected static final String maintenanceLockPrefix = "postgresql-maintenance-";
+  /** How many operations to remember */
+  protected static final int HISTORY_SIZE = 100;
+
+  /** Time spent analyzing tables, in microseconds */
+  protected final static LatencyTimer analyzeTimer = MetricsRegistry.getTimer("database.maintenance.analyze");
+  /** Time spent reindexing tables, in microseconds */
+  protected final static LatencyTimer reindexTimer = MetricsRegistry.getTimer("database.maintenance.reindex");
+  /** Maintenance operations that failed */
+  protected final static Counter maintenanceErrors = MetricsRegistry.getCounter("database.maintenance.errors");
+
+  /** The running services, keyed by database name */
+  protected static final Map<String,PostgreSQLMaintenanceService> services = new HashMap<String,PostgreSQLMaintenanceService>();
+
+  protected final String databaseName;
+  protected final String userName;
+  protected final String password;
+  protected final long checkInterval;
+  protected final QuietHours quietHours;
+
+  /** Tables waiting for maintenance, with the operations wanted for each */
+  protected final ConcurrentHashMap<String,Set<String>> pendingTables = new ConcurrentHashMap<String,Set<String>>();
+  /** Recent operations, oldest first */
+  protected final LinkedList<MaintenanceRecord> history = new LinkedList<MaintenanceRecord>();
+  /** When each table last completed each operation in this JVM, keyed by table name and operation */
+  protected final ConcurrentHashMap<String,Long> lastCompleted = new ConcurrentHashMap<String,Long>();
+
+  protected final MaintenanceThread thread;
+  /** Set when there's work to look at */
+  protected boolean wakeup = false;
+
+  protected PostgreSQLMaintenanceService(String databaseName, String userName, String password, long checkInterval,
+    QuietHours quietHours)
+  {
+    this.databaseName = databaseName;
+    this.userName = userName;
+    this.password = password;
+    this.checkInterval = checkInterval;
+    this.quietHours = quietHours;
+    this.thread = new MaintenanceThread();
+  }
+
+  /** Start the service for a database, if it isn't running already.
+  *@param databaseName is the database name.
+  *@param userName is the database user name.
+  *@param password is the database password.
+  */
+  public static void start(String databaseName, String userName, String password)
+    throws ManifoldCFException
+  {
+    synchronized (services)
+    {
+      if (services.get(databaseName) != null)
+        return;
+      long checkInterval = ((long)ManifoldCF.getIntProperty(maintenanceIntervalProperty,15)) * 1000L;
+      if (checkInterval < 1000L)
+        checkInterval = 1000L;
+      QuietHours quietHours = QuietHours.parse(ManifoldCF.getProperty(quietHoursProperty));
+      PostgreSQLMaintenanceService service = new PostgreSQLMaintenanceService(databaseName,userName,password,
+        checkInterval,quietHours);
+      services.put(databaseName,service);
+      MetricsRegistry.registerSource("database.maintenance."+databaseName,new MaintenanceMetricsSource(service));
+      service.thread.start();
+    }
+  }
+
+  /** Stop the service for a database, waiting briefly for any operation in progress to be interrupted.
+  *@param databaseName is the database name.
+  */
+  public static void stop(String databaseName)
+  {
+    PostgreSQLMaintenanceService service;
+    synchronized (services)
+    {
+      service = services.remove(databaseName);
+    }
+    if (service == null)
+      return;
+    MetricsRegistry.unregisterSource("database.maintenance."+databaseName);
+    service.thread.interrupt();
+    try
+    {
+      service.thread.join(5000L);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Find the service for a database.
+  *@param databaseName is the database name.
+  *@return the service, or null if it isn't running in this JVM.
+  */
+  public static PostgreSQLMaintenanceService getService(String databaseName)
+  {
+    synchronized (services)
+    {
+      return services.get(databaseName);
+    }
+  }
+
+  /** Queue a table for maintenance.
+  *@param tableName is the table.
+  *@param operation is OPERATION_ANALYZE or OPERATION_REINDEX.
+  */
+  public void requestMaintenance(String tableName, String operation)
+  {
+    Set<String> operations = pendingTables.get(tableName);
+    if (operations == null)
+    {
+      operations = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+      Set<String> existing = pendingTables.putIfAbsent(tableName,operations);
+      if (existing != null)
+        operations = existing;
+    }
+    operations.add(operation);
+    synchronized (this)
+    {
+      wakeup = true;
+      notifyAll();
+    }
+  }
+
+  /** Get the recent maintenance operations performed by this JVM, oldest first.
+  *@return a copy of the history.
+  */
+  public List<MaintenanceRecord> getHistory()
+  {
+    synchronized (history)
+    {
+      return new ArrayList<MaintenanceRecord>(history);
+    }
+  }
+
+  /** Do one maintenance pass, if no other process in the cluster is doing one.
+  */
+  protected void performPass(DBInterfacePostgreSQL database, ILockManager lockManager)
+    throws ManifoldCFException
+  {
+    if (pendingTables.isEmpty())
+      return;
+    String lockName = maintenanceLockPrefix+databaseName;
+    try
+    {
+      lockManager.enterWriteLockNoWait(lockName);
+    }
+    catch (LockException e)
+    {
+      // Somebody else is doing a pass; try again next time
+      return;
+    }
+    try
+    {
+      boolean reindexAllowed = !quietHours.contains(System.currentTimeMillis());
+      for (Map.Entry<String,Set<String>> entry : pendingTables.entrySet())
+      {
+        if (Thread.currentThread().isInterrupted())
+          break;
+        String tableName = entry.getKey();
+        Set<String> operations = entry.getValue();
+        if (operations.remove(OPERATION_ANALYZE))
+          performOperation(database,tableName,OPERATION_ANALYZE);
+        if (reindexAllowed && operations.remove(OPERATION_REINDEX))
+          performOperation(database,tableName,OPERATION_REINDEX);
+        if (operations.isEmpty())
+          pendingTables.remove(tableName,operations);
+      }
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(lockName);
+    }
+  }
+
+  /** Perform one operation on a table, if it is still due, and record the outcome.
+  */
+  protected void performOperation(DBInterfacePostgreSQL database, String tableName, String operation)
+    throws ManifoldCFException
+  {
+    LatencyTimer timer = operation.equals(OPERATION_ANALYZE)?analyzeTimer:reindexTimer;
+    long startTime = System.currentTimeMillis();
+    long timerStartTime = timer.start();
+    String error = null;
+    int eventCount;
+    try
+    {
+      if (operation.equals(OPERATION_ANALYZE))
+        eventCount = database.performPendingAnalyze(tableName);
+      else
+        eventCount = database.performPendingReindex(tableName);
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        throw e;
+      maintenanceErrors.increment();
+      Logging.db.warn("Background "+operation+" of table '"+tableName+"' failed: "+e.getMessage(),e);
+      error = e.getMessage();
+      eventCount = -1;
+    }
+    finally
+    {
+      timer.stop(timerStartTime);
+    }
+    // Zero means somebody else already took care of it
+    if (eventCount == 0)
+      return;
+    long endTime = System.currentTimeMillis();
+    if (error == null)
+      lastCompleted.put(tableName+"."+operation,new Long(endTime));
+    if (Logging.db.isDebugEnabled())
+      Logging.db.debug("Background "+operation+" of table '"+tableName+"' took "+(endTime-startTime)+" ms");
+    synchronized (history)
+    {
+      history.add(new MaintenanceRecord(tableName,operation,startTime,endTime-startTime,eventCount,error));
+      if (history.size() > HISTORY_SIZE)
+        history.removeFirst();
+    }
+  }
+
+  /** Wait until there's something to do, or it's time to check anyway.
+  */
+  protected synchronized void waitForWork()
+    throws InterruptedException
+  {
+    if (!wakeup)
+      wait(checkInterval);
+    wakeup = false;
+  }
+
+  /** The thread that does the work.
+  */
+  protected class MaintenanceThread extends Thread
+  {
+    public MaintenanceThread()
+    {
+      super();
+      setName("PostgreSQL maintenance for "+databaseName);
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        IThreadContext threadContext = ThreadContextFactory.make();
+        DBInterfacePostgreSQL database = new DBInterfacePostgreSQL(threadContext,databaseName,userName,password);
+        ILockManager lockManager = LockManagerFactory.make(threadContext);
+        while (true)
+        {
+          waitForWork();
+          try
+          {
+            performPass(database,lockManager);
+          }
+          catch (ManifoldCFException e)
+          {
+            if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+              break;
+            Logging.db.error("Error doing database maintenance: "+e.getMessage(),e);
+          }
+        }
+      }
+      catch (InterruptedException e)
+      {
+      }
+      catch (ManifoldCFException e)
+      {
+        Logging.db.error("Database maintenance thread could not start: "+e.getMessage(),e);
+      }
+      catch (Throwable e)
+      {
+        Logging.db.fatal("Database maintenance thread aborting: "+e.getMessage(),e);
+      }
+    }
+  }
+
+  /** A record of one maintenance operation.
+  */
+  public static class MaintenanceRecord
+  {
+    protected final String tableName;
+    protected final String operation;
+    protected final long startTime;
+    protected final long elapsedTime;
+    protected final int eventCount;
+    protected final String error;
+
+    public MaintenanceRecord(String tableName, String operation, long startTime, long elapsedTime, int eventCount, String error)
+    {
+      this.tableName = tableName;
+      this.operation = operation;
+      this.startTime = startTime;
+      this.elapsedTime = elapsedTime;
+      this.eventCount = eventCount;
+      this.error = error;
+    }
+
+    public String getTableName()
+    {
+      return tableName;
+    }
+
+    /** Get the operation, OPERATION_ANALYZE or OPERATION_REINDEX */
+    public String getOperation()
+    {
+      return operation;
+    }
+
+    /** Get the time the operation started, in milliseconds since epoch */
+    public long getStartTime()
+    {
+      return startTime;
+    }
+
+    /** Get how long the operation took, in milliseconds */
+    public long getElapsedTime()
+    {
+      return elapsedTime;
+    }
+
+    /** Get the number of modifications that triggered the operation, or -1 if it failed */
+    public int getEventCount()
+    {
+      return eventCount;
+    }
+
+    /** Get the error message, or null if the operation succeeded */
+    public String getError()
+    {
+      return error;
+    }
+  }
+
+  /** A set of windows of local time of day.  Windows may wrap around midnight.
+  */
+  protected static class QuietHours
+  {
+    /** Start and end of each window, in minutes after midnight */
+    protected final int[] starts;
+    protected final int[] ends;
+
+    protected QuietHours(int[] starts, int[] ends)
+    {
+      this.starts = starts;
+      this.ends = ends;
+    }
+
+    /** Parse a list of windows, e.g. "08:00-12:00,22:30-02:00".
+    *@param value is the property value, or null for no windows.
+    */
+    public static QuietHours parse(String value)
+      throws ManifoldCFException
+    {
+      if (value == null || value.trim().length() == 0)
+        return new QuietHours(new int[0],new int[0]);
+      String[] windows = value.split(",");
+      int[] starts = new int[windows.length];
+      int[] ends = new int[windows.length];
+      for (int i = 0 ; i < windows.length ; i++)
+      {
+        String window = windows[i].trim();
+        int dashIndex = window.indexOf("-");
+        if (dashIndex == -1)
+          throw new ManifoldCFException("Bad quiet hours window '"+window+"'; expected HH:MM-HH:MM",ManifoldCFException.SETUP_ERROR);
+        starts[i] = parseTime(window.substring(0,dashIndex).trim());
+        ends[i] = parseTime(window.substring(dashIndex+1).trim());
+      }
+      return new QuietHours(starts,ends);
+    }
+
+    protected static int parseTime(String time)
+      throws ManifoldCFException
+    {
+      int colonIndex = time.indexOf(":");
+      try
+      {
+        int hours;
+        int minutes;
+        if (colonIndex == -1)
+        {
+          hours = Integer.parseInt(time);
+          minutes = 0;
+        }
+        else
+        {
+          hours = Integer.parseInt(time.substring(0,colonIndex));
+          minutes = Integer.parseInt(time.substring(colonIndex+1));
+        }
+        if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59)
+          throw new NumberFormatException("Out of range");
+        return hours * 60 + minutes;
+      }
+      catch (NumberFormatException e)
+      {
+        throw new ManifoldCFException("Bad quiet hours time '"+time+"': "+e.getMessage(),e,ManifoldCFException.SETUP_ERROR);
+      }
+    }
+
+    /** Check whether a time falls in any window.
+    *@param time is the time, in milliseconds since epoch.
+    */
+    public boolean contains(long time)
+    {
+      if (starts.length == 0)
+        return false;
+      Calendar c = Calendar.getInstance();
+      c.setTimeInMillis(time);
+      int minute = c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+      for (int i = 0 ; i < starts.length ; i++)
+      {
+        if (starts[i] <= ends[i])
+        {
+          if (minute >= starts[i] && minute < ends[i])
+            return true;
+        }
+        else
+        {
+          if (minute >= starts[i] || minute < ends[i])
+            return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** Reports, for each table maintained by this JVM, how long ago each operation last completed, and
+  * how many tables are waiting.
+  */
+  protected static class MaintenanceMetricsSource extends MetricsSource
+  {
+    protected final PostgreSQLMaintenanceService service;
+
+    public MaintenanceMetricsSource(PostgreSQLMaintenanceService service)
+    {
+      this.service = service;
+    }
+
+    public void collect(Map<String,Number> values)
+    {
+      long currentTime = System.currentTimeMillis();
+      for (Map.Entry<String,Long> entry : service.lastCompleted.entrySet())
+      {
+        values.put("database.maintenance."+entry.getKey()+".age.seconds",
+          new Long((currentTime - entry.getValue().longValue()) / 1000L));
+      }
+      values.put("database.maintenance.pending",new Integer(service.pendingTables.size()));
+    }
+  }
+
+}
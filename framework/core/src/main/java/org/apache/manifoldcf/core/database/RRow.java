@@ -20,10 +20,11 @@ package org.apache.manifoldcf.core.database;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import java.util.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
 /** This class represents a result row.
 */
-public class RRow implements IResultRow
+public class RRow implements IResultRow, ICacheSizeEstimate
 {
   public static final String _rcsid = "@(#)$Id: RRow.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -63,5 +64,20 @@ public class RRow implements IResultRow
     return rowData.get(columnName);
   }
 
+  /** Estimate the memory this row occupies.  Column names are shared across rows, so only the
+  * values and map entries are counted.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    long rval = GeneralCache.SMALL_OBJECT_SIZE;
+    Iterator<Object> iter = rowData.values().iterator();
+    while (iter.hasNext())
+    {
+      rval += GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(iter.next());
+    }
+    return rval;
+  }
+
 
 }
@@ -20,8 +20,9 @@ package org.apache.manifoldcf.core.database;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import java.util.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
-public class RSet implements IResultSet
+public class RSet implements IResultSet, ICacheSizeEstimate
 {
   public static final String _rcsid = "@(#)$Id: RSet.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -73,4 +74,19 @@ public class RSet implements IResultSet
     return rval;
   }
 
+  /** Estimate the memory this resultset occupies.  Query results are the bulk of what the cache
+  * holds, so this is what makes the cache memory budget meaningful.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    long rval = GeneralCache.SMALL_OBJECT_SIZE;
+    int i = 0;
+    while (i < rows.size())
+    {
+      rval += GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(rows.get(i++));
+    }
+    return rval;
+  }
+
 }
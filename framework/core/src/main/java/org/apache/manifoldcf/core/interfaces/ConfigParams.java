@@ -224,6 +224,15 @@ public class ConfigParams extends Configuration
     return params.keySet().iterator();
   }
 
+  /** Estimate the memory this object occupies.  The parameter map shares its strings with the nodes,
+  * so only its entries are added.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    return super.getEstimatedSize() + (long)params.size() * org.apache.manifoldcf.core.cachemanager.GeneralCache.SMALL_OBJECT_SIZE;
+  }
+
   /** Duplicate.
   *@return an exact duplicate
   */
@@ -23,11 +23,12 @@ import java.util.*;
 import java.io.*;
 import org.apache.manifoldcf.core.system.ManifoldCF;
 import org.apache.manifoldcf.core.common.XMLDoc;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 import org.json.*;
 
 /** This class represents XML configuration information, in its most basic incarnation.
 */
-public class Configuration implements IHierarchyParent
+public class Configuration implements IHierarchyParent, ICacheSizeEstimate
 {
   public static final String _rcsid = "@(#)$Id: Configuration.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -137,6 +138,20 @@ public class Configuration implements IHierarchyParent
     readOnly = true;
   }
 
+  /** Estimate the memory this configuration occupies.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    long rval = GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(rootNodeLabel);
+    int i = 0;
+    while (i < children.size())
+    {
+      rval += children.get(i++).getEstimatedSize();
+    }
+    return rval;
+  }
+
   /** Get as XML
   *@return the xml corresponding to these Configuration.
   */
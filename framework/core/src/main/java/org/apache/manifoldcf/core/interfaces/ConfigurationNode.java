@@ -20,10 +20,11 @@ package org.apache.manifoldcf.core.interfaces;
 
 import java.io.*;
 import java.util.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
 /** This class represents a node in a configuration structure.
 */
-public class ConfigurationNode implements IHierarchyParent
+public class ConfigurationNode implements IHierarchyParent, ICacheSizeEstimate
 {
   public static final String _rcsid = "@(#)$Id: ConfigurationNode.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -346,6 +347,32 @@ public class ConfigurationNode implements IHierarchyParent
     return true;
   }
   
+  /** Estimate the memory this node and its descendants occupy.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    long rval = GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(type) + GeneralCache.estimateSize(value);
+    if (attributes != null)
+    {
+      Iterator<Map.Entry<String,String>> iter = attributes.entrySet().iterator();
+      while (iter.hasNext())
+      {
+        Map.Entry<String,String> entry = iter.next();
+        rval += GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(entry.getKey()) + GeneralCache.estimateSize(entry.getValue());
+      }
+    }
+    if (children != null)
+    {
+      int i = 0;
+      while (i < children.size())
+      {
+        rval += children.get(i++).getEstimatedSize();
+      }
+    }
+    return rval;
+  }
+
   /** Construct a human-readable string */
   public String toString()
   {
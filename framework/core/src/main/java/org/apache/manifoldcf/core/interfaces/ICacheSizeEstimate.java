@@ -0,0 +1,33 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.interfaces;
+
+/** Cached objects may implement this interface to tell the cache manager roughly how much memory
+* they occupy.  The estimate is used to keep each object class within its memory budget.  Objects
+* that do not implement this interface are assumed to be of a fixed, modest size.
+*/
+public interface ICacheSizeEstimate
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Get the estimated size of this object.
+  *@return the approximate number of bytes the object occupies.
+  */
+  public long getEstimatedSize();
+}
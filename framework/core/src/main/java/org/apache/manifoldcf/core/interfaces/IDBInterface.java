@@ -76,6 +76,15 @@ public interface IDBInterface
   public void performInsert(String tableName, Map<String,Object> parameterMap, StringSet invalidateKeys)
     throws ManifoldCFException;
 
+  /** Perform an insert of many rows at once.  The rows are written using as few statements
+  * as the database allows, rather than one statement per row.
+  *@param tableName is the name of the table.
+  *@param parameterMaps are the maps of column name/values to write, one per row.
+  *@param invalidateKeys are the cache keys that should be invalidated.
+  */
+  public void performInsertMultiple(String tableName, List<Map<String,Object>> parameterMaps, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
   /** Perform an update operation.
   *@param tableName is the name of the table.
   *@param invalidateKeys are the cache keys that should be invalidated.
@@ -46,6 +46,12 @@ public interface ILockManager
   public boolean checkGlobalFlag(String flagName)
     throws ManifoldCFException;
 
+  /** Check whether this lock manager only coordinates threads within this one process.  If so, no other process
+  * can be working against the same database, and it is safe to cache anything that only this process writes.
+  *@return true if this lock manager does not synchronize with other processes.
+  */
+  public boolean isSingleProcess();
+
   /** Read data from a shared data resource.  Use this method to read any existing data, or get a null back if there is no such resource.
   * Note well that this is not necessarily an atomic operation, and it must thus be protected by a lock.
   *@param resourceName is the global name of the resource.
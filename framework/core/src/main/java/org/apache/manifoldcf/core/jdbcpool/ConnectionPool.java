@@ -22,24 +22,52 @@ import java.sql.*;
 import javax.naming.*;
 import javax.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.core.system.Logging;
+import org.apache.manifoldcf.core.util.Histogram;
 
 /** The class that defines a connection pool.
+* Idle connections are claimed with a compare-and-set rather than under a monitor, and a thread
+* preferentially gets back the connection it used last.  Threads that must wait for a connection
+* are served in arrival order, and give up with a ManifoldCFException after the maximum wait time.
+* Idle connections are closed when they expire, and are validated periodically, by the pool manager's
+* background thread rather than by the threads checking connections out.
 */
 public class ConnectionPool
 {
   public static final String _rcsid = "@(#)$Id$";
 
+  /** How long a connection may go without validation, in milliseconds */
+  protected final static long VALIDATION_INTERVAL = 60000L;
+  /** How long validation of a single connection may take, in seconds */
+  protected final static int VALIDATION_TIMEOUT = 5;
+
+  protected final String poolKey;
   protected final String dbURL;
   protected final String userName;
   protected final String password;
-  protected volatile int freePointer;
-  protected volatile int activeConnections;
-  protected volatile boolean closed;
-  protected final Connection[] freeConnections;
-  protected final long[] connectionCleanupTimeouts;
+  protected final int maxConnections;
   protected final long expiration;
-  
+  protected final long maxWait;
+  protected volatile boolean closed;
+
+  /** Permits, one per connection that may be checked out.  Fair, so waiters are served in order. */
+  protected final Semaphore permits;
+  /** The number of connections that exist, checked out or not */
+  protected final AtomicInteger totalConnections = new AtomicInteger(0);
+  /** Idle connections.  A connection may be claimed by its last user without being removed from here,
+  * so entries must be claimed before use, and entries that cannot be claimed are simply dropped. */
+  protected final ConcurrentLinkedQueue<PooledConnection> idleConnections = new ConcurrentLinkedQueue<PooledConnection>();
+  /** The connection each thread used last */
+  protected final ThreadLocal<PooledConnection> lastConnection = new ThreadLocal<PooledConnection>();
+
+  /** Time spent waiting to check out a connection, in milliseconds */
+  protected final Histogram waitTimes = new Histogram();
+  /** Time connections are kept checked out, in milliseconds */
+  protected final Histogram usageTimes = new Histogram();
+
   protected final boolean debug;
   
   protected final Set<WrappedConnection> outstandingConnections = new HashSet<WrappedConnection>();
@@ -47,15 +75,25 @@ public class ConnectionPool
   /** Constructor */
   public ConnectionPool(String dbURL, String userName, String password, int maxConnections, long expiration, boolean debug)
   {
+    this(dbURL,dbURL,userName,password,maxConnections,expiration,0L,debug);
+  }
+
+  /** Constructor.
+  *@param poolKey is the name of the pool, for messages.
+  *@param maxWait is the longest time to wait for a connection, in milliseconds, or 0 to wait forever.
+  */
+  public ConnectionPool(String poolKey, String dbURL, String userName, String password, int maxConnections, long expiration,
+    long maxWait, boolean debug)
+  {
+    this.poolKey = poolKey;
     this.dbURL = dbURL;
     this.userName = userName;
     this.password = password;
-    this.freeConnections = new Connection[maxConnections];
-    this.connectionCleanupTimeouts = new long[maxConnections];
-    this.freePointer = 0;
-    this.activeConnections = 0;
+    this.maxConnections = maxConnections;
+    this.permits = new Semaphore(maxConnections,true);
     this.closed = false;
     this.expiration = expiration;
+    this.maxWait = maxWait;
     this.debug = debug;
   }
   
@@ -65,62 +103,57 @@ public class ConnectionPool
   * (This requires us to wrap the actual connection object).
   */
   public WrappedConnection getConnection()
-    throws SQLException, InterruptedException
+    throws SQLException, InterruptedException, ManifoldCFException
   {
     Exception instantiationException;
     if (debug)
       instantiationException = new Exception("Possibly leaked db connection");
     else
       instantiationException = null;
-    Connection rval = null;
-    while (true)
+
+    if (closed)
+      throw new InterruptedException("Pool already closed");
+
+    long startTime = System.currentTimeMillis();
+    if (!permits.tryAcquire())
     {
-      synchronized (this)
+      // If properly configured, we really shouldn't be getting here.
+      if (debug)
       {
-        if (freePointer > 0)
-        {
-          if (closed)
-            throw new InterruptedException("Pool already closed");
-          rval = freeConnections[--freePointer];
-          freeConnections[freePointer] = null;
-          break;
-        }
-        if (activeConnections == freeConnections.length)
+        synchronized (outstandingConnections)
         {
-          // If properly configured, we really shouldn't be getting here.
-          if (debug)
+          Logging.db.warn("Out of db connections, list of outstanding ones follows.");
+          for (WrappedConnection c : outstandingConnections)
           {
-            synchronized (outstandingConnections)
-            {
-              Logging.db.warn("Out of db connections, list of outstanding ones follows.");
-              for (WrappedConnection c : outstandingConnections)
-              {
-                Logging.db.warn("Found a possibly leaked db connection",c.getInstantiationException());
-              }
-            }
+            Logging.db.warn("Found a possibly leaked db connection",c.getInstantiationException());
           }
-          // Wait until kicked; we hope something will free up...
-          this.wait();
-          continue;
         }
-        // Increment active connection counter, because we're about to mint a new connection, and break out of our loop
-        activeConnections++;
-        break;
+      }
+      // Wait our turn; we hope something will free up...
+      if (maxWait <= 0L)
+        permits.acquire();
+      else if (!permits.tryAcquire(maxWait,TimeUnit.MILLISECONDS))
+      {
+        waitTimes.record(System.currentTimeMillis() - startTime);
+        throw new ManifoldCFException("Timed out after "+Long.toString(maxWait)+" ms waiting for a database connection from pool '"+
+          poolKey+"'; all "+Integer.toString(maxConnections)+" connections are in use",ManifoldCFException.DATABASE_CONNECTION_ERROR);
       }
     }
 
-    boolean returnedValue = true;
+    boolean returnedValue = false;
+    PooledConnection pc = null;
     try
     {
-      if (rval == null)
-      {
-        if (userName != null)
-          rval = DriverManager.getConnection(dbURL, userName, password);
-        else
-          rval = DriverManager.getConnection(dbURL);
-      }
+      if (closed)
+        throw new InterruptedException("Pool already closed");
+      pc = claimIdleConnection();
+      if (pc == null)
+        pc = createConnection(startTime);
+      long checkoutTime = System.currentTimeMillis();
+      waitTimes.record(checkoutTime - startTime);
+      pc.setCheckoutTime(checkoutTime);
 
-      WrappedConnection wc = new WrappedConnection(this,rval,instantiationException);
+      WrappedConnection wc = new WrappedConnection(this,pc.getConnection(),instantiationException,pc);
       if (debug)
       {
         synchronized (outstandingConnections)
@@ -128,95 +161,172 @@ public class ConnectionPool
           outstandingConnections.add(wc);
         }
       }
+      returnedValue = true;
       return wc;
     }
-    catch (Error e)
-    {
-      returnedValue = false;
-      throw e;
-    }
-    catch (RuntimeException e)
+    finally
     {
-      returnedValue = false;
-      throw e;
+      if (!returnedValue)
+      {
+        // We didn't finish.  Restore the pool to the correct form.
+        if (pc != null)
+          pc.makeIdle(idleConnections);
+        permits.release();
+      }
     }
-    catch (SQLException e)
+  }
+
+  /** Claim an idle connection, preferring the one this thread used last.
+  *@return the connection, or null if there are no idle connections.
+  */
+  protected PooledConnection claimIdleConnection()
+  {
+    PooledConnection pc = lastConnection.get();
+    if (pc != null && pc.claim())
+      return pc;
+    while (true)
     {
-      returnedValue = false;
-      throw e;
+      pc = idleConnections.poll();
+      if (pc == null)
+        return null;
+      pc.noteDequeued();
+      if (pc.claim())
+        return pc;
+      // Someone else has it; the entry was stale
     }
-    finally
+  }
+
+  /** Create a new connection, or, if the pool is at its limit because connections are momentarily in the
+  * hands of the validation thread, wait for one of those.
+  */
+  protected PooledConnection createConnection(long startTime)
+    throws SQLException, InterruptedException, ManifoldCFException
+  {
+    while (true)
     {
-      if (!returnedValue)
+      int current = totalConnections.get();
+      if (current < maxConnections)
       {
-        // We didn't finish.  Restore the pool to the correct form.
-        // Note: We should always be able to just return any current connection to the pool.  This is
-        // safe because we reserved a slot when we decided to create the connection (if that's what
-        // we did), or we just used a connection that was already allocated.  Either way, we can put
-        // it into the pool.
-        if (rval != null)
+        if (!totalConnections.compareAndSet(current,current+1))
+          continue;
+        boolean succeeded = false;
+        try
         {
-          release(rval);
+          Connection c;
+          if (userName != null)
+            c = DriverManager.getConnection(dbURL, userName, password);
+          else
+            c = DriverManager.getConnection(dbURL);
+          succeeded = true;
+          return new PooledConnection(c);
+        }
+        finally
+        {
+          if (!succeeded)
+            totalConnections.decrementAndGet();
         }
       }
+      // All connections exist, and since we hold a permit, one of them is idle or about to be
+      Thread.sleep(1L);
+      PooledConnection pc = claimIdleConnection();
+      if (pc != null)
+        return pc;
+      if (maxWait > 0L && System.currentTimeMillis() - startTime > maxWait)
+        throw new ManifoldCFException("Timed out after "+Long.toString(maxWait)+" ms waiting for a database connection from pool '"+
+          poolKey+"'",ManifoldCFException.DATABASE_CONNECTION_ERROR);
     }
   }
   
   /** Close down the pool.
   */
-  public synchronized void closePool()
+  public void closePool()
   {
-    for (int i = 0 ; i < freePointer ; i++)
+    closed = true;
+    while (true)
     {
-      try
-      {
-        freeConnections[i].close();
-      }
-      catch (SQLException e)
-      {
-        Logging.db.warn("Error closing pooled connection: "+e.getMessage(),e);
-      }
-      freeConnections[i] = null;
+      PooledConnection pc = idleConnections.poll();
+      if (pc == null)
+        break;
+      pc.noteDequeued();
+      if (pc.claim())
+        destroy(pc);
     }
-    freePointer = 0;
-    closed = true;
-    notifyAll();
   }
   
   /** Clean up expired connections.
   */
-  public synchronized void cleanupExpiredConnections(long currentTime)
+  public void cleanupExpiredConnections(long currentTime)
+  {
+    validateConnections(currentTime);
+  }
+
+  /** Close idle connections that have expired, and check that the rest still work, closing those
+  * that do not.  This is called periodically by the pool manager's background thread.
+  */
+  public void validateConnections(long currentTime)
   {
-    int i = 0;
-    while (i < freePointer)
+    // Look at each idle connection once
+    int count = idleConnections.size();
+    for (int i = 0; i < count; i++)
     {
-      if (connectionCleanupTimeouts[i] <= currentTime)
+      PooledConnection pc = idleConnections.poll();
+      if (pc == null)
+        break;
+      pc.noteDequeued();
+      if (!pc.claim())
+        continue;
+      if (closed || pc.getIdleSince() + expiration <= currentTime)
       {
-        Connection c = freeConnections[i];
-        freeConnections[i] = null;
-        freePointer--;
-        activeConnections--;
-        if (freePointer == i)
-        {
-          freeConnections[i] = null;
-        }
-        else
-        {
-          freeConnections[i] = freeConnections[freePointer];
-          connectionCleanupTimeouts[i] = connectionCleanupTimeouts[freePointer];
-          freeConnections[freePointer] = null;
-        }
-        try
-        {
-         c.close();
-        }
-        catch (SQLException e)
+        destroy(pc);
+        continue;
+      }
+      if (pc.getLastValidated() + VALIDATION_INTERVAL <= currentTime)
+      {
+        if (!isValid(pc.getConnection()))
         {
-          Logging.db.warn("Error closing pooled connection: "+e.getMessage(),e);
+          Logging.db.warn("Discarding database connection from pool '"+poolKey+"' that failed validation");
+          destroy(pc);
+          continue;
         }
+        pc.setLastValidated(currentTime);
       }
-      else
-        i++;
+      // Put it back without touching its idle time
+      pc.makeIdle(idleConnections);
+    }
+  }
+
+  /** Check whether a connection still works.
+  */
+  protected static boolean isValid(Connection c)
+  {
+    try
+    {
+      return c.isValid(VALIDATION_TIMEOUT);
+    }
+    catch (SQLException e)
+    {
+      return false;
+    }
+    catch (AbstractMethodError e)
+    {
+      // Pre-JDBC 4 driver; we have no cheap way to tell
+      return true;
+    }
+  }
+
+  /** Close a connection that has been claimed, and forget about it.
+  */
+  protected void destroy(PooledConnection pc)
+  {
+    totalConnections.decrementAndGet();
+    StatementCache.discard(pc.getConnection());
+    try
+    {
+      pc.getConnection().close();
+    }
+    catch (SQLException e)
+    {
+      Logging.db.warn("Error closing pooled connection: "+e.getMessage(),e);
     }
   }
   
@@ -231,21 +341,134 @@ public class ConnectionPool
       }
     }
 
-    release(connection.getConnection());
+    PooledConnection pc = connection.getPooledConnection();
+    long currentTime = System.currentTimeMillis();
+    usageTimes.record(currentTime - pc.getCheckoutTime());
+    pc.setIdleSince(currentTime);
+    lastConnection.set(pc);
+    if (closed)
+    {
+      destroy(pc);
+      lastConnection.remove();
+    }
+    else
+      pc.makeIdle(idleConnections);
+    permits.release();
   }
-  
-  protected void release(Connection c)
+
+  /** Get the name of this pool */
+  public String getPoolKey()
+  {
+    return poolKey;
+  }
+
+  /** Get the number of connections that exist */
+  public int getConnectionCount()
+  {
+    return totalConnections.get();
+  }
+
+  /** Get the number of connections checked out */
+  public int getActiveConnectionCount()
+  {
+    return maxConnections - permits.availablePermits();
+  }
+
+  /** Get the histogram of times spent waiting for a connection, in milliseconds */
+  public Histogram getWaitTimeHistogram()
+  {
+    return waitTimes;
+  }
+
+  /** Get the histogram of times connections were kept checked out, in milliseconds */
+  public Histogram getUsageTimeHistogram()
   {
-    synchronized (this)
+    return usageTimes;
+  }
+
+  /** A pooled JDBC connection, with its pool bookkeeping.
+  */
+  public static class PooledConnection
+  {
+    protected final static int STATE_IDLE = 0;
+    protected final static int STATE_IN_USE = 1;
+
+    protected final Connection connection;
+    /** The state, changed only by compare-and-set */
+    protected final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+    /** Whether there's an entry for this connection in the idle queue */
+    protected final AtomicBoolean queued = new AtomicBoolean(false);
+    protected volatile long idleSince;
+    protected volatile long lastValidated;
+    protected volatile long checkoutTime;
+
+    public PooledConnection(Connection connection)
     {
-      freeConnections[freePointer] = c;
-      connectionCleanupTimeouts[freePointer] = System.currentTimeMillis() + expiration;
-      freePointer++;
-      notifyAll();
+      this.connection = connection;
+      long currentTime = System.currentTimeMillis();
+      this.idleSince = currentTime;
+      this.lastValidated = currentTime;
+    }
+
+    public Connection getConnection()
+    {
+      return connection;
+    }
+
+    /** Claim this connection, if it is idle.
+    *@return true if the caller now owns the connection.
+    */
+    public boolean claim()
+    {
+      return state.compareAndSet(STATE_IDLE,STATE_IN_USE);
+    }
+
+    /** Give up ownership, and make sure there's an entry in the idle queue.
+    */
+    public void makeIdle(ConcurrentLinkedQueue<PooledConnection> idleConnections)
+    {
+      state.set(STATE_IDLE);
+      if (queued.compareAndSet(false,true))
+        idleConnections.offer(this);
+    }
+
+    /** Note that this connection's entry has been taken off the idle queue.
+    */
+    public void noteDequeued()
+    {
+      queued.set(false);
+    }
+
+    public long getIdleSince()
+    {
+      return idleSince;
+    }
+
+    public void setIdleSince(long idleSince)
+    {
+      this.idleSince = idleSince;
+    }
+
+    public long getLastValidated()
+    {
+      return lastValidated;
+    }
+
+    public void setLastValidated(long lastValidated)
+    {
+      this.lastValidated = lastValidated;
+    }
+
+    public long getCheckoutTime()
+    {
+      return checkoutTime;
+    }
+
+    public void setCheckoutTime(long checkoutTime)
+    {
+      this.checkoutTime = checkoutTime;
     }
-    
   }
   
 }
 
-
@@ -24,7 +24,9 @@ import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.core.system.Logging;
 import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.metrics.*;
 
 /** An instance of this class manages a number of (independent) connection pools.
 */
@@ -32,15 +34,20 @@ public class ConnectionPoolManager
 {
   public static final String _rcsid = "@(#)$Id$";
 
+  /** How often pool statistics are logged, when debugging, in milliseconds */
+  protected final static long STATISTICS_INTERVAL = 60000L;
+
   protected final Map<String,ConnectionPool> poolMap;
   protected final ConnectionCloserThread connectionCloserThread;
   protected volatile AtomicBoolean shuttingDown = new AtomicBoolean(false);
   protected final boolean debug;
+  protected final long maxWait;
   
   public ConnectionPoolManager(int count)
     throws ManifoldCFException
   {
     debug = ManifoldCF.getBooleanProperty(ManifoldCF.databaseConnectionTrackingProperty, false);
+    maxWait = 1000L * (long)ManifoldCF.getIntProperty(ManifoldCF.databaseHandleMaxWaitProperty, 600);
     poolMap = new HashMap<String,ConnectionPool>(count);
     connectionCloserThread = new ConnectionCloserThread();
     connectionCloserThread.start();
@@ -60,11 +67,21 @@ public class ConnectionPoolManager
     throws ClassNotFoundException, InstantiationException, IllegalAccessException
   {
     Class.forName(driverClassName).newInstance();
-    ConnectionPool cp = new ConnectionPool(dbURL,userName,password,maxSize,expiration,debug);
+    ConnectionPool cp = new ConnectionPool(poolKey,dbURL,userName,password,maxSize,expiration,maxWait,debug);
     poolMap.put(poolKey,cp);
+    MetricsRegistry.registerHistogram("database.pool."+poolKey+".wait.ms",cp.getWaitTimeHistogram());
+    MetricsRegistry.registerHistogram("database.pool."+poolKey+".use.ms",cp.getUsageTimeHistogram());
+    MetricsRegistry.registerSource("database.pool."+poolKey,new PoolMetricsSource(cp));
     return cp;
   }
   
+  /** Get the keys of all the pools.
+  */
+  public synchronized String[] getPoolKeys()
+  {
+    return poolMap.keySet().toArray(new String[0]);
+  }
+
   public void shutdown()
   {
     shuttingDown.set(true);
@@ -94,41 +111,84 @@ public class ConnectionPoolManager
   
   protected void cleanupExpiredConnections(long cleanupTime)
   {
-    ConnectionPool[] connectionPools;
-    synchronized (this)
+    ConnectionPool[] connectionPools = getPools();
+    for (int i = 0 ; i < connectionPools.length ; i++)
     {
-      connectionPools = new ConnectionPool[poolMap.size()];
-      int i = 0;
-      Iterator<String> iter = poolMap.keySet().iterator();
-      while (iter.hasNext())
-      {
-        String poolKey = iter.next();
-        connectionPools[i++] = poolMap.get(poolKey);
-      }
+      connectionPools[i].validateConnections(cleanupTime);
     }
+  }
+
+  /** Log the usage statistics of each pool.
+  */
+  protected void logStatistics()
+  {
+    ConnectionPool[] connectionPools = getPools();
     for (int i = 0 ; i < connectionPools.length ; i++)
     {
-      connectionPools[i].cleanupExpiredConnections(cleanupTime);
+      ConnectionPool cp = connectionPools[i];
+      Logging.db.debug("Connection pool '"+cp.getPoolKey()+"': "+Integer.toString(cp.getActiveConnectionCount())+" of "+
+        Integer.toString(cp.getConnectionCount())+" connections in use; wait ms ("+cp.getWaitTimeHistogram().toString()+
+        "); use ms ("+cp.getUsageTimeHistogram().toString()+")");
     }
   }
+
+  protected synchronized ConnectionPool[] getPools()
+  {
+    ConnectionPool[] connectionPools = new ConnectionPool[poolMap.size()];
+    int i = 0;
+    Iterator<String> iter = poolMap.keySet().iterator();
+    while (iter.hasNext())
+    {
+      String poolKey = iter.next();
+      connectionPools[i++] = poolMap.get(poolKey);
+    }
+    return connectionPools;
+  }
   
+  /** Reports how many of a pool's connections are open and in use.
+  */
+  protected static class PoolMetricsSource extends MetricsSource
+  {
+    protected final ConnectionPool cp;
+
+    public PoolMetricsSource(ConnectionPool cp)
+    {
+      this.cp = cp;
+    }
+
+    public void collect(Map<String,Number> values)
+    {
+      String prefix = "database.pool."+cp.getPoolKey();
+      values.put(prefix+".connections",new Integer(cp.getConnectionCount()));
+      values.put(prefix+".active",new Integer(cp.getActiveConnectionCount()));
+    }
+  }
+
   protected class ConnectionCloserThread extends Thread
   {
     
     public ConnectionCloserThread()
     {
       super();
-      setName("Connection pool reaper");
+      setName("Connection pool reaper and validator");
       setDaemon(true);
     }
     
     public void run()
     {
+      long lastStatisticsTime = System.currentTimeMillis();
       while (true)
       {
         if (shuttingDown.get())
           break;
-        cleanupExpiredConnections(System.currentTimeMillis());
+        long currentTime = System.currentTimeMillis();
+        cleanupExpiredConnections(currentTime);
+        if (currentTime - lastStatisticsTime >= STATISTICS_INTERVAL)
+        {
+          lastStatisticsTime = currentTime;
+          if (Logging.db != null && Logging.db.isDebugEnabled())
+            logStatistics();
+        }
         if (shuttingDown.get())
           break;
         try
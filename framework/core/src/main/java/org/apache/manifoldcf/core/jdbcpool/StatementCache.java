@@ -0,0 +1,168 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.jdbcpool;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.apache.manifoldcf.core.metrics.*;
+import org.apache.manifoldcf.core.system.Logging;
+
+/** A cache of prepared statements belonging to one JDBC connection, keyed by the SQL text.
+* Statements that are prepared again and again with the same text can then be reused, so the
+* driver (and, for some databases, the server) does not need to parse and plan them each time.
+* The cache is least-recently-used, and evicted statements are closed.  A connection is only ever
+* used by one thread at a time, so a statement handed out by prepare() is not shared.
+* The pool discards a connection's cache when it closes the connection.  A schema change made through
+* any connection in this JVM empties every connection's cache, the next time each is used.
+*/
+public class StatementCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The caches, keyed by the connection they belong to */
+  protected final static ConcurrentMap<Connection,StatementCache> caches = new ConcurrentHashMap<Connection,StatementCache>();
+
+  /** The schema generation, which goes up every time the schema changes */
+  protected final static AtomicLong schemaGeneration = new AtomicLong(0L);
+
+  /** Statements found in a cache */
+  protected final static Counter hits = MetricsRegistry.getCounter("database.statementcache.hits");
+  /** Statements that had to be prepared */
+  protected final static Counter misses = MetricsRegistry.getCounter("database.statementcache.misses");
+
+  protected final Connection connection;
+  protected final int maxSize;
+  /** The schema generation the cached statements were prepared under */
+  protected long generation;
+  /** The statements, in access order */
+  protected final LinkedHashMap<String,PreparedStatement> statements = new LinkedHashMap<String,PreparedStatement>(16,0.75f,true);
+
+  protected StatementCache(Connection connection, int maxSize)
+  {
+    this.connection = connection;
+    this.maxSize = maxSize;
+    this.generation = schemaGeneration.get();
+  }
+
+  /** Find the statement cache for a connection, creating it if needed.
+  *@param connection is the JDBC connection.
+  *@param maxSize is the largest number of statements to keep open on the connection.
+  *@return the cache.
+  */
+  public static StatementCache getCache(Connection connection, int maxSize)
+  {
+    StatementCache rval = caches.get(connection);
+    if (rval == null)
+    {
+      rval = new StatementCache(connection,maxSize);
+      StatementCache previous = caches.putIfAbsent(connection,rval);
+      if (previous != null)
+        rval = previous;
+    }
+    return rval;
+  }
+
+  /** Forget the cache for a connection, closing its statements.  Called before the connection is closed.
+  *@param connection is the JDBC connection.
+  */
+  public static void discard(Connection connection)
+  {
+    StatementCache cache = caches.remove(connection);
+    if (cache != null)
+      cache.clear();
+  }
+
+  /** Note that the schema has changed, so that every cache closes its statements before handing out
+  * another one.
+  */
+  public static void noteSchemaChange()
+  {
+    schemaGeneration.incrementAndGet();
+  }
+
+  /** Get a prepared statement for the given SQL, either from the cache or newly prepared.
+  * Parameters left over from a previous use are cleared.
+  *@param query is the SQL text.
+  *@return the statement, which the caller must NOT close.
+  */
+  public synchronized PreparedStatement prepare(String query)
+    throws SQLException
+  {
+    long currentGeneration = schemaGeneration.get();
+    if (currentGeneration != generation)
+    {
+      clear();
+      generation = currentGeneration;
+    }
+    PreparedStatement ps = statements.get(query);
+    if (ps != null)
+    {
+      hits.increment();
+      ps.clearParameters();
+      return ps;
+    }
+    misses.increment();
+    ps = connection.prepareStatement(query);
+    statements.put(query,ps);
+    if (statements.size() > maxSize)
+    {
+      Iterator<Map.Entry<String,PreparedStatement>> iter = statements.entrySet().iterator();
+      Map.Entry<String,PreparedStatement> eldest = iter.next();
+      iter.remove();
+      close(eldest.getValue());
+    }
+    return ps;
+  }
+
+  /** Remove a statement from the cache and close it, e.g. because executing it failed.
+  *@param query is the SQL text.
+  */
+  public synchronized void invalidate(String query)
+  {
+    PreparedStatement ps = statements.remove(query);
+    if (ps != null)
+      close(ps);
+  }
+
+  /** Close and forget all cached statements, e.g. because the schema has changed underneath them.
+  */
+  public synchronized void clear()
+  {
+    for (PreparedStatement ps : statements.values())
+    {
+      close(ps);
+    }
+    statements.clear();
+  }
+
+  protected static void close(PreparedStatement ps)
+  {
+    try
+    {
+      ps.close();
+    }
+    catch (SQLException e)
+    {
+      Logging.db.debug("Error closing cached statement: "+e.getMessage(),e);
+    }
+  }
+
+}
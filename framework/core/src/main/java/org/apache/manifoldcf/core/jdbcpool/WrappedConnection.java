@@ -32,20 +32,19 @@ public class WrappedConnection
   /** Exception, to keep track of where the connection was allocated */
   protected Exception instantiationException;
   
+  /** The pool's record of the connection */
+  protected ConnectionPool.PooledConnection pooledConnection;
+
   /** Constructor */
-  public WrappedConnection(ConnectionPool owner, Connection connection)
-  {
-    this(owner,connection,null);
-  }
-  
-  /** Constructor */
-  public WrappedConnection(ConnectionPool owner, Connection connection, Exception instantiationException)
+  public WrappedConnection(ConnectionPool owner, Connection connection, Exception instantiationException,
+    ConnectionPool.PooledConnection pooledConnection)
   {
     this.owner = owner;
     this.connection = connection;
     this.instantiationException = instantiationException;
+    this.pooledConnection = pooledConnection;
   }
-  
+
   /** Get the JDBC connection object.
   */
   public Connection getConnection()
@@ -61,6 +60,13 @@ public class WrappedConnection
     this.connection = null;
   }
   
+  /** Get the pool's record of the connection.
+  */
+  public ConnectionPool.PooledConnection getPooledConnection()
+  {
+    return pooledConnection;
+  }
+
   /** Get instantiation exception.
   */
   public Exception getInstantiationException()
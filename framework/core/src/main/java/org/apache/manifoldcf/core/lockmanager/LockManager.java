@@ -21,6 +21,7 @@ package org.apache.manifoldcf.core.lockmanager;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.system.Logging;
 import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.metrics.*;
 import java.util.*;
 import java.io.*;
 
@@ -47,12 +48,20 @@ public class LockManager implements ILockManager
   protected HashMap localSections = new HashMap();
   protected static LockPool mySections = new LockPool();
 
+  // Time spent waiting to obtain locks and critical sections, in microseconds
+  protected final static LatencyTimer lockWaitTimer = MetricsRegistry.getTimer("lock.wait");
+  protected final static LatencyTimer sectionWaitTimer = MetricsRegistry.getTimer("lock.section.wait");
+
+  // This is the pool that lock objects come from; it determines how locks are shared across JVMs
+  protected LockPool lockPool;
+
   // This is the directory used for cross-JVM synchronization, or null if off
   protected File synchDirectory = null;
 
   public LockManager()
     throws ManifoldCFException
   {
+    this(myLocks);
     synchDirectory = ManifoldCF.getFileProperty(synchDirectoryProperty);
     if (synchDirectory != null)
     {
@@ -61,6 +70,23 @@ public class LockManager implements ILockManager
     }
   }
 
+  /** Constructor for subclasses that supply their own lock pool, and thus their own means
+  * of synchronizing locks across JVMs.
+  *@param lockPool is the pool of lock objects to use.
+  */
+  protected LockManager(LockPool lockPool)
+  {
+    this.lockPool = lockPool;
+  }
+
+  /** Check whether this lock manager only coordinates threads within this one process.
+  *@return true if there is no synchronization directory.
+  */
+  public boolean isSingleProcess()
+  {
+    return synchDirectory == null;
+  }
+
   /** Calculate the name of a flag resource.
   *@param flagName is the name of the flag.
   *@return the name for the flag resource.
@@ -320,9 +346,10 @@ public class LockManager implements ILockManager
 
     // We don't own a local non-ex write lock.  Get one.  The global lock will need
     // to know if we already have a a read lock.
+    long waitStartTime = lockWaitTimer.start();
     while (true)
     {
-      LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+      LockObject lo = lockPool.getObject(lockKey,synchDirectory);
       try
       {
         lo.enterNonExWriteLock();
@@ -337,6 +364,7 @@ public class LockManager implements ILockManager
         // Try again to get a valid object
       }
     }
+    lockWaitTimer.stop(waitStartTime);
     ll.incrementNonExWriteLocks();
     Logging.lock.debug(" Successfully obtained lock!");
   }
@@ -372,7 +400,7 @@ public class LockManager implements ILockManager
     // to know if we already have a a read lock.
     while (true)
     {
-      LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+      LockObject lo = lockPool.getObject(lockKey,synchDirectory);
       try
       {
         synchronized (lo)
@@ -426,7 +454,7 @@ public class LockManager implements ILockManager
     {
       while (true)
       {
-        LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+        LockObject lo = lockPool.getObject(lockKey,synchDirectory);
         try
         {
           lo.leaveNonExWriteLock();
@@ -493,9 +521,10 @@ public class LockManager implements ILockManager
     // We don't own a local write lock.  Get one.  The global lock will need
     // to know if we already have a non-exclusive lock or a read lock, which we don't because
     // it's illegal.
+    long waitStartTime = lockWaitTimer.start();
     while (true)
     {
-      LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+      LockObject lo = lockPool.getObject(lockKey,synchDirectory);
       try
       {
         lo.enterWriteLock();
@@ -510,6 +539,7 @@ public class LockManager implements ILockManager
         // Try again
       }
     }
+    lockWaitTimer.stop(waitStartTime);
     ll.incrementWriteLocks();
     Logging.lock.debug(" Successfully obtained lock!");
   }
@@ -545,7 +575,7 @@ public class LockManager implements ILockManager
     // it's illegal.
     while (true)
     {
-      LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+      LockObject lo = lockPool.getObject(lockKey,synchDirectory);
       try
       {
         synchronized (lo)
@@ -594,7 +624,7 @@ public class LockManager implements ILockManager
     {
       while (true)
       {
-        LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+        LockObject lo = lockPool.getObject(lockKey,synchDirectory);
         try
         {
           lo.leaveWriteLock();
@@ -653,9 +683,10 @@ public class LockManager implements ILockManager
     }
 
     // We don't own a local read lock.  Get one.
+    long waitStartTime = lockWaitTimer.start();
     while (true)
     {
-      LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+      LockObject lo = lockPool.getObject(lockKey,synchDirectory);
       try
       {
         lo.enterReadLock();
@@ -670,6 +701,7 @@ public class LockManager implements ILockManager
         // Try again
       }
     }
+    lockWaitTimer.stop(waitStartTime);
     ll.incrementReadLocks();
     Logging.lock.debug(" Successfully obtained lock!");
   }
@@ -697,7 +729,7 @@ public class LockManager implements ILockManager
     // We don't own a local read lock.  Get one.
     while (true)
     {
-      LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+      LockObject lo = lockPool.getObject(lockKey,synchDirectory);
       try
       {
         synchronized (lo)
@@ -746,7 +778,7 @@ public class LockManager implements ILockManager
     {
       while (true)
       {
-        LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+        LockObject lo = lockPool.getObject(lockKey,synchDirectory);
         try
         {
           lo.leaveReadLock();
@@ -845,6 +877,7 @@ public class LockManager implements ILockManager
     // contention!
     LockDescription lds[] = getSortedUniqueLocks(readLocks,nonExWriteLocks,writeLocks);
     int locksProcessed = 0;
+    long waitStartTime = lockWaitTimer.start();
     try
     {
       while (locksProcessed < lds.length)
@@ -869,7 +902,7 @@ public class LockManager implements ILockManager
             // We don't own a local write lock.  Get one.
             while (true)
             {
-              LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+              LockObject lo = lockPool.getObject(lockKey,synchDirectory);
               try
               {
                 lo.enterWriteLock();
@@ -897,7 +930,7 @@ public class LockManager implements ILockManager
             // We don't own a local write lock.  Get one.
             while (true)
             {
-              LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+              LockObject lo = lockPool.getObject(lockKey,synchDirectory);
               try
               {
                 lo.enterNonExWriteLock();
@@ -918,7 +951,7 @@ public class LockManager implements ILockManager
             // We don't own a local read lock.  Get one.
             while (true)
             {
-              LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+              LockObject lo = lockPool.getObject(lockKey,synchDirectory);
               try
               {
                 lo.enterReadLock();
@@ -936,6 +969,7 @@ public class LockManager implements ILockManager
         locksProcessed++;
       }
       // Got all; we are done!
+      lockWaitTimer.stop(waitStartTime);
       Logging.lock.debug(" Successfully obtained multiple locks!");
       return;
     }
@@ -1055,7 +1089,7 @@ public class LockManager implements ILockManager
             // We don't own a local write lock.  Get one.
             while (true)
             {
-              LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+              LockObject lo = lockPool.getObject(lockKey,synchDirectory);
               synchronized (lo)
               {
                 try
@@ -1086,7 +1120,7 @@ public class LockManager implements ILockManager
             // We don't own a local write lock.  Get one.
             while (true)
             {
-              LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+              LockObject lo = lockPool.getObject(lockKey,synchDirectory);
               synchronized (lo)
               {
                 try
@@ -1110,7 +1144,7 @@ public class LockManager implements ILockManager
             // We don't own a local read lock.  Get one.
             while (true)
             {
-              LockObject lo = myLocks.getObject(lockKey,synchDirectory);
+              LockObject lo = lockPool.getObject(lockKey,synchDirectory);
               synchronized (lo)
               {
                 try
@@ -1254,6 +1288,7 @@ public class LockManager implements ILockManager
     }
 
     // We don't own a local read lock.  Get one.
+    long waitStartTime = sectionWaitTimer.start();
     while (true)
     {
       LockObject lo = mySections.getObject(sectionKey,null);
@@ -1271,6 +1306,7 @@ public class LockManager implements ILockManager
         // Try again
       }
     }
+    sectionWaitTimer.stop(waitStartTime);
     ll.incrementReadLocks();
   }
 
@@ -1351,6 +1387,7 @@ public class LockManager implements ILockManager
 
     // We don't own a local non-ex write lock.  Get one.  The global lock will need
     // to know if we already have a a read lock.
+    long waitStartTime = sectionWaitTimer.start();
     while (true)
     {
       LockObject lo = mySections.getObject(sectionKey,null);
@@ -1368,6 +1405,7 @@ public class LockManager implements ILockManager
         // Try again
       }
     }
+    sectionWaitTimer.stop(waitStartTime);
     ll.incrementNonExWriteLocks();
   }
 
@@ -1451,6 +1489,7 @@ public class LockManager implements ILockManager
     // We don't own a local write lock.  Get one.  The global lock will need
     // to know if we already have a non-exclusive lock or a read lock, which we don't because
     // it's illegal.
+    long waitStartTime = sectionWaitTimer.start();
     while (true)
     {
       LockObject lo = mySections.getObject(sectionKey,null);
@@ -1468,6 +1507,7 @@ public class LockManager implements ILockManager
         // Try again
       }
     }
+    sectionWaitTimer.stop(waitStartTime);
     ll.incrementWriteLocks();
 
   }
@@ -1534,6 +1574,7 @@ public class LockManager implements ILockManager
     // contention!
     LockDescription lds[] = getSortedUniqueLocks(readSectionKeys,nonExSectionKeys,writeSectionKeys);
     int locksProcessed = 0;
+    long waitStartTime = sectionWaitTimer.start();
     try
     {
       while (locksProcessed < lds.length)
@@ -1625,6 +1666,7 @@ public class LockManager implements ILockManager
         locksProcessed++;
       }
       // Got all; we are done!
+      sectionWaitTimer.stop(waitStartTime);
       return;
     }
     catch (Throwable ex)
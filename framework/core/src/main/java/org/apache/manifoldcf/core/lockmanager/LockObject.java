@@ -49,9 +49,7 @@ public class LockObject
 
   public LockObject(LockPool lockPool, Object lockKey, File synchDir)
   {
-    this.lockPool = lockPool;
-    this.lockKey = lockKey;
-    this.isSync = (synchDir != null);
+    this(lockPool,lockKey,synchDir != null);
     if (isSync)
     {
       // Hash the filename
@@ -70,6 +68,19 @@ public class LockObject
     }
   }
 
+  /** Constructor for subclasses that synchronize across JVMs by some means other than
+  * the synchronization directory.
+  *@param lockPool is the pool this object belongs to.
+  *@param lockKey is the lock key.
+  *@param isSync is true if the global lock methods need to be called.
+  */
+  protected LockObject(LockPool lockPool, Object lockKey, boolean isSync)
+  {
+    this.lockPool = lockPool;
+    this.lockKey = lockKey;
+    this.isSync = isSync;
+  }
+
   public synchronized void makeInvalid()
   {
     this.lockPool = null;
@@ -115,8 +126,8 @@ public class LockObject
       }
       catch (LockException le2)
       {
-        // Cross JVM lock; sleep!
-        ManifoldCF.sleep(10);
+        // Cross JVM lock; wait before retrying
+        waitForGlobalLock();
       }
     }
   }
@@ -142,22 +153,7 @@ public class LockObject
       throw new LocalLockException(LOCKEDANOTHERTHREAD);
     // Attempt to obtain a global write lock
     if (isSync)
-    {
-      grabFileLock();
-      try
-      {
-        int status = readFile();
-        if (status != 0)
-        {
-          throw new LockException(LOCKEDANOTHERJVM);
-        }
-        writeFile(STATUS_WRITELOCKED);
-      }
-      finally
-      {
-        releaseFileLock();
-      }
-    }
+      obtainGlobalWriteLockNoWait();
     obtainedWrite = true;
   }
 
@@ -182,15 +178,7 @@ public class LockObject
           {
             try
             {
-              grabFileLock();
-              try
-              {
-                writeFile(0);
-              }
-              finally
-              {
-                releaseFileLock();
-              }
+              clearGlobalWriteLock();
             }
             catch (LockException le)
             {
@@ -256,8 +244,8 @@ public class LockObject
       }
       catch (LockException le2)
       {
-        // Cross JVM lock; sleep!
-        ManifoldCF.sleep(10);
+        // Cross JVM lock; wait before retrying
+        waitForGlobalLock();
       }
     }
   }
@@ -287,24 +275,7 @@ public class LockObject
 
     // Attempt to obtain a global write lock
     if (isSync)
-    {
-      grabFileLock();
-      try
-      {
-        int status = readFile();
-        if (status >= STATUS_WRITELOCKED)
-        {
-          throw new LockException(LOCKEDANOTHERJVM);
-        }
-        if (status == 0)
-          status = STATUS_WRITELOCKED;
-        writeFile(status-1);
-      }
-      finally
-      {
-        releaseFileLock();
-      }
-    }
+      obtainGlobalNonExWriteLockNoWait();
     obtainedNonExWrite++;
   }
 
@@ -331,21 +302,7 @@ public class LockObject
           {
             try
             {
-              grabFileLock();
-              try
-              {
-                int status = readFile();
-                if (status >= STATUS_WRITELOCKED)
-                  throw new RuntimeException("JVM error: File lock is not in expected state for object "+this.toString());
-                status++;
-                if (status == STATUS_WRITELOCKED)
-                  status = 0;
-                writeFile(status);
-              }
-              finally
-              {
-                releaseFileLock();
-              }
+              clearGlobalNonExWriteLock();
             }
             catch (LockException le)
             {
@@ -412,8 +369,8 @@ public class LockObject
       }
       catch (LockException le)
       {
-        ManifoldCF.sleep(10);
-        // Loop around
+        // Cross JVM lock; wait before retrying
+        waitForGlobalLock();
       }
     }
   }
@@ -435,26 +392,7 @@ public class LockObject
 
     // Attempt to obtain a global read lock
     if (isSync)
-    {
-      grabFileLock();
-      try
-      {
-        int status = readFile();
-        // System.out.println(" Read "+Integer.toString(status));
-        if (status <= STATUS_WRITELOCKED)
-        {
-          throw new LockException(LOCKEDANOTHERJVM);
-        }
-        status++;
-        writeFile(status);
-        // System.out.println(" Wrote "+Integer.toString(status));
-      }
-      finally
-      {
-        releaseFileLock();
-      }
-      // System.out.println(" Exiting");
-    }
+      obtainGlobalReadLockNoWait();
 
     obtainedRead = 1;
   }
@@ -486,22 +424,7 @@ public class LockObject
           {
             try
             {
-              grabFileLock();
-              try
-              {
-                int status = readFile();
-                // System.out.println(" Read status = "+Integer.toString(status));
-                if (status == 0)
-                  throw new RuntimeException("JVM error: File lock is not in expected state for object "+this.toString());
-                status--;
-                writeFile(status);
-                // System.out.println(" Wrote status = "+Integer.toString(status));
-              }
-              finally
-              {
-                releaseFileLock();
-              }
-              // System.out.println(" Done");
+              clearGlobalReadLock();
             }
             catch (LockException le)
             {
@@ -537,6 +460,147 @@ public class LockObject
     }
   }
 
+  // Cross-JVM synchronization.  These methods are called only when isSync is true, and always from
+  // within a block synchronized on this object.  The base implementation keeps the global lock
+  // state in the synchronization directory.
+
+  /** Obtain the global write lock for this key, or throw LockException if another JVM holds
+  * a conflicting lock.
+  */
+  protected void obtainGlobalWriteLockNoWait()
+    throws LockException, InterruptedException
+  {
+    grabFileLock();
+    try
+    {
+      int status = readFile();
+      if (status != 0)
+      {
+        throw new LockException(LOCKEDANOTHERJVM);
+      }
+      writeFile(STATUS_WRITELOCKED);
+    }
+    finally
+    {
+      releaseFileLock();
+    }
+  }
+
+  /** Release the global write lock for this key.
+  */
+  protected void clearGlobalWriteLock()
+    throws LockException, InterruptedException
+  {
+    grabFileLock();
+    try
+    {
+      writeFile(0);
+    }
+    finally
+    {
+      releaseFileLock();
+    }
+  }
+
+  /** Obtain the global non-ex write lock for this key, or throw LockException if another JVM holds
+  * a conflicting lock.
+  */
+  protected void obtainGlobalNonExWriteLockNoWait()
+    throws LockException, InterruptedException
+  {
+    grabFileLock();
+    try
+    {
+      int status = readFile();
+      if (status >= STATUS_WRITELOCKED)
+      {
+        throw new LockException(LOCKEDANOTHERJVM);
+      }
+      if (status == 0)
+        status = STATUS_WRITELOCKED;
+      writeFile(status-1);
+    }
+    finally
+    {
+      releaseFileLock();
+    }
+  }
+
+  /** Release the global non-ex write lock for this key.
+  */
+  protected void clearGlobalNonExWriteLock()
+    throws LockException, InterruptedException
+  {
+    grabFileLock();
+    try
+    {
+      int status = readFile();
+      if (status >= STATUS_WRITELOCKED)
+        throw new RuntimeException("JVM error: File lock is not in expected state for object "+this.toString());
+      status++;
+      if (status == STATUS_WRITELOCKED)
+        status = 0;
+      writeFile(status);
+    }
+    finally
+    {
+      releaseFileLock();
+    }
+  }
+
+  /** Obtain the global read lock for this key, or throw LockException if another JVM holds
+  * a conflicting lock.
+  */
+  protected void obtainGlobalReadLockNoWait()
+    throws LockException, InterruptedException
+  {
+    grabFileLock();
+    try
+    {
+      int status = readFile();
+      if (status <= STATUS_WRITELOCKED)
+      {
+        throw new LockException(LOCKEDANOTHERJVM);
+      }
+      status++;
+      writeFile(status);
+    }
+    finally
+    {
+      releaseFileLock();
+    }
+  }
+
+  /** Release the global read lock for this key.
+  */
+  protected void clearGlobalReadLock()
+    throws LockException, InterruptedException
+  {
+    grabFileLock();
+    try
+    {
+      int status = readFile();
+      if (status == 0)
+        throw new RuntimeException("JVM error: File lock is not in expected state for object "+this.toString());
+      status--;
+      writeFile(status);
+    }
+    finally
+    {
+      releaseFileLock();
+    }
+  }
+
+  /** Wait after a global lock attempt failed because another JVM holds a conflicting lock.
+  * This is called while NOT synchronized on this object.  The file-based implementation
+  * has no way to be notified when the lock is freed, so it simply sleeps.
+  */
+  protected void waitForGlobalLock()
+    throws InterruptedException
+  {
+    ManifoldCF.sleep(10);
+  }
+
   private final static String FILELOCKED = "File locked";
 
   private synchronized void grabFileLock()
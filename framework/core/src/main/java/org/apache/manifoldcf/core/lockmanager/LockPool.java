@@ -32,12 +32,20 @@ public class LockPool
     LockObject lo = (LockObject)myLocks.get(lockKey);
     if (lo == null)
     {
-      lo = new LockObject(this,lockKey,synchDir);
+      lo = createLockObject(lockKey,synchDir);
       myLocks.put(lockKey,lo);
     }
     return lo;
   }
 
+  /** Create a new lock object for a key.  Override this to supply lock objects that
+  * synchronize across JVMs differently.
+  */
+  protected LockObject createLockObject(Object lockKey, File synchDir)
+  {
+    return new LockObject(this,lockKey,synchDir);
+  }
+
   public synchronized void releaseObject(Object lockKey, LockObject lockObject)
   {
     lockObject.makeInvalid();
@@ -0,0 +1,866 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.system.Logging;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.security.*;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/** This is a standalone lock server, which holds the cross-JVM lock state, global flags, and shared data
+* for all ManifoldCF processes that use LockServerLockManager.  It replaces the synchronization directory.
+*
+* Each client JVM registers a session with the server, and must renew the session's lease periodically.
+* If a lease expires (e.g. because the owning process died), all locks held by the session are released.
+* Clients that cannot obtain a lock may ask the server to block until the lock is released, rather than
+* polling.
+*
+* The server keeps all state in memory, so global flags and shared data are reset when the server is
+* restarted.  This is consistent with the contract of ILockManager, which states that flags are reset when
+* the entire system restarts.  The lock server must therefore be started before any other ManifoldCF
+* process, and if it is restarted, all other processes must be restarted as well.
+*
+* The server listens only on the configured bind address, which defaults to the loopback interface.  Every
+* connection must first answer a challenge by proving knowledge of the shared secret; connections that fail
+* to do so are dropped before any request is read.
+*/
+public class LockServer
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Default port */
+  public static final int DEFAULT_PORT = 8349;
+
+  /** Bind address property, used when the server is run standalone */
+  public static final String lockServerBindAddressProperty = "org.apache.manifoldcf.lockserver.bindaddress";
+  /** Shared secret property */
+  public static final String lockServerSecretProperty = "org.apache.manifoldcf.lockserver.secret";
+
+  /** Length of the authentication challenge, in bytes */
+  protected final static int CHALLENGE_LENGTH = 16;
+  /** The MAC algorithm used to answer the challenge */
+  protected final static String CHALLENGE_ALGORITHM = "HmacSHA256";
+  /** How long a new connection has to authenticate, in milliseconds */
+  protected final static int AUTHENTICATION_TIMEOUT = 10000;
+
+  // Request codes
+  protected final static int REQUEST_REGISTER = 1;
+  protected final static int REQUEST_RENEW = 2;
+  protected final static int REQUEST_UNREGISTER = 3;
+  protected final static int REQUEST_LOCK = 4;
+  protected final static int REQUEST_UNLOCK = 5;
+  protected final static int REQUEST_AWAIT = 6;
+  protected final static int REQUEST_SETFLAG = 7;
+  protected final static int REQUEST_CLEARFLAG = 8;
+  protected final static int REQUEST_CHECKFLAG = 9;
+  protected final static int REQUEST_READDATA = 10;
+  protected final static int REQUEST_WRITEDATA = 11;
+
+  // Response codes
+  protected final static int RESPONSE_OK = 0;
+  protected final static int RESPONSE_BUSY = 1;
+  protected final static int RESPONSE_EXPIRED = 2;
+  protected final static int RESPONSE_ERROR = 3;
+  protected final static int RESPONSE_TRUE = 4;
+  protected final static int RESPONSE_FALSE = 5;
+
+  // Lock types, which match those used by LockManager
+  protected final static int TYPE_READ = 1;
+  protected final static int TYPE_WRITENONEX = 2;
+  protected final static int TYPE_WRITE = 3;
+
+  /** The longest time a client may block in a single await request, in milliseconds */
+  protected final static long MAX_AWAIT_TIME = 5000L;
+
+  /** The address we listen on, or null for the loopback interface */
+  protected final String bindAddress;
+  /** The port we listen on */
+  protected final int port;
+  /** The shared secret clients must prove they know */
+  protected final byte[] secret;
+  /** Source of authentication challenges */
+  protected final SecureRandom random = new SecureRandom();
+
+  /** Sessions, keyed by session ID */
+  protected final Map<Long,Session> sessions = new HashMap<Long,Session>();
+  /** Lock state, keyed by lock key */
+  protected final Map<String,ServerLock> locks = new HashMap<String,ServerLock>();
+  /** Global flags */
+  protected final Set<String> flags = new HashSet<String>();
+  /** Shared data */
+  protected final Map<String,byte[]> data = new HashMap<String,byte[]>();
+
+  /** Next session ID */
+  protected long nextSessionID = System.currentTimeMillis();
+
+  /** The server socket, once started */
+  protected ServerSocket serverSocket = null;
+  /** The listener thread */
+  protected ListenerThread listenerThread = null;
+  /** The lease expiration thread */
+  protected ExpirationThread expirationThread = null;
+
+  /** Constructor.
+  *@param bindAddress is the address to listen on, or null to listen on the loopback interface only.
+  *@param port is the port to listen on; use 0 to pick any free port.
+  *@param secret is the shared secret that clients must present.
+  */
+  public LockServer(String bindAddress, int port, String secret)
+  {
+    if (secret == null || secret.length() == 0)
+      throw new IllegalArgumentException("Lock server requires a shared secret");
+    this.bindAddress = bindAddress;
+    this.port = port;
+    this.secret = encodeSecret(secret);
+  }
+
+  /** Start the server.  This binds the port and starts the listener and lease expiration threads.
+  */
+  public synchronized void start()
+    throws IOException
+  {
+    if (serverSocket != null)
+      return;
+    InetAddress address = (bindAddress == null)?InetAddress.getByName(null):InetAddress.getByName(bindAddress);
+    serverSocket = new ServerSocket(port,50,address);
+    listenerThread = new ListenerThread(serverSocket);
+    listenerThread.start();
+    expirationThread = new ExpirationThread();
+    expirationThread.start();
+  }
+
+  /** Get the port the server is actually listening on.
+  */
+  public synchronized int getLocalPort()
+  {
+    if (serverSocket == null)
+      return port;
+    return serverSocket.getLocalPort();
+  }
+
+  /** Stop the server.  All sessions are discarded.
+  */
+  public void stop()
+    throws InterruptedException
+  {
+    ListenerThread lt;
+    ExpirationThread et;
+    synchronized (this)
+    {
+      if (serverSocket == null)
+        return;
+      try
+      {
+        serverSocket.close();
+      }
+      catch (IOException e)
+      {
+        // Ignore; we're shutting down anyway
+      }
+      serverSocket = null;
+      lt = listenerThread;
+      et = expirationThread;
+      listenerThread = null;
+      expirationThread = null;
+    }
+    et.interrupt();
+    lt.join();
+    et.join();
+    synchronized (this)
+    {
+      sessions.clear();
+      locks.clear();
+      notifyAll();
+    }
+  }
+
+  // Session management
+
+  /** Register a new session.
+  *@param leaseTime is the lease time the client requests, in milliseconds.
+  *@return the new session ID.
+  */
+  protected synchronized long registerSession(long leaseTime)
+  {
+    long sessionID = nextSessionID++;
+    sessions.put(new Long(sessionID),new Session(sessionID,leaseTime));
+    return sessionID;
+  }
+
+  /** Renew a session's lease.
+  *@return false if the session is unknown (i.e. has expired).
+  */
+  protected synchronized boolean renewSession(long sessionID)
+  {
+    Session s = sessions.get(new Long(sessionID));
+    if (s == null)
+      return false;
+    s.renew();
+    return true;
+  }
+
+  /** Discard a session, releasing all its locks.
+  */
+  protected synchronized void unregisterSession(long sessionID)
+  {
+    Session s = sessions.remove(new Long(sessionID));
+    if (s != null)
+      releaseSessionLocks(s);
+  }
+
+  /** Expire all sessions whose leases have run out.
+  */
+  protected synchronized void expireSessions(long currentTime)
+  {
+    Iterator<Session> iter = sessions.values().iterator();
+    while (iter.hasNext())
+    {
+      Session s = iter.next();
+      if (s.isExpired(currentTime))
+      {
+        iter.remove();
+        Logging.lock.warn("Lock server: lease for session "+s.getID()+" expired; releasing "+Integer.toString(s.getHeldKeys().size())+" lock(s)");
+        releaseSessionLocks(s);
+      }
+    }
+  }
+
+  /** Release all locks held by a session.  Must be called while synchronized.
+  */
+  protected void releaseSessionLocks(Session s)
+  {
+    Long sessionID = new Long(s.getID());
+    Iterator<String> iter = s.getHeldKeys().iterator();
+    while (iter.hasNext())
+    {
+      String lockKey = iter.next();
+      ServerLock sl = locks.get(lockKey);
+      if (sl != null)
+      {
+        sl.releaseAll(sessionID);
+        if (sl.isFree())
+          locks.remove(lockKey);
+      }
+    }
+    s.getHeldKeys().clear();
+    notifyAll();
+  }
+
+  // Locks
+
+  /** Attempt to obtain a lock without waiting.
+  *@return the response code.
+  */
+  protected synchronized int lock(long sessionID, int lockType, String lockKey)
+  {
+    Long sessionKey = new Long(sessionID);
+    Session s = sessions.get(sessionKey);
+    if (s == null)
+      return RESPONSE_EXPIRED;
+    ServerLock sl = locks.get(lockKey);
+    if (sl == null)
+    {
+      sl = new ServerLock();
+      locks.put(lockKey,sl);
+    }
+    if (!sl.obtain(sessionKey,lockType))
+    {
+      if (sl.isFree())
+        locks.remove(lockKey);
+      return RESPONSE_BUSY;
+    }
+    s.getHeldKeys().add(lockKey);
+    return RESPONSE_OK;
+  }
+
+  /** Release a lock.
+  *@return the response code.
+  */
+  protected synchronized int unlock(long sessionID, int lockType, String lockKey)
+  {
+    Long sessionKey = new Long(sessionID);
+    Session s = sessions.get(sessionKey);
+    if (s == null)
+      return RESPONSE_EXPIRED;
+    ServerLock sl = locks.get(lockKey);
+    if (sl == null || !sl.release(sessionKey,lockType))
+      return RESPONSE_ERROR;
+    if (sl.isFree())
+      locks.remove(lockKey);
+    if (!sl.isHeldBy(sessionKey))
+      s.getHeldKeys().remove(lockKey);
+    notifyAll();
+    return RESPONSE_OK;
+  }
+
+  /** Wait until a lock of the given type could plausibly be obtained, or until the wait time elapses.
+  * The lock is NOT obtained; the client is expected to retry.
+  *@return the response code.
+  */
+  protected synchronized int await(long sessionID, int lockType, String lockKey, long waitTime)
+    throws InterruptedException
+  {
+    Long sessionKey = new Long(sessionID);
+    if (waitTime > MAX_AWAIT_TIME)
+      waitTime = MAX_AWAIT_TIME;
+    long endTime = System.currentTimeMillis() + waitTime;
+    while (true)
+    {
+      if (sessions.get(sessionKey) == null)
+        return RESPONSE_EXPIRED;
+      ServerLock sl = locks.get(lockKey);
+      if (sl == null || sl.canObtain(sessionKey,lockType))
+        return RESPONSE_OK;
+      long remaining = endTime - System.currentTimeMillis();
+      if (remaining <= 0L)
+        return RESPONSE_BUSY;
+      wait(remaining);
+    }
+  }
+
+  // Flags and data
+
+  protected synchronized void setFlag(String flagName)
+  {
+    flags.add(flagName);
+  }
+
+  protected synchronized void clearFlag(String flagName)
+  {
+    flags.remove(flagName);
+  }
+
+  protected synchronized boolean checkFlag(String flagName)
+  {
+    return flags.contains(flagName);
+  }
+
+  protected synchronized byte[] readData(String resourceName)
+  {
+    return data.get(resourceName);
+  }
+
+  protected synchronized void writeData(String resourceName, byte[] value)
+  {
+    if (value == null)
+      data.remove(resourceName);
+    else
+      data.put(resourceName,value);
+  }
+
+  /** Handle a single request from a client connection.
+  */
+  protected void handleRequest(int request, DataInputStream is, DataOutputStream os)
+    throws IOException, InterruptedException
+  {
+    switch (request)
+    {
+    case REQUEST_REGISTER:
+      {
+        long leaseTime = is.readLong();
+        long sessionID = registerSession(leaseTime);
+        os.writeByte(RESPONSE_OK);
+        os.writeLong(sessionID);
+        break;
+      }
+    case REQUEST_RENEW:
+      {
+        long sessionID = is.readLong();
+        os.writeByte(renewSession(sessionID)?RESPONSE_OK:RESPONSE_EXPIRED);
+        break;
+      }
+    case REQUEST_UNREGISTER:
+      {
+        long sessionID = is.readLong();
+        unregisterSession(sessionID);
+        os.writeByte(RESPONSE_OK);
+        break;
+      }
+    case REQUEST_LOCK:
+    case REQUEST_UNLOCK:
+    case REQUEST_AWAIT:
+      {
+        long sessionID = is.readLong();
+        int lockType = is.readUnsignedByte();
+        String lockKey = is.readUTF();
+        int response;
+        if (request == REQUEST_LOCK)
+          response = lock(sessionID,lockType,lockKey);
+        else if (request == REQUEST_UNLOCK)
+          response = unlock(sessionID,lockType,lockKey);
+        else
+          response = await(sessionID,lockType,lockKey,is.readLong());
+        os.writeByte(response);
+        break;
+      }
+    case REQUEST_SETFLAG:
+      setFlag(is.readUTF());
+      os.writeByte(RESPONSE_OK);
+      break;
+    case REQUEST_CLEARFLAG:
+      clearFlag(is.readUTF());
+      os.writeByte(RESPONSE_OK);
+      break;
+    case REQUEST_CHECKFLAG:
+      os.writeByte(checkFlag(is.readUTF())?RESPONSE_TRUE:RESPONSE_FALSE);
+      break;
+    case REQUEST_READDATA:
+      {
+        byte[] value = readData(is.readUTF());
+        os.writeByte(RESPONSE_OK);
+        writeBytes(os,value);
+        break;
+      }
+    case REQUEST_WRITEDATA:
+      {
+        String resourceName = is.readUTF();
+        writeData(resourceName,readBytes(is));
+        os.writeByte(RESPONSE_OK);
+        break;
+      }
+    default:
+      throw new IOException("Unknown lock server request code: "+Integer.toString(request));
+    }
+    os.flush();
+  }
+
+  /** Read a possibly-null byte array from a stream.
+  */
+  protected static byte[] readBytes(DataInputStream is)
+    throws IOException
+  {
+    int length = is.readInt();
+    if (length == -1)
+      return null;
+    byte[] rval = new byte[length];
+    is.readFully(rval);
+    return rval;
+  }
+
+  /** Write a possibly-null byte array to a stream.
+  */
+  protected static void writeBytes(DataOutputStream os, byte[] value)
+    throws IOException
+  {
+    if (value == null)
+      os.writeInt(-1);
+    else
+    {
+      os.writeInt(value.length);
+      os.write(value,0,value.length);
+    }
+  }
+
+  /** Challenge a newly-connected client to prove it knows the shared secret.
+  *@return true if the client answered correctly.
+  */
+  protected boolean authenticate(DataInputStream is, DataOutputStream os)
+    throws IOException
+  {
+    byte[] challenge = new byte[CHALLENGE_LENGTH];
+    synchronized (random)
+    {
+      random.nextBytes(challenge);
+    }
+    os.write(challenge,0,challenge.length);
+    os.flush();
+    byte[] expected = computeResponse(secret,challenge);
+    byte[] answer = new byte[expected.length];
+    is.readFully(answer);
+    boolean rval = MessageDigest.isEqual(expected,answer);
+    os.writeByte(rval?RESPONSE_OK:RESPONSE_ERROR);
+    os.flush();
+    return rval;
+  }
+
+  /** Answer the server's challenge, on the client side of a new connection.
+  */
+  protected static void answerChallenge(byte[] secret, DataInputStream is, DataOutputStream os)
+    throws IOException
+  {
+    byte[] challenge = new byte[CHALLENGE_LENGTH];
+    is.readFully(challenge);
+    byte[] answer = computeResponse(secret,challenge);
+    os.write(answer,0,answer.length);
+    os.flush();
+    if (is.readUnsignedByte() != RESPONSE_OK)
+      throw new IOException("Lock server rejected the shared secret");
+  }
+
+  /** Compute the expected answer to a challenge.
+  */
+  protected static byte[] computeResponse(byte[] secret, byte[] challenge)
+    throws IOException
+  {
+    try
+    {
+      Mac mac = Mac.getInstance(CHALLENGE_ALGORITHM);
+      mac.init(new SecretKeySpec(secret,CHALLENGE_ALGORITHM));
+      return mac.doFinal(challenge);
+    }
+    catch (GeneralSecurityException e)
+    {
+      throw new IOException("Couldn't compute lock server challenge response: "+e.getMessage());
+    }
+  }
+
+  /** Convert the shared secret to the bytes used as the MAC key.
+  */
+  protected static byte[] encodeSecret(String secret)
+  {
+    try
+    {
+      return secret.getBytes("UTF-8");
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      throw new RuntimeException("JVM doesn't support UTF-8: "+e.getMessage(),e);
+    }
+  }
+
+  /** A client session.  Must only be accessed while synchronized on the server.
+  */
+  protected static class Session
+  {
+    protected final long sessionID;
+    protected final long leaseTime;
+    protected long expirationTime;
+    protected final Set<String> heldKeys = new HashSet<String>();
+
+    public Session(long sessionID, long leaseTime)
+    {
+      this.sessionID = sessionID;
+      this.leaseTime = leaseTime;
+      renew();
+    }
+
+    public long getID()
+    {
+      return sessionID;
+    }
+
+    public void renew()
+    {
+      expirationTime = System.currentTimeMillis() + leaseTime;
+    }
+
+    public boolean isExpired(long currentTime)
+    {
+      return currentTime > expirationTime;
+    }
+
+    public Set<String> getHeldKeys()
+    {
+      return heldKeys;
+    }
+  }
+
+  /** The state of one lock.  Each client session (i.e. JVM) holds at most one grant per lock type,
+  * because LockObject already aggregates the holders within a JVM.  Counts are nevertheless kept, to
+  * match the semantics of the file-based implementation.  Must only be accessed while synchronized on the server.
+  */
+  protected static class ServerLock
+  {
+    protected Long writer = null;
+    protected final Map<Long,Integer> nonExWriters = new HashMap<Long,Integer>();
+    protected final Map<Long,Integer> readers = new HashMap<Long,Integer>();
+
+    public boolean canObtain(Long sessionID, int lockType)
+    {
+      switch (lockType)
+      {
+      case TYPE_WRITE:
+        return writer == null && nonExWriters.size() == 0 && readers.size() == 0;
+      case TYPE_WRITENONEX:
+        return writer == null && readers.size() == 0;
+      case TYPE_READ:
+        return writer == null && nonExWriters.size() == 0;
+      default:
+        return false;
+      }
+    }
+
+    public boolean obtain(Long sessionID, int lockType)
+    {
+      if (!canObtain(sessionID,lockType))
+        return false;
+      switch (lockType)
+      {
+      case TYPE_WRITE:
+        writer = sessionID;
+        break;
+      case TYPE_WRITENONEX:
+        increment(nonExWriters,sessionID);
+        break;
+      case TYPE_READ:
+        increment(readers,sessionID);
+        break;
+      }
+      return true;
+    }
+
+    public boolean release(Long sessionID, int lockType)
+    {
+      switch (lockType)
+      {
+      case TYPE_WRITE:
+        if (writer == null || !writer.equals(sessionID))
+          return false;
+        writer = null;
+        return true;
+      case TYPE_WRITENONEX:
+        return decrement(nonExWriters,sessionID);
+      case TYPE_READ:
+        return decrement(readers,sessionID);
+      default:
+        return false;
+      }
+    }
+
+    public void releaseAll(Long sessionID)
+    {
+      if (writer != null && writer.equals(sessionID))
+        writer = null;
+      nonExWriters.remove(sessionID);
+      readers.remove(sessionID);
+    }
+
+    public boolean isHeldBy(Long sessionID)
+    {
+      return (writer != null && writer.equals(sessionID)) || nonExWriters.get(sessionID) != null || readers.get(sessionID) != null;
+    }
+
+    public boolean isFree()
+    {
+      return writer == null && nonExWriters.size() == 0 && readers.size() == 0;
+    }
+
+    protected static void increment(Map<Long,Integer> map, Long sessionID)
+    {
+      Integer count = map.get(sessionID);
+      map.put(sessionID,new Integer((count == null)?1:count.intValue()+1));
+    }
+
+    protected static boolean decrement(Map<Long,Integer> map, Long sessionID)
+    {
+      Integer count = map.get(sessionID);
+      if (count == null)
+        return false;
+      if (count.intValue() == 1)
+        map.remove(sessionID);
+      else
+        map.put(sessionID,new Integer(count.intValue()-1));
+      return true;
+    }
+  }
+
+  /** Thread that accepts client connections.
+  */
+  protected class ListenerThread extends Thread
+  {
+    protected final ServerSocket socket;
+
+    public ListenerThread(ServerSocket socket)
+    {
+      super();
+      this.socket = socket;
+      setName("Lock server listener");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      while (true)
+      {
+        Socket s;
+        try
+        {
+          s = socket.accept();
+        }
+        catch (IOException e)
+        {
+          // Socket closed; we're done
+          return;
+        }
+        try
+        {
+          s.setTcpNoDelay(true);
+        }
+        catch (SocketException e)
+        {
+          // Not critical
+        }
+        new ConnectionThread(s).start();
+      }
+    }
+  }
+
+  /** Thread that services one client connection.  Requests on a connection are handled in order.
+  */
+  protected class ConnectionThread extends Thread
+  {
+    protected final Socket socket;
+
+    public ConnectionThread(Socket socket)
+    {
+      super();
+      this.socket = socket;
+      setName("Lock server connection "+socket.getRemoteSocketAddress());
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        // Unauthenticated peers get a bounded time to answer, so they can't tie up threads
+        socket.setSoTimeout(AUTHENTICATION_TIMEOUT);
+        if (!authenticate(is,os))
+        {
+          Logging.lock.warn("Lock server: rejected connection from "+socket.getRemoteSocketAddress()+": wrong shared secret");
+          return;
+        }
+        socket.setSoTimeout(0);
+        while (true)
+        {
+          int request = is.read();
+          if (request == -1)
+            break;
+          handleRequest(request,is,os);
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // Shutting down
+      }
+      catch (IOException e)
+      {
+        // Client went away, or spoke nonsense; drop the connection.  Session state is governed by
+        // the lease, not the connection.
+      }
+      finally
+      {
+        try
+        {
+          socket.close();
+        }
+        catch (IOException e)
+        {
+          // Ignore
+        }
+      }
+    }
+  }
+
+  /** Thread that expires sessions whose leases have run out.
+  */
+  protected class ExpirationThread extends Thread
+  {
+    public ExpirationThread()
+    {
+      super();
+      setName("Lock server lease expiration");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        while (true)
+        {
+          expireSessions(System.currentTimeMillis());
+          Thread.sleep(1000L);
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // Shutting down
+      }
+    }
+  }
+
+  /** Run the lock server standalone.  The bind address and shared secret are taken from the
+  * org.apache.manifoldcf.lockserver.bindaddress and org.apache.manifoldcf.lockserver.secret system properties,
+  * and logging is configured from the file named by the org.apache.manifoldcf.logconfigfile system property.
+  *@param args may contain a single argument, the port to listen on.
+  */
+  public static void main(String[] args)
+  {
+    if (args.length > 1)
+    {
+      System.err.println("Usage: LockServer [<port>]");
+      System.exit(1);
+    }
+
+    int port = DEFAULT_PORT;
+    if (args.length == 1)
+    {
+      try
+      {
+        port = Integer.parseInt(args[0]);
+      }
+      catch (NumberFormatException e)
+      {
+        System.err.println("Illegal port: "+args[0]);
+        System.exit(1);
+      }
+    }
+
+    String secret = System.getProperty(lockServerSecretProperty);
+    if (secret == null || secret.length() == 0)
+    {
+      System.err.println("The "+lockServerSecretProperty+" system property must be set");
+      System.exit(1);
+    }
+
+    String logConfigFile = System.getProperty(ManifoldCF.logConfigFileProperty);
+    if (logConfigFile == null)
+      logConfigFile = "logging.ini";
+    Logging.initializeLoggingSystem(new File(logConfigFile));
+    Logging.initializeLoggers();
+
+    LockServer server = new LockServer(System.getProperty(lockServerBindAddressProperty),port,secret);
+    try
+    {
+      server.start();
+      Logging.lock.info("Lock server listening on port "+Integer.toString(server.getLocalPort()));
+      // The listener is a daemon thread, so wait here forever
+      while (true)
+      {
+        Thread.sleep(60000L);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // Exit
+    }
+    catch (IOException e)
+    {
+      Logging.lock.fatal("Lock server couldn't start: "+e.getMessage(),e);
+      System.exit(2);
+    }
+  }
+}
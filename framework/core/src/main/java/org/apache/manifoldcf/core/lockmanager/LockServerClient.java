@@ -0,0 +1,603 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.Logging;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+
+/** This class is the per-JVM client of a LockServer.  It owns the JVM's session with the server, keeps
+* the session's lease renewed, and pools socket connections so that lock requests from many threads
+* do not queue behind one another.  There should be exactly one instance per lock server per JVM.
+*/
+public class LockServerClient
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Socket timeout for ordinary requests, in milliseconds */
+  protected final static int SOCKET_TIMEOUT = 60000;
+
+  protected final String host;
+  protected final int port;
+  protected final byte[] secret;
+  protected final long leaseTime;
+
+  /** Idle connections */
+  protected final List<Connection> idleConnections = new ArrayList<Connection>();
+
+  /** The session ID, or null if not yet registered */
+  protected Long sessionID = null;
+  /** Number of sessions registered so far; identifies the current session within this JVM */
+  protected int sessionGeneration = 0;
+  /** Generation of the most recent session whose lease was lost, or 0 */
+  protected int lostGeneration = 0;
+  /** Locks held on the server under the current session, including lock requests in flight */
+  protected int heldLockCount = 0;
+  /** When the server last confirmed the lease */
+  protected long lastRenewalTime = 0L;
+
+  /** The lease renewal thread */
+  protected RenewalThread renewalThread = null;
+
+  /** Constructor.
+  *@param host is the lock server host.
+  *@param port is the lock server port.
+  *@param secret is the shared secret the lock server requires.
+  *@param leaseTime is the lease time to request, in milliseconds.
+  */
+  public LockServerClient(String host, int port, String secret, long leaseTime)
+  {
+    this.host = host;
+    this.port = port;
+    this.secret = LockServer.encodeSecret(secret);
+    this.leaseTime = leaseTime;
+  }
+
+  /** Attempt to obtain a lock without waiting.
+  *@return true if the lock was obtained.
+  */
+  public boolean lock(int lockType, String lockKey)
+    throws IOException
+  {
+    long session;
+    synchronized (this)
+    {
+      session = getSessionID();
+      // Count the request before it is sent, so no new session can be registered while it is in flight
+      heldLockCount++;
+    }
+    boolean obtained = false;
+    try
+    {
+      Connection c = getConnection();
+      try
+      {
+        c.os.writeByte(LockServer.REQUEST_LOCK);
+        c.os.writeLong(session);
+        c.os.writeByte(lockType);
+        c.os.writeUTF(lockKey);
+        c.os.flush();
+        int response = c.is.readUnsignedByte();
+        releaseConnection(c);
+        c = null;
+        checkExpired(session,response);
+        obtained = (response == LockServer.RESPONSE_OK);
+        return obtained;
+      }
+      finally
+      {
+        if (c != null)
+          c.close();
+      }
+    }
+    finally
+    {
+      if (!obtained)
+        releaseLockCount();
+    }
+  }
+
+  /** Release a lock.
+  */
+  public void unlock(int lockType, String lockKey)
+    throws IOException
+  {
+    long session;
+    synchronized (this)
+    {
+      if (sessionID == null)
+      {
+        // The session the lock was taken under is gone, and the server has released everything it held
+        releaseLockCount();
+        return;
+      }
+      session = sessionID.longValue();
+    }
+    Connection c = getConnection();
+    try
+    {
+      c.os.writeByte(LockServer.REQUEST_UNLOCK);
+      c.os.writeLong(session);
+      c.os.writeByte(lockType);
+      c.os.writeUTF(lockKey);
+      c.os.flush();
+      int response = c.is.readUnsignedByte();
+      releaseConnection(c);
+      c = null;
+      releaseLockCount();
+      checkExpired(session,response);
+      // A lock lost along with an earlier session is already released
+      if (response != LockServer.RESPONSE_OK)
+        Logging.lock.warn("Lock server says lock '"+lockKey+"' is not held by this JVM");
+    }
+    finally
+    {
+      if (c != null)
+        c.close();
+    }
+  }
+
+  /** Block until the lock may be available, or until the given time has elapsed.
+  */
+  public void await(int lockType, String lockKey, long waitTime)
+    throws IOException
+  {
+    long session = getSessionID();
+    Connection c = getConnection();
+    try
+    {
+      c.os.writeByte(LockServer.REQUEST_AWAIT);
+      c.os.writeLong(session);
+      c.os.writeByte(lockType);
+      c.os.writeUTF(lockKey);
+      c.os.writeLong(waitTime);
+      c.os.flush();
+      int response = c.is.readUnsignedByte();
+      releaseConnection(c);
+      c = null;
+      checkExpired(session,response);
+    }
+    finally
+    {
+      if (c != null)
+        c.close();
+    }
+  }
+
+  /** Set a global flag.
+  */
+  public void setFlag(String flagName)
+    throws IOException
+  {
+    simpleRequest(LockServer.REQUEST_SETFLAG,flagName);
+  }
+
+  /** Clear a global flag.
+  */
+  public void clearFlag(String flagName)
+    throws IOException
+  {
+    simpleRequest(LockServer.REQUEST_CLEARFLAG,flagName);
+  }
+
+  /** Check a global flag.
+  */
+  public boolean checkFlag(String flagName)
+    throws IOException
+  {
+    return simpleRequest(LockServer.REQUEST_CHECKFLAG,flagName) == LockServer.RESPONSE_TRUE;
+  }
+
+  /** Read shared data.
+  */
+  public byte[] readData(String resourceName)
+    throws IOException
+  {
+    Connection c = getConnection();
+    try
+    {
+      c.os.writeByte(LockServer.REQUEST_READDATA);
+      c.os.writeUTF(resourceName);
+      c.os.flush();
+      c.is.readUnsignedByte();
+      byte[] rval = LockServer.readBytes(c.is);
+      releaseConnection(c);
+      c = null;
+      return rval;
+    }
+    finally
+    {
+      if (c != null)
+        c.close();
+    }
+  }
+
+  /** Write shared data.
+  */
+  public void writeData(String resourceName, byte[] data)
+    throws IOException
+  {
+    Connection c = getConnection();
+    try
+    {
+      c.os.writeByte(LockServer.REQUEST_WRITEDATA);
+      c.os.writeUTF(resourceName);
+      LockServer.writeBytes(c.os,data);
+      c.os.flush();
+      c.is.readUnsignedByte();
+      releaseConnection(c);
+      c = null;
+    }
+    finally
+    {
+      if (c != null)
+        c.close();
+    }
+  }
+
+  /** Shut down the client, releasing the session and all locks it holds.
+  */
+  public void close()
+  {
+    RenewalThread rt;
+    Long session;
+    synchronized (this)
+    {
+      rt = renewalThread;
+      renewalThread = null;
+      session = sessionID;
+      sessionID = null;
+    }
+    if (rt != null)
+      rt.interrupt();
+    if (session != null)
+    {
+      try
+      {
+        Connection c = getConnection();
+        try
+        {
+          c.os.writeByte(LockServer.REQUEST_UNREGISTER);
+          c.os.writeLong(session.longValue());
+          c.os.flush();
+          c.is.readUnsignedByte();
+        }
+        finally
+        {
+          c.close();
+        }
+      }
+      catch (IOException e)
+      {
+        // The lease will expire on its own
+      }
+    }
+    synchronized (idleConnections)
+    {
+      Iterator<Connection> iter = idleConnections.iterator();
+      while (iter.hasNext())
+      {
+        iter.next().close();
+      }
+      idleConnections.clear();
+    }
+  }
+
+  /** Issue a request that takes a single string and returns a response code.
+  */
+  protected int simpleRequest(int request, String argument)
+    throws IOException
+  {
+    Connection c = getConnection();
+    try
+    {
+      c.os.writeByte(request);
+      c.os.writeUTF(argument);
+      c.os.flush();
+      int response = c.is.readUnsignedByte();
+      releaseConnection(c);
+      c = null;
+      return response;
+    }
+    finally
+    {
+      if (c != null)
+        c.close();
+    }
+  }
+
+  /** Check whether the current session's lease has been lost while locks taken under it are
+  * still held in this JVM.  No new session is registered until they have all been released.
+  */
+  public synchronized boolean isLeaseLost()
+  {
+    return sessionGeneration != 0 && lostGeneration == sessionGeneration && heldLockCount > 0;
+  }
+
+  /** Get the generation of the current session.  Compare it later with isLost() to find out
+  * whether locks taken now were lost along with the session.
+  *@return the generation, or 0 if no session has been registered.
+  */
+  public synchronized int getSessionGeneration()
+  {
+    return sessionGeneration;
+  }
+
+  /** Check whether the session with the given generation has lost its lease.
+  *@param generation is a value returned by getSessionGeneration().
+  *@return true if that session, or a later one, has been lost.
+  */
+  public synchronized boolean isLost(int generation)
+  {
+    return generation != 0 && generation <= lostGeneration;
+  }
+
+  /** Get the session ID, registering with the server if needed.  A session whose lease was lost
+  * is only replaced once every lock taken under it has been released, because the holders of
+  * those locks must find out that they no longer exclude anybody.
+  */
+  protected synchronized long getSessionID()
+    throws IOException
+  {
+    if (sessionID == null)
+    {
+      if (isLeaseLost())
+        throw new SessionExpiredException("Lock server session lease was lost, and locks taken under it are still held");
+      Connection c = getConnection();
+      try
+      {
+        c.os.writeByte(LockServer.REQUEST_REGISTER);
+        c.os.writeLong(leaseTime);
+        c.os.flush();
+        c.is.readUnsignedByte();
+        sessionID = new Long(c.is.readLong());
+        releaseConnection(c);
+        c = null;
+      }
+      finally
+      {
+        if (c != null)
+          c.close();
+      }
+      sessionGeneration++;
+      heldLockCount = 0;
+      lastRenewalTime = System.currentTimeMillis();
+      renewalThread = new RenewalThread();
+      renewalThread.start();
+    }
+    return sessionID.longValue();
+  }
+
+  /** Renew the lease.
+  */
+  protected void renew()
+    throws IOException
+  {
+    long session;
+    synchronized (this)
+    {
+      if (sessionID == null)
+        return;
+      session = sessionID.longValue();
+    }
+    Connection c = getConnection();
+    try
+    {
+      c.os.writeByte(LockServer.REQUEST_RENEW);
+      c.os.writeLong(session);
+      c.os.flush();
+      int response = c.is.readUnsignedByte();
+      releaseConnection(c);
+      c = null;
+      checkExpired(session,response);
+      if (response == LockServer.RESPONSE_OK)
+      {
+        synchronized (this)
+        {
+          if (sessionID != null && sessionID.longValue() == session)
+            lastRenewalTime = System.currentTimeMillis();
+        }
+      }
+    }
+    finally
+    {
+      if (c != null)
+        c.close();
+    }
+  }
+
+  /** Called when a lease renewal could not reach the server.  If the lease has run out in the
+  * meantime, the server will have expired the session, so treat it as lost now rather than
+  * when the server is next reachable.
+  */
+  protected void checkLeaseTime()
+  {
+    long session;
+    synchronized (this)
+    {
+      if (sessionID == null || System.currentTimeMillis() - lastRenewalTime < leaseTime)
+        return;
+      session = sessionID.longValue();
+    }
+    leaseLost(session);
+  }
+
+  /** If the server has expired our session, the locks this JVM believes it holds have been
+  * handed out to others.  Record the loss and report it to the caller.
+  *@param session is the session the request was made under.
+  *@param response is the server's response code.
+  */
+  protected void checkExpired(long session, int response)
+    throws SessionExpiredException
+  {
+    if (response != LockServer.RESPONSE_EXPIRED)
+      return;
+    leaseLost(session);
+    throw new SessionExpiredException("Lock server session lease expired; locks held by this process have been lost");
+  }
+
+  /** Record that a session's lease has been lost.  Lock holders find out through isLost(), and
+  * new lock requests fail until every lock taken under the session has been released.
+  *@param session is the session that was lost.
+  */
+  protected void leaseLost(long session)
+  {
+    RenewalThread rt;
+    synchronized (this)
+    {
+      if (sessionID == null || sessionID.longValue() != session)
+        return;
+      sessionID = null;
+      lostGeneration = sessionGeneration;
+      rt = renewalThread;
+      renewalThread = null;
+    }
+    if (rt != null)
+      rt.interrupt();
+    Logging.lock.fatal("Lock server session lease expired; locks held by this process have been lost, and threads holding them will fail");
+  }
+
+  /** Note that a lock held on the server, or a lock request that failed, is no longer outstanding.
+  */
+  protected synchronized void releaseLockCount()
+  {
+    if (heldLockCount > 0)
+      heldLockCount--;
+  }
+
+  /** Get a connection, either from the idle pool or by opening a new one.
+  */
+  protected Connection getConnection()
+    throws IOException
+  {
+    synchronized (idleConnections)
+    {
+      int size = idleConnections.size();
+      if (size > 0)
+        return idleConnections.remove(size-1);
+    }
+    return new Connection(host,port,secret);
+  }
+
+  /** Return a healthy connection to the idle pool.
+  */
+  protected void releaseConnection(Connection c)
+  {
+    synchronized (idleConnections)
+    {
+      idleConnections.add(c);
+    }
+  }
+
+  /** Thrown when the lock server reports that this JVM's session has expired.
+  */
+  public static class SessionExpiredException extends IOException
+  {
+    public SessionExpiredException(String message)
+    {
+      super(message);
+    }
+  }
+
+  /** A single socket connection to the lock server.
+  */
+  protected static class Connection
+  {
+    protected final Socket socket;
+    public final DataInputStream is;
+    public final DataOutputStream os;
+
+    public Connection(String host, int port, byte[] secret)
+      throws IOException
+    {
+      socket = new Socket(host,port);
+      try
+      {
+        socket.setTcpNoDelay(true);
+        // Await requests are bounded by the server, so this timeout only trips if the server is gone
+        socket.setSoTimeout(SOCKET_TIMEOUT);
+        is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        LockServer.answerChallenge(secret,is,os);
+      }
+      catch (IOException e)
+      {
+        socket.close();
+        throw e;
+      }
+    }
+
+    public void close()
+    {
+      try
+      {
+        socket.close();
+      }
+      catch (IOException e)
+      {
+        // Ignore
+      }
+    }
+  }
+
+  /** Thread that keeps the session lease alive.
+  */
+  protected class RenewalThread extends Thread
+  {
+    public RenewalThread()
+    {
+      super();
+      setName("Lock server lease renewal");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      long interval = leaseTime / 3L;
+      try
+      {
+        while (true)
+        {
+          Thread.sleep(interval);
+          try
+          {
+            renew();
+          }
+          catch (SessionExpiredException e)
+          {
+            // Already logged; a new session gets its own renewal thread
+            return;
+          }
+          catch (IOException e)
+          {
+            // Keep trying while the lease has some slack
+            Logging.lock.warn("Failed to renew lock server lease: "+e.getMessage(),e);
+            checkLeaseTime();
+          }
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // Client closed
+      }
+    }
+  }
+}
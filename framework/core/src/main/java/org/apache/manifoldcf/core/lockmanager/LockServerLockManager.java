@@ -0,0 +1,444 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import java.util.*;
+import java.io.*;
+
+/** A lock manager that synchronizes across JVMs using a LockServer process, instead of the
+* synchronization directory.  Select it by setting the lock manager class property to this class.
+* Within a JVM, locks and critical sections behave exactly as they do for the base LockManager, except
+* that a thread whose locks were lost along with this JVM's lease on the lock server gets an exception
+* from its next lock operation, including the release of those locks.
+*/
+public class LockServerLockManager extends LockManager
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Lock server host property */
+  public static final String lockServerHostProperty = "org.apache.manifoldcf.lockserver.host";
+  /** Lock server port property */
+  public static final String lockServerPortProperty = "org.apache.manifoldcf.lockserver.port";
+  /** Lease time property, in seconds */
+  public static final String lockServerLeaseTimeProperty = "org.apache.manifoldcf.lockserver.leasetime";
+
+  private static final String LEASELOST = "Lock server lease lost; locks held by this thread may also have been held by another process";
+
+  /** The client, shared by all threads in this JVM */
+  protected static LockServerClient client = null;
+  /** The lock pool, shared by all threads in this JVM */
+  protected static LockServerLockPool serverLocks = null;
+
+  /** Session generation under which this thread's current locks were taken, or 0 if it holds none */
+  protected int heldGeneration = 0;
+  /** Set while clearLocks() is running, so that it releases everything before reporting a lost lease */
+  protected boolean clearing = false;
+
+  public LockServerLockManager()
+    throws ManifoldCFException
+  {
+    super(getServerLockPool());
+  }
+
+  /** Set up the client and pool for this JVM, if not yet done.
+  */
+  protected static synchronized LockServerLockPool getServerLockPool()
+    throws ManifoldCFException
+  {
+    if (serverLocks == null)
+    {
+      String host = ManifoldCF.getProperty(lockServerHostProperty);
+      if (host == null)
+        host = "localhost";
+      int port = ManifoldCF.getIntProperty(lockServerPortProperty,LockServer.DEFAULT_PORT);
+      int leaseTime = ManifoldCF.getIntProperty(lockServerLeaseTimeProperty,30);
+      if (leaseTime < 3)
+        throw new ManifoldCFException("Property "+lockServerLeaseTimeProperty+" must be at least 3 seconds",ManifoldCFException.SETUP_ERROR);
+      String secret = ManifoldCF.getProperty(LockServer.lockServerSecretProperty);
+      if (secret == null || secret.length() == 0)
+        throw new ManifoldCFException("Property "+LockServer.lockServerSecretProperty+" must be set to the lock server's shared secret",ManifoldCFException.SETUP_ERROR);
+      client = new LockServerClient(host,port,secret,1000L * (long)leaseTime);
+      serverLocks = new LockServerLockPool(client);
+      ManifoldCF.addShutdownHook(new LockServerShutdown());
+    }
+    return serverLocks;
+  }
+
+  /** Locks are shared with every other process using the lock server.
+  */
+  public boolean isSingleProcess()
+  {
+    return false;
+  }
+
+  /** Raise a flag.
+  */
+  public void setGlobalFlag(String flagName)
+    throws ManifoldCFException
+  {
+    try
+    {
+      client.setFlag(flagName);
+    }
+    catch (IOException e)
+    {
+      throw translateException(e);
+    }
+  }
+
+  /** Clear a flag.
+  */
+  public void clearGlobalFlag(String flagName)
+    throws ManifoldCFException
+  {
+    try
+    {
+      client.clearFlag(flagName);
+    }
+    catch (IOException e)
+    {
+      throw translateException(e);
+    }
+  }
+
+  /** Check the condition of a specified flag.
+  */
+  public boolean checkGlobalFlag(String flagName)
+    throws ManifoldCFException
+  {
+    try
+    {
+      return client.checkFlag(flagName);
+    }
+    catch (IOException e)
+    {
+      throw translateException(e);
+    }
+  }
+
+  /** Read data from a shared data resource.
+  */
+  public byte[] readData(String resourceName)
+    throws ManifoldCFException
+  {
+    try
+    {
+      return client.readData(resourceName);
+    }
+    catch (IOException e)
+    {
+      throw translateException(e);
+    }
+  }
+
+  /** Write data to a shared data resource.
+  */
+  public void writeData(String resourceName, byte[] data)
+    throws ManifoldCFException
+  {
+    try
+    {
+      client.writeData(resourceName,data);
+    }
+    catch (IOException e)
+    {
+      throw translateException(e);
+    }
+  }
+
+  /** Enter a non-exclusive write lock.  Fails if this JVM's lock server lease has been lost.
+  */
+  public void enterNonExWriteLock(String lockKey)
+    throws ManifoldCFException
+  {
+    checkLease();
+    try
+    {
+      super.enterNonExWriteLock(lockKey);
+    }
+    catch (LockServerLockObject.LeaseLostException e)
+    {
+      throw leaseLost(e);
+    }
+    noteLocksHeld();
+  }
+
+  /** Enter a non-exclusive write lock without waiting.
+  */
+  public void enterNonExWriteLockNoWait(String lockKey)
+    throws ManifoldCFException, LockException
+  {
+    checkLease();
+    try
+    {
+      super.enterNonExWriteLockNoWait(lockKey);
+    }
+    catch (LockServerLockObject.LeaseLostException e)
+    {
+      throw leaseLost(e);
+    }
+    noteLocksHeld();
+  }
+
+  /** Leave a non-exclusive write lock.  Fails, after the lock is released, if the lease it was
+  * taken under has been lost.
+  */
+  public void leaveNonExWriteLock(String lockKey)
+    throws ManifoldCFException
+  {
+    super.leaveNonExWriteLock(lockKey);
+    checkLeave();
+  }
+
+  /** Enter a write lock.
+  */
+  public void enterWriteLock(String lockKey)
+    throws ManifoldCFException
+  {
+    checkLease();
+    try
+    {
+      super.enterWriteLock(lockKey);
+    }
+    catch (LockServerLockObject.LeaseLostException e)
+    {
+      throw leaseLost(e);
+    }
+    noteLocksHeld();
+  }
+
+  /** Enter a write lock without waiting.
+  */
+  public void enterWriteLockNoWait(String lockKey)
+    throws ManifoldCFException, LockException
+  {
+    checkLease();
+    try
+    {
+      super.enterWriteLockNoWait(lockKey);
+    }
+    catch (LockServerLockObject.LeaseLostException e)
+    {
+      throw leaseLost(e);
+    }
+    noteLocksHeld();
+  }
+
+  /** Leave a write lock.
+  */
+  public void leaveWriteLock(String lockKey)
+    throws ManifoldCFException
+  {
+    super.leaveWriteLock(lockKey);
+    checkLeave();
+  }
+
+  /** Enter a read lock.
+  */
+  public void enterReadLock(String lockKey)
+    throws ManifoldCFException
+  {
+    checkLease();
+    try
+    {
+      super.enterReadLock(lockKey);
+    }
+    catch (LockServerLockObject.LeaseLostException e)
+    {
+      throw leaseLost(e);
+    }
+    noteLocksHeld();
+  }
+
+  /** Enter a read lock without waiting.
+  */
+  public void enterReadLockNoWait(String lockKey)
+    throws ManifoldCFException, LockException
+  {
+    checkLease();
+    try
+    {
+      super.enterReadLockNoWait(lockKey);
+    }
+    catch (LockServerLockObject.LeaseLostException e)
+    {
+      throw leaseLost(e);
+    }
+    noteLocksHeld();
+  }
+
+  /** Leave a read lock.
+  */
+  public void leaveReadLock(String lockKey)
+    throws ManifoldCFException
+  {
+    super.leaveReadLock(lockKey);
+    checkLeave();
+  }
+
+  /** Enter multiple locks.
+  */
+  public void enterLocks(String[] readLocks, String[] nonExWriteLocks, String[] writeLocks)
+    throws ManifoldCFException
+  {
+    checkLease();
+    try
+    {
+      super.enterLocks(readLocks,nonExWriteLocks,writeLocks);
+    }
+    catch (LockServerLockObject.LeaseLostException e)
+    {
+      throw leaseLost(e);
+    }
+    catch (Error e)
+    {
+      // The base class wraps unexpected exceptions after undoing the locks it took
+      if (e.getCause() instanceof LockServerLockObject.LeaseLostException)
+        throw leaseLost((LockServerLockObject.LeaseLostException)e.getCause());
+      throw e;
+    }
+    noteLocksHeld();
+  }
+
+  /** Enter multiple locks without waiting.
+  */
+  public void enterLocksNoWait(String[] readLocks, String[] nonExWriteLocks, String[] writeLocks)
+    throws ManifoldCFException, LockException
+  {
+    checkLease();
+    try
+    {
+      super.enterLocksNoWait(readLocks,nonExWriteLocks,writeLocks);
+    }
+    catch (LockServerLockObject.LeaseLostException e)
+    {
+      throw leaseLost(e);
+    }
+    catch (Error e)
+    {
+      if (e.getCause() instanceof LockServerLockObject.LeaseLostException)
+        throw leaseLost((LockServerLockObject.LeaseLostException)e.getCause());
+      throw e;
+    }
+    noteLocksHeld();
+  }
+
+  /** Release all locks this thread holds, then report a lost lease if they were taken under one.
+  */
+  public void clearLocks()
+    throws ManifoldCFException
+  {
+    clearing = true;
+    try
+    {
+      super.clearLocks();
+    }
+    finally
+    {
+      clearing = false;
+    }
+    checkLeave();
+  }
+
+  /** Refuse to take locks while this JVM's lease is lost, or if this thread still holds locks
+  * from a lost lease; either way the thread would act without excluding other processes.
+  */
+  protected void checkLease()
+    throws ManifoldCFException
+  {
+    if (client.isLeaseLost() || client.isLost(heldGeneration))
+      throw new ManifoldCFException(LEASELOST);
+  }
+
+  /** Remember which session this thread's locks belong to.
+  */
+  protected void noteLocksHeld()
+  {
+    if (heldGeneration == 0 && holdsLocks())
+      heldGeneration = client.getSessionGeneration();
+  }
+
+  /** Called after a lock has been released.  If it was taken under a session whose lease has
+  * since been lost, the work done while holding it was not protected, so the holder must fail.
+  */
+  protected void checkLeave()
+    throws ManifoldCFException
+  {
+    if (clearing)
+      return;
+    int generation = heldGeneration;
+    if (!holdsLocks())
+      heldGeneration = 0;
+    if (client.isLost(generation))
+      throw new ManifoldCFException(LEASELOST);
+  }
+
+  /** Check whether this thread holds any lock.  Local lock records can outlive a failed attempt
+  * to take the lock, so look at their counts.
+  */
+  protected boolean holdsLocks()
+  {
+    Iterator iter = localLocks.values().iterator();
+    while (iter.hasNext())
+    {
+      LocalLock ll = (LocalLock)iter.next();
+      if (ll.hasReadLock() || ll.hasNonExWriteLock() || ll.hasWriteLock())
+        return true;
+    }
+    return false;
+  }
+
+  protected static ManifoldCFException leaseLost(LockServerLockObject.LeaseLostException e)
+  {
+    return new ManifoldCFException(LEASELOST+": "+e.getMessage(),e);
+  }
+
+  protected static ManifoldCFException translateException(IOException e)
+  {
+    if (e instanceof InterruptedIOException)
+      return new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+    if (e instanceof LockServerClient.SessionExpiredException)
+      return new ManifoldCFException(e.getMessage(),e);
+    return new ManifoldCFException("Lock server communication error: "+e.getMessage(),e);
+  }
+
+  /** Shutdown hook that gives up this JVM's lock server session, so that any locks still held
+  * are released immediately rather than when the lease runs out.
+  */
+  protected static class LockServerShutdown implements IShutdownHook
+  {
+    public LockServerShutdown()
+    {
+    }
+
+    public void doCleanup()
+      throws ManifoldCFException
+    {
+      LockServerClient c;
+      synchronized (LockServerLockManager.class)
+      {
+        c = client;
+      }
+      if (c != null)
+        c.close();
+    }
+  }
+}
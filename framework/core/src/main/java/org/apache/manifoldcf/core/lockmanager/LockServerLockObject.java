@@ -0,0 +1,191 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.system.Logging;
+import java.io.*;
+
+/** A lock object whose cross-JVM state is kept by a LockServer rather than in the
+* synchronization directory.
+*/
+public class LockServerLockObject extends LockObject
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  private static final String LOCKEDANOTHERJVM = "Locked by another JVM";
+  private static final String SERVERUNAVAILABLE = "Lock server unavailable";
+
+  /** How long a single blocking wait on the server may last, in milliseconds */
+  protected final static long AWAIT_TIME = 1000L;
+
+  protected final LockServerClient client;
+  protected final String lockKeyString;
+
+  /** The type of the last global lock attempt that failed.  If several threads in this JVM
+  * are waiting on the same key for different lock types this is only a hint; a waiter that
+  * wakes early simply retries.
+  */
+  protected volatile int pendingLockType = LockServer.TYPE_WRITE;
+
+  public LockServerLockObject(LockPool lockPool, Object lockKey, LockServerClient client)
+  {
+    super(lockPool,lockKey,true);
+    this.client = client;
+    this.lockKeyString = lockKey.toString();
+  }
+
+  protected void obtainGlobalWriteLockNoWait()
+    throws LockException, InterruptedException
+  {
+    obtainGlobalLock(LockServer.TYPE_WRITE);
+  }
+
+  protected void clearGlobalWriteLock()
+    throws LockException, InterruptedException
+  {
+    clearGlobalLock(LockServer.TYPE_WRITE);
+  }
+
+  protected void obtainGlobalNonExWriteLockNoWait()
+    throws LockException, InterruptedException
+  {
+    obtainGlobalLock(LockServer.TYPE_WRITENONEX);
+  }
+
+  protected void clearGlobalNonExWriteLock()
+    throws LockException, InterruptedException
+  {
+    clearGlobalLock(LockServer.TYPE_WRITENONEX);
+  }
+
+  protected void obtainGlobalReadLockNoWait()
+    throws LockException, InterruptedException
+  {
+    obtainGlobalLock(LockServer.TYPE_READ);
+  }
+
+  protected void clearGlobalReadLock()
+    throws LockException, InterruptedException
+  {
+    clearGlobalLock(LockServer.TYPE_READ);
+  }
+
+  /** Block on the lock server until the lock is released by its current holder, rather than polling.
+  */
+  protected void waitForGlobalLock()
+    throws InterruptedException
+  {
+    try
+    {
+      client.await(pendingLockType,lockKeyString,AWAIT_TIME);
+    }
+    catch (LockServerClient.SessionExpiredException e)
+    {
+      throw new LeaseLostException(e.getMessage());
+    }
+    catch (InterruptedIOException e)
+    {
+      throw new InterruptedException("Interrupted IO: "+e.getMessage());
+    }
+    catch (IOException e)
+    {
+      // Server unreachable; don't spin
+      ManifoldCF.sleep(100);
+    }
+    if (Thread.interrupted())
+      throw new InterruptedException("Interrupted while waiting for lock server");
+  }
+
+  protected void obtainGlobalLock(int lockType)
+    throws LockException, InterruptedException
+  {
+    try
+    {
+      if (!client.lock(lockType,lockKeyString))
+      {
+        pendingLockType = lockType;
+        throw new LockException(LOCKEDANOTHERJVM);
+      }
+    }
+    catch (LockServerClient.SessionExpiredException e)
+    {
+      // Not retryable: the caller may hold other locks that were lost along with the session
+      throw new LeaseLostException(e.getMessage());
+    }
+    catch (InterruptedIOException e)
+    {
+      throw new InterruptedException("Interrupted IO: "+e.getMessage());
+    }
+    catch (IOException e)
+    {
+      logServerFailure(e);
+      pendingLockType = lockType;
+      throw new LockException(SERVERUNAVAILABLE);
+    }
+  }
+
+  protected void clearGlobalLock(int lockType)
+    throws LockException, InterruptedException
+  {
+    try
+    {
+      client.unlock(lockType,lockKeyString);
+    }
+    catch (LockServerClient.SessionExpiredException e)
+    {
+      // The server already released everything the session held
+    }
+    catch (InterruptedIOException e)
+    {
+      throw new InterruptedException("Interrupted IO: "+e.getMessage());
+    }
+    catch (IOException e)
+    {
+      // The caller will retry the release
+      logServerFailure(e);
+      throw new LockException(SERVERUNAVAILABLE);
+    }
+  }
+
+  protected void logServerFailure(IOException e)
+  {
+    try
+    {
+      Logging.lock.warn("Lock server request for '"+lockKeyString+"' failed: "+e.getMessage(),e);
+    }
+    catch (Throwable e2)
+    {
+      e.printStackTrace();
+    }
+  }
+
+  /** Thrown out of the lock object when the lock server session's lease has been lost.  It is
+  * unchecked so that it is not mistaken for contention and retried; LockServerLockManager turns
+  * it into a ManifoldCFException.
+  */
+  public static class LeaseLostException extends RuntimeException
+  {
+    public LeaseLostException(String message)
+    {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/** A monotonically increasing count, such as a number of errors.  Safe to update from many threads.
+*/
+public class Counter
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final AtomicLong value = new AtomicLong(0L);
+
+  public Counter()
+  {
+  }
+
+  /** Add one.
+  */
+  public void increment()
+  {
+    value.incrementAndGet();
+  }
+
+  /** Add an amount.
+  *@param amount is the amount to add.
+  */
+  public void add(long amount)
+  {
+    value.addAndGet(amount);
+  }
+
+  /** Get the current count.
+  */
+  public long getValue()
+  {
+    return value.get();
+  }
+}
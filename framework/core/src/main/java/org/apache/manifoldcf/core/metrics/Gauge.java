@@ -0,0 +1,48 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.metrics;
+
+import java.util.*;
+
+/** A single value that is read when the metrics are read, such as a queue depth or a busy thread count.
+*/
+public abstract class Gauge extends MetricsSource
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected String name = null;
+
+  /** Get the current value.
+  */
+  public abstract Number getValue();
+
+  /** Set the name under which this gauge reports.  MetricsRegistry does this on registration.
+  */
+  protected void setName(String name)
+  {
+    this.name = name;
+  }
+
+  public void collect(Map<String,Number> values)
+  {
+    Number value = getValue();
+    if (name != null && value != null)
+      values.put(name,value);
+  }
+}
@@ -0,0 +1,52 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.metrics;
+
+import org.apache.manifoldcf.core.util.Histogram;
+
+/** A histogram of elapsed times, in microseconds.  Typical use:
+* <pre>
+* long startTime = timer.start();
+* try { ... } finally { timer.stop(startTime); }
+* </pre>
+*/
+public class LatencyTimer extends Histogram
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  public LatencyTimer()
+  {
+  }
+
+  /** Begin timing.
+  *@return the start time, to pass to stop().
+  */
+  public long start()
+  {
+    return System.nanoTime();
+  }
+
+  /** Finish timing, and record the elapsed time.
+  *@param startTime is the value start() returned.
+  */
+  public void stop(long startTime)
+  {
+    record((System.nanoTime() - startTime) / 1000L);
+  }
+}
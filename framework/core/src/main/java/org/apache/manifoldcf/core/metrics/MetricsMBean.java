@@ -0,0 +1,135 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.metrics;
+
+import org.apache.manifoldcf.core.system.Logging;
+import java.util.*;
+import java.lang.management.*;
+import javax.management.*;
+
+/** This class publishes the MetricsRegistry through JMX, as a single MBean whose attributes are the
+* metric names.  The attribute list is rebuilt each time it is asked for, so metrics registered after
+* startup show up too.
+*/
+public class MetricsMBean implements DynamicMBean
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The JMX object name */
+  public final static String OBJECT_NAME = "org.apache.manifoldcf:type=Metrics";
+
+  protected static ObjectName registeredName = null;
+
+  public MetricsMBean()
+  {
+  }
+
+  /** Register the MBean with the platform MBean server, if not already done.
+  */
+  public static synchronized void register()
+  {
+    if (registeredName != null)
+      return;
+    try
+    {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),name);
+      registeredName = name;
+    }
+    catch (InstanceAlreadyExistsException e)
+    {
+      // Another copy of ManifoldCF in this JVM (e.g. another web application) got there first
+      Logging.misc.info("Metrics MBean is already registered in this JVM; not registering another");
+    }
+    catch (JMException e)
+    {
+      Logging.misc.warn("Could not register metrics MBean: "+e.getMessage(),e);
+    }
+  }
+
+  /** Remove the MBean from the platform MBean server.
+  */
+  public static synchronized void unregister()
+  {
+    if (registeredName == null)
+      return;
+    try
+    {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+    }
+    catch (JMException e)
+    {
+      Logging.misc.warn("Could not unregister metrics MBean: "+e.getMessage(),e);
+    }
+    registeredName = null;
+  }
+
+  public Object getAttribute(String attribute)
+    throws AttributeNotFoundException
+  {
+    Number value = MetricsRegistry.getValues().get(attribute);
+    if (value == null)
+      throw new AttributeNotFoundException(attribute);
+    return new Double(value.doubleValue());
+  }
+
+  public AttributeList getAttributes(String[] attributes)
+  {
+    SortedMap<String,Number> values = MetricsRegistry.getValues();
+    AttributeList rval = new AttributeList();
+    for (String attribute : attributes)
+    {
+      Number value = values.get(attribute);
+      if (value != null)
+        rval.add(new Attribute(attribute,new Double(value.doubleValue())));
+    }
+    return rval;
+  }
+
+  public MBeanInfo getMBeanInfo()
+  {
+    SortedMap<String,Number> values = MetricsRegistry.getValues();
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+    int i = 0;
+    for (String name : values.keySet())
+    {
+      attributes[i++] = new MBeanAttributeInfo(name,"java.lang.Double",name,true,false,false);
+    }
+    return new MBeanInfo(getClass().getName(),"ManifoldCF performance metrics",attributes,
+      null,null,null);
+  }
+
+  public void setAttribute(Attribute attribute)
+    throws AttributeNotFoundException
+  {
+    throw new AttributeNotFoundException("Metrics are read-only");
+  }
+
+  public AttributeList setAttributes(AttributeList attributes)
+  {
+    return new AttributeList();
+  }
+
+  public Object invoke(String actionName, Object[] params, String[] signature)
+    throws MBeanException, ReflectionException
+  {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+}
@@ -0,0 +1,218 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.metrics;
+
+import org.apache.manifoldcf.core.util.Histogram;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/** This class is the per-JVM registry of performance metrics.  Code on a hot path gets a Counter, Histogram,
+* or LatencyTimer by name once, keeps it in a static field, and updates it; updates are lock-free.  Values that
+* already live elsewhere are reported by registering a Gauge or MetricsSource, which is only called when
+* the metrics are read.
+*
+* Metric names are dotted, lower-case, and start with the subsystem, e.g. "database.query".  Latency
+* timers record microseconds; a histogram of some other unit has the unit at the end of its name.  When the
+* metrics are read, every histogram and timer is reported as a set of values: name.count, name.mean,
+* name.p50, name.p90, name.p99, and name.max.
+*
+* The metrics can be read through JMX (see MetricsMBean) or rendered as text, one "name value" pair per
+* line, in the Prometheus exposition format.
+*/
+public class MetricsRegistry
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The percentiles reported for every histogram */
+  protected final static double[] PERCENTILES = new double[]{50.0,90.0,99.0};
+  protected final static String[] PERCENTILE_SUFFIXES = new String[]{".p50",".p90",".p99"};
+
+  protected final static ConcurrentHashMap<String,Counter> counters = new ConcurrentHashMap<String,Counter>();
+  protected final static ConcurrentHashMap<String,Histogram> histograms = new ConcurrentHashMap<String,Histogram>();
+  protected final static ConcurrentHashMap<String,MetricsSource> sources = new ConcurrentHashMap<String,MetricsSource>();
+
+  private MetricsRegistry()
+  {
+  }
+
+  /** Get (creating if needed) a counter.
+  *@param name is the metric name.
+  *@return the counter.
+  */
+  public static Counter getCounter(String name)
+  {
+    Counter rval = counters.get(name);
+    if (rval == null)
+    {
+      rval = new Counter();
+      Counter existing = counters.putIfAbsent(name,rval);
+      if (existing != null)
+        rval = existing;
+    }
+    return rval;
+  }
+
+  /** Get (creating if needed) a histogram.
+  *@param name is the metric name.
+  *@return the histogram.
+  */
+  public static Histogram getHistogram(String name)
+  {
+    Histogram rval = histograms.get(name);
+    if (rval == null)
+    {
+      rval = new Histogram();
+      Histogram existing = histograms.putIfAbsent(name,rval);
+      if (existing != null)
+        rval = existing;
+    }
+    return rval;
+  }
+
+  /** Get (creating if needed) a timer.
+  *@param name is the metric name.
+  *@return the timer.
+  */
+  public static LatencyTimer getTimer(String name)
+  {
+    Histogram rval = histograms.get(name);
+    if (rval == null)
+    {
+      rval = new LatencyTimer();
+      Histogram existing = histograms.putIfAbsent(name,rval);
+      if (existing != null)
+        rval = existing;
+    }
+    if (!(rval instanceof LatencyTimer))
+      throw new IllegalArgumentException("Metric '"+name+"' is a histogram, not a timer");
+    return (LatencyTimer)rval;
+  }
+
+  /** Register an existing histogram under a name, replacing any histogram already there.
+  *@param name is the metric name.
+  *@param histogram is the histogram.
+  */
+  public static void registerHistogram(String name, Histogram histogram)
+  {
+    histograms.put(name,histogram);
+  }
+
+  /** Register a gauge, replacing any metric source already registered under the same name.
+  *@param name is the metric name.
+  *@param gauge is the gauge.
+  */
+  public static void registerGauge(String name, Gauge gauge)
+  {
+    gauge.setName(name);
+    sources.put(name,gauge);
+  }
+
+  /** Register a metric source, replacing any source already registered under the same name.
+  *@param name is the name of the source; the source chooses the names of the values it reports.
+  *@param source is the source.
+  */
+  public static void registerSource(String name, MetricsSource source)
+  {
+    sources.put(name,source);
+  }
+
+  /** Remove a gauge or metric source.
+  *@param name is the name it was registered under.
+  */
+  public static void unregisterSource(String name)
+  {
+    sources.remove(name);
+  }
+
+  /** Read all the metrics.
+  *@return a sorted map of metric name to current value.
+  */
+  public static SortedMap<String,Number> getValues()
+  {
+    SortedMap<String,Number> rval = new TreeMap<String,Number>();
+    for (Map.Entry<String,Counter> entry : counters.entrySet())
+    {
+      rval.put(entry.getKey(),new Long(entry.getValue().getValue()));
+    }
+    for (Map.Entry<String,Histogram> entry : histograms.entrySet())
+    {
+      String name = entry.getKey();
+      Histogram h = entry.getValue();
+      rval.put(name+".count",new Long(h.getCount()));
+      rval.put(name+".mean",new Double(h.getMean()));
+      for (int i = 0; i < PERCENTILES.length; i++)
+      {
+        rval.put(name+PERCENTILE_SUFFIXES[i],new Long(h.getPercentile(PERCENTILES[i])));
+      }
+      rval.put(name+".max",new Long(h.getMax()));
+    }
+    for (MetricsSource source : sources.values())
+    {
+      try
+      {
+        source.collect(rval);
+      }
+      catch (RuntimeException e)
+      {
+        // A broken source must not keep the rest of the metrics from being read
+      }
+    }
+    return rval;
+  }
+
+  /** Write all the metrics in the Prometheus text exposition format.
+  *@param w is the writer.
+  */
+  public static void writeText(Writer w)
+    throws IOException
+  {
+    SortedMap<String,Number> values = getValues();
+    for (Map.Entry<String,Number> entry : values.entrySet())
+    {
+      w.write(exportName(entry.getKey()));
+      w.write(" ");
+      Number value = entry.getValue();
+      if ((value instanceof Double) || (value instanceof Float))
+        w.write(Double.toString(value.doubleValue()));
+      else
+        w.write(Long.toString(value.longValue()));
+      w.write("\n");
+    }
+  }
+
+  /** Convert a metric name to a Prometheus-legal name.
+  *@param name is the dotted metric name.
+  *@return a name containing only letters, digits, and underscores.
+  */
+  public static String exportName(String name)
+  {
+    StringBuilder sb = new StringBuilder("manifoldcf_");
+    for (int i = 0; i < name.length(); i++)
+    {
+      char x = name.charAt(i);
+      if ((x >= 'a' && x <= 'z') || (x >= 'A' && x <= 'Z') || (x >= '0' && x <= '9'))
+        sb.append(x);
+      else
+        sb.append('_');
+    }
+    return sb.toString();
+  }
+
+}
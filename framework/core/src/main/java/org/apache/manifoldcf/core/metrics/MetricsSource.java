@@ -0,0 +1,35 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.metrics;
+
+import java.util.*;
+
+/** A source of metric values that are computed when the metrics are read, rather than recorded as
+* things happen.  Register one with MetricsRegistry to report values that already live elsewhere,
+* such as cache statistics or queue depths.
+*/
+public abstract class MetricsSource
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Add this source's current values to a map.
+  *@param values is the map of metric name to value.
+  */
+  public abstract void collect(Map<String,Number> values);
+}
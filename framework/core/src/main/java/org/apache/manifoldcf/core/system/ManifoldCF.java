@@ -109,12 +109,16 @@ public class ManifoldCF
   public static final String databaseHandleMaxcountProperty = "org.apache.manifoldcf.database.maxhandles";
   /** Database handle timeout property */
   public static final String databaseHandleTimeoutProperty = "org.apache.manifoldcf.database.handletimeout";
+  /** Maximum time to wait for a database handle, in seconds; 0 means wait forever */
+  public static final String databaseHandleMaxWaitProperty = "org.apache.manifoldcf.database.maxwait";
   /** Connection tracking debug property */
   public static final String databaseConnectionTrackingProperty = "org.apache.manifoldcf.database.connectiontracking";
 
   // Database performance monitoring properties
   /** Elapsed time a query can take before a warning is output to the log, in seconds */
   public static final String databaseQueryMaxTimeProperty = "org.apache.manifoldcf.database.maxquerytime";
+  /** Number of prepared statements to keep open per database connection; 0 disables statement caching */
+  public static final String databaseStatementCacheSizeProperty = "org.apache.manifoldcf.database.statementcachesize";
   
   // Log configuration properties
   /** Location of log configuration file */
@@ -132,6 +136,10 @@ public class ManifoldCF
   /** File to look for to block access to UI during database maintenance */
   public static final String maintenanceFileSignalProperty = "org.apache.manifoldcf.database.maintenanceflag";
 
+  // Monitoring properties
+  /** Whether to publish performance metrics through JMX */
+  public static final String metricsJMXProperty = "org.apache.manifoldcf.metrics.jmx";
+
   /** Reset environment.
   */
   public static void resetEnvironment()
@@ -224,6 +232,13 @@ public class ManifoldCF
           // Register the database cleanup hook
           addShutdownHook(new DatabaseShutdown());
 
+          // Publish the performance metrics
+          if (getBooleanProperty(metricsJMXProperty,true))
+          {
+            org.apache.manifoldcf.core.metrics.MetricsMBean.register();
+            addShutdownHook(new MetricsShutdown());
+          }
+
           // Open the database.  Done once per JVM.
           IThreadContext threadcontext = ThreadContextFactory.make();
           DBInterfaceFactory.make(threadcontext,masterDatabaseName,masterDatabaseUsername,masterDatabasePassword).openDatabase();
@@ -367,6 +382,24 @@ public class ManifoldCF
     }
   }
   
+  /** Read a long property, either from the system properties, or from the local configuration file.
+  */
+  public static long getLongProperty(String s, long defaultValue)
+    throws ManifoldCFException
+  {
+    String value = getProperty(s);
+    if (value == null)
+      return defaultValue;
+    try
+    {
+      return Long.parseLong(value);
+    }
+    catch (NumberFormatException e)
+    {
+      throw new ManifoldCFException("Illegal property value for long property '"+s+"': '"+value+"': "+e.getMessage(),e,ManifoldCFException.SETUP_ERROR);
+    }
+  }
+  
   /** Attempt to make sure a path is a folder
   * @param path
   */
@@ -1291,6 +1324,21 @@ public class ManifoldCF
 
   }
 
+  /** Class that withdraws the metrics MBean.
+  */
+  protected static class MetricsShutdown implements IShutdownHook
+  {
+    public MetricsShutdown()
+    {
+    }
+
+    public void doCleanup()
+      throws ManifoldCFException
+    {
+      org.apache.manifoldcf.core.metrics.MetricsMBean.unregister();
+    }
+  }
+
   /** Class that cleans up database handles on exit */
   protected static class DatabaseShutdown implements IShutdownHook
   {
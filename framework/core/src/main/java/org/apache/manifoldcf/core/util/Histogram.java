@@ -0,0 +1,162 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.util;
+
+import java.util.concurrent.atomic.*;
+
+/** A histogram of non-negative long values, such as elapsed times.  Buckets are log-linear, in the manner of
+* HDR histograms: values below SUB_BUCKET_COUNT each get their own bucket, and every power-of-two range above
+* that is split into SUB_BUCKET_COUNT equal buckets.  A fixed number of buckets therefore covers the whole
+* range of a long while keeping the relative error of any percentile below 1/SUB_BUCKET_COUNT.
+* Recording is lock-free, so this is safe to use from many threads on a hot path.
+*/
+public class Histogram
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Bits of precision within each power of two */
+  protected final static int SUB_BUCKET_BITS = 3;
+  /** Buckets per power of two */
+  public final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  /** Number of buckets */
+  public final static int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  protected final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  protected final AtomicLong count = new AtomicLong(0L);
+  protected final AtomicLong sum = new AtomicLong(0L);
+  protected final AtomicLong max = new AtomicLong(0L);
+
+  public Histogram()
+  {
+  }
+
+  /** Record a value.
+  *@param value is the value; negative values are treated as zero.
+  */
+  public void record(long value)
+  {
+    if (value < 0L)
+      value = 0L;
+    buckets.incrementAndGet(getBucketIndex(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    while (true)
+    {
+      long currentMax = max.get();
+      if (value <= currentMax || max.compareAndSet(currentMax,value))
+        break;
+    }
+  }
+
+  /** Find the bucket a value belongs in.
+  *@param value is the (non-negative) value.
+  *@return the bucket index.
+  */
+  public static int getBucketIndex(long value)
+  {
+    if (value < (long)SUB_BUCKET_COUNT)
+      return (int)value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int)(value >>> shift) - SUB_BUCKET_COUNT;
+    return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** Get the number of recorded values */
+  public long getCount()
+  {
+    return count.get();
+  }
+
+  /** Get the sum of the recorded values */
+  public long getSum()
+  {
+    return sum.get();
+  }
+
+  /** Get the largest recorded value */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /** Get the mean of the recorded values, or 0.0 if there are none */
+  public double getMean()
+  {
+    long c = count.get();
+    if (c == 0L)
+      return 0.0;
+    return (double)sum.get() / (double)c;
+  }
+
+  /** Get the count in a bucket.
+  *@param bucket is the bucket index, from 0 to BUCKET_COUNT-1.
+  */
+  public long getBucketCount(int bucket)
+  {
+    return buckets.get(bucket);
+  }
+
+  /** Get the (exclusive) upper bound of the values counted by a bucket.
+  *@param bucket is the bucket index, from 0 to BUCKET_COUNT-1.
+  */
+  public static long getBucketUpperBound(int bucket)
+  {
+    if (bucket < SUB_BUCKET_COUNT)
+      return (long)(bucket + 1);
+    int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+    int subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+    long upper = (long)(SUB_BUCKET_COUNT + subBucket + 1) << shift;
+    // The last bucket's bound does not fit in a long
+    if (upper <= 0L)
+      return Long.MAX_VALUE;
+    return upper;
+  }
+
+  /** Estimate a percentile.
+  *@param percentile is the percentile, from 0.0 to 100.0.
+  *@return the upper bound of the bucket containing that percentile, capped by the largest value seen.
+  */
+  public long getPercentile(double percentile)
+  {
+    long total = count.get();
+    if (total == 0L)
+      return 0L;
+    long target = (long)Math.ceil((percentile / 100.0) * (double)total);
+    if (target < 1L)
+      target = 1L;
+    long seen = 0L;
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      seen += buckets.get(i);
+      if (seen >= target)
+        return Math.min(getBucketUpperBound(i) - 1L,max.get());
+    }
+    return max.get();
+  }
+
+  /** Describe the histogram briefly, for logging.
+  */
+  public String toString()
+  {
+    return "count="+Long.toString(getCount())+", mean="+Long.toString((long)getMean())+
+      ", p50="+Long.toString(getPercentile(50.0))+", p99="+Long.toString(getPercentile(99.0))+
+      ", max="+Long.toString(getMax());
+  }
+}
@@ -0,0 +1,77 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.common;
+
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class Base64Test
+{
+
+  @Test
+  public void streamEncoding()
+    throws Exception
+  {
+    Random r = new Random(0L);
+    // Lengths around the chunk boundaries, and every padding case
+    int[] lengths = new int[]{0,1,2,3,4,5,Base64.ENCODE_CHUNK_SIZE-1,Base64.ENCODE_CHUNK_SIZE,
+      Base64.ENCODE_CHUNK_SIZE+1,Base64.ENCODE_CHUNK_SIZE*3+2};
+    for (int length : lengths)
+    {
+      byte[] data = new byte[length];
+      r.nextBytes(data);
+
+      // The word-at-a-time encoder is the reference
+      StringWriter reference = new StringWriter();
+      Base64 base64 = new Base64();
+      InputStream is = new ByteArrayInputStream(data);
+      while (base64.encodeNextWord(is,reference))
+      {
+      }
+
+      StringWriter sw = new StringWriter();
+      new Base64().encodeStream(new ByteArrayInputStream(data),sw);
+      assertEquals(reference.toString(),sw.toString());
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      new Base64().encodeStream(new TrickleInputStream(data),bos);
+      assertEquals(reference.toString(),new String(bos.toByteArray(),"ASCII"));
+
+      assertArrayEquals(data,new Base64().decodeString(sw.toString()));
+    }
+  }
+
+  /** Returns at most a couple of bytes per read, as a slow network stream might.
+  */
+  protected static class TrickleInputStream extends ByteArrayInputStream
+  {
+    public TrickleInputStream(byte[] data)
+    {
+      super(data);
+    }
+
+    public int read(byte[] b, int off, int len)
+    {
+      return super.read(b,off,Math.min(len,2));
+    }
+  }
+
+}
@@ -0,0 +1,43 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.common;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class JSONEncoderTest
+{
+
+  @Test
+  public void jsonEscaping()
+    throws Exception
+  {
+    assertEquals("\"a\\\"b\\\\c\\/d\"",JSONEncoder.encodeString("a\"b\\c/d"));
+    assertEquals("\"\\n\\t\\u0001\"",JSONEncoder.encodeString("\n\t\u0001"));
+    assertEquals("\"\"",JSONEncoder.encodeString(""));
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 5000; i++)
+    {
+      sb.append((i % 7 == 0)?'"':'x');
+    }
+    String encoded = JSONEncoder.encodeString(sb.toString());
+    assertEquals(sb.length() + (5000 + 6) / 7 + 2,encoded.length());
+  }
+
+}
@@ -0,0 +1,294 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.Logging;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Exercises the lock server wire protocol and lease expiry against an embedded server.
+*/
+public class LockServerTest
+{
+  protected static final String SECRET = "test secret";
+
+  protected LockServer server = null;
+
+  @BeforeClass
+  public static void setUpLogging()
+  {
+    Logging.initializeLoggingSystem(new File("logging.ini"));
+    Logging.initializeLoggers();
+  }
+
+  @Before
+  public void startServer()
+    throws Exception
+  {
+    server = new LockServer(null,0,SECRET);
+    server.start();
+  }
+
+  @After
+  public void stopServer()
+    throws Exception
+  {
+    server.stop();
+  }
+
+  @Test
+  public void locks()
+    throws Exception
+  {
+    LockServerClient a = new LockServerClient("localhost",server.getLocalPort(),SECRET,30000L);
+    LockServerClient b = new LockServerClient("localhost",server.getLocalPort(),SECRET,30000L);
+    try
+    {
+      assertTrue(a.lock(LockServer.TYPE_WRITE,"key"));
+      assertFalse(b.lock(LockServer.TYPE_READ,"key"));
+      assertFalse(b.lock(LockServer.TYPE_WRITE,"key"));
+      a.unlock(LockServer.TYPE_WRITE,"key");
+
+      // Read locks are shared, but exclude writers
+      assertTrue(a.lock(LockServer.TYPE_READ,"key"));
+      assertTrue(b.lock(LockServer.TYPE_READ,"key"));
+      assertFalse(b.lock(LockServer.TYPE_WRITE,"key"));
+      a.unlock(LockServer.TYPE_READ,"key");
+      b.unlock(LockServer.TYPE_READ,"key");
+      assertTrue(b.lock(LockServer.TYPE_WRITE,"key"));
+
+      // Closing a client releases its locks
+      b.close();
+      assertTrue(a.lock(LockServer.TYPE_WRITE,"key"));
+    }
+    finally
+    {
+      a.close();
+      b.close();
+    }
+  }
+
+  @Test
+  public void flagsAndData()
+    throws Exception
+  {
+    LockServerClient a = new LockServerClient("localhost",server.getLocalPort(),SECRET,30000L);
+    LockServerClient b = new LockServerClient("localhost",server.getLocalPort(),SECRET,30000L);
+    try
+    {
+      assertFalse(b.checkFlag("flag"));
+      a.setFlag("flag");
+      assertTrue(b.checkFlag("flag"));
+      a.clearFlag("flag");
+      assertFalse(b.checkFlag("flag"));
+
+      assertNull(b.readData("resource"));
+      a.writeData("resource",new byte[]{1,2,3});
+      assertArrayEquals(new byte[]{1,2,3},b.readData("resource"));
+      a.writeData("resource",new byte[0]);
+      assertArrayEquals(new byte[0],b.readData("resource"));
+      a.writeData("resource",null);
+      assertNull(b.readData("resource"));
+    }
+    finally
+    {
+      a.close();
+      b.close();
+    }
+  }
+
+  @Test
+  public void wrongSecret()
+    throws Exception
+  {
+    LockServerClient a = new LockServerClient("localhost",server.getLocalPort(),"wrong",30000L);
+    try
+    {
+      a.lock(LockServer.TYPE_WRITE,"key");
+      fail("Lock server accepted the wrong secret");
+    }
+    catch (IOException e)
+    {
+      // Expected
+    }
+    finally
+    {
+      a.close();
+    }
+  }
+
+  @Test
+  public void leaseExpiry()
+    throws Exception
+  {
+    LockServerClient a = new NonRenewingClient("localhost",server.getLocalPort(),SECRET,1000L);
+    LockServerClient b = new LockServerClient("localhost",server.getLocalPort(),SECRET,30000L);
+    try
+    {
+      assertTrue(a.lock(LockServer.TYPE_WRITE,"key"));
+      int generation = a.getSessionGeneration();
+      assertFalse(b.lock(LockServer.TYPE_WRITE,"key"));
+
+      // Once the lease runs out, the server hands the lock to someone else
+      long deadline = System.currentTimeMillis() + 10000L;
+      while (!b.lock(LockServer.TYPE_WRITE,"key"))
+      {
+        assertTrue("Lease never expired",System.currentTimeMillis() < deadline);
+        Thread.sleep(100L);
+      }
+
+      // The expired client is told so, rather than taken down
+      assertFalse(a.isLost(generation));
+      try
+      {
+        a.lock(LockServer.TYPE_READ,"other");
+        fail("Expired session was not reported");
+      }
+      catch (LockServerClient.SessionExpiredException e)
+      {
+        // Expected
+      }
+      assertTrue(a.isLost(generation));
+      assertTrue(a.isLeaseLost());
+
+      // No new session is registered while the lock taken under the lost one is still held
+      try
+      {
+        a.lock(LockServer.TYPE_READ,"other");
+        fail("Registered a new session while locks from the lost one were held");
+      }
+      catch (LockServerClient.SessionExpiredException e)
+      {
+        // Expected
+      }
+
+      // Releasing it does not touch the lock now held by someone else
+      a.unlock(LockServer.TYPE_WRITE,"key");
+      assertFalse(a.isLeaseLost());
+
+      // ... after which the client can carry on under a new session
+      assertTrue(a.lock(LockServer.TYPE_READ,"other"));
+      assertFalse(a.lock(LockServer.TYPE_READ,"key"));
+      assertFalse(a.isLost(a.getSessionGeneration()));
+      assertTrue(a.isLost(generation));
+    }
+    finally
+    {
+      a.close();
+      b.close();
+    }
+  }
+
+  @Test
+  public void holdersFailAfterLeaseExpiry()
+    throws Exception
+  {
+    LockServerClient a = new NonRenewingClient("localhost",server.getLocalPort(),SECRET,1000L);
+    LockServerClient b = new LockServerClient("localhost",server.getLocalPort(),SECRET,30000L);
+    synchronized (LockServerLockManager.class)
+    {
+      LockServerLockManager.client = a;
+      LockServerLockManager.serverLocks = new LockServerLockPool(a);
+    }
+    try
+    {
+      LockServerLockManager lm = new LockServerLockManager();
+      lm.enterWriteLock("key");
+
+      long deadline = System.currentTimeMillis() + 10000L;
+      while (!b.lock(LockServer.TYPE_WRITE,"key"))
+      {
+        assertTrue("Lease never expired",System.currentTimeMillis() < deadline);
+        Thread.sleep(100L);
+      }
+
+      // The holder's next lock operation fails, rather than quietly registering a new session
+      try
+      {
+        lm.enterWriteLock("other");
+        fail("Lock taken after the lease was lost");
+      }
+      catch (ManifoldCFException e)
+      {
+        // Expected
+      }
+      try
+      {
+        lm.enterReadLock("key");
+        fail("Nested lock taken after the lease was lost");
+      }
+      catch (ManifoldCFException e)
+      {
+        // Expected
+      }
+
+      // Leaving releases the lock locally, but still tells the holder it was not protected
+      try
+      {
+        lm.leaveWriteLock("key");
+        fail("Holder of a lost lock was not told");
+      }
+      catch (ManifoldCFException e)
+      {
+        // Expected
+      }
+      assertFalse(a.isLeaseLost());
+
+      // With nothing left from the lost session, locking works again
+      lm.enterWriteLock("other");
+      lm.leaveWriteLock("other");
+      try
+      {
+        lm.enterReadLockNoWait("key");
+        fail("Lock still held by another process was granted");
+      }
+      catch (LockException e)
+      {
+        // Expected
+      }
+    }
+    finally
+    {
+      synchronized (LockServerLockManager.class)
+      {
+        LockServerLockManager.client = null;
+        LockServerLockManager.serverLocks = null;
+      }
+      a.close();
+      b.close();
+    }
+  }
+
+  /** A client whose process has stopped renewing its lease.
+  */
+  protected static class NonRenewingClient extends LockServerClient
+  {
+    public NonRenewingClient(String host, int port, String secret, long leaseTime)
+    {
+      super(host,port,secret,leaseTime);
+    }
+
+    protected void renew()
+    {
+    }
+  }
+
+}
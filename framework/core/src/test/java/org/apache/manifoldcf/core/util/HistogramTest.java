@@ -0,0 +1,144 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.util;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class HistogramTest
+{
+
+  @Test
+  public void smallValuesHaveTheirOwnBuckets()
+    throws Exception
+  {
+    for (int i = 0; i < Histogram.SUB_BUCKET_COUNT; i++)
+    {
+      assertEquals(i,Histogram.getBucketIndex((long)i));
+      assertEquals((long)(i+1),Histogram.getBucketUpperBound(i));
+    }
+  }
+
+  @Test
+  public void bucketsAreContiguous()
+    throws Exception
+  {
+    // Every bucket starts where the previous one ended, and each value lands in the bucket whose range holds it
+    long lower = 0L;
+    for (int i = 0; i < Histogram.BUCKET_COUNT; i++)
+    {
+      long upper = Histogram.getBucketUpperBound(i);
+      assertTrue(upper > lower);
+      assertEquals(i,Histogram.getBucketIndex(lower));
+      assertEquals(i,Histogram.getBucketIndex(upper-1L));
+      if (upper == Long.MAX_VALUE)
+      {
+        assertEquals(Histogram.BUCKET_COUNT-1,i);
+        break;
+      }
+      lower = upper;
+    }
+    assertEquals(Histogram.BUCKET_COUNT-1,Histogram.getBucketIndex(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void bucketWidthIsBounded()
+    throws Exception
+  {
+    // Above the linear range, a bucket is never wider than 1/SUB_BUCKET_COUNT of its lower bound
+    for (int i = Histogram.SUB_BUCKET_COUNT; i < Histogram.BUCKET_COUNT-1; i++)
+    {
+      long lower = Histogram.getBucketUpperBound(i-1);
+      long upper = Histogram.getBucketUpperBound(i);
+      assertTrue((upper - lower) * (long)Histogram.SUB_BUCKET_COUNT <= lower);
+    }
+  }
+
+  @Test
+  public void emptyHistogram()
+    throws Exception
+  {
+    Histogram h = new Histogram();
+    assertEquals(0L,h.getCount());
+    assertEquals(0L,h.getPercentile(50.0));
+    assertEquals(0.0,h.getMean(),0.0);
+  }
+
+  @Test
+  public void negativeValuesCountAsZero()
+    throws Exception
+  {
+    Histogram h = new Histogram();
+    h.record(-5L);
+    assertEquals(1L,h.getCount());
+    assertEquals(1L,h.getBucketCount(0));
+    assertEquals(0L,h.getPercentile(100.0));
+  }
+
+  @Test
+  public void percentilesOfExactValues()
+    throws Exception
+  {
+    Histogram h = new Histogram();
+    for (long v = 1L; v <= 8L; v++)
+    {
+      h.record(v);
+    }
+    assertEquals(8L,h.getCount());
+    assertEquals(36L,h.getSum());
+    assertEquals(8L,h.getMax());
+    assertEquals(4.5,h.getMean(),0.0);
+    assertEquals(1L,h.getPercentile(0.0));
+    assertEquals(4L,h.getPercentile(50.0));
+    // The top bucket is capped by the largest value seen
+    assertEquals(8L,h.getPercentile(100.0));
+  }
+
+  @Test
+  public void percentileErrorIsBounded()
+    throws Exception
+  {
+    Random r = new Random(12345L);
+    long[] values = new long[10000];
+    Histogram h = new Histogram();
+    for (int i = 0; i < values.length; i++)
+    {
+      // Spread values over many powers of two
+      long v = (long)(Math.exp(r.nextDouble() * 30.0));
+      values[i] = v;
+      h.record(v);
+    }
+    Arrays.sort(values);
+    double[] percentiles = new double[]{1.0, 10.0, 50.0, 90.0, 99.0, 99.9, 100.0};
+    for (double p : percentiles)
+    {
+      long rank = (long)Math.ceil(p / 100.0 * (double)values.length);
+      if (rank < 1L)
+        rank = 1L;
+      long exact = values[(int)(rank-1L)];
+      long estimate = h.getPercentile(p);
+      // The estimate is never below the true value, and overshoots by less than one bucket width
+      assertTrue("p"+p+": "+estimate+" < "+exact,estimate >= exact);
+      assertTrue("p"+p+": "+estimate+" vs "+exact,(double)(estimate - exact) <= (double)exact / (double)Histogram.SUB_BUCKET_COUNT + 1.0);
+    }
+    assertEquals(values[values.length-1],h.getMax());
+  }
+
+}
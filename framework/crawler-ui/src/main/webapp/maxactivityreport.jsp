@@ -708,7 +708,8 @@ if (maintenanceUnderway == false)
 		<input type="hidden" name="startrow" value='<%=Integer.toString(startRow)%>'/>
 		<input type="hidden" name="sortorder" value='<%=org.apache.manifoldcf.ui.util.Encoder.attributeEscape(sortOrder.toString())%>'/>
 <%
-		long count = connMgr.countHistoryRows(reportConnection,criteria);
+		BucketDescription idBucket = new BucketDescription(reportBucketDesc,false);
+		long count = connMgr.countWindowedReportRows(reportConnection,criteria,idBucket,intervalMilliseconds);
 		long maxCount = connMgr.getMaxRows();
 		boolean hasMoreRows;
 		if (count > maxCount)
@@ -720,8 +721,6 @@ if (maintenanceUnderway == false)
 		}
 		else
 		{
-			BucketDescription idBucket = new BucketDescription(reportBucketDesc,false);
-
 			IResultSet set = connMgr.genHistoryActivityCount(reportConnection,criteria,sortOrder,idBucket,
 				intervalMilliseconds,startRow,rowCount+1);
 
@@ -21,11 +21,12 @@ package org.apache.manifoldcf.authorities.authority;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.authorities.interfaces.*;
 import java.util.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
 /** This is the implementation of the authority connection interface, which describes a paper object
 * to be manipulated in order to create, edit, or save an authority definition.
 */
-public class AuthorityConnection implements IAuthorityConnection
+public class AuthorityConnection implements IAuthorityConnection, ICacheSizeEstimate
 {
   public static final String _rcsid = "@(#)$Id: AuthorityConnection.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -43,6 +44,16 @@ public class AuthorityConnection implements IAuthorityConnection
   {
   }
 
+  /** Estimate the memory this object occupies, so that cached connections count against the
+  * cache memory budget in proportion to their configuration.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    return GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(name) + GeneralCache.estimateSize(description) +
+      GeneralCache.estimateSize(className) + configParams.getEstimatedSize();
+  }
+
   /** Clone this object.
   *@return the cloned object.
   */
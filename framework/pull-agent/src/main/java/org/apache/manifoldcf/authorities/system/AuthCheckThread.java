@@ -71,6 +71,7 @@ public class AuthCheckThread extends Thread
 
         AuthorizationResponse response = null;
         Throwable exception = null;
+        boolean cacheable = false;
 
         try
         {
@@ -90,13 +91,16 @@ public class AuthCheckThread extends Thread
               try
               {
                 response = connector.getAuthorizationResponse(theRequest.getUserID());
+                cacheable = true;
               }
               catch (ManifoldCFException e)
               {
+                exception = e;
                 if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
                   throw e;
                 Logging.authorityService.warn("Authority error: "+e.getMessage(),e);
                 response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getClassName(),theRequest.getUserID());
+                exception = null;
               }
 
             }
@@ -108,23 +112,32 @@ public class AuthCheckThread extends Thread
         }
         catch (ManifoldCFException e)
         {
+          // Keep the first failure, in case this one came from the error handling above
+          if (exception == null)
+            exception = e;
           if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
             throw e;
           Logging.authorityService.warn("Authority connection exception: "+e.getMessage(),e);
+          cacheable = false;
           response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getClassName(),theRequest.getUserID());
-          if (response == null)
-            exception = e;
+          if (response != null)
+            exception = null;
         }
         catch (Throwable e)
         {
+          if (exception == null)
+            exception = e;
           Logging.authorityService.warn("Authority connection error: "+e.getMessage(),e);
+          cacheable = false;
           response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getClassName(),theRequest.getUserID());
-          if (response == null)
-            exception = e;
+          if (response != null)
+            exception = null;
+        }
+        finally
+        {
+          // The request is complete, however we got here, so that nobody waits on it forever
+          requestQueue.completeRequest(theRequest,response,exception,cacheable);
         }
-
-        // The request is complete
-        theRequest.completeRequest(response,exception);
 
         // Repeat, and only go to sleep if there are no more requests.
       }
@@ -32,10 +32,13 @@ public class AuthRequest
 
   // This is where the request data actually lives
   protected String userID;
+  protected String connectionName;
   protected String className;
   protected String identifyingString;
   protected ConfigParams configParameters;
   protected int maxConnections;
+  // The configuration as XML, computed when first needed
+  protected String configurationXML = null;
 
   // These are the possible results of the request
   protected boolean answerComplete = false;
@@ -45,8 +48,16 @@ public class AuthRequest
   /** Construct the request, and record the question.
   */
   public AuthRequest(String userID, String className, String identifyingString, ConfigParams configParameters, int maxConnections)
+  {
+    this(userID,null,className,identifyingString,configParameters,maxConnections);
+  }
+
+  /** Construct the request for a named authority connection, and record the question.
+  */
+  public AuthRequest(String userID, String connectionName, String className, String identifyingString, ConfigParams configParameters, int maxConnections)
   {
     this.userID = userID;
+    this.connectionName = connectionName;
     this.className = className;
     this.identifyingString = identifyingString;
     this.configParameters = configParameters;
@@ -59,6 +70,28 @@ public class AuthRequest
     return userID;
   }
 
+  /** Construct a new request asking the same question as an existing one.
+  */
+  public AuthRequest(AuthRequest request)
+  {
+    this(request.userID,request.connectionName,request.className,request.identifyingString,request.configParameters,request.maxConnections);
+    this.configurationXML = request.configurationXML;
+  }
+
+  /** Get the connection name, or null if not known */
+  public String getConnectionName()
+  {
+    return connectionName;
+  }
+
+  /** Get the key that identifies requests asking the same question of the same authority */
+  public RequestKey getKey()
+  {
+    if (connectionName != null)
+      return new RequestKey(connectionName,null,null,userID);
+    return new RequestKey(null,className,identifyingString,userID);
+  }
+
   /** Get the class name */
   public String getClassName()
   {
@@ -77,6 +110,21 @@ public class AuthRequest
     return configParameters;
   }
 
+  /** Get the configuration parameters as XML, for comparing configurations */
+  public synchronized String getConfigurationXML()
+    throws ManifoldCFException
+  {
+    if (configurationXML == null)
+      configurationXML = configParameters.toXML();
+    return configurationXML;
+  }
+
+  /** Get the configuration parameters as XML, or null if they have not yet been computed */
+  public synchronized String peekConfigurationXML()
+  {
+    return configurationXML;
+  }
+
   /** Get the maximum number of connections */
   public int getMaxConnections()
   {
@@ -90,9 +138,29 @@ public class AuthRequest
   {
     synchronized (this)
     {
-      if (answerComplete)
-        return;
-      this.wait();
+      while (!answerComplete)
+        this.wait();
+    }
+  }
+
+  /** Wait for an auth request to be complete, but no longer than the specified time.
+  *@param timeout is the maximum time to wait, in milliseconds.
+  *@return true if the request is complete.
+  */
+  public boolean waitForComplete(long timeout)
+    throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + timeout;
+    synchronized (this)
+    {
+      while (!answerComplete)
+      {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0L)
+          return false;
+        this.wait(remaining);
+      }
+      return true;
     }
   }
 
@@ -127,4 +195,74 @@ public class AuthRequest
     return answerException;
   }
 
+  /** Key identifying the authority a request is made of, and the user it asks about.  The parts are
+  * compared separately, so no choice of connection name and user name can make two different
+  * questions look the same.
+  */
+  public static class RequestKey
+  {
+    protected final String connectionName;
+    protected final String className;
+    protected final String identifyingString;
+    protected final String userID;
+    protected final int hashCode;
+
+    /** Constructor.
+    *@param connectionName is the authority connection name, or null if the connection is identified
+    * by its class and identifying string instead.
+    *@param className is the connector class name, or null.
+    *@param identifyingString is the connection's identifying string, or null.
+    *@param userID is the user the request is about.
+    */
+    public RequestKey(String connectionName, String className, String identifyingString, String userID)
+    {
+      this.connectionName = connectionName;
+      this.className = className;
+      this.identifyingString = identifyingString;
+      this.userID = userID;
+      this.hashCode = hash(connectionName) + 31 * (hash(className) + 31 * (hash(identifyingString) + 31 * hash(userID)));
+    }
+
+    /** Get the approximate number of characters in the key, for memory accounting */
+    public int getLength()
+    {
+      return length(connectionName) + length(className) + length(identifyingString) + length(userID);
+    }
+
+    public int hashCode()
+    {
+      return hashCode;
+    }
+
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof RequestKey))
+        return false;
+      RequestKey k = (RequestKey)o;
+      return hashCode == k.hashCode && same(connectionName,k.connectionName) && same(className,k.className) &&
+        same(identifyingString,k.identifyingString) && same(userID,k.userID);
+    }
+
+    public String toString()
+    {
+      String connectionKey = (connectionName != null)?connectionName:(className + ":" + identifyingString);
+      return connectionKey + "/" + userID;
+    }
+
+    protected static int hash(String value)
+    {
+      return (value == null)?0:value.hashCode();
+    }
+
+    protected static int length(String value)
+    {
+      return (value == null)?0:value.length();
+    }
+
+    protected static boolean same(String a, String b)
+    {
+      return (a == null)?(b == null):a.equals(b);
+    }
+  }
+
 }
@@ -0,0 +1,250 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+import org.apache.manifoldcf.core.metrics.*;
+import java.util.*;
+
+/** This class caches the authorization responses the authority service receives, so that repeated requests for
+* the same user do not each go back to the authority.  Responses granting access are kept for the positive lifetime,
+* and responses saying the user is unknown or unauthorized are kept for the (usually shorter) negative lifetime.
+* Unreachable responses, and responses made up after a connector error, are never cached.
+* The cache is bounded by an approximate memory budget, and discards the least recently used entries first.
+* An entry that is used after the refresh-ahead fraction of its lifetime has elapsed is refreshed in the background,
+* so that users who are seen often never wait on the authority.
+*/
+public class AuthorizationResponseCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final static Counter cacheHits = MetricsRegistry.getCounter("authority.cache.hits");
+  protected final static Counter cacheMisses = MetricsRegistry.getCounter("authority.cache.misses");
+  protected final static Counter cacheRefreshes = MetricsRegistry.getCounter("authority.cache.refreshes");
+  protected final static Counter cacheEvictions = MetricsRegistry.getCounter("authority.cache.evictions");
+
+  // Approximate per-entry and per-string overheads, in bytes
+  protected final static long ENTRY_OVERHEAD = 200L;
+  protected final static long STRING_OVERHEAD = 48L;
+
+  protected final long positiveLifetime;
+  protected final long negativeLifetime;
+  protected final long memoryBudget;
+  protected final int refreshAheadPercent;
+
+  // The entries, in access order
+  protected final LinkedHashMap<AuthRequest.RequestKey,CacheEntry> entries = new LinkedHashMap<AuthRequest.RequestKey,CacheEntry>(16,0.75f,true);
+  // Approximate bytes used by the entries
+  protected long memoryUsed = 0L;
+
+  /** Constructor.
+  *@param positiveLifetime is the time, in milliseconds, to keep responses granting access.
+  *@param negativeLifetime is the time, in milliseconds, to keep responses denying access.
+  *@param memoryBudget is the approximate number of bytes the cache may occupy.
+  *@param refreshAheadPercent is the percentage of its lifetime after which a used entry gets refreshed; 0 disables refresh.
+  */
+  public AuthorizationResponseCache(long positiveLifetime, long negativeLifetime, long memoryBudget, int refreshAheadPercent)
+  {
+    this.positiveLifetime = positiveLifetime;
+    this.negativeLifetime = negativeLifetime;
+    this.memoryBudget = memoryBudget;
+    this.refreshAheadPercent = refreshAheadPercent;
+  }
+
+  /** Look up the cached response for a request.
+  *@param request is the request.
+  *@param currentTime is the current time.
+  *@return the cached lookup result, or null if there is no usable entry.
+  */
+  public CacheResult lookup(AuthRequest request, long currentTime)
+    throws ManifoldCFException
+  {
+    // Always work this out, since save() needs it; do it outside the lock
+    String configurationXML = request.getConfigurationXML();
+    return lookup(request.getKey(),configurationXML,currentTime);
+  }
+
+  protected synchronized CacheResult lookup(AuthRequest.RequestKey key, String configurationXML, long currentTime)
+  {
+    CacheEntry entry = entries.get(key);
+    if (entry == null)
+    {
+      cacheMisses.increment();
+      return null;
+    }
+    // An entry made under a different configuration for the connection is useless
+    if (currentTime >= entry.expirationTime || !entry.configurationXML.equals(configurationXML))
+    {
+      removeEntry(key,entry);
+      cacheMisses.increment();
+      return null;
+    }
+    cacheHits.increment();
+    boolean needsRefresh = false;
+    if (!entry.refreshing && currentTime >= entry.refreshTime)
+    {
+      entry.refreshing = true;
+      cacheRefreshes.increment();
+      needsRefresh = true;
+    }
+    return new CacheResult(entry.response,needsRefresh);
+  }
+
+  /** Record the answer to a request.
+  *@param request is the request.
+  *@param response is the response.
+  *@param currentTime is the time the response was obtained.
+  */
+  public synchronized void save(AuthRequest request, AuthorizationResponse response, long currentTime)
+  {
+    String configurationXML = request.peekConfigurationXML();
+    if (configurationXML == null)
+      return;
+    long lifetime;
+    switch (response.getResponseStatus())
+    {
+    case AuthorizationResponse.RESPONSE_OK:
+      lifetime = positiveLifetime;
+      break;
+    case AuthorizationResponse.RESPONSE_USERNOTFOUND:
+    case AuthorizationResponse.RESPONSE_USERUNAUTHORIZED:
+      lifetime = negativeLifetime;
+      break;
+    default:
+      lifetime = 0L;
+      break;
+    }
+    AuthRequest.RequestKey key = request.getKey();
+    CacheEntry old = entries.get(key);
+    if (lifetime <= 0L)
+    {
+      // Keep serving what we have until it expires
+      if (old != null)
+        old.refreshing = false;
+      return;
+    }
+    if (old != null)
+      removeEntry(key,old);
+    long refreshTime;
+    if (refreshAheadPercent > 0)
+      refreshTime = currentTime + (lifetime * (long)refreshAheadPercent) / 100L;
+    else
+      refreshTime = Long.MAX_VALUE;
+    CacheEntry entry = new CacheEntry(configurationXML,response,currentTime + lifetime,refreshTime,
+      estimateSize(key,configurationXML,response));
+    entries.put(key,entry);
+    memoryUsed += entry.size;
+    // Evict least recently used entries until we are back within budget
+    Iterator<Map.Entry<AuthRequest.RequestKey,CacheEntry>> iter = entries.entrySet().iterator();
+    while (memoryUsed > memoryBudget && iter.hasNext())
+    {
+      CacheEntry victim = iter.next().getValue();
+      iter.remove();
+      memoryUsed -= victim.size;
+      cacheEvictions.increment();
+    }
+  }
+
+  /** Note that a refresh attempt did not produce a cacheable answer, so that another may be tried.
+  *@param request is the request.
+  */
+  public synchronized void refreshFailed(AuthRequest request)
+  {
+    CacheEntry entry = entries.get(request.getKey());
+    if (entry != null)
+      entry.refreshing = false;
+  }
+
+  /** Get the approximate memory in use.
+  */
+  public synchronized long getMemoryUsed()
+  {
+    return memoryUsed;
+  }
+
+  protected void removeEntry(AuthRequest.RequestKey key, CacheEntry entry)
+  {
+    entries.remove(key);
+    memoryUsed -= entry.size;
+  }
+
+  protected static long estimateSize(AuthRequest.RequestKey key, String configurationXML, AuthorizationResponse response)
+  {
+    // Configuration strings are shared between entries for the same connection, so don't count them
+    long size = ENTRY_OVERHEAD + 2L * STRING_OVERHEAD + 2L * (long)key.getLength();
+    String[] tokens = response.getAccessTokens();
+    if (tokens != null)
+    {
+      for (String token : tokens)
+      {
+        size += STRING_OVERHEAD + 2L * (long)token.length();
+      }
+    }
+    return size;
+  }
+
+  /** The result of a cache lookup.
+  */
+  public static class CacheResult
+  {
+    protected final AuthorizationResponse response;
+    protected final boolean needsRefresh;
+
+    public CacheResult(AuthorizationResponse response, boolean needsRefresh)
+    {
+      this.response = response;
+      this.needsRefresh = needsRefresh;
+    }
+
+    /** Get the cached response */
+    public AuthorizationResponse getResponse()
+    {
+      return response;
+    }
+
+    /** Check whether the caller should arrange for the entry to be refreshed */
+    public boolean needsRefresh()
+    {
+      return needsRefresh;
+    }
+  }
+
+  /** A cache entry.
+  */
+  protected static class CacheEntry
+  {
+    public final String configurationXML;
+    public final AuthorizationResponse response;
+    public final long expirationTime;
+    public final long refreshTime;
+    public final long size;
+    public boolean refreshing = false;
+
+    public CacheEntry(String configurationXML, AuthorizationResponse response, long expirationTime, long refreshTime, long size)
+    {
+      this.configurationXML = configurationXML;
+      this.response = response;
+      this.expirationTime = expirationTime;
+      this.refreshTime = refreshTime;
+      this.size = size;
+    }
+  }
+
+}
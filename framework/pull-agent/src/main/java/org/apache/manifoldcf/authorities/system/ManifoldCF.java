@@ -35,7 +35,15 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
   // Number of auth check threads
   protected static int numAuthCheckThreads = 0;
 
+  // Maximum time, in milliseconds, to wait for any one authority
+  protected static long authRequestTimeout = 0L;
+
   protected static final String authCheckThreadCountProperty = "org.apache.manifoldcf.authorityservice.threads";
+  protected static final String authRequestTimeoutProperty = "org.apache.manifoldcf.authorityservice.timeout";
+  protected static final String authCacheLifetimeProperty = "org.apache.manifoldcf.authorityservice.cache.lifetime";
+  protected static final String authCacheNegativeLifetimeProperty = "org.apache.manifoldcf.authorityservice.cache.negativelifetime";
+  protected static final String authCacheMemoryBudgetProperty = "org.apache.manifoldcf.authorityservice.cache.memorybudget";
+  protected static final String authCacheRefreshAheadProperty = "org.apache.manifoldcf.authorityservice.cache.refreshahead";
 
   // Request queue
   protected static RequestQueue requestQueue = null;
@@ -169,12 +177,16 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
     numAuthCheckThreads = new Integer(maxThreads).intValue();
     if (numAuthCheckThreads < 1 || numAuthCheckThreads > 100)
       throw new ManifoldCFException("Illegal value for the number of auth check threads");
+    int timeoutSeconds = getIntProperty(authRequestTimeoutProperty,60);
+    if (timeoutSeconds < 1)
+      throw new ManifoldCFException("Illegal value for the authority request timeout");
+    authRequestTimeout = 1000L * (long)timeoutSeconds;
 
     // Start up threads
     idleCleanupThread = new IdleCleanupThread();
     idleCleanupThread.start();
 
-    requestQueue = new RequestQueue();
+    requestQueue = new RequestQueue(makeResponseCache());
 
     authCheckThreads = new AuthCheckThread[numAuthCheckThreads];
     int i = 0;
@@ -186,6 +198,31 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
     }
   }
 
+  /** Build the authorization response cache, from the properties.
+  *@return the cache, or null if caching is disabled.
+  */
+  protected static AuthorizationResponseCache makeResponseCache()
+    throws ManifoldCFException
+  {
+    // Off unless asked for, since a cached response outlives any change to the user's rights
+    int lifetime = getIntProperty(authCacheLifetimeProperty,0);
+    int negativeLifetime = getIntProperty(authCacheNegativeLifetimeProperty,0);
+    int memoryBudget = getIntProperty(authCacheMemoryBudgetProperty,16777216);
+    int refreshAhead = getIntProperty(authCacheRefreshAheadProperty,75);
+    if (lifetime < 0 || negativeLifetime < 0)
+      throw new ManifoldCFException("Illegal value for the authority cache lifetime");
+    if (memoryBudget < 0)
+      throw new ManifoldCFException("Illegal value for the authority cache memory budget");
+    if (refreshAhead < 0 || refreshAhead > 100)
+      throw new ManifoldCFException("Illegal value for the authority cache refresh-ahead percentage");
+    if ((lifetime == 0 && negativeLifetime == 0) || memoryBudget == 0)
+      return null;
+    // A refresh point at the very end of the lifetime is the same as no refresh
+    if (refreshAhead == 100)
+      refreshAhead = 0;
+    return new AuthorizationResponseCache(1000L * (long)lifetime,1000L * (long)negativeLifetime,(long)memoryBudget,refreshAhead);
+  }
+
   /** Shut down the authority system.
   */
   public static void stopSystem(IThreadContext threadContext)
@@ -249,6 +286,12 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
     requestQueue = null;
   }
 
+  /** Get the maximum time, in milliseconds, that the authority service waits for any one authority */
+  public static long getAuthRequestTimeout()
+  {
+    return authRequestTimeout;
+  }
+
   /** Get the current request queue */
   public static RequestQueue getRequestQueue()
   {
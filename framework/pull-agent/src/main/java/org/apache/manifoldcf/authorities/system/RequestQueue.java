@@ -20,37 +20,81 @@ package org.apache.manifoldcf.authorities.system;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.authorities.interfaces.*;
+import org.apache.manifoldcf.core.metrics.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /** This class describes a authorization request queue, which has a "stuffer" servlet and many "reader" threads.
 * The queue manages thread synchronization so that (a) the "stuffer" servlet blindly appends authority requests, and
 * then waits for these requests to be completed, and
 * (b) the "reader" threads block if queue is empty.
 * The objects being queued are all AuthRequest objects.
+* Requests are handed out in the order they arrive, so that no servlet request waits behind later ones.  A request
+* that asks the same authority connection about the same user as one already queued or in progress is not queued
+* again; the caller is given the existing request instead, and all callers share its answer.
+* If there is a response cache, requests it can answer are completed immediately, without being queued.
 */
 public class RequestQueue
 {
   public static final String _rcsid = "@(#)$Id: RequestQueue.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // Since the queue has a maximum size, an ArrayList is a fine way to keep it
-  protected ArrayList queue = new ArrayList();
+  protected final static Counter coalescedRequests = MetricsRegistry.getCounter("authority.requests.coalesced");
+
+  // The requests waiting for a reader thread
+  protected final BlockingQueue<AuthRequest> queue = new LinkedBlockingQueue<AuthRequest>();
+  // The requests that are queued or in progress, keyed by connection and user
+  protected final ConcurrentHashMap<AuthRequest.RequestKey,AuthRequest> inFlight = new ConcurrentHashMap<AuthRequest.RequestKey,AuthRequest>();
+  // The response cache, or null if responses are not cached
+  protected final AuthorizationResponseCache cache;
 
   /** Constructor.
   */
   public RequestQueue()
   {
+    this(null);
+  }
+
+  /** Constructor.
+  *@param cache is the response cache, or null.
+  */
+  public RequestQueue(AuthorizationResponseCache cache)
+  {
+    this.cache = cache;
   }
 
-  /** Add a request to the queue.
+  /** Add a request to the queue.  If an identical request is already queued or being processed, the
+  * new request is not queued, and the existing one is returned instead.
   *@param dd is the request.
+  *@return the request the caller should wait on.
   */
-  public void addRequest(AuthRequest dd)
+  public AuthRequest addRequest(AuthRequest dd)
+    throws ManifoldCFException
   {
-    synchronized (queue)
+    if (cache != null)
+    {
+      AuthorizationResponseCache.CacheResult cached = cache.lookup(dd,System.currentTimeMillis());
+      if (cached != null)
+      {
+        if (cached.needsRefresh())
+        {
+          // Fetch a fresh answer in the background; nobody waits for it.  If an identical request is
+          // already on its way, its answer will do.
+          AuthRequest refresh = new AuthRequest(dd);
+          if (inFlight.putIfAbsent(refresh.getKey(),refresh) == null)
+            queue.add(refresh);
+        }
+        dd.completeRequest(cached.getResponse(),null);
+        return dd;
+      }
+    }
+    AuthRequest existing = inFlight.putIfAbsent(dd.getKey(),dd);
+    if (existing != null)
     {
-      queue.add(dd);
-      queue.notify();
+      coalescedRequests.increment();
+      return existing;
     }
+    queue.add(dd);
+    return dd;
   }
 
   /** Pull the next request off the queue, but wait if there is
@@ -60,15 +104,28 @@ public class RequestQueue
   public AuthRequest getRequest()
     throws InterruptedException
   {
-    synchronized (queue)
-    {
-      // If queue is empty, go to sleep
-      while (queue.size() == 0)
-        queue.wait();
+    return queue.take();
+  }
 
-      return (AuthRequest)queue.remove(queue.size()-1);
+  /** Note that a request is complete, and record its answers.  Callers arriving after this point
+  * will get the cached answer, or cause a fresh request to be made.
+  *@param dd is the request.
+  *@param answerResponse is the response, or null.
+  *@param answerException is the exception, or null.
+  *@param cacheable is true if the response came from the authority itself, rather than being made up after an error.
+  */
+  public void completeRequest(AuthRequest dd, AuthorizationResponse answerResponse, Throwable answerException,
+    boolean cacheable)
+  {
+    if (cache != null)
+    {
+      if (cacheable && answerException == null && answerResponse != null)
+        cache.save(dd,answerResponse,System.currentTimeMillis());
+      else
+        cache.refreshFailed(dd);
     }
+    inFlight.remove(dd.getKey(),dd);
+    dd.completeRequest(answerResponse,answerException);
   }
 
-
 }
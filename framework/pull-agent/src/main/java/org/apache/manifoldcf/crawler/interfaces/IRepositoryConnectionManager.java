@@ -194,6 +194,20 @@ public interface IRepositoryConnectionManager
   public long countHistoryRows(String connectionName, FilterCriteria criteria)
     throws ManifoldCFException;
 
+  /** Count the number of history rows a sliding-window report (activity count or byte count) would need to
+  * join.  This is zero when the report can be answered from the history rollups, which happens only when
+  * rollup reports are enabled.  Rollup answers are approximate: windows start on minute or hour boundaries, and
+  * events are not prorated over the windows they overlap.  Compare the result against getMaxRows() before
+  * running such a report.
+  *@param connectionName is the name of the connection.
+  *@param criteria is the filtering criteria, which selects the records of interest.
+  *@param idBucket is the bucket description the report will use.
+  *@param interval is the window size the report will use.
+  *@return the number of rows the report would need to join.
+  */
+  public long countWindowedReportRows(String connectionName, FilterCriteria criteria, BucketDescription idBucket, long interval)
+    throws ManifoldCFException;
+
   /** Get the maximum number of rows a window-based report can work with.
   *@return the maximum rows.
   */
@@ -22,6 +22,8 @@ import org.apache.manifoldcf.crawler.system.Logging;
 import org.apache.manifoldcf.core.interfaces.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 
 /** This class attempts to provide document priorities in order to acheive as much balance as possible between documents having different bins.
@@ -49,6 +51,10 @@ import java.util.regex.*;
 * (1) When a document is handed to a worker thread
 * (2) When the worker thread completes the document
 *
+* The queued and active bin counts are touched by every worker thread for every document, so they are kept in concurrent maps of
+* atomic counters rather than behind a monitor.  The prioritization state, which is only touched by the stuffer and reprioritization
+* threads, remains guarded by the binCounts monitor.
+*
 */
 public class QueueTracker
 {
@@ -66,10 +72,16 @@ public class QueueTracker
 
   /** These are the bin counts for tracking the documents that are on
   * the active queue, but are not being processed yet */
-  protected HashMap queuedBinCounts = new HashMap();
+  protected final ConcurrentHashMap<String,BinCount> queuedBinCounts = new ConcurrentHashMap<String,BinCount>();
 
   /** These are the bin counts for active threads */
-  protected HashMap activeBinCounts = new HashMap();
+  protected final ConcurrentHashMap<String,BinCount> activeBinCounts = new ConcurrentHashMap<String,BinCount>();
+
+  /** Number of bin counters created since the last sweep for empty counters */
+  protected final AtomicInteger binCountsCreated = new AtomicInteger(0);
+
+  /** How many bin counters may be created before the bin count maps are swept for empty counters */
+  protected final static int binCountSweepInterval = 1024;
 
   /** The "minimum depth" - which is the smallest bin count of the last document queued.  This helps guarantee that documents that are
   * newly discovered don't wind up with high priority, but instead wind up about the same as the currently active document priority. */
@@ -138,16 +150,7 @@ public class QueueTracker
     while (i < binNames.length)
     {
       String binName = binNames[i++];
-      synchronized (queuedBinCounts)
-      {
-        BinCount value = (BinCount)queuedBinCounts.get(binName);
-        if (value == null)
-        {
-          value = new BinCount();
-          queuedBinCounts.put(binName,value);
-        }
-        value.increment();
-      }
+      incrementBinCount(queuedBinCounts,binName);
     }
 
   }
@@ -161,6 +164,7 @@ public class QueueTracker
 
     // Since prioritization calculations are not reversible, these unused values are kept in a queue, and are used preferentially.
     PriorityKey pk = new PriorityKey(binNames);
+    Double priorityValue = new Double(priority);
     synchronized (binCounts)
     {
       ArrayList value = (ArrayList)availablePriorities.get(pk);
@@ -176,7 +180,7 @@ public class QueueTracker
       {
         if (end == begin)
         {
-          value.add(end,new Double(priority));
+          value.add(end,priorityValue);
           break;
         }
         int middle = (begin + end) >> 1;
@@ -248,28 +252,11 @@ public class QueueTracker
     {
       String binName = binNames[i++];
 
-      // Increment queued bin count for this bin.
-      synchronized (queuedBinCounts)
-      {
-        BinCount value = (BinCount)queuedBinCounts.get(binName);
-        if (value != null)
-        {
-          if (value.decrement())
-            queuedBinCounts.remove(binName);
-        }
-      }
+      // Decrement queued bin count for this bin.
+      decrementBinCount(queuedBinCounts,binName);
 
-      // Decrement active bin count for this bin.
-      synchronized (activeBinCounts)
-      {
-        BinCount value = (BinCount)activeBinCounts.get(binName);
-        if (value == null)
-        {
-          value = new BinCount();
-          activeBinCounts.put(binName,value);
-        }
-        value.increment();
-      }
+      // Increment active bin count for this bin.
+      incrementBinCount(activeBinCounts,binName);
     }
   }
 
@@ -345,15 +332,59 @@ public class QueueTracker
     while (i < binNames.length)
     {
       String binName = binNames[i++];
-      synchronized (activeBinCounts)
+      decrementBinCount(activeBinCounts,binName);
+    }
+  }
+
+  /** Increment the count for a bin in one of the concurrent bin count maps.
+  */
+  protected void incrementBinCount(ConcurrentHashMap<String,BinCount> map, String binName)
+  {
+    while (true)
+    {
+      BinCount value = map.get(binName);
+      if (value == null)
       {
-        BinCount value = (BinCount)activeBinCounts.get(binName);
-        if (value != null)
+        value = new BinCount();
+        BinCount existing = map.putIfAbsent(binName,value);
+        if (existing != null)
+          value = existing;
+        else if (binCountsCreated.incrementAndGet() >= binCountSweepInterval)
         {
-          if (value.decrement())
-            activeBinCounts.remove(binName);
+          binCountsCreated.set(0);
+          sweepBinCounts(queuedBinCounts);
+          sweepBinCounts(activeBinCounts);
         }
       }
+      if (value.increment())
+        return;
+      // The counter went to zero and was retired by another thread; help remove it, and try again with a fresh one.
+      map.remove(binName,value);
+    }
+  }
+
+  /** Decrement the count for a bin in one of the concurrent bin count maps.
+  * Empty counters are left in place, since the same bins tend to be used again right away; they are
+  * removed periodically by sweepBinCounts().
+  */
+  protected static void decrementBinCount(ConcurrentHashMap<String,BinCount> map, String binName)
+  {
+    BinCount value = map.get(binName);
+    if (value != null)
+      value.decrement();
+  }
+
+  /** Remove the empty counters from one of the concurrent bin count maps.
+  */
+  protected static void sweepBinCounts(ConcurrentHashMap<String,BinCount> map)
+  {
+    Iterator<Map.Entry<String,BinCount>> iter = map.entrySet().iterator();
+    while (iter.hasNext())
+    {
+      Map.Entry<String,BinCount> entry = iter.next();
+      BinCount value = entry.getValue();
+      if (value.retire())
+        map.remove(entry.getKey(),value);
     }
   }
 
@@ -378,12 +409,9 @@ public class QueueTracker
     {
       String binName = binNames[i++];
       int count = 0;
-      synchronized (activeBinCounts)
-      {
-        BinCount value = (BinCount)activeBinCounts.get(binName);
-        if (value != null)
-          count = value.getValue();
-      }
+      BinCount value = activeBinCounts.get(binName);
+      if (value != null)
+        count = value.getValue();
       // rating *= (1.0 / (1.0 + (double)count))
       ratingLog -= Math.log(1.0 + (double)count);
     }
@@ -418,6 +446,11 @@ public class QueueTracker
   */
   public double calculatePriority(String[] binNames, IRepositoryConnection connection)
   {
+    // The fetch rates and the priority key depend only on the arguments, so work them out before taking the lock.
+    // Calculating the fetch rates involves compiling the throttle regular expressions, which is comparatively costly.
+    double[] maxFetchRates = calculateMaxFetchRates(binNames,connection);
+    PriorityKey pk2 = new PriorityKey(binNames);
+
     synchronized (binCounts)
     {
 
@@ -444,9 +477,8 @@ public class QueueTracker
       // Basically, for F = 0, k should be infinity, and for F = infinity, k should be B.
 
 
-      // First, calculate the document's max fetch rate, in fetches per millisecond.  This will be used to adjust the priority, and
+      // The document's max fetch rates, in fetches per millisecond, were calculated above.  They are used to adjust the priority, and
       // also when resetting the bin counts.
-      double[] maxFetchRates = calculateMaxFetchRates(binNames,connection);
 
       // For each bin, we will be calculating the bin count scale factor, which is what we multiply the bincount by to adjust for the
       // throttling on that bin.
@@ -514,7 +546,6 @@ public class QueueTracker
 
       double returnValue;
 
-      PriorityKey pk2 = new PriorityKey(binNames);
       ArrayList queuedvalue = (ArrayList)availablePriorities.get(pk2);
       if (queuedvalue != null && queuedvalue.size() > 0)
       {
@@ -702,7 +733,9 @@ public class QueueTracker
   protected static class PriorityKey
   {
     // The bins, in sorted order
-    protected String[] binNames;
+    protected final String[] binNames;
+    // The hash code, computed once since keys are looked up far more often than they are built
+    protected final int hashCode;
 
     /** Constructor */
     public PriorityKey(String[] binNames)
@@ -715,17 +748,18 @@ public class QueueTracker
         i++;
       }
       java.util.Arrays.sort(this.binNames);
+      int rval = 0;
+      i = 0;
+      while (i < this.binNames.length)
+      {
+        rval += this.binNames[i++].hashCode();
+      }
+      hashCode = rval;
     }
 
     public int hashCode()
     {
-      int rval = 0;
-      int i = 0;
-      while (i < binNames.length)
-      {
-        rval += binNames[i++].hashCode();
-      }
-      return rval;
+      return hashCode;
     }
 
     public boolean equals(Object o)
@@ -733,7 +767,7 @@ public class QueueTracker
       if (!(o instanceof PriorityKey))
         return false;
       PriorityKey p = (PriorityKey)o;
-      if (binNames.length != p.binNames.length)
+      if (hashCode != p.hashCode || binNames.length != p.binNames.length)
         return false;
       int i = 0;
       while (i < binNames.length)
@@ -746,48 +780,65 @@ public class QueueTracker
     }
   }
 
-  /** This is the class which allows a mutable integer count value to be saved in the bincount table.
+  /** This is the class which allows a mutable integer count value to be saved in the concurrent bincount tables.
+  * An empty counter is retired before it is removed from its table, so that an increment made by another thread
+  * in the meantime is not lost.
   */
   protected static class BinCount
   {
+    /** Value marking a retired counter */
+    protected final static int RETIRED = -1;
+
     /** The count */
-    protected int count = 0;
+    protected final AtomicInteger count = new AtomicInteger(0);
 
     /** Create */
     public BinCount()
     {
     }
 
-    public BinCount duplicate()
+    /** Increment the counter.
+    *@return false if the counter has been retired, in which case it must be replaced.
+    */
+    public boolean increment()
     {
-      BinCount rval = new BinCount();
-      rval.count = this.count;
-      return rval;
-    }
-
-    /** Increment the counter */
-    public void increment()
-    {
-      count++;
+      while (true)
+      {
+        int current = count.get();
+        if (current == RETIRED)
+          return false;
+        if (count.compareAndSet(current,current+1))
+          return true;
+      }
     }
 
-    /** Decrement the counter, returning true if empty */
-    public boolean decrement()
+    /** Decrement the counter, if it is above zero.
+    */
+    public void decrement()
     {
-      count--;
-      return count == 0;
+      while (true)
+      {
+        int current = count.get();
+        if (current <= 0)
+          return;
+        if (count.compareAndSet(current,current-1))
+          return;
+      }
     }
 
-    /** Set the counter value */
-    public void setValue(int count)
+    /** Retire the counter, if it is empty.
+    *@return true if the counter was retired.
+    */
+    public boolean retire()
     {
-      this.count = count;
+      return count.compareAndSet(0,RETIRED) || count.get() == RETIRED;
     }
 
     /** Get the counter value */
     public int getValue()
     {
-      return count;
+      int current = count.get();
+      return (current == RETIRED)?0:current;
     }
   }
 
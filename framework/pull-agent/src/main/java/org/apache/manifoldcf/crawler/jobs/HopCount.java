@@ -140,6 +140,19 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     markMap.put("D",new Integer(MARK_DELETING));
   }
 
+  /** The number of queued rows at which a job's queue is processed all at once, from a snapshot of the link graph.
+  * 0 means never. */
+  public static final String graphThresholdProperty = "org.apache.manifoldcf.crawler.hopcount.graphthreshold";
+
+  /** The largest number of links a job may have for its queue to be processed from a snapshot.  The snapshot is
+  * read and written in a single transaction, so this bounds how long that transaction can run. */
+  public static final String graphMaxLinksProperty = "org.apache.manifoldcf.crawler.hopcount.graphmaxlinks";
+
+  /** The number of key ranges the link graph and hopcount rows are read in, when working from a snapshot */
+  protected static final int SNAPSHOT_RANGES = 256;
+  /** The number of rows written at a time, when working from a snapshot */
+  protected static final int SNAPSHOT_BATCH_SIZE = 1000;
+
   /** Intrinsic link table manager. */
   protected IntrinsicLink intrinsicLinkManager;
   /** Hop "delete" dependencies manager */
@@ -147,6 +160,11 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Thread context */
   protected IThreadContext threadContext;
+
+  /** Queue size at which we switch to snapshot processing */
+  protected int graphThreshold;
+  /** Link count above which we never use snapshot processing */
+  protected int graphMaxLinks;
   
   /** Constructor.
   *@param database is the database handle.
@@ -158,6 +176,8 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     this.threadContext = tc;
     intrinsicLinkManager = new IntrinsicLink(database);
     deleteDepsManager = new HopDeleteDeps(database);
+    graphThreshold = ManifoldCF.getIntProperty(graphThresholdProperty,10000);
+    graphMaxLinks = ManifoldCF.getIntProperty(graphMaxLinksProperty,100000);
   }
 
   /** Install or upgrade.
@@ -592,15 +612,29 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Process a stage of the propagation queue for a job.
   *@param jobID is the job we need to have the hopcount propagated for.
+  *@param allowSnapshot is false if the queue must be processed incrementally, e.g. because a snapshot
+  * calculation was just rolled back.
   *@return true if the queue is empty.
   */
-  public boolean processQueue(Long jobID, String[] legalLinkTypes, int hopcountMethod)
+  public boolean processQueue(Long jobID, String[] legalLinkTypes, int hopcountMethod, boolean allowSnapshot)
     throws ManifoldCFException
   {
     // We can't instantiate the DocumentHash object here, because it will wind up having
     // cached in it the answers from the previous round of calculation.  That round had
     // a different set of marked nodes than the current round.
 
+    // When a great deal has changed, it is far cheaper to work out every distance for the job at once
+    // than to propagate the changes a few hundred rows at a time.  This is only possible when the cached
+    // distances are supposed to be exact, since otherwise they depend on the order in which things happened.
+    // The whole calculation happens in the caller's transaction, so it is only done for graphs small enough
+    // to be read and rewritten in one go.
+    if (allowSnapshot && graphThreshold > 0 && hopcountMethod == IJobDescription.HOPCOUNT_ACCURATE &&
+      isQueueAtLeast(jobID,graphThreshold) && !isLinkCountAbove(jobID,graphMaxLinks))
+    {
+      recalculateFromGraph(jobID,legalLinkTypes,hopcountMethod);
+      return true;
+    }
+
     ArrayList list = new ArrayList();
 
     // Pick off up to n queue items at a time.  We don't want to pick off too many (because
@@ -646,6 +680,181 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     return false;
   }
 
+  /** Check whether a job has at least a given number of queued rows.
+  */
+  protected boolean isQueueAtLeast(Long jobID, int count)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new UnitaryClause(markForDeathField,markToString(MARK_QUEUED))});
+    IResultSet set = performQuery("SELECT "+idField+" FROM "+getTableName()+" WHERE "+query+" "+
+      constructOffsetLimitClause(count-1,1),list,null,null,1);
+    return set.getRowCount() > 0;
+  }
+
+  /** Check whether a job has more than a given number of intrinsic links.
+  */
+  protected boolean isLinkCountAbove(Long jobID, int count)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(intrinsicLinkManager.jobIDField,jobID)});
+    IResultSet set = performQuery("SELECT "+intrinsicLinkManager.childIDHashField+" FROM "+intrinsicLinkManager.getTableName()+
+      " WHERE "+query+" "+constructOffsetLimitClause(count,1),list,null,null,1);
+    if (set.getRowCount() == 0)
+      return false;
+    if (Logging.hopcount.isDebugEnabled())
+      Logging.hopcount.debug("Job "+jobID+" has more than "+Integer.toString(count)+" links; processing its hopcount queue incrementally");
+    return true;
+  }
+
+  /** Recalculate every hopcount row for a job, from an in-memory snapshot of its link graph.
+  * The distances written are the ones the queue would have converged on: the exact distance from the root
+  * for each link type, with the links on the shortest path as delete dependencies.  Rows for documents that
+  * can't be reached are removed, rows for reachable documents that had none are created, and nothing is
+  * left on the queue.
+  */
+  protected void recalculateFromGraph(Long jobID, String[] legalLinkTypes, int hopcountMethod)
+    throws ManifoldCFException
+  {
+    long startTime = System.currentTimeMillis();
+
+    // Read the graph, one key range at a time so no single result set is enormous
+    HopCountGraph graph = new HopCountGraph();
+    for (int range = 0; range < SNAPSHOT_RANGES; range++)
+    {
+      readGraphRange(graph,jobID,range);
+    }
+
+    Map<String,Integer> linkTypeMap = new HashMap<String,Integer>();
+    HopCountGraph.Distances[] distances = new HopCountGraph.Distances[legalLinkTypes.length];
+    for (int j = 0; j < legalLinkTypes.length; j++)
+    {
+      linkTypeMap.put(legalLinkTypes[j],new Integer(j));
+      distances[j] = graph.calculateDistances(legalLinkTypes[j]);
+    }
+
+    if (Logging.hopcount.isDebugEnabled())
+      Logging.hopcount.debug("Calculated hopcount snapshot for job "+jobID+": "+Integer.toString(graph.getNodeCount())+" documents, "+
+        Integer.toString(graph.getLinkCount())+" links ("+new Long(System.currentTimeMillis()-startTime).toString()+" ms)");
+
+    // Bring the existing rows into line, noting which documents had them
+    boolean[][] seen = new boolean[legalLinkTypes.length][graph.getNodeCount()];
+    SnapshotWriter writer = new SnapshotWriter(jobID,hopcountMethod);
+    for (int range = 0; range < SNAPSHOT_RANGES; range++)
+    {
+      reconcileRange(writer,graph,distances,linkTypeMap,seen,jobID,range);
+    }
+
+    // Create rows for the reachable documents that had none
+    for (int j = 0; j < legalLinkTypes.length; j++)
+    {
+      for (int node = 0; node < graph.getNodeCount(); node++)
+      {
+        if (node == HopCountGraph.ROOT_NODE || seen[j][node])
+          continue;
+        int distance = distances[j].getDistance(node);
+        if (distance != ANSWER_INFINITY)
+          writer.insert(graph.getNodeHash(node),legalLinkTypes[j],distance,distances[j].getDeleteDependencies(node));
+      }
+    }
+    writer.flush();
+
+    if (Logging.hopcount.isDebugEnabled())
+      Logging.hopcount.debug("Wrote hopcount snapshot for job "+jobID+": "+Integer.toString(writer.getInsertCount())+" inserted, "+
+        Integer.toString(writer.getUpdateCount())+" updated, "+Integer.toString(writer.getDeleteCount())+" deleted ("+
+        new Long(System.currentTimeMillis()-startTime).toString()+" ms)");
+  }
+
+  /** Build the clauses selecting one key range of a document identifier hash column.
+  * The ranges are split on the first two characters of the hash, and together cover every possible value.
+  */
+  protected static List<ClauseDescription> rangeClauses(String column, int range)
+  {
+    List<ClauseDescription> rval = new ArrayList<ClauseDescription>();
+    if (range > 0)
+      rval.add(new UnitaryClause(column,">=",rangeBound(range)));
+    if (range < SNAPSHOT_RANGES - 1)
+      rval.add(new UnitaryClause(column,"<",rangeBound(range+1)));
+    return rval;
+  }
+
+  protected static String rangeBound(int range)
+  {
+    String rval = Integer.toHexString(range).toUpperCase(Locale.ROOT);
+    if (rval.length() < 2)
+      rval = "0" + rval;
+    return rval;
+  }
+
+  /** Read the links whose targets fall in a key range into the graph.
+  */
+  protected void readGraphRange(HopCountGraph graph, Long jobID, int range)
+    throws ManifoldCFException
+  {
+    List<ClauseDescription> clauses = rangeClauses(intrinsicLinkManager.parentIDHashField,range);
+    clauses.add(0,new UnitaryClause(intrinsicLinkManager.jobIDField,jobID));
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,clauses.toArray(new ClauseDescription[0]));
+    IResultSet set = performQuery("SELECT "+intrinsicLinkManager.childIDHashField+","+intrinsicLinkManager.linkTypeField+","+
+      intrinsicLinkManager.parentIDHashField+" FROM "+intrinsicLinkManager.getTableName()+" WHERE "+query,list,null,null);
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      IResultRow row = set.getRow(i);
+      graph.addLink((String)row.getValue(intrinsicLinkManager.childIDHashField),
+        (String)row.getValue(intrinsicLinkManager.parentIDHashField),
+        (String)row.getValue(intrinsicLinkManager.linkTypeField));
+    }
+  }
+
+  /** Compare the hopcount rows in a key range against the calculated distances, and fix any that differ.
+  */
+  protected void reconcileRange(SnapshotWriter writer, HopCountGraph graph, HopCountGraph.Distances[] distances,
+    Map<String,Integer> linkTypeMap, boolean[][] seen, Long jobID, int range)
+    throws ManifoldCFException
+  {
+    List<ClauseDescription> clauses = rangeClauses(parentIDHashField,range);
+    clauses.add(0,new UnitaryClause(jobIDField,jobID));
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,clauses.toArray(new ClauseDescription[0]));
+    IResultSet set = performQuery("SELECT "+idField+","+linkTypeField+","+parentIDHashField+","+distanceField+","+markForDeathField+
+      " FROM "+getTableName()+" WHERE "+query,list,null,null);
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      IResultRow row = set.getRow(i);
+      String linkType = (String)row.getValue(linkTypeField);
+      if (linkType == null)
+        linkType = "";
+      Integer linkTypeIndex = linkTypeMap.get(linkType);
+      if (linkTypeIndex == null)
+        continue;
+      int j = linkTypeIndex.intValue();
+      Long id = (Long)row.getValue(idField);
+      int node = graph.getNodeIndex((String)row.getValue(parentIDHashField));
+      if (node == -1)
+      {
+        writer.delete(id);
+        continue;
+      }
+      seen[j][node] = true;
+      int newDistance = distances[j].getDistance(node);
+      if (newDistance == ANSWER_INFINITY)
+      {
+        writer.delete(id);
+        continue;
+      }
+      Long oldDistance = (Long)row.getValue(distanceField);
+      String mark = (String)row.getValue(markForDeathField);
+      if (oldDistance != null && oldDistance.longValue() == (long)newDistance &&
+        mark != null && stringToMark(mark) == MARK_NORMAL)
+        continue;
+      writer.update(id,newDistance,distances[j].getDeleteDependencies(node));
+    }
+  }
+
   /** Calculate max clauses */
   protected int maxClausePerformFindMissingRecords(Long jobID, String[] affectedLinkTypes)
   {
@@ -782,7 +991,10 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     // distance against the distance estimate we would have given it.  If the new distance is LOWER, it gets left around
     // for queuing.
 
-    HashMap map = new HashMap();
+    // New rows, and their delete dependencies, are gathered up and written all at once.
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    List<Long> dependencyOwners = new ArrayList<Long>();
+    List<DeleteDependency> dependencies = new ArrayList<DeleteDependency>();
     for (int i = 0; i < documentIDHashes.length; i++)
     {
       String documentIDHash = documentIDHashes[i];
@@ -805,7 +1017,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           // The dependencies are the old dependencies, plus the one we are about to add.
           DeleteDependency dd = new DeleteDependency(linkType,documentIDHash,sourceDocumentIDHash);
           // Build a new answer, based on the starting answer and the kind of link this is.
-          map.clear();
+          Map<String,Object> map = new HashMap<String,Object>();
           Long hopCountID = new Long(IDFactory.make(threadContext));
           map.put(idField,hopCountID);
           map.put(parentIDHashField,q.getDocumentIdentifierHash());
@@ -818,16 +1030,16 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           map.put(markForDeathField,markToString(MARK_NORMAL));
           if (Logging.hopcount.isDebugEnabled())
             Logging.hopcount.debug("Inserting new record for '"+documentIDHash+"' linktype '"+affectedLinkType+"' distance "+Integer.toString(newAnswerValue)+" for job "+jobID);
-          performInsert(map,null);
-          noteModifications(1,0,0);
+          insertRows.add(map);
           if (hopcountMethod != IJobDescription.HOPCOUNT_NEVERDELETE)
           {
-            deleteDepsManager.writeDependency(hopCountID,jobID,dd);
+            dependencyOwners.add(hopCountID);
+            dependencies.add(dd);
             Iterator iter2 = startingAnswer.getDeleteDependencies();
             while (iter2.hasNext())
             {
-              dd = (DeleteDependency)iter2.next();
-              deleteDepsManager.writeDependency(hopCountID,jobID,dd);
+              dependencyOwners.add(hopCountID);
+              dependencies.add((DeleteDependency)iter2.next());
             }
           }
         }
@@ -849,6 +1061,13 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       }
     }
 
+    if (insertRows.size() > 0)
+    {
+      performInsertMultiple(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+      deleteDepsManager.writeDependencies(jobID,dependencyOwners,dependencies);
+    }
+
     // For all the records still in the matchmap, queue them.
 
     // The query I want to run is:
@@ -1796,6 +2015,181 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     }
   }
 
+  /** This class gathers up the changes produced by a snapshot recalculation, and writes them in batches:
+  * deletes and dependency rewrites by id list, updates grouped by distance, and inserts as multi-row inserts.
+  */
+  protected class SnapshotWriter
+  {
+    protected final Long jobID;
+    protected final boolean writeDependencies;
+    protected final int maxClause;
+
+    protected final List<Long> deleteIDs = new ArrayList<Long>();
+    protected final Map<Integer,List<Long>> updateIDs = new HashMap<Integer,List<Long>>();
+    protected final List<Long> updateDependencyOwners = new ArrayList<Long>();
+    protected final List<DeleteDependency> updateDependencies = new ArrayList<DeleteDependency>();
+    protected int pendingUpdates = 0;
+    protected final List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    protected final List<Long> insertDependencyOwners = new ArrayList<Long>();
+    protected final List<DeleteDependency> insertDependencies = new ArrayList<DeleteDependency>();
+
+    protected int deleteCount = 0;
+    protected int updateCount = 0;
+    protected int insertCount = 0;
+
+    public SnapshotWriter(Long jobID, int hopcountMethod)
+    {
+      this.jobID = jobID;
+      this.writeDependencies = (hopcountMethod != IJobDescription.HOPCOUNT_NEVERDELETE);
+      this.maxClause = findConjunctionClauseMax(new ClauseDescription[]{});
+    }
+
+    /** Remove a row, and its dependencies. */
+    public void delete(Long id)
+      throws ManifoldCFException
+    {
+      deleteIDs.add(id);
+      deleteCount++;
+      if (deleteIDs.size() >= maxClause)
+        flushDeletes();
+    }
+
+    /** Give a row a new distance and dependencies, and take it off the queue. */
+    public void update(Long id, int distance, List<DeleteDependency> dependencies)
+      throws ManifoldCFException
+    {
+      Integer key = new Integer(distance);
+      List<Long> ids = updateIDs.get(key);
+      if (ids == null)
+      {
+        ids = new ArrayList<Long>();
+        updateIDs.put(key,ids);
+      }
+      ids.add(id);
+      if (writeDependencies)
+      {
+        for (DeleteDependency dd : dependencies)
+        {
+          updateDependencyOwners.add(id);
+          updateDependencies.add(dd);
+        }
+      }
+      pendingUpdates++;
+      updateCount++;
+      if (pendingUpdates >= maxClause)
+        flushUpdates();
+    }
+
+    /** Create a row. */
+    public void insert(String parentIDHash, String linkType, int distance, List<DeleteDependency> dependencies)
+      throws ManifoldCFException
+    {
+      Long id = new Long(IDFactory.make(threadContext));
+      Map<String,Object> map = new HashMap<String,Object>();
+      map.put(idField,id);
+      map.put(jobIDField,jobID);
+      if (linkType.length() > 0)
+        map.put(linkTypeField,linkType);
+      map.put(parentIDHashField,parentIDHash);
+      map.put(distanceField,new Long((long)distance));
+      map.put(markForDeathField,markToString(MARK_NORMAL));
+      insertRows.add(map);
+      if (writeDependencies)
+      {
+        for (DeleteDependency dd : dependencies)
+        {
+          insertDependencyOwners.add(id);
+          insertDependencies.add(dd);
+        }
+      }
+      insertCount++;
+      if (insertRows.size() >= SNAPSHOT_BATCH_SIZE)
+        flushInserts();
+    }
+
+    /** Write everything still pending. */
+    public void flush()
+      throws ManifoldCFException
+    {
+      flushDeletes();
+      flushUpdates();
+      flushInserts();
+    }
+
+    public int getDeleteCount()
+    {
+      return deleteCount;
+    }
+
+    public int getUpdateCount()
+    {
+      return updateCount;
+    }
+
+    public int getInsertCount()
+    {
+      return insertCount;
+    }
+
+    protected void flushDeletes()
+      throws ManifoldCFException
+    {
+      if (deleteIDs.size() == 0)
+        return;
+      deleteDepsManager.deleteOwnerRows(deleteIDs.toArray(new Long[0]));
+      ArrayList list = new ArrayList();
+      String query = buildConjunctionClause(list,new ClauseDescription[]{
+        new MultiClause(idField,deleteIDs)});
+      performDelete("WHERE "+query,list,null);
+      noteModifications(0,0,deleteIDs.size());
+      deleteIDs.clear();
+    }
+
+    protected void flushUpdates()
+      throws ManifoldCFException
+    {
+      if (pendingUpdates == 0)
+        return;
+      List<Long> allIDs = new ArrayList<Long>();
+      for (Map.Entry<Integer,List<Long>> entry : updateIDs.entrySet())
+      {
+        List<Long> ids = entry.getValue();
+        Map map = new HashMap();
+        map.put(distanceField,new Long(entry.getKey().longValue()));
+        map.put(markForDeathField,markToString(MARK_NORMAL));
+        ArrayList list = new ArrayList();
+        String query = buildConjunctionClause(list,new ClauseDescription[]{
+          new MultiClause(idField,ids)});
+        performUpdate(map,"WHERE "+query,list,null);
+        allIDs.addAll(ids);
+      }
+      noteModifications(0,pendingUpdates,0);
+      if (writeDependencies)
+      {
+        // Replace the dependencies wholesale; most of them change anyway when a distance does
+        deleteDepsManager.deleteOwnerRows(allIDs.toArray(new Long[0]));
+        deleteDepsManager.writeDependencies(jobID,updateDependencyOwners,updateDependencies);
+      }
+      updateIDs.clear();
+      updateDependencyOwners.clear();
+      updateDependencies.clear();
+      pendingUpdates = 0;
+    }
+
+    protected void flushInserts()
+      throws ManifoldCFException
+    {
+      if (insertRows.size() == 0)
+        return;
+      performInsertMultiple(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+      deleteDepsManager.writeDependencies(jobID,insertDependencyOwners,insertDependencies);
+      insertRows.clear();
+      insertDependencyOwners.clear();
+      insertDependencies.clear();
+    }
+  }
+
   /** A class describing a document identifier and a link type, to be used in looking up the appropriate node in
   * the hash.
   */
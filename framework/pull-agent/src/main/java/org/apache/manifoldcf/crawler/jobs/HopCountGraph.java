@@ -0,0 +1,303 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+
+/** This class holds an in-memory snapshot of a job's intrinsic link graph, and calculates exact hopcount
+* distances from it in one pass.
+*
+* The conventions are the same as for the hopcount tables: a link goes from a "child" (the source document)
+* to a "parent" (the target document), and a child identifier hash of "" means the root.  The distance of a
+* document for a given link type is the smallest number of links of that type on any path from the root;
+* links of other types are traversed for free.  That makes each calculation a breadth-first search with
+* 0/1 link weights, which visits each link at most twice.
+*
+* Along with each distance, the search records the link by which the document was reached, so that the
+* full set of delete dependencies for the document (the links on its shortest path) can be produced on
+* demand, just as the incremental algorithm in HopCount records them.
+*/
+public class HopCountGraph
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The index of the root node */
+  public static final int ROOT_NODE = 0;
+
+  // Node identifier hashes and their indexes
+  protected final Map<String,Integer> nodeIndexes = new HashMap<String,Integer>();
+  protected String[] nodeHashes = new String[1024];
+  protected int nodeCount = 0;
+
+  // Link types and their indexes
+  protected final Map<String,Integer> linkTypeIndexes = new HashMap<String,Integer>();
+  protected final List<String> linkTypes = new ArrayList<String>();
+
+  // The links, as parallel arrays
+  protected int[] linkChildren = new int[1024];
+  protected int[] linkParents = new int[1024];
+  protected int[] linkTypeIDs = new int[1024];
+  protected int linkCount = 0;
+
+  // Outgoing links by child node, built when first needed: the links for node n are
+  // adjacentLinks[firstLink[n]] through adjacentLinks[firstLink[n+1]-1].
+  protected int[] firstLink = null;
+  protected int[] adjacentLinks = null;
+
+  /** Constructor.
+  */
+  public HopCountGraph()
+  {
+    getOrAddNode("");
+  }
+
+  /** Add a link to the graph.
+  *@param childIDHash is the source document identifier hash, or "" or null for the root.
+  *@param parentIDHash is the target document identifier hash.
+  *@param linkType is the link type, or "" or null for none.
+  */
+  public void addLink(String childIDHash, String parentIDHash, String linkType)
+  {
+    if (childIDHash == null)
+      childIDHash = "";
+    if (linkType == null)
+      linkType = "";
+    if (linkCount == linkChildren.length)
+    {
+      int newSize = linkCount * 2;
+      linkChildren = grow(linkChildren,newSize);
+      linkParents = grow(linkParents,newSize);
+      linkTypeIDs = grow(linkTypeIDs,newSize);
+    }
+    linkChildren[linkCount] = getOrAddNode(childIDHash);
+    linkParents[linkCount] = getOrAddNode(parentIDHash);
+    linkTypeIDs[linkCount] = getOrAddLinkType(linkType);
+    linkCount++;
+    firstLink = null;
+    adjacentLinks = null;
+  }
+
+  /** Get the number of nodes, including the root.
+  */
+  public int getNodeCount()
+  {
+    return nodeCount;
+  }
+
+  /** Get the number of links.
+  */
+  public int getLinkCount()
+  {
+    return linkCount;
+  }
+
+  /** Look up a node.
+  *@param documentIDHash is the document identifier hash.
+  *@return the node index, or -1 if the document does not appear in the graph.
+  */
+  public int getNodeIndex(String documentIDHash)
+  {
+    Integer index = nodeIndexes.get(documentIDHash);
+    if (index == null)
+      return -1;
+    return index.intValue();
+  }
+
+  /** Get the document identifier hash of a node.
+  */
+  public String getNodeHash(int node)
+  {
+    return nodeHashes[node];
+  }
+
+  /** Calculate the distance of every node from the root, counting links of the given type.
+  *@param linkType is the link type to count.
+  *@return the distances.
+  */
+  public Distances calculateDistances(String linkType)
+  {
+    buildAdjacency();
+    Integer linkTypeIndex = linkTypeIndexes.get(linkType);
+    // A link type that never occurs can't add anything to a distance
+    int countedType = (linkTypeIndex == null)?-1:linkTypeIndex.intValue();
+
+    int[] distance = new int[nodeCount];
+    int[] viaLink = new int[nodeCount];
+    Arrays.fill(distance,HopCount.ANSWER_INFINITY);
+    Arrays.fill(viaLink,-1);
+    distance[ROOT_NODE] = 0;
+
+    // A double-ended queue of nodes: free links go on the front, counted links on the back, so that
+    // nodes come off in order of distance.  A node may be queued more than once; stale entries are
+    // recognized because their distance has since improved.
+    int[] queueNodes = new int[Math.max(16,nodeCount)];
+    int[] queueDistances = new int[queueNodes.length];
+    int head = 0;
+    int size = 0;
+    queueNodes[0] = ROOT_NODE;
+    queueDistances[0] = 0;
+    size = 1;
+
+    while (size > 0)
+    {
+      int node = queueNodes[head];
+      int nodeDistance = queueDistances[head];
+      head = (head + 1) % queueNodes.length;
+      size--;
+      if (nodeDistance != distance[node])
+        continue;
+      for (int i = firstLink[node]; i < firstLink[node+1]; i++)
+      {
+        int link = adjacentLinks[i];
+        int target = linkParents[link];
+        boolean counted = (linkTypeIDs[link] == countedType);
+        int targetDistance = counted?nodeDistance+1:nodeDistance;
+        if (distance[target] != HopCount.ANSWER_INFINITY && distance[target] <= targetDistance)
+          continue;
+        distance[target] = targetDistance;
+        viaLink[target] = link;
+        if (size == queueNodes.length)
+        {
+          // Unroll the ring into a bigger one
+          int[] newNodes = new int[queueNodes.length * 2];
+          int[] newDistances = new int[newNodes.length];
+          for (int j = 0; j < size; j++)
+          {
+            int k = (head + j) % queueNodes.length;
+            newNodes[j] = queueNodes[k];
+            newDistances[j] = queueDistances[k];
+          }
+          queueNodes = newNodes;
+          queueDistances = newDistances;
+          head = 0;
+        }
+        int slot;
+        if (counted)
+          slot = (head + size) % queueNodes.length;
+        else
+        {
+          head = (head + queueNodes.length - 1) % queueNodes.length;
+          slot = head;
+        }
+        queueNodes[slot] = target;
+        queueDistances[slot] = targetDistance;
+        size++;
+      }
+    }
+    return new Distances(distance,viaLink);
+  }
+
+  /** Build the outgoing link index, if needed.
+  */
+  protected void buildAdjacency()
+  {
+    if (firstLink != null)
+      return;
+    int[] starts = new int[nodeCount + 1];
+    for (int i = 0; i < linkCount; i++)
+    {
+      starts[linkChildren[i] + 1]++;
+    }
+    for (int i = 0; i < nodeCount; i++)
+    {
+      starts[i + 1] += starts[i];
+    }
+    int[] fill = new int[nodeCount];
+    System.arraycopy(starts,0,fill,0,nodeCount);
+    int[] links = new int[linkCount];
+    for (int i = 0; i < linkCount; i++)
+    {
+      links[fill[linkChildren[i]]++] = i;
+    }
+    firstLink = starts;
+    adjacentLinks = links;
+  }
+
+  protected int getOrAddNode(String documentIDHash)
+  {
+    Integer index = nodeIndexes.get(documentIDHash);
+    if (index != null)
+      return index.intValue();
+    if (nodeCount == nodeHashes.length)
+    {
+      String[] newHashes = new String[nodeCount * 2];
+      System.arraycopy(nodeHashes,0,newHashes,0,nodeCount);
+      nodeHashes = newHashes;
+    }
+    nodeHashes[nodeCount] = documentIDHash;
+    nodeIndexes.put(documentIDHash,new Integer(nodeCount));
+    return nodeCount++;
+  }
+
+  protected int getOrAddLinkType(String linkType)
+  {
+    Integer index = linkTypeIndexes.get(linkType);
+    if (index != null)
+      return index.intValue();
+    int rval = linkTypes.size();
+    linkTypes.add(linkType);
+    linkTypeIndexes.put(linkType,new Integer(rval));
+    return rval;
+  }
+
+  protected static int[] grow(int[] array, int newSize)
+  {
+    int[] rval = new int[newSize];
+    System.arraycopy(array,0,rval,0,array.length);
+    return rval;
+  }
+
+  /** The result of a distance calculation for one link type.
+  */
+  public class Distances
+  {
+    protected final int[] distance;
+    protected final int[] viaLink;
+
+    public Distances(int[] distance, int[] viaLink)
+    {
+      this.distance = distance;
+      this.viaLink = viaLink;
+    }
+
+    /** Get the distance of a node.
+    *@return the distance, or ANSWER_INFINITY if the node cannot be reached.
+    */
+    public int getDistance(int node)
+    {
+      return distance[node];
+    }
+
+    /** Get the delete dependencies of a node: the links on the path by which its distance was found.
+    *@return the dependencies, starting with the link into the node itself.  Empty for unreachable nodes.
+    */
+    public List<DeleteDependency> getDeleteDependencies(int node)
+    {
+      List<DeleteDependency> rval = new ArrayList<DeleteDependency>();
+      int link = viaLink[node];
+      while (link != -1)
+      {
+        rval.add(new DeleteDependency(linkTypes.get(linkTypeIDs[link]),nodeHashes[linkParents[link]],nodeHashes[linkChildren[link]]));
+        link = viaLink[linkChildren[link]];
+      }
+      return rval;
+    }
+  }
+
+}
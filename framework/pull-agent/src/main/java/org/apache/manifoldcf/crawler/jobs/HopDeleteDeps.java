@@ -241,4 +241,34 @@ public class HopDeleteDeps extends org.apache.manifoldcf.core.database.BaseTable
     noteModifications(1,0,0);
   }
 
+  /** Write many delete dependencies at once.
+  *@param jobID is the job identifier.
+  *@param ownerIDs are the owning hopcount row IDs, parallel to the dependencies.
+  *@param dds are the delete dependencies.
+  */
+  public void writeDependencies(Long jobID, List<Long> ownerIDs, List<DeleteDependency> dds)
+    throws ManifoldCFException
+  {
+    if (dds.size() == 0)
+      return;
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    for (int i = 0; i < dds.size(); i++)
+    {
+      DeleteDependency dd = dds.get(i);
+      Map<String,Object> map = new HashMap<String,Object>();
+      map.put(jobIDField,jobID);
+      map.put(ownerIDField,ownerIDs.get(i));
+      if (dd.getLinkType().length() > 0)
+        map.put(linkTypeField,dd.getLinkType());
+      map.put(parentIDHashField,dd.getParentIDHash());
+      if (dd.getChildIDHash().length() > 0)
+      {
+        map.put(childIDHashField,dd.getChildIDHash());
+      }
+      rows.add(map);
+    }
+    performInsertMultiple(rows,null);
+    noteModifications(rows.size(),0,0);
+  }
+
 }
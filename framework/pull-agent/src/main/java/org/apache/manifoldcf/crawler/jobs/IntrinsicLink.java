@@ -238,7 +238,9 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
     }
     String[] newReferences = new String[count];
     int j = 0;
-    // Note: May be able to make this more efficient if we update things in batches...
+    // Insert the new links all at once, and flip the existing ones with as few updates as possible
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    ArrayList updateList = new ArrayList();
     iter = duplicateRemoval.keySet().iterator();
     while (iter.hasNext())
     {
@@ -247,32 +249,51 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
       if (presentMap.get(targetDocumentIDHash) == null)
       {
         newReferences[j++] = targetDocumentIDHash;
-        HashMap map = new HashMap();
+        Map<String,Object> map = new HashMap<String,Object>();
         map.put(jobIDField,jobID);
         map.put(parentIDHashField,targetDocumentIDHash);
         map.put(childIDHashField,sourceDocumentIDHash);
         map.put(linkTypeField,linkType);
         map.put(newField,statusToString(LINKSTATUS_NEW));
-        performInsert(map,null);
-        noteModifications(1,0,0);
+        insertRows.add(map);
       }
       else
       {
-        HashMap map = new HashMap();
-        map.put(newField,statusToString(LINKSTATUS_EXISTING));
-        ArrayList updateList = new ArrayList();
-        String query = buildConjunctionClause(updateList,new ClauseDescription[]{
-          new UnitaryClause(jobIDField,jobID),
-          new UnitaryClause(parentIDHashField,targetDocumentIDHash),
-          new UnitaryClause(linkTypeField,linkType),
-          new UnitaryClause(childIDHashField,sourceDocumentIDHash)});
-        performUpdate(map,"WHERE "+query,updateList,null);
-        noteModifications(0,1,0);
+        if (updateList.size() == maxClause)
+        {
+          performMarkExisting(jobID,linkType,sourceDocumentIDHash,updateList);
+          updateList.clear();
+        }
+        updateList.add(targetDocumentIDHash);
       }
     }
+    if (updateList.size() > 0)
+      performMarkExisting(jobID,linkType,sourceDocumentIDHash,updateList);
+    if (insertRows.size() > 0)
+    {
+      performInsertMultiple(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
     return newReferences;
   }
 
+  /** Mark a batch of existing links as "existing".
+  */
+  protected void performMarkExisting(Long jobID, String linkType, String childIDHash, ArrayList list)
+    throws ManifoldCFException
+  {
+    HashMap map = new HashMap();
+    map.put(newField,statusToString(LINKSTATUS_EXISTING));
+    ArrayList updateList = new ArrayList();
+    String query = buildConjunctionClause(updateList,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new MultiClause(parentIDHashField,list),
+      new UnitaryClause(linkTypeField,linkType),
+      new UnitaryClause(childIDHashField,childIDHash)});
+    performUpdate(map,"WHERE "+query,updateList,null);
+    noteModifications(0,list.size(),0);
+  }
+
   /** Calculate the max clauses for the exists check
   */
   protected int maxClausePerformExistsCheck(Long jobID, String linkType, String childIDHash)
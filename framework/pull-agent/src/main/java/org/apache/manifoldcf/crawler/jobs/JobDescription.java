@@ -22,6 +22,7 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import java.util.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
 /** This is a paper object describing a job.
 * Each job in the lcf framework has:
@@ -34,7 +35,7 @@ import java.util.*;
 * Also remember that since incremental deletion must occur on a job-by-job basis, the scanning data also records the job that
 * performed the scan, so that each job can rescan previous ingested data, and delete documents that have been removed.
 */
-public class JobDescription implements IJobDescription
+public class JobDescription implements IJobDescription, ICacheSizeEstimate
 {
   public static final String _rcsid = "@(#)$Id: JobDescription.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -82,6 +83,32 @@ public class JobDescription implements IJobDescription
   protected boolean readOnly = false;
 
 
+  /** Estimate the memory this job description occupies, so that cached jobs count against the
+  * cache memory budget in proportion to their specifications.  Schedule records are counted as
+  * one small object per field.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    long rval = GeneralCache.SMALL_OBJECT_SIZE * 4L + GeneralCache.estimateSize(description) +
+      GeneralCache.estimateSize(outputConnectionName) + GeneralCache.estimateSize(connectionName) +
+      outputSpecification.getEstimatedSize() + documentSpecification.getEstimatedSize();
+    rval += (long)scheduleList.getRecordCount() * GeneralCache.SMALL_OBJECT_SIZE * 8L;
+    rval += (long)hopCountFilters.size() * GeneralCache.SMALL_OBJECT_SIZE * 2L;
+    Iterator<Map.Entry<String,Set<String>>> iter = forcedMetadata.entrySet().iterator();
+    while (iter.hasNext())
+    {
+      Map.Entry<String,Set<String>> entry = iter.next();
+      rval += GeneralCache.SMALL_OBJECT_SIZE * 2L + GeneralCache.estimateSize(entry.getKey());
+      Iterator<String> valueIter = entry.getValue().iterator();
+      while (valueIter.hasNext())
+      {
+        rval += GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(valueIter.next());
+      }
+    }
+    return rval;
+  }
+
   /** Duplicate method, with optional "readonly" flag.
   */
   public JobDescription duplicate(boolean readOnly)
@@ -3447,6 +3447,69 @@ public class JobManager implements IJobManager
     return map;
   }
 
+  /** Find and lock the existing jobqueue rows for a set of documents, in bulk.
+  *@param jobID is the job identifier.
+  *@param docIDHashes are the document identifier hashes, sorted and without duplicates.
+  *@return a map from document identifier hash to the existing record, for those documents that have one.
+  */
+  protected Map<String,JobqueueRecord> findExistingJobqueueRecords(Long jobID, String[] docIDHashes)
+    throws ManifoldCFException
+  {
+    Map<String,JobqueueRecord> rval = new HashMap<String,JobqueueRecord>();
+    int maxClause = database.findConjunctionClauseMax(new ClauseDescription[]{
+      new UnitaryClause(jobQueue.jobIDField,jobID)});
+    List<String> list = new ArrayList<String>();
+    for (int i = 0; i < docIDHashes.length; i++)
+    {
+      if (list.size() == maxClause)
+      {
+        performFindExistingJobqueueRecords(rval,jobID,list);
+        list.clear();
+      }
+      list.add(docIDHashes[i]);
+    }
+    if (list.size() > 0)
+      performFindExistingJobqueueRecords(rval,jobID,list);
+    return rval;
+  }
+
+  /** Find and lock one batch of existing jobqueue rows.
+  */
+  protected void performFindExistingJobqueueRecords(Map<String,JobqueueRecord> rval, Long jobID, List<String> docIDHashes)
+    throws ManifoldCFException
+  {
+    StringBuilder sb = new StringBuilder("SELECT ");
+    ArrayList list = new ArrayList();
+
+    sb.append(jobQueue.idField).append(",")
+      .append(jobQueue.statusField).append(",")
+      .append(jobQueue.checkTimeField).append(",")
+      .append(jobQueue.docHashField)
+      .append(" FROM ").append(jobQueue.getTableName()).append(" WHERE ")
+      .append(database.buildConjunctionClause(list,new ClauseDescription[]{
+        new MultiClause(jobQueue.docHashField,docIDHashes),
+        new UnitaryClause(jobQueue.jobIDField,jobID)}));
+
+    // Lock in hash order.  Every caller hands us sorted hashes in sorted chunks, so all transactions
+    // acquire jobqueue row locks in the same global order, rather than whatever order the planner picks.
+    sb.append(" ORDER BY ").append(jobQueue.docHashField).append(" FOR UPDATE");
+
+    IResultSet set = database.performQuery(sb.toString(),list,null,null);
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      // Found a row, and it is now locked.
+      IResultRow row = set.getRow(i);
+
+      // Decode the row
+      Long rowID = (Long)row.getValue(jobQueue.idField);
+      int status = jobQueue.stringToStatus((String)row.getValue(jobQueue.statusField));
+      Long checkTimeValue = (Long)row.getValue(jobQueue.checkTimeField);
+      String docIDHash = (String)row.getValue(jobQueue.docHashField);
+
+      rval.put(docIDHash,new JobqueueRecord(rowID,status,checkTimeValue));
+    }
+  }
+
   /** Add an initial set of documents to the queue.
   * This method is called during job startup, when the queue is being loaded.
   * A set of document references is passed to this method, which updates the status of the document
@@ -3516,54 +3579,44 @@ public class JobManager implements IJobManager
           Logging.perf.debug("Waited "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to start adding "+Integer.toString(reorderedDocIDHashes.length)+
           " initial docs and hopcounts for job "+jobID.toString());
 
-        // Go through document id's one at a time, in order - mainly to prevent deadlock as much as possible.  Search for any existing row in jobqueue first (for update)
+        // Find and lock any existing rows in jobqueue, in order - mainly to prevent deadlock as much as possible.
+        Map<String,JobqueueRecord> existingRows = findExistingJobqueueRecords(jobID,reorderedDocIDHashes);
+
         boolean[] reorderedRval = new boolean[reorderedDocIDHashes.length];
-        int z = 0;
-        while (z < reorderedDocIDHashes.length)
+        long executeTime = overrideSchedule?0L:-1L;
+        List<Integer> insertIndexes = new ArrayList<Integer>();
+        for (int z = 0; z < reorderedDocIDHashes.length; z++)
         {
-          String docIDHash = reorderedDocIDHashes[z];
-          double docPriority = reorderedDocumentPriorities[z];
-          String docID = reorderedDocumentIdentifiers[z];
-          String[] docPrereqs = reorderedDocumentPrerequisites[z];
-
-          StringBuilder sb = new StringBuilder("SELECT ");
-          ArrayList list = new ArrayList();
-          
-          sb.append(jobQueue.idField).append(",")
-            .append(jobQueue.statusField).append(",")
-            .append(jobQueue.checkTimeField)
-            .append(" FROM ").append(jobQueue.getTableName()).append(" WHERE ")
-            .append(database.buildConjunctionClause(list,new ClauseDescription[]{
-              new UnitaryClause(jobQueue.docHashField,docIDHash),
-              new UnitaryClause(jobQueue.jobIDField,jobID)}));
-
-          sb.append(" FOR UPDATE");
-
-          IResultSet set = database.performQuery(sb.toString(),list,null,null);
-
-          boolean priorityUsed;
-          long executeTime = overrideSchedule?0L:-1L;
-
-          if (set.getRowCount() > 0)
+          JobqueueRecord jr = existingRows.get(reorderedDocIDHashes[z]);
+          if (jr != null)
           {
             // Found a row, and it is now locked.
-            IResultRow row = set.getRow(0);
-
-            // Decode the row
-            Long rowID = (Long)row.getValue(jobQueue.idField);
-            int status = jobQueue.stringToStatus((String)row.getValue(jobQueue.statusField));
-            Long checkTimeValue = (Long)row.getValue(jobQueue.checkTimeField);
-
-            priorityUsed = jobQueue.updateExistingRecordInitial(rowID,status,checkTimeValue,executeTime,currentTime,docPriority,docPrereqs);
+            reorderedRval[z] = jobQueue.updateExistingRecordInitial(jr.getRecordID(),jr.getStatus(),jr.getCheckTimeValue(),
+              executeTime,currentTime,reorderedDocumentPriorities[z],reorderedDocumentPrerequisites[z]);
           }
           else
           {
-            // Not found.  Attempt an insert instead.  This may fail due to constraints, but if this happens, the whole transaction will be retried.
-            jobQueue.insertNewRecordInitial(jobID,docIDHash,docID,docPriority,executeTime,currentTime,docPrereqs);
-            priorityUsed = true;
+            insertIndexes.add(new Integer(z));
+            reorderedRval[z] = true;
           }
+        }
 
-          reorderedRval[z++] = priorityUsed;
+        // Insert all the rows that weren't found.  This may fail due to constraints, but if this happens, the whole transaction will be retried.
+        if (insertIndexes.size() > 0)
+        {
+          String[] insertHashes = new String[insertIndexes.size()];
+          String[] insertIDs = new String[insertIndexes.size()];
+          double[] insertPriorities = new double[insertIndexes.size()];
+          String[][] insertPrereqs = new String[insertIndexes.size()][];
+          for (int y = 0; y < insertHashes.length; y++)
+          {
+            int z = insertIndexes.get(y).intValue();
+            insertHashes[y] = reorderedDocIDHashes[z];
+            insertIDs[y] = reorderedDocumentIdentifiers[z];
+            insertPriorities[y] = reorderedDocumentPriorities[z];
+            insertPrereqs[y] = reorderedDocumentPrerequisites[z];
+          }
+          jobQueue.insertNewRecordsInitial(jobID,insertHashes,insertIDs,insertPriorities,executeTime,currentTime,insertPrereqs);
         }
 
         if (Logging.perf.isDebugEnabled())
@@ -3814,6 +3867,10 @@ public class JobManager implements IJobManager
     // Make an answer array.
     boolean[] rval = new boolean[docIDHashes.length];
 
+    // Once a transaction has been aborted, stick to small incremental steps, so that we cannot keep losing
+    // an entire snapshot calculation to serialization failures.
+    boolean allowSnapshot = true;
+
     // Make a hash of what we still need a definitive answer for.
     HashMap badAnswers = new HashMap();
     int i = 0;
@@ -3888,7 +3945,7 @@ public class JobManager implements IJobManager
 
           // The internal queue processing only does 200 at a time.  This is a compromise between maximum efficiency (bigger number)
           // and the requirement that database writes are effectively blocked for a while (which argues for a smaller number).
-          boolean definitive = hopCount.processQueue(jobID,legalLinkTypes,hopcountMethod);
+          boolean definitive = hopCount.processQueue(jobID,legalLinkTypes,hopcountMethod,allowSnapshot);
           // If definitive answers were not found, we leave the lock and go back to check on the status of the questions we were
           // interested in.  If the answers are all OK then we are done; if not, we need to process more queue, and keep doing that
           // until we really ARE done.
@@ -3911,6 +3968,7 @@ public class JobManager implements IJobManager
           {
             if (Logging.perf.isDebugEnabled())
               Logging.perf.debug("Aborted transaction processing queue for job "+jobID.toString()+": "+e.getMessage());
+            allowSnapshot = false;
             sleepAmt = getRandomAmount();
             continue;
           }
@@ -4125,48 +4183,31 @@ public class JobManager implements IJobManager
           Logging.perf.debug("Waited "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to start adding "+Integer.toString(reorderedDocIDHashes.length)+
           " docs and hopcounts for job "+jobID.toString()+" parent identifier hash "+parentIdentifierHash);
 
-        // Go through document id's one at a time, in order - mainly to prevent deadlock as much as possible.  Search for any existing row in jobqueue first (for update)
-        HashMap existingRows = new HashMap();
+        // Find and lock any existing rows in jobqueue, in order - mainly to prevent deadlock as much as possible.
+        Map<String,JobqueueRecord> existingRows = findExistingJobqueueRecords(jobID,reorderedDocIDHashes);
 
+        // Insert all the rows that weren't found.  This may fail due to constraints, but if this happens, the whole transaction will be retried.
+        List<Integer> insertIndexes = new ArrayList<Integer>();
         for (int z = 0; z < reorderedDocIDHashes.length; z++)
         {
-          String docIDHash = reorderedDocIDHashes[z];
-
-          StringBuilder sb = new StringBuilder("SELECT ");
-          ArrayList list = new ArrayList();
-          
-          sb.append(jobQueue.idField).append(",")
-            .append(jobQueue.statusField).append(",")
-            .append(jobQueue.checkTimeField)
-            .append(" FROM ").append(jobQueue.getTableName()).append(" WHERE ")
-            .append(database.buildConjunctionClause(list,new ClauseDescription[]{
-              new UnitaryClause(jobQueue.docHashField,docIDHash),
-              new UnitaryClause(jobQueue.jobIDField,jobID)}));
-              
-          sb.append(" FOR UPDATE");
-              
-          IResultSet set = database.performQuery(sb.toString(),list,null,null);
-
-          boolean priorityUsed;
-
-          if (set.getRowCount() > 0)
-          {
-            // Found a row, and it is now locked.
-            IResultRow row = set.getRow(0);
-
-            // Decode the row
-            Long rowID = (Long)row.getValue(jobQueue.idField);
-            int status = jobQueue.stringToStatus((String)row.getValue(jobQueue.statusField));
-            Long checkTimeValue = (Long)row.getValue(jobQueue.checkTimeField);
-
-            existingRows.put(docIDHash,new JobqueueRecord(rowID,status,checkTimeValue));
-          }
-          else
+          if (existingRows.get(reorderedDocIDHashes[z]) == null)
+            insertIndexes.add(new Integer(z));
+        }
+        if (insertIndexes.size() > 0)
+        {
+          String[] insertHashes = new String[insertIndexes.size()];
+          String[] insertIDs = new String[insertIndexes.size()];
+          double[] insertPriorities = new double[insertIndexes.size()];
+          String[][] insertPrereqs = new String[insertIndexes.size()][];
+          for (int y = 0; y < insertHashes.length; y++)
           {
-            // Not found.  Attempt an insert instead.  This may fail due to constraints, but if this happens, the whole transaction will be retried.
-            jobQueue.insertNewRecord(jobID,docIDHash,reorderedDocumentIdentifiers[z],reorderedDocumentPriorities[z],0L,currentTime,reorderedDocumentPrerequisites[z]);
+            int z = insertIndexes.get(y).intValue();
+            insertHashes[y] = reorderedDocIDHashes[z];
+            insertIDs[y] = reorderedDocumentIdentifiers[z];
+            insertPriorities[y] = reorderedDocumentPriorities[z];
+            insertPrereqs[y] = reorderedDocumentPrerequisites[z];
           }
-
+          jobQueue.insertNewRecords(jobID,insertHashes,insertIDs,insertPriorities,0L,currentTime,insertPrereqs);
         }
 
         // Update all the carrydown data at once, for greatest efficiency.
@@ -4185,7 +4226,7 @@ public class JobManager implements IJobManager
         for (int z = 0; z < reorderedDocIDHashes.length; z++)
         {
           String docIDHash = reorderedDocIDHashes[z];
-          JobqueueRecord jr = (JobqueueRecord)existingRows.get(docIDHash);
+          JobqueueRecord jr = existingRows.get(docIDHash);
           if (jr == null)
             // It was an insert
             reorderedRval[z] = true;
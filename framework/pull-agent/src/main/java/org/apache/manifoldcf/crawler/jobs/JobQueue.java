@@ -1147,37 +1147,51 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     return rval;
   }
 
-  /** Insert a new record into the jobqueue table (as part of adding an initial reference).
+  /** Insert many new records into the jobqueue table at once (as part of adding initial references).
   *
   *@param jobID is the job identifier.
-  *@param docHash is the hash of the local document identifier.
-  *@param docID is the local document identifier.
+  *@param docHashes are the hashes of the local document identifiers.
+  *@param docIDs are the local document identifiers.
+  *@param desiredDocPriorities are the document priorities.
+  *@param prereqEvents are the prerequisite events for each document; entries may be null.
   */
-  public void insertNewRecordInitial(Long jobID, String docHash, String docID, double desiredDocPriority,
-    long desiredExecuteTime, long currentTime, String[] prereqEvents)
+  public void insertNewRecordsInitial(Long jobID, String[] docHashes, String[] docIDs, double[] desiredDocPriorities,
+    long desiredExecuteTime, long currentTime, String[][] prereqEvents)
     throws ManifoldCFException
   {
     // No prerequisites should be possible at this point.
-    HashMap map = new HashMap();
-    Long recordID = new Long(IDFactory.make(threadContext));
-    map.put(idField,recordID);
-    if (desiredExecuteTime == -1L)
-      map.put(checkTimeField,new Long(0L));
-    else
-      map.put(checkTimeField,new Long(desiredExecuteTime));
-    map.put(checkActionField,actionToString(ACTION_RESCAN));
-    map.put(jobIDField,jobID);
-    map.put(docHashField,docHash);
-    map.put(docIDField,docID);
-    map.put(statusField,statusToString(STATUS_PENDING));
-    map.put(isSeedField,seedstatusToString(SEEDSTATUS_NEWSEED));
-    // Set the document priority
-    map.put(docPriorityField,new Double(desiredDocPriority));
-    map.put(prioritySetField,new Long(currentTime));
-    performInsert(map,null);
-    prereqEventManager.addRows(recordID,prereqEvents);
-    noteModifications(1,0,0);
-    TrackerClass.noteRecordChange(recordID, STATUS_PENDING, "Create initial");
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    Long[] recordIDs = new Long[docHashes.length];
+    for (int i = 0; i < docHashes.length; i++)
+    {
+      Map<String,Object> map = new HashMap<String,Object>();
+      Long recordID = new Long(IDFactory.make(threadContext));
+      recordIDs[i] = recordID;
+      map.put(idField,recordID);
+      if (desiredExecuteTime == -1L)
+        map.put(checkTimeField,new Long(0L));
+      else
+        map.put(checkTimeField,new Long(desiredExecuteTime));
+      map.put(checkActionField,actionToString(ACTION_RESCAN));
+      map.put(jobIDField,jobID);
+      map.put(docHashField,docHashes[i]);
+      map.put(docIDField,docIDs[i]);
+      map.put(statusField,statusToString(STATUS_PENDING));
+      map.put(isSeedField,seedstatusToString(SEEDSTATUS_NEWSEED));
+      // Set the document priority
+      map.put(docPriorityField,new Double(desiredDocPriorities[i]));
+      map.put(prioritySetField,new Long(currentTime));
+      rows.add(map);
+    }
+    if (rows.size() == 0)
+      return;
+    performInsertMultiple(rows,null);
+    prereqEventManager.addRowsMultiple(recordIDs,prereqEvents);
+    noteModifications(rows.size(),0,0);
+    for (Long recordID : recordIDs)
+    {
+      TrackerClass.noteRecordChange(recordID, STATUS_PENDING, "Create initial");
+    }
   }
 
   /** Note the remaining documents that do NOT need to be queued.  These are noted so that the
@@ -1484,30 +1498,46 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     return rval;
   }
 
-  /** Insert a new record into the jobqueue table (as part of adding a child reference).
+  /** Insert many new records into the jobqueue table at once (as part of adding child references).
   *
+  *@param jobID is the job identifier.
+  *@param docIDHashes are the hashes of the local document identifiers.
+  *@param docIDs are the local document identifiers.
+  *@param desiredDocPriorities are the document priorities.
+  *@param prereqEvents are the prerequisite events for each document; entries may be null.
   */
-  public void insertNewRecord(Long jobID, String docIDHash, String docID, double desiredDocPriority, long desiredExecuteTime,
-    long currentTime, String[] prereqEvents)
+  public void insertNewRecords(Long jobID, String[] docIDHashes, String[] docIDs, double[] desiredDocPriorities,
+    long desiredExecuteTime, long currentTime, String[][] prereqEvents)
     throws ManifoldCFException
   {
-    HashMap map = new HashMap();
-    Long recordID = new Long(IDFactory.make(threadContext));
-    map.put(idField,recordID);
-    map.put(checkTimeField,new Long(desiredExecuteTime));
-    map.put(checkActionField,actionToString(ACTION_RESCAN));
-    map.put(jobIDField,jobID);
-    map.put(docHashField,docIDHash);
-    map.put(docIDField,docID);
-    map.put(statusField,statusToString(STATUS_PENDING));
-    // Be sure to set the priority also
-    map.put(docPriorityField,new Double(desiredDocPriority));
-    map.put(prioritySetField,new Long(currentTime));
-    performInsert(map,null);
-    prereqEventManager.addRows(recordID,prereqEvents);
-    noteModifications(1,0,0);
-    TrackerClass.noteRecordChange(recordID, STATUS_PENDING, "Create new");
-
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    Long[] recordIDs = new Long[docIDHashes.length];
+    for (int i = 0; i < docIDHashes.length; i++)
+    {
+      Map<String,Object> map = new HashMap<String,Object>();
+      Long recordID = new Long(IDFactory.make(threadContext));
+      recordIDs[i] = recordID;
+      map.put(idField,recordID);
+      map.put(checkTimeField,new Long(desiredExecuteTime));
+      map.put(checkActionField,actionToString(ACTION_RESCAN));
+      map.put(jobIDField,jobID);
+      map.put(docHashField,docIDHashes[i]);
+      map.put(docIDField,docIDs[i]);
+      map.put(statusField,statusToString(STATUS_PENDING));
+      // Be sure to set the priority also
+      map.put(docPriorityField,new Double(desiredDocPriorities[i]));
+      map.put(prioritySetField,new Long(currentTime));
+      rows.add(map);
+    }
+    if (rows.size() == 0)
+      return;
+    performInsertMultiple(rows,null);
+    prereqEventManager.addRowsMultiple(recordIDs,prereqEvents);
+    noteModifications(rows.size(),0,0);
+    for (Long recordID : recordIDs)
+    {
+      TrackerClass.noteRecordChange(recordID, STATUS_PENDING, "Create new");
+    }
   }
 
   // Methods to convert status strings to integers and back
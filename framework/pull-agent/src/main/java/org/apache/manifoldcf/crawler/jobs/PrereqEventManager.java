@@ -198,5 +198,32 @@ public class PrereqEventManager extends org.apache.manifoldcf.core.database.Base
     }
   }
 
+  /** Add rows for many owners at once.
+  *@param recordIDs are the owning jobqueue record IDs.
+  *@param eventNames are the event names for each record; any entry may be null.
+  */
+  public void addRowsMultiple(Long[] recordIDs, String[][] eventNames)
+    throws ManifoldCFException
+  {
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    for (int i = 0; i < recordIDs.length; i++)
+    {
+      String[] names = eventNames[i];
+      if (names == null)
+        continue;
+      for (String name : names)
+      {
+        Map<String,Object> map = new HashMap<String,Object>();
+        map.put(ownerField,recordIDs[i]);
+        map.put(eventNameField,name);
+        rows.add(map);
+      }
+    }
+    if (rows.size() == 0)
+      return;
+    performInsertMultiple(rows,null);
+    noteModifications(rows.size(),0,0);
+  }
+
 
 }
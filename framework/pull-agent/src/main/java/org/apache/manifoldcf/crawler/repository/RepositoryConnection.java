@@ -21,11 +21,12 @@ package org.apache.manifoldcf.crawler.repository;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import java.util.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
 
 /** An instance of this class represents a persistently-stored repository connection description.
 * This is the paper object meant for editing and manipulation.
 */
-public class RepositoryConnection implements IRepositoryConnection
+public class RepositoryConnection implements IRepositoryConnection, ICacheSizeEstimate
 {
   public static final String _rcsid = "@(#)$Id: RepositoryConnection.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -47,6 +48,30 @@ public class RepositoryConnection implements IRepositoryConnection
   {
   }
 
+  /** Estimate the memory this object occupies, so that cached connections count against the
+  * cache memory budget in proportion to their configuration.
+  *@return the approximate number of bytes.
+  */
+  public long getEstimatedSize()
+  {
+    return GeneralCache.SMALL_OBJECT_SIZE + GeneralCache.estimateSize(name) + GeneralCache.estimateSize(description) +
+      GeneralCache.estimateSize(className) + GeneralCache.estimateSize(authorityName) + configParams.getEstimatedSize() + getThrottlesEstimatedSize();
+  }
+
+  /** Estimate the memory the throttles occupy.
+  */
+  protected long getThrottlesEstimatedSize()
+  {
+    long rval = 0L;
+    Iterator iter = throttles.values().iterator();
+    while (iter.hasNext())
+    {
+      ThrottleItem ti = (ThrottleItem)iter.next();
+      rval += GeneralCache.SMALL_OBJECT_SIZE * 2L + GeneralCache.estimateSize(ti.getMatch()) + GeneralCache.estimateSize(ti.getDescription());
+    }
+    return rval;
+  }
+
   /** Clone this object.
   *@return the cloned object.
   */
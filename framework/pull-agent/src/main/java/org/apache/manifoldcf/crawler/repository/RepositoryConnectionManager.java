@@ -665,6 +665,20 @@ public class RepositoryConnectionManager extends org.apache.manifoldcf.core.data
     return historyManager.countHistoryRows(connectionName,criteria);
   }
 
+  /** Count the number of history rows a sliding-window report (activity count or byte count) would need to
+  * join.  This is zero when the report can be answered from the history rollups.
+  *@param connectionName is the name of the connection.
+  *@param criteria is the filtering criteria, which selects the records of interest.
+  *@param idBucket is the bucket description the report will use.
+  *@param interval is the window size the report will use.
+  *@return the number of rows the report would need to join.
+  */
+  public long countWindowedReportRows(String connectionName, FilterCriteria criteria, BucketDescription idBucket, long interval)
+    throws ManifoldCFException
+  {
+    return historyManager.countWindowedReportRows(connectionName,criteria,idBucket,interval);
+  }
+
   /** Get the maximum number of rows a window-based report can work with.
   *@return the maximum rows.
   */
@@ -19,10 +19,19 @@
 package org.apache.manifoldcf.crawler.repository;
 
 import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.database.RRow;
+import org.apache.manifoldcf.core.database.RSet;
 import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
 import java.util.*;
 
 /** This class is the manager for the history records belonging to the repository connector.
+ *
+ * In buffered mode, history records are collected in memory and written in batches, per-minute and per-hour
+ * rollups are kept alongside them (see RepositoryHistoryRollupManager), and raw records older than the
+ * configured retention are pruned one time partition at a time.  Reports that do not need to look at
+ * individual entities are answered from the rollups whenever they cover the requested time range.
  * 
  * <br><br>
  * <b>repohistory</b>
@@ -57,9 +66,53 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   protected final static String resultCodeField = "resultcode";
   protected final static String resultDescriptionField = "resultdesc";
 
+  /** Set to "true" to buffer history records and keep per-minute and per-hour rollups */
+  public static final String bufferedProperty = "org.apache.manifoldcf.crawler.history.buffered";
+  /** The number of buffered history records that causes a write */
+  public static final String batchSizeProperty = "org.apache.manifoldcf.crawler.history.batchsize";
+  /** The age, in milliseconds, at which buffered history records are written */
+  public static final String flushIntervalProperty = "org.apache.manifoldcf.crawler.history.flushinterval";
+  /** The number of days raw history records are kept in buffered mode; 0 means forever */
+  public static final String rawRetentionProperty = "org.apache.manifoldcf.crawler.history.rawretentiondays";
+  /** The number of days per-minute rollups are kept; per-hour rollups are kept until the connection is deleted */
+  public static final String minuteRetentionProperty = "org.apache.manifoldcf.crawler.history.minuteretentiondays";
+  /** Set to "true" to let the rollups answer reports.  Rollup answers are approximate: sliding windows start on
+  * bucket boundaries, and each event counts in full in the bucket its start time falls into. */
+  public static final String rollupReportsProperty = "org.apache.manifoldcf.crawler.history.rollupreports";
+
+  /** The size of the time partitions raw history is pruned in */
+  protected static final long PARTITION_SIZE = RepositoryHistoryRollupManager.GRANULARITY_HOUR;
+  /** The most partitions pruned at one time */
+  protected static final int MAX_PRUNE_PARTITIONS = 24;
+  /** The time between prune passes */
+  protected static final long PRUNE_INTERVAL = 10L * 60000L;
+  /** One day */
+  protected static final long DAY = 24L * RepositoryHistoryRollupManager.GRANULARITY_HOUR;
+
+  /** The history records waiting to be written by this process */
+  protected static final HistoryBuffer historyBuffer = new HistoryBuffer();
+  /** Set when the shutdown hook and the thread that write out the buffer have been started */
+  protected static boolean bufferWriterStarted = false;
+
+  /** Rollup manager */
+  protected RepositoryHistoryRollupManager rollupManager;
+
   /** Thread context */
   protected IThreadContext threadContext;
 
+  /** True if history is buffered and rolled up */
+  protected boolean buffered;
+  /** Buffer size at which to write */
+  protected int batchSize;
+  /** Buffer age at which to write */
+  protected long flushInterval;
+  /** Raw history retention time, or 0 */
+  protected long rawRetention;
+  /** Per-minute rollup retention time, or 0 */
+  protected long minuteRetention;
+  /** True if reports may be answered from the rollups */
+  protected boolean rollupReports;
+
   /** Constructor.
   *@param database is the database instance.
   */
@@ -68,6 +121,13 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   {
     super(database,"repohistory");
     this.threadContext = tc;
+    rollupManager = new RepositoryHistoryRollupManager(tc,database);
+    buffered = ManifoldCF.getBooleanProperty(bufferedProperty,false);
+    batchSize = ManifoldCF.getIntProperty(batchSizeProperty,1000);
+    flushInterval = (long)ManifoldCF.getIntProperty(flushIntervalProperty,10000);
+    rawRetention = (long)ManifoldCF.getIntProperty(rawRetentionProperty,0) * DAY;
+    minuteRetention = (long)ManifoldCF.getIntProperty(minuteRetentionProperty,7) * DAY;
+    rollupReports = ManifoldCF.getBooleanProperty(rollupReportsProperty,false);
   }
 
   /** Install or upgrade the table.
@@ -147,6 +207,8 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
       break;
 
     }
+
+    rollupManager.install(parentTable,parentField);
   }
 
   /** Uninstall the table.
@@ -154,6 +216,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public void deinstall()
     throws ManifoldCFException
   {
+    rollupManager.deinstall();
     performDrop(null);
   }
 
@@ -164,6 +227,8 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public void deleteOwner(String owner, StringSet invKeys)
     throws ManifoldCFException
   {
+    historyBuffer.discardOwner(owner);
+    rollupManager.deleteOwner(owner,invKeys);
     ArrayList params = new ArrayList();
     String query = buildConjunctionClause(params,new ClauseDescription[]{
       new UnitaryClause(ownerNameField,owner)});
@@ -177,7 +242,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     throws ManifoldCFException
   {
     Long id = new Long(IDFactory.make(threadContext));
-    HashMap map = new HashMap();
+    Map<String,Object> map = new HashMap<String,Object>();
     map.put(idField,id);
     map.put(ownerNameField,connectionName);
     map.put(startTimeField,new Long(startTime));
@@ -189,12 +254,128 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
       map.put(resultCodeField,resultCode);
     if (resultDescription != null)
       map.put(resultDescriptionField,resultDescription);
-    performInsert(map,null);
-    // Not accurate, but best we can do without overhead
-    noteModifications(1,0,0);
+    if (!buffered)
+    {
+      performInsert(map,null);
+      // Not accurate, but best we can do without overhead
+      noteModifications(1,0,0);
+      return id;
+    }
+
+    startBufferWriter(flushInterval);
+    if (historyBuffer.add(map,connectionName,startTime,dataSize,activityType,resultCode,batchSize,flushInterval))
+      flushHistory();
     return id;
   }
 
+  /** Write out the history records this process has buffered, along with their rollups, and prune
+  * old history if it is time to.
+  */
+  public void flushHistory()
+    throws ManifoldCFException
+  {
+    HistoryBatch batch = historyBuffer.drain();
+    if (batch != null)
+    {
+      try
+      {
+        writeBatch(batch);
+      }
+      catch (ManifoldCFException e)
+      {
+        if (e.getErrorCode() == ManifoldCFException.DATABASE_TRANSACTION_ABORT)
+          historyBuffer.restore(batch);
+        else
+          Logging.connectors.warn("Discarding "+batch.rows.size()+" history records that could not be written: "+e.getMessage(),e);
+        throw e;
+      }
+    }
+
+    long currentTime = System.currentTimeMillis();
+    if (historyBuffer.checkPrune(currentTime))
+      pruneHistory(currentTime);
+  }
+
+  /** Write a batch of history records and rollups.
+  */
+  protected void writeBatch(HistoryBatch batch)
+    throws ManifoldCFException
+  {
+    beginTransaction();
+    try
+    {
+      performInsertMultiple(batch.rows,null);
+      rollupManager.addRollups(batch.rollups);
+      noteModifications(batch.rows.size(),0,0);
+    }
+    catch (ManifoldCFException e)
+    {
+      signalRollback();
+      throw e;
+    }
+    catch (Error e)
+    {
+      signalRollback();
+      throw e;
+    }
+    finally
+    {
+      endTransaction();
+    }
+  }
+
+  /** Prune history that is past its retention time.  Raw history is removed one time partition at a
+  * time, oldest first, so that no single statement has to delete more than a partition's worth of rows.
+  *@param currentTime is the current time.
+  */
+  protected void pruneHistory(long currentTime)
+    throws ManifoldCFException
+  {
+    if (minuteRetention > 0L)
+      rollupManager.deleteBefore(RepositoryHistoryRollupManager.GRANULARITY_MINUTE,currentTime - minuteRetention);
+
+    if (rawRetention == 0L)
+      return;
+    long cutoffTime = currentTime - rawRetention;
+    IResultSet set = performQuery("SELECT MIN("+startTimeField+") AS minstart FROM "+getTableName(),null,null,null);
+    if (set.getRowCount() < 1)
+      return;
+    Object value = set.getRow(0).getValue("minstart");
+    if (value == null)
+      return;
+    long oldestTime = ((Number)value).longValue();
+    long partitionStart = oldestTime - (oldestTime % PARTITION_SIZE);
+    int partitionCount = 0;
+    while (partitionCount < MAX_PRUNE_PARTITIONS && partitionStart + PARTITION_SIZE <= cutoffTime)
+    {
+      ArrayList params = new ArrayList();
+      String query = buildConjunctionClause(params,new ClauseDescription[]{
+        new UnitaryClause(startTimeField,">=",new Long(partitionStart)),
+        new UnitaryClause(startTimeField,"<",new Long(partitionStart + PARTITION_SIZE))});
+      performDelete("WHERE "+query,params,null);
+      partitionStart += PARTITION_SIZE;
+      partitionCount++;
+    }
+    if (Logging.connectors.isDebugEnabled())
+      Logging.connectors.debug("Pruned "+partitionCount+" history partition(s) older than "+cutoffTime);
+  }
+
+  /** Make sure buffered history is written once it reaches the flush interval, even if no more records
+  * arrive, and when the process shuts down.
+  *@param flushInterval is the buffer age at which to write.
+  */
+  protected static void startBufferWriter(long flushInterval)
+  {
+    synchronized (historyBuffer)
+    {
+      if (bufferWriterStarted)
+        return;
+      ManifoldCF.addShutdownHook(new HistoryBufferShutdown());
+      new HistoryFlushThread(flushInterval).start();
+      bufferWriterStarted = true;
+    }
+  }
+
   // For result analysis, we make heavy use of Postgresql's more advanced posix regular expression
   // handling.  The queries in general are fairly messy.  There's a "front aligned" way of doing things,
   // which uses the start time of a row and finds everything that overlaps the interval from "start time"
@@ -311,6 +492,22 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     return value.longValue();
   }
 
+  /** Count the number of raw history rows a sliding-window report would need to join.  This is zero when
+  * the report can be answered from the history rollups instead.
+  *@param connectionName is the name of the connection.
+  *@param criteria is the filtering criteria, which selects the records of interest.
+  *@param idBucket is the bucket description for the report.
+  *@param interval is the window size for the report.
+  *@return the number of rows the report would need to join.
+  */
+  public long countWindowedReportRows(String connectionName, FilterCriteria criteria, BucketDescription idBucket, long interval)
+    throws ManifoldCFException
+  {
+    if (interval > 0L && findRollupGranularity(connectionName,criteria,idBucket,interval) != 0L)
+      return 0L;
+    return countHistoryRows(connectionName,criteria);
+  }
+
   /** Get the maximum number of rows a window-based report can work with.
   *@return the maximum rows.
   */
@@ -329,6 +526,10 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     long interval, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    long granularity = findRollupGranularity(connectionName,filterCriteria,idBucket,interval);
+    if (interval > 0L && granularity != 0L)
+      return maxWindowRollupReport(connectionName,filterCriteria,granularity,interval,"activitycount",startRow,maxRowCount);
+
     // The query we will generate here looks like this:
     // SELECT *
     //   FROM
@@ -432,6 +633,10 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     long interval, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    long granularity = findRollupGranularity(connectionName,filterCriteria,idBucket,interval);
+    if (interval > 0L && granularity != 0L)
+      return maxWindowRollupReport(connectionName,filterCriteria,granularity,interval,"bytecount",startRow,maxRowCount);
+
     // The query we will generate here looks like this:
     // SELECT *
     //   FROM
@@ -539,6 +744,10 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     BucketDescription resultCodeBucket, BucketDescription idBucket, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    long granularity = findRollupGranularity(connectionName,filterCriteria,idBucket,0L);
+    if (granularity != 0L)
+      return resultCodesRollupReport(connectionName,filterCriteria,sort,resultCodeBucket,granularity,startRow,maxRowCount);
+
     // The query we'll use here will be:
     //
     // SELECT * FROM (SELECT substring(resultcode FROM '<result_regexp>') AS resultcodebucket,
@@ -561,6 +770,234 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     return performQuery(sb.toString(),list,null,null,maxRowCount);
   }
 
+  /** Decide which rollups, if any, can answer a report.  Rollups are only used when rollup reports have been
+  * enabled, because their answers are approximate.  Rollups know nothing about individual entities, so the
+  * report must not filter on entity, and must put every entity into the same bucket.  They must also have been
+  * kept for the whole of the report's time range, without gaps.  Hourly rollups are used only when the range and the
+  * window size are both whole hours; otherwise per-minute rollups are used, counting only the minutes that
+  * lie entirely within the range, and the window size must be whole minutes.
+  *@param connectionName is the name of the connection.
+  *@param criteria is the filtering criteria.
+  *@param idBucket is the bucket description for the report.
+  *@param interval is the window size for the report, or 0 if the report has no window.
+  *@return the granularity of the rollups to use, or 0 if the report must read the raw history.
+  */
+  protected long findRollupGranularity(String connectionName, FilterCriteria criteria, BucketDescription idBucket, long interval)
+    throws ManifoldCFException
+  {
+    if (!buffered || !rollupReports || criteria.getEntityMatch() != null || criteria.getStartTime() == null || !isSingleBucket(idBucket))
+      return 0L;
+    long startTime = criteria.getStartTime().longValue();
+    Long endTime = criteria.getEndTime();
+
+    long granularity = RepositoryHistoryRollupManager.GRANULARITY_HOUR;
+    if (interval % granularity == 0L && startTime % granularity == 0L &&
+      (endTime == null || endTime.longValue() % granularity == 0L) &&
+      coversRange(connectionName,criteria,granularity))
+      return granularity;
+
+    granularity = RepositoryHistoryRollupManager.GRANULARITY_MINUTE;
+    if (interval % granularity == 0L && coversRange(connectionName,criteria,granularity))
+      return granularity;
+    return 0L;
+  }
+
+  /** Check whether rollups of a given granularity account for every history record in a report's time range.
+  * The rollups must begin no later than the range does.  Then, over the part of the range whose raw history has
+  * not been pruned, they must count as many events as there are raw records; a record written without a rollup
+  * (for instance, by a process that was not buffering history) shows up as a difference.  Where raw history has
+  * been pruned, the rollups are all that remains, so they are used as they are.
+  */
+  protected boolean coversRange(String connectionName, FilterCriteria criteria, long granularity)
+    throws ManifoldCFException
+  {
+    Long coverageStart = rollupManager.getCoverageStart(connectionName,granularity);
+    if (coverageStart == null || coverageStart.longValue() > criteria.getStartTime().longValue())
+      return false;
+
+    long checkStart = getRollupRangeStart(criteria,granularity);
+    long checkEnd = getRollupRangeEnd(criteria,granularity);
+    if (rawRetention > 0L)
+    {
+      // Start at the first partition after the prune cutoff, so that nothing is pruned while we count it
+      long cutoffTime = System.currentTimeMillis() - rawRetention;
+      long rawStart = cutoffTime - (cutoffTime % PARTITION_SIZE) + PARTITION_SIZE;
+      if (rawStart > checkStart)
+        checkStart = rawStart;
+    }
+    if (checkStart >= checkEnd)
+      return true;
+
+    long rawCount = countRecordsStarting(connectionName,checkStart,checkEnd);
+    long rollupCount = rollupManager.countEvents(connectionName,granularity,checkStart,checkEnd);
+    if (rawCount == rollupCount)
+      return true;
+    if (Logging.connectors.isDebugEnabled())
+      Logging.connectors.debug("History rollups for connection '"+connectionName+"' count "+rollupCount+" events between "+
+        checkStart+" and "+checkEnd+", but there are "+rawCount+" records; using raw history");
+    return false;
+  }
+
+  /** Count the raw history records of a connection that start within a time range.
+  *@param connectionName is the connection name.
+  *@param startTime is the start of the range (inclusive).
+  *@param endTime is the end of the range (exclusive).
+  *@return the number of records.
+  */
+  protected long countRecordsStarting(String connectionName, long startTime, long endTime)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(ownerNameField,connectionName),
+      new UnitaryClause(startTimeField,">=",new Long(startTime)),
+      new UnitaryClause(startTimeField,"<",new Long(endTime))});
+    IResultSet set = performQuery("SELECT "+constructCountClause("*")+" AS countcol FROM "+getTableName()+
+      " WHERE "+query,params,null,null);
+    if (set.getRowCount() < 1)
+      throw new ManifoldCFException("Expected at least one row");
+    return ((Number)set.getRow(0).getValue("countcol")).longValue();
+  }
+
+  /** Check whether a bucket description puts every identifier into the same (empty) bucket.
+  */
+  protected static boolean isSingleBucket(BucketDescription bucketDesc)
+  {
+    String regexp = bucketDesc.getRegexp();
+    if (regexp.startsWith("^"))
+      regexp = regexp.substring(1);
+    if (regexp.endsWith("$"))
+      regexp = regexp.substring(0,regexp.length()-1);
+    return regexp.equals("()");
+  }
+
+  /** Find the first rollup bucket that lies entirely within the filter criteria's time range.
+  */
+  protected static long getRollupRangeStart(FilterCriteria criteria, long granularity)
+  {
+    long startTime = criteria.getStartTime().longValue();
+    long remainder = startTime % granularity;
+    if (remainder == 0L)
+      return startTime;
+    return startTime - remainder + granularity;
+  }
+
+  /** Find the end of the last rollup bucket that lies entirely within the filter criteria's time range.
+  */
+  protected static long getRollupRangeEnd(FilterCriteria criteria, long granularity)
+  {
+    Long endTime = criteria.getEndTime();
+    if (endTime == null)
+      return Long.MAX_VALUE;
+    return endTime.longValue() - (endTime.longValue() % granularity);
+  }
+
+  /** Answer a sliding-window maximum report from the rollups.  This is an approximation of the report the raw
+  * history gives: windows begin on bucket boundaries, and each event is counted in full in the bucket its start
+  * time falls into, rather than prorated over the windows it overlaps.
+  *@param valueColumn is either "activitycount" or "bytecount".
+  */
+  protected IResultSet maxWindowRollupReport(String connectionName, FilterCriteria filterCriteria, long granularity,
+    long interval, String valueColumn, int startRow, int maxRowCount)
+    throws ManifoldCFException
+  {
+    IResultSet set = rollupManager.readBucketTotals(connectionName,filterCriteria,granularity,
+      getRollupRangeStart(filterCriteria,granularity),getRollupRangeEnd(filterCriteria,granularity));
+    String sumColumn = valueColumn.equals("bytecount")?"bytecount":"eventcount";
+    int rowCount = set.getRowCount();
+    long[] bucketStarts = new long[rowCount];
+    long[] values = new long[rowCount];
+    int i = 0;
+    while (i < rowCount)
+    {
+      IResultRow row = set.getRow(i);
+      bucketStarts[i] = ((Number)row.getValue("bucketstart")).longValue();
+      values[i] = ((Number)row.getValue(sumColumn)).longValue();
+      i++;
+    }
+
+    long[] best = findMaxWindow(bucketStarts,values,interval);
+    RSet rval = new RSet();
+    if (best != null && startRow == 0 && maxRowCount != 0)
+    {
+      RRow row = new RRow();
+      row.put("idbucket","");
+      row.put("starttime",new Long(best[0]));
+      row.put("endtime",new Long(best[0] + interval));
+      if (valueColumn.equals("bytecount"))
+        row.put("bytecount",new Long(best[1]));
+      else
+        row.put("activitycount",new Double((double)best[1]));
+      rval.addRow(row);
+    }
+    return rval;
+  }
+
+  /** Slide a window over a series of buckets, and find where the window total is largest.  The largest total
+  * is always found at a window that starts at a bucket with activity in it, so those are the only window
+  * positions considered.  When several windows have the same total, the earliest wins.
+  *@param bucketStarts are the bucket start times, in ascending order.
+  *@param values are the bucket totals.
+  *@param interval is the window size.
+  *@return the start time and total of the best window, or null if there are no buckets.
+  */
+  protected static long[] findMaxWindow(long[] bucketStarts, long[] values, long interval)
+  {
+    long bestTotal = -1L;
+    long bestStart = 0L;
+    long windowTotal = 0L;
+    int windowEnd = 0;
+    int i = 0;
+    while (i < bucketStarts.length)
+    {
+      while (windowEnd < bucketStarts.length && bucketStarts[windowEnd] < bucketStarts[i] + interval)
+      {
+        windowTotal += values[windowEnd];
+        windowEnd++;
+      }
+      if (windowTotal > bestTotal)
+      {
+        bestTotal = windowTotal;
+        bestStart = bucketStarts[i];
+      }
+      windowTotal -= values[i];
+      i++;
+    }
+    if (bestTotal < 0L)
+      return null;
+    return new long[]{bestStart,bestTotal};
+  }
+
+  /** Answer a result code report from the rollups.
+  */
+  protected IResultSet resultCodesRollupReport(String connectionName, FilterCriteria filterCriteria, SortOrder sort,
+    BucketDescription resultCodeBucket, long granularity, int startRow, int maxRowCount)
+    throws ManifoldCFException
+  {
+    IResultSet set = rollupManager.readResultCodeTotals(connectionName,filterCriteria,resultCodeBucket,granularity,
+      getRollupRangeStart(filterCriteria,granularity),getRollupRangeEnd(filterCriteria,granularity));
+    List<IResultRow> rows = new ArrayList<IResultRow>(set.getRowCount());
+    int i = 0;
+    while (i < set.getRowCount())
+    {
+      IResultRow resultRow = set.getRow(i++);
+      RRow row = new RRow();
+      row.put("resultcodebucket",resultRow.getValue("resultcodebucket"));
+      row.put("idbucket","");
+      row.put("eventcount",new Long(((Number)resultRow.getValue("eventcount")).longValue()));
+      rows.add(row);
+    }
+    Collections.sort(rows,new RowComparator(sort,new String[]{"eventcount","resultcodebucket","idbucket"}));
+
+    RSet rval = new RSet();
+    i = startRow;
+    while (i < rows.size() && (maxRowCount < 0 || i < startRow + maxRowCount))
+    {
+      rval.addRow(rows.get(i++));
+    }
+    return rval;
+  }
+
   /** Turn a bucket description into a return column.
   * This is complicated by the fact that the extraction code is inherently case sensitive.  So if case insensitive is
   * desired, that means we whack the whole thing to lower case before doing the match.
@@ -703,4 +1140,262 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   }
 
 
+
+  /** Orders report rows the same way addOrdering() orders a report query.
+  */
+  protected static class RowComparator implements Comparator<IResultRow>
+  {
+    protected final List<String> columns = new ArrayList<String>();
+    protected final List<Boolean> ascending = new ArrayList<Boolean>();
+
+    public RowComparator(SortOrder sort, String[] completeFieldList)
+    {
+      Set<String> seen = new HashSet<String>();
+      int i = 0;
+      while (i < sort.getCount())
+      {
+        String column = sort.getColumn(i);
+        columns.add(column);
+        ascending.add(new Boolean(sort.getDirection(i) == SortOrder.SORT_ASCENDING));
+        seen.add(column);
+        i++;
+      }
+      for (String field : completeFieldList)
+      {
+        if (!seen.contains(field))
+        {
+          columns.add(field);
+          ascending.add(Boolean.FALSE);
+        }
+      }
+    }
+
+    public int compare(IResultRow row1, IResultRow row2)
+    {
+      int i = 0;
+      while (i < columns.size())
+      {
+        String column = columns.get(i);
+        int result = compareValues(row1.getValue(column),row2.getValue(column));
+        if (result != 0)
+          return ascending.get(i).booleanValue()?result:-result;
+        i++;
+      }
+      return 0;
+    }
+
+    /** Compare two column values; nulls sort after everything else, as they do in the database.
+    */
+    protected static int compareValues(Object value1, Object value2)
+    {
+      if (value1 == null)
+        return (value2 == null)?0:1;
+      if (value2 == null)
+        return -1;
+      if (value1 instanceof Number && value2 instanceof Number)
+      {
+        double d1 = ((Number)value1).doubleValue();
+        double d2 = ((Number)value2).doubleValue();
+        return (d1 < d2)?-1:((d1 > d2)?1:0);
+      }
+      return value1.toString().compareTo(value2.toString());
+    }
+  }
+
+  /** A batch of history records and rollups to be written together.
+  */
+  protected static class HistoryBatch
+  {
+    protected final List<Map<String,Object>> rows;
+    protected final Map<RepositoryHistoryRollupManager.RollupKey,long[]> rollups;
+
+    public HistoryBatch(List<Map<String,Object>> rows, Map<RepositoryHistoryRollupManager.RollupKey,long[]> rollups)
+    {
+      this.rows = rows;
+      this.rollups = rollups;
+    }
+  }
+
+  /** The history records, and the rollup totals for them, that this process has not yet written.
+  */
+  protected static class HistoryBuffer
+  {
+    protected List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    protected Map<RepositoryHistoryRollupManager.RollupKey,long[]> rollups = new HashMap<RepositoryHistoryRollupManager.RollupKey,long[]>();
+    protected long oldestTime = -1L;
+    protected long lastPruneTime = 0L;
+
+    public HistoryBuffer()
+    {
+    }
+
+    /** Add a record.
+    *@return true if the buffer should now be written.
+    */
+    public synchronized boolean add(Map<String,Object> row, String connectionName, long startTime, long dataSize, String activityType,
+      String resultCode, int batchSize, long flushInterval)
+    {
+      long currentTime = System.currentTimeMillis();
+      rows.add(row);
+      addRollup(new RepositoryHistoryRollupManager.RollupKey(connectionName,RepositoryHistoryRollupManager.GRANULARITY_MINUTE,
+        startTime,activityType,resultCode),1L,dataSize);
+      addRollup(new RepositoryHistoryRollupManager.RollupKey(connectionName,RepositoryHistoryRollupManager.GRANULARITY_HOUR,
+        startTime,activityType,resultCode),1L,dataSize);
+      if (oldestTime == -1L)
+        oldestTime = currentTime;
+      return rows.size() >= batchSize || currentTime - oldestTime >= flushInterval;
+    }
+
+    protected void addRollup(RepositoryHistoryRollupManager.RollupKey key, long eventCount, long byteCount)
+    {
+      long[] totals = rollups.get(key);
+      if (totals == null)
+      {
+        totals = new long[2];
+        rollups.put(key,totals);
+      }
+      totals[0] += eventCount;
+      totals[1] += byteCount;
+    }
+
+    /** Check whether the oldest buffered record has waited long enough to be written.
+    */
+    public synchronized boolean isDue(long currentTime, long flushInterval)
+    {
+      return oldestTime != -1L && currentTime - oldestTime >= flushInterval;
+    }
+
+    /** Take everything in the buffer.
+    *@return the batch, or null if the buffer is empty.
+    */
+    public synchronized HistoryBatch drain()
+    {
+      if (rows.size() == 0)
+        return null;
+      HistoryBatch rval = new HistoryBatch(rows,rollups);
+      rows = new ArrayList<Map<String,Object>>();
+      rollups = new HashMap<RepositoryHistoryRollupManager.RollupKey,long[]>();
+      oldestTime = -1L;
+      return rval;
+    }
+
+    /** Put back a batch that could not be written.
+    */
+    public synchronized void restore(HistoryBatch batch)
+    {
+      rows.addAll(0,batch.rows);
+      for (Map.Entry<RepositoryHistoryRollupManager.RollupKey,long[]> entry : batch.rollups.entrySet())
+      {
+        long[] totals = entry.getValue();
+        addRollup(entry.getKey(),totals[0],totals[1]);
+      }
+      oldestTime = 0L;
+    }
+
+    /** Throw away everything buffered for a connection.
+    */
+    public synchronized void discardOwner(String owner)
+    {
+      Iterator<Map<String,Object>> rowIter = rows.iterator();
+      while (rowIter.hasNext())
+      {
+        if (owner.equals(rowIter.next().get(ownerNameField)))
+          rowIter.remove();
+      }
+      Iterator<RepositoryHistoryRollupManager.RollupKey> keyIter = rollups.keySet().iterator();
+      while (keyIter.hasNext())
+      {
+        if (owner.equals(keyIter.next().getOwner()))
+          keyIter.remove();
+      }
+      if (rows.size() == 0)
+        oldestTime = -1L;
+    }
+
+    /** Decide whether it is time to prune old history.
+    */
+    public synchronized boolean checkPrune(long currentTime)
+    {
+      if (currentTime - lastPruneTime < PRUNE_INTERVAL)
+        return false;
+      lastPruneTime = currentTime;
+      return true;
+    }
+  }
+
+  /** Thread that writes out buffered history once it has waited for the flush interval, so that records
+  * are not held back just because no more of them arrive.
+  */
+  protected static class HistoryFlushThread extends Thread
+  {
+    protected final long flushInterval;
+
+    public HistoryFlushThread(long flushInterval)
+    {
+      super();
+      this.flushInterval = flushInterval;
+      setName("History flush thread");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        IThreadContext tc = ThreadContextFactory.make();
+        IDBInterface database = DBInterfaceFactory.make(tc,
+          ManifoldCF.getMasterDatabaseName(),
+          ManifoldCF.getMasterDatabaseUsername(),
+          ManifoldCF.getMasterDatabasePassword());
+        RepositoryHistoryManager historyManager = new RepositoryHistoryManager(tc,database);
+        // Check a few times per interval, so no record waits much longer than the interval
+        long sleepTime = (flushInterval < 4000L)?1000L:flushInterval/4L;
+        while (true)
+        {
+          try
+          {
+            ManifoldCF.sleep(sleepTime);
+            if (historyBuffer.isDue(System.currentTimeMillis(),flushInterval))
+              historyManager.flushHistory();
+          }
+          catch (ManifoldCFException e)
+          {
+            if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+              break;
+            // A record arriving later, or the next pass, will try again
+            Logging.threads.error("Could not write buffered history: "+e.getMessage(),e);
+          }
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // We're supposed to quit
+      }
+      catch (ManifoldCFException e)
+      {
+        Logging.threads.fatal("History flush thread could not start: "+e.getMessage(),e);
+      }
+    }
+  }
+
+  /** Shutdown hook that writes out whatever history is still buffered.
+  */
+  protected static class HistoryBufferShutdown implements IShutdownHook
+  {
+    public HistoryBufferShutdown()
+    {
+    }
+
+    public void doCleanup()
+      throws ManifoldCFException
+    {
+      IThreadContext tc = ThreadContextFactory.make();
+      IDBInterface database = DBInterfaceFactory.make(tc,
+        ManifoldCF.getMasterDatabaseName(),
+        ManifoldCF.getMasterDatabaseUsername(),
+        ManifoldCF.getMasterDatabasePassword());
+      new RepositoryHistoryManager(tc,database).flushHistory();
+    }
+  }
+
 }
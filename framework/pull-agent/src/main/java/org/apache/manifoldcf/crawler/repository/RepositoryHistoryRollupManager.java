@@ -0,0 +1,401 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** This class manages the rolled-up history records belonging to the repository connector.
+* Each row counts the events, and sums the bytes, that a connection recorded for one activity type and result
+* code, over one minute or one hour.  Events are attributed to the time bucket their start time falls into.
+* Rows are only ever added; several rows may exist for the same key, and readers sum them.
+*
+* <br><br>
+* <b>repohistoryrollup</b>
+* <table border="1" cellpadding="3" cellspacing="0">
+* <tr class="TableHeadingColor">
+* <th>Field</th><th>Type</th><th>Description&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;</th>
+* <tr><td>id</td><td>BIGINT</td><td>Primary Key</td></tr>
+* <tr><td>owner</td><td>VARCHAR(32)</td><td>Reference:repoconnections.connectionname</td></tr>
+* <tr><td>granularity</td><td>BIGINT</td><td></td></tr>
+* <tr><td>bucketstart</td><td>BIGINT</td><td></td></tr>
+* <tr><td>activitytype</td><td>VARCHAR(64)</td><td></td></tr>
+* <tr><td>resultcode</td><td>VARCHAR(255)</td><td></td></tr>
+* <tr><td>eventcount</td><td>BIGINT</td><td></td></tr>
+* <tr><td>bytecount</td><td>BIGINT</td><td></td></tr>
+* </table>
+* <br><br>
+*
+*/
+public class RepositoryHistoryRollupManager extends org.apache.manifoldcf.core.database.BaseTable
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Minute granularity */
+  public static final long GRANULARITY_MINUTE = 60000L;
+  /** Hour granularity */
+  public static final long GRANULARITY_HOUR = 60L * 60000L;
+
+  // Fields
+  protected final static String idField = "id";
+  protected final static String ownerNameField = "owner";
+  protected final static String granularityField = "granularity";
+  protected final static String bucketStartField = "bucketstart";
+  protected final static String activityTypeField = "activitytype";
+  protected final static String resultCodeField = "resultcode";
+  protected final static String eventCountField = "eventcount";
+  protected final static String byteCountField = "bytecount";
+
+  /** Thread context */
+  protected IThreadContext threadContext;
+
+  /** Constructor.
+  *@param database is the database instance.
+  */
+  public RepositoryHistoryRollupManager(IThreadContext tc, IDBInterface database)
+    throws ManifoldCFException
+  {
+    super(database,"repohistoryrollup");
+    this.threadContext = tc;
+  }
+
+  /** Install or upgrade the table.
+  *@param parentTable is the parent table.
+  *@param parentField is the parent field.
+  */
+  public void install(String parentTable, String parentField)
+    throws ManifoldCFException
+  {
+    // Always have an outer loop, in case of upgrade
+    while (true)
+    {
+      Map existing = getTableSchema(null,null);
+      if (existing == null)
+      {
+        HashMap map = new HashMap();
+        map.put(idField,new ColumnDescription("BIGINT",true,false,null,null,false));
+        map.put(ownerNameField,new ColumnDescription("VARCHAR(32)",false,false,parentTable,parentField,false));
+        map.put(granularityField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(bucketStartField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(activityTypeField,new ColumnDescription("VARCHAR(64)",false,false,null,null,false));
+        map.put(resultCodeField,new ColumnDescription("VARCHAR(255)",false,true,null,null,false));
+        map.put(eventCountField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(byteCountField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        performCreate(map,null);
+      }
+      else
+      {
+        // Upgrade code, if needed, goes here
+      }
+
+      // Index management
+      IndexDescription bucketIndex = new IndexDescription(false,new String[]{ownerNameField,granularityField,bucketStartField});
+
+      // Get rid of indexes that shouldn't be there
+      Map indexes = getTableIndexes(null,null);
+      Iterator iter = indexes.keySet().iterator();
+      while (iter.hasNext())
+      {
+        String indexName = (String)iter.next();
+        IndexDescription id = (IndexDescription)indexes.get(indexName);
+
+        if (bucketIndex != null && id.equals(bucketIndex))
+          bucketIndex = null;
+        else if (indexName.indexOf("_pkey") == -1)
+          // This index shouldn't be here; drop it
+          performRemoveIndex(indexName);
+      }
+
+      // Add the ones we didn't find
+      if (bucketIndex != null)
+        performAddIndex(null,bucketIndex);
+
+      break;
+    }
+  }
+
+  /** Uninstall the table.
+  */
+  public void deinstall()
+    throws ManifoldCFException
+  {
+    performDrop(null);
+  }
+
+  /** Delete all records associated with given owner.
+  *@param owner is the name of the owner.
+  *@param invKeys are the invalidation keys.
+  */
+  public void deleteOwner(String owner, StringSet invKeys)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(ownerNameField,owner)});
+    performDelete("WHERE "+query,params,invKeys);
+  }
+
+  /** Add the rollup counts accumulated since the last write.
+  *@param rollups is a map from RollupKey to a long[2] of event count and byte count.
+  */
+  public void addRollups(Map<RollupKey,long[]> rollups)
+    throws ManifoldCFException
+  {
+    if (rollups.size() == 0)
+      return;
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(rollups.size());
+    for (Map.Entry<RollupKey,long[]> entry : rollups.entrySet())
+    {
+      RollupKey key = entry.getKey();
+      long[] totals = entry.getValue();
+      Map<String,Object> map = new HashMap<String,Object>();
+      map.put(idField,new Long(IDFactory.make(threadContext)));
+      map.put(ownerNameField,key.owner);
+      map.put(granularityField,new Long(key.granularity));
+      map.put(bucketStartField,new Long(key.bucketStart));
+      map.put(activityTypeField,key.activityType);
+      if (key.resultCode != null)
+        map.put(resultCodeField,key.resultCode);
+      map.put(eventCountField,new Long(totals[0]));
+      map.put(byteCountField,new Long(totals[1]));
+      rows.add(map);
+    }
+    performInsertMultiple(rows,null);
+    noteModifications(rows.size(),0,0);
+  }
+
+  /** Remove rollups of a given granularity that begin before a cutoff time.
+  *@param granularity is the granularity.
+  *@param cutoffTime is the cutoff time.
+  */
+  public void deleteBefore(long granularity, long cutoffTime)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(granularityField,new Long(granularity)),
+      new UnitaryClause(bucketStartField,"<",new Long(cutoffTime))});
+    performDelete("WHERE "+query,params,null);
+  }
+
+  /** Find the earliest time for which rollups of a given granularity exist for a connection.
+  *@param connectionName is the connection name.
+  *@param granularity is the granularity.
+  *@return the start of the earliest bucket, or null if there are no rollups.
+  */
+  public Long getCoverageStart(String connectionName, long granularity)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(ownerNameField,connectionName),
+      new UnitaryClause(granularityField,new Long(granularity))});
+    IResultSet set = performQuery("SELECT MIN("+bucketStartField+") AS minstart FROM "+getTableName()+
+      " WHERE "+query,list,null,null);
+    if (set.getRowCount() < 1)
+      return null;
+    Object value = set.getRow(0).getValue("minstart");
+    if (value == null)
+      return null;
+    return new Long(((Number)value).longValue());
+  }
+
+  /** Count the events the rollups of a given granularity hold for a connection over a time range.
+  *@param connectionName is the connection name.
+  *@param granularity is the granularity.
+  *@param startTime is the start of the range (inclusive).
+  *@param endTime is the end of the range (exclusive).
+  *@return the number of events.
+  */
+  public long countEvents(String connectionName, long granularity, long startTime, long endTime)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(ownerNameField,connectionName),
+      new UnitaryClause(granularityField,new Long(granularity)),
+      new UnitaryClause(bucketStartField,">=",new Long(startTime)),
+      new UnitaryClause(bucketStartField,"<",new Long(endTime))});
+    IResultSet set = performQuery("SELECT SUM("+eventCountField+") AS eventcount FROM "+getTableName()+
+      " WHERE "+query,list,null,null);
+    if (set.getRowCount() < 1)
+      return 0L;
+    Object value = set.getRow(0).getValue("eventcount");
+    if (value == null)
+      return 0L;
+    return ((Number)value).longValue();
+  }
+
+  /** Count the buckets a report over a time range would read.
+  *@param connectionName is the connection name.
+  *@param criteria is the filtering criteria; the entity match is ignored.
+  *@param granularity is the granularity.
+  *@param startTime is the start of the range (inclusive).
+  *@param endTime is the end of the range (exclusive).
+  *@return the number of rollup rows in the range.
+  */
+  public long countBuckets(String connectionName, FilterCriteria criteria, long granularity, long startTime, long endTime)
+    throws ManifoldCFException
+  {
+    StringBuilder sb = new StringBuilder("SELECT ");
+    ArrayList list = new ArrayList();
+    sb.append(constructCountClause("*")).append(" AS countcol FROM ").append(getTableName());
+    addCriteria(sb,list,connectionName,criteria,granularity,startTime,endTime);
+    IResultSet set = performQuery(sb.toString(),list,null,null);
+    if (set.getRowCount() < 1)
+      throw new ManifoldCFException("Expected at least one row");
+    IResultRow row = set.getRow(0);
+    Long value = (Long)row.getValue("countcol");
+    return value.longValue();
+  }
+
+  /** Read the event and byte totals of each bucket in a time range.
+  * The resultset returned has the columns "bucketstart","eventcount","bytecount", in bucket order.
+  *@param connectionName is the connection name.
+  *@param criteria is the filtering criteria; the entity match is ignored.
+  *@param granularity is the granularity.
+  *@param startTime is the start of the range (inclusive).
+  *@param endTime is the end of the range (exclusive).
+  *@return the bucket totals.
+  */
+  public IResultSet readBucketTotals(String connectionName, FilterCriteria criteria, long granularity, long startTime, long endTime)
+    throws ManifoldCFException
+  {
+    StringBuilder sb = new StringBuilder("SELECT ");
+    ArrayList list = new ArrayList();
+    sb.append(bucketStartField).append(" AS bucketstart,SUM(").append(eventCountField).append(") AS eventcount,SUM(")
+      .append(byteCountField).append(") AS bytecount FROM ").append(getTableName());
+    addCriteria(sb,list,connectionName,criteria,granularity,startTime,endTime);
+    sb.append(" GROUP BY ").append(bucketStartField).append(" ORDER BY ").append(bucketStartField).append(" ASC");
+    return performQuery(sb.toString(),list,null,null);
+  }
+
+  /** Read the event totals of each result code bucket in a time range.
+  * The resultset returned has the columns "resultcodebucket","eventcount".
+  *@param connectionName is the connection name.
+  *@param criteria is the filtering criteria; the entity match is ignored.
+  *@param resultCodeBucket describes how result codes are grouped.
+  *@param granularity is the granularity.
+  *@param startTime is the start of the range (inclusive).
+  *@param endTime is the end of the range (exclusive).
+  *@return the result code totals.
+  */
+  public IResultSet readResultCodeTotals(String connectionName, FilterCriteria criteria, BucketDescription resultCodeBucket,
+    long granularity, long startTime, long endTime)
+    throws ManifoldCFException
+  {
+    StringBuilder sb = new StringBuilder("SELECT t1.resultcodebucket AS resultcodebucket,SUM(t1.eventcount) AS eventcount FROM (SELECT ");
+    ArrayList list = new ArrayList();
+    sb.append(constructSubstringClause(resultCodeField,"?",!resultCodeBucket.isSensitive()));
+    list.add(resultCodeBucket.getRegexp());
+    sb.append(" AS resultcodebucket,").append(eventCountField).append(" AS eventcount FROM ").append(getTableName());
+    addCriteria(sb,list,connectionName,criteria,granularity,startTime,endTime);
+    sb.append(") t1 GROUP BY resultcodebucket");
+    return performQuery(sb.toString(),list,null,null);
+  }
+
+  /** Add criteria clauses to query.
+  */
+  protected void addCriteria(StringBuilder sb, ArrayList list, String connectionName, FilterCriteria criteria,
+    long granularity, long startTime, long endTime)
+  {
+    sb.append(" WHERE ").append(ownerNameField).append("=? AND ").append(granularityField).append("=? AND ")
+      .append(bucketStartField).append(">=? AND ").append(bucketStartField).append("<?");
+    list.add(connectionName);
+    list.add(new Long(granularity));
+    list.add(new Long(startTime));
+    list.add(new Long(endTime));
+
+    String[] activities = criteria.getActivities();
+    if (activities != null)
+    {
+      if (activities.length == 0)
+      {
+        sb.append(" AND 0>1");
+      }
+      else
+      {
+        sb.append(" AND ").append(activityTypeField).append(" IN(");
+        int i = 0;
+        while (i < activities.length)
+        {
+          if (i > 0)
+            sb.append(",");
+          sb.append("?");
+          list.add(activities[i++]);
+        }
+        sb.append(")");
+      }
+    }
+
+    RegExpCriteria resultCodeMatch = criteria.getResultCodeMatch();
+    if (resultCodeMatch != null)
+    {
+      sb.append(" AND ").append(constructRegexpClause(resultCodeField,"?",resultCodeMatch.isInsensitive()));
+      list.add(resultCodeMatch.getRegexpString());
+    }
+  }
+
+  /** The key of a rollup row.
+  */
+  protected static class RollupKey
+  {
+    protected final String owner;
+    protected final long granularity;
+    protected final long bucketStart;
+    protected final String activityType;
+    protected final String resultCode;
+
+    public RollupKey(String owner, long granularity, long eventTime, String activityType, String resultCode)
+    {
+      this.owner = owner;
+      this.granularity = granularity;
+      this.bucketStart = eventTime - (eventTime % granularity);
+      this.activityType = activityType;
+      this.resultCode = resultCode;
+    }
+
+    public String getOwner()
+    {
+      return owner;
+    }
+
+    public int hashCode()
+    {
+      return owner.hashCode() + activityType.hashCode() + ((resultCode==null)?0:resultCode.hashCode()) +
+        (int)(bucketStart ^ (bucketStart >>> 32)) + (int)granularity;
+    }
+
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof RollupKey))
+        return false;
+      RollupKey other = (RollupKey)o;
+      if (granularity != other.granularity || bucketStart != other.bucketStart)
+        return false;
+      if (!owner.equals(other.owner) || !activityType.equals(other.activityType))
+        return false;
+      if (resultCode == null || other.resultCode == null)
+        return resultCode == other.resultCode;
+      return resultCode.equals(other.resultCode);
+    }
+  }
+
+}
@@ -35,6 +35,10 @@ public class DocumentQueue
   protected ArrayList queue = new ArrayList();
   // This flag gets set to 'true' if the queue is being cleared due to a reset
   protected boolean resetFlag = false;
+  // The number of documents in all the queued document sets
+  protected int documentCount = 0;
+  // The total number of documents ever handed to readers
+  protected long documentsRemoved = 0L;
 
   /** Constructor.
   */
@@ -60,6 +64,7 @@ public class DocumentQueue
     synchronized (queue)
     {
       queue.clear();
+      documentCount = 0;
       resetFlag = false;
     }
   }
@@ -77,6 +82,40 @@ public class DocumentQueue
     return false;
   }
 
+  /** Get the number of document sets currently on the queue.
+  *@return the queue depth.
+  */
+  public int getQueueDepth()
+  {
+    synchronized (queue)
+    {
+      return queue.size();
+    }
+  }
+
+  /** Get the number of documents, as opposed to document sets, currently on the queue.
+  *@return the document count.
+  */
+  public int getDocumentCount()
+  {
+    synchronized (queue)
+    {
+      return documentCount;
+    }
+  }
+
+  /** Get the total number of documents that have been pulled off the queue since it was created.
+  * The difference between two readings tells how quickly the readers are draining the queue.
+  *@return the count.
+  */
+  public long getDocumentsRemoved()
+  {
+    synchronized (queue)
+    {
+      return documentsRemoved;
+    }
+  }
+
 
   /** Add a document to the queue.
   *@param dd is the document description.
@@ -86,6 +125,7 @@ public class DocumentQueue
     synchronized (queue)
     {
       queue.add(dd);
+      documentCount += dd.getCount();
       queue.notify();
     }
   }
@@ -132,6 +172,8 @@ public class DocumentQueue
       }
       // Pull off the best one.  DON'T REORDER!!
       QueuedDocumentSet rval = (QueuedDocumentSet)queue.remove(bestIndex);
+      documentCount -= rval.getCount();
+      documentsRemoved += (long)rval.getCount();
       return rval;
     }
   }
@@ -0,0 +1,461 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class is the output ingestion stage of the worker pipeline.  Worker threads hand batches of
+* already-fetched documents to it, and a separate pool of ingest threads sends them to the output connection.
+* This way a slow output connector does not keep the worker threads from fetching the next documents.
+* The hand-off queue is bounded, so workers block when the ingest threads fall too far behind.
+*
+* Each request is owned by the worker thread that submitted it, which waits for it before it completes
+* the document set.  Any error an ingest thread encounters is returned to that worker thread, so errors
+* and resets are handled exactly as though the worker had done the ingestion itself.
+*
+* The ingest threads take part in worker resets.  When a reset is signalled, batches still waiting on the
+* queue are cancelled, new submissions are refused, and each ingest thread finishes the batch it is working
+* on before it waits for the reset, so no ingestion is under way while the reset logic runs.
+*/
+public class IngestStage
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** How often to log the stage queue depths, in milliseconds */
+  protected final static long STATISTICS_INTERVAL = 60000L;
+
+  /** The hand-off queue */
+  protected final BlockingQueue<IngestRequest> queue;
+  /** The ingest threads */
+  protected final IngestThread[] threads;
+  /** The worker document queue, for reporting */
+  protected final DocumentQueue documentQueue;
+  /** The number of ingest threads currently working on a request */
+  protected final AtomicInteger busyThreads = new AtomicInteger(0);
+  /** The last time statistics were logged */
+  protected final AtomicLong lastStatisticsTime = new AtomicLong(System.currentTimeMillis());
+  /** The worker reset manager, which the ingest threads register with */
+  protected final WorkerResetManager resetManager;
+  /** Set while a worker reset is pending; guarded by the queue */
+  protected boolean resetPending = false;
+
+  /** Constructor.
+  *@param threadCount is the number of ingest threads.
+  *@param queueSize is the maximum number of requests that may be waiting for an ingest thread.
+  *@param documentQueue is the worker thread document queue, whose depth is reported along with this stage's.
+  *@param resetManager is the worker reset manager.
+  */
+  public IngestStage(int threadCount, int queueSize, DocumentQueue documentQueue, WorkerResetManager resetManager)
+    throws ManifoldCFException
+  {
+    this.queue = new ArrayBlockingQueue<IngestRequest>(queueSize);
+    this.documentQueue = documentQueue;
+    this.resetManager = resetManager;
+    this.threads = new IngestThread[threadCount];
+    for (int i = 0; i < threadCount; i++)
+    {
+      threads[i] = new IngestThread(Integer.toString(i));
+    }
+  }
+
+  /** Start the ingest threads.
+  */
+  public void start()
+  {
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i].start();
+    }
+  }
+
+  /** Interrupt all the ingest threads, as part of shutdown.
+  */
+  public void interrupt()
+  {
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i].interrupt();
+    }
+  }
+
+  /** Check whether any ingest thread is still running.
+  *@return true if any thread is alive.
+  */
+  public boolean isAlive()
+  {
+    for (int i = 0; i < threads.length; i++)
+    {
+      if (threads[i].isAlive())
+        return true;
+    }
+    return false;
+  }
+
+  /** Submit a batch of documents for ingestion.  Blocks if the hand-off queue is full.  Fails with a
+  * database connection error, which makes the worker take part in the reset, if a worker reset is pending.
+  *@return the request, which the caller must wait for before it considers the documents ingested.
+  */
+  public IngestRequest submit(String outputConnectionName, String connectionName,
+    String[] identifierHashes, String[] documentVersions,
+    String outputVersion, String parameterVersion,
+    String authorityName, RepositoryDocument[] documents, long ingestTime, String[] documentURIs)
+    throws ManifoldCFException
+  {
+    IngestRequest request = new IngestRequest(outputConnectionName,connectionName,identifierHashes,documentVersions,
+      outputVersion,parameterVersion,authorityName,documents,ingestTime,documentURIs);
+    try
+    {
+      synchronized (queue)
+      {
+        while (true)
+        {
+          if (resetPending)
+            throw makeResetException();
+          if (queue.offer(request))
+            break;
+          // Woken by the ingest threads as they take requests, or by a reset
+          queue.wait(1000L);
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+    }
+    return request;
+  }
+
+  /** Note that a worker reset has been signalled.  Queued batches are cancelled and new ones refused
+  * until the reset is done.  Called by the worker reset manager.
+  */
+  public void beginReset()
+  {
+    synchronized (queue)
+    {
+      resetPending = true;
+      failQueuedRequests(makeResetException());
+      queue.notifyAll();
+    }
+  }
+
+  /** Note that a worker reset is complete.  Called by the worker reset manager.
+  */
+  public void endReset()
+  {
+    synchronized (queue)
+    {
+      resetPending = false;
+    }
+  }
+
+  /** Build the error returned for batches cancelled by a reset.  It carries the database connection
+  * error code, because that is what sends a worker thread into the reset rather than aborting the job.
+  */
+  protected static ManifoldCFException makeResetException()
+  {
+    return new ManifoldCFException("Ingestion cancelled by worker reset",ManifoldCFException.DATABASE_CONNECTION_ERROR);
+  }
+
+  /** Take the next request off the queue, waiting a bounded time.
+  *@return the request, or null if none arrived.
+  */
+  protected IngestRequest takeRequest()
+    throws InterruptedException
+  {
+    IngestRequest request = queue.poll(1000L,TimeUnit.MILLISECONDS);
+    if (request != null)
+    {
+      // Let submitters blocked on a full queue retry
+      synchronized (queue)
+      {
+        queue.notifyAll();
+      }
+    }
+    return request;
+  }
+
+  /** Get the number of requests waiting for an ingest thread.
+  */
+  public int getQueueDepth()
+  {
+    return queue.size();
+  }
+
+  /** Get the number of ingest threads currently sending documents.
+  */
+  public int getBusyThreadCount()
+  {
+    return busyThreads.get();
+  }
+
+  /** Get the number of ingest threads.
+  */
+  public int getThreadCount()
+  {
+    return threads.length;
+  }
+
+  /** Log the depths of the worker document queue and the ingest queue, if it is time to do so.  The same
+  * figures are published continuously as the crawler.ingest metrics.
+  */
+  protected void checkStatistics()
+  {
+    long currentTime = System.currentTimeMillis();
+    long lastTime = lastStatisticsTime.get();
+    if (currentTime - lastTime < STATISTICS_INTERVAL || !lastStatisticsTime.compareAndSet(lastTime,currentTime))
+      return;
+    int ingestQueueDepth = getQueueDepth();
+    int busyThreadCount = getBusyThreadCount();
+    // Only worth reporting when there's a backlog; an idle pipeline is logged at debug level
+    if ((ingestQueueDepth > 0 || busyThreadCount > 0) ? Logging.threads.isInfoEnabled() : Logging.threads.isDebugEnabled())
+    {
+      String message = "Pipeline status: "+Integer.toString(documentQueue.getQueueDepth())+" document sets awaiting worker threads; "+
+        Integer.toString(ingestQueueDepth)+" batches awaiting ingest threads; "+
+        Integer.toString(busyThreadCount)+" of "+Integer.toString(getThreadCount())+" ingest threads busy";
+      if (ingestQueueDepth > 0 || busyThreadCount > 0)
+        Logging.threads.info(message);
+      else
+        Logging.threads.debug(message);
+    }
+  }
+
+  /** Fail every request still on the queue.  Called when an ingest thread is shutting down, so that no
+  * worker thread waits forever for a request that will never be picked up.
+  */
+  protected void failQueuedRequests(ManifoldCFException e)
+  {
+    while (true)
+    {
+      IngestRequest request = queue.poll();
+      if (request == null)
+        break;
+      request.completed(e);
+    }
+  }
+
+  /** A batch of documents to ingest, and its eventual result.
+  */
+  public static class IngestRequest
+  {
+    protected final String outputConnectionName;
+    protected final String connectionName;
+    protected final String[] identifierHashes;
+    protected final String[] documentVersions;
+    protected final String outputVersion;
+    protected final String parameterVersion;
+    protected final String authorityName;
+    protected final RepositoryDocument[] documents;
+    protected final long ingestTime;
+    protected final String[] documentURIs;
+
+    /** Set when the request has been processed */
+    protected boolean done = false;
+    /** The error, if any */
+    protected Throwable exception = null;
+
+    public IngestRequest(String outputConnectionName, String connectionName,
+      String[] identifierHashes, String[] documentVersions,
+      String outputVersion, String parameterVersion,
+      String authorityName, RepositoryDocument[] documents, long ingestTime, String[] documentURIs)
+    {
+      this.outputConnectionName = outputConnectionName;
+      this.connectionName = connectionName;
+      this.identifierHashes = identifierHashes;
+      this.documentVersions = documentVersions;
+      this.outputVersion = outputVersion;
+      this.parameterVersion = parameterVersion;
+      this.authorityName = authorityName;
+      this.documents = documents;
+      this.ingestTime = ingestTime;
+      this.documentURIs = documentURIs;
+    }
+
+    /** Check whether this request includes a given document.
+    *@param identifierHash is the document identifier hash.
+    *@param documentURI is the document URI, or null.
+    */
+    public boolean includes(String identifierHash, String documentURI)
+    {
+      for (int i = 0; i < identifierHashes.length; i++)
+      {
+        if (identifierHashes[i].equals(identifierHash))
+          return true;
+        if (documentURI != null && documentURI.equals(documentURIs[i]))
+          return true;
+      }
+      return false;
+    }
+
+    /** Perform the ingestion.
+    */
+    protected void process(IIncrementalIngester ingester, IRepositoryConnectionManager connMgr)
+      throws ManifoldCFException, ServiceInterruption
+    {
+      String[] identifierClasses = new String[identifierHashes.length];
+      for (int i = 0; i < identifierClasses.length; i++)
+      {
+        identifierClasses[i] = connectionName;
+      }
+      ingester.documentIngestMultiple(outputConnectionName,
+        identifierClasses,identifierHashes,
+        documentVersions,outputVersion,parameterVersion,
+        authorityName,
+        documents,ingestTime,
+        documentURIs,
+        new WorkerThread.OutputActivity(connectionName,connMgr,outputConnectionName));
+    }
+
+    /** Note that the request is finished.
+    *@param exception is the error, or null if it succeeded.
+    */
+    protected synchronized void completed(Throwable exception)
+    {
+      this.exception = exception;
+      done = true;
+      notifyAll();
+    }
+
+    /** Wait for the request to be finished, and throw whatever error it encountered.
+    */
+    public void waitForCompletion()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      synchronized (this)
+      {
+        try
+        {
+          while (!done)
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+          throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+        }
+      }
+      if (exception == null)
+        return;
+      if (exception instanceof ManifoldCFException)
+        throw (ManifoldCFException)exception;
+      if (exception instanceof ServiceInterruption)
+        throw (ServiceInterruption)exception;
+      if (exception instanceof RuntimeException)
+        throw (RuntimeException)exception;
+      if (exception instanceof Error)
+        throw (Error)exception;
+      throw new ManifoldCFException("Unexpected ingestion error: "+exception.getMessage(),exception);
+    }
+  }
+
+  /** An ingest thread.  It has its own thread context, and thus its own database handle.
+  */
+  protected class IngestThread extends Thread
+  {
+    public IngestThread(String id)
+    {
+      super();
+      setName("Ingest thread '"+id+"'");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      // Register this thread in the worker reset manager
+      resetManager.registerMe();
+
+      try
+      {
+        IThreadContext threadContext = ThreadContextFactory.make();
+        IIncrementalIngester ingester = IncrementalIngesterFactory.make(threadContext);
+        IRepositoryConnectionManager connMgr = RepositoryConnectionManagerFactory.make(threadContext);
+
+        while (true)
+        {
+          try
+          {
+            if (Thread.currentThread().isInterrupted())
+              throw new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED);
+
+            // Any batch this thread was working on is finished, so it can take part in a reset
+            resetManager.waitForReset(threadContext);
+
+            checkStatistics();
+            IngestRequest request = takeRequest();
+            if (request == null)
+              continue;
+            busyThreads.incrementAndGet();
+            try
+            {
+              request.process(ingester,connMgr);
+              request.completed(null);
+            }
+            catch (ManifoldCFException e)
+            {
+              request.completed(e);
+              if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+                break;
+            }
+            catch (ServiceInterruption e)
+            {
+              request.completed(e);
+            }
+            catch (Throwable e)
+            {
+              // The worker thread will deal with this as it would have had it done the ingestion itself
+              request.completed(e);
+            }
+            finally
+            {
+              busyThreads.decrementAndGet();
+            }
+          }
+          catch (ManifoldCFException e)
+          {
+            if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+              break;
+            // The reset logic failed; it will be retried when the threads next meet
+            Logging.threads.error("Exception tossed: "+e.getMessage(),e);
+          }
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // Shutting down
+      }
+      catch (ManifoldCFException e)
+      {
+        Logging.threads.error("Exception tossed: "+e.getMessage(),e);
+      }
+      catch (Throwable e)
+      {
+        Logging.threads.fatal("Error tossed: "+e.getMessage(),e);
+      }
+      finally
+      {
+        failQueuedRequests(new ManifoldCFException("Ingest thread shut down",ManifoldCFException.INTERRUPTED));
+      }
+    }
+  }
+
+}
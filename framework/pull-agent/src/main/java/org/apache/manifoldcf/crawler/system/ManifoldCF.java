@@ -22,6 +22,7 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import org.apache.manifoldcf.authorities.interfaces.*;
+import org.apache.manifoldcf.core.metrics.*;
 
 import java.io.*;
 import java.security.GeneralSecurityException;
@@ -63,6 +64,7 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   protected static StartDeleteThread startDeleteThread = null;
   protected static JobDeleteThread jobDeleteThread = null;
   protected static WorkerThread[] workerThreads = null;
+  protected static IngestStage ingestStage = null;
   protected static ExpireStufferThread expireStufferThread = null;
   protected static ExpireThread[] expireThreads = null;
   protected static DocumentDeleteStufferThread deleteStufferThread = null;
@@ -90,16 +92,31 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   protected static int numCleanupThreads = 0;
   // Number of expiration threads
   protected static int numExpireThreads = 0;
+  // Number of output ingest threads; zero if worker threads ingest documents themselves
+  protected static int numIngestThreads = 0;
+  // Number of document batches that may wait for an ingest thread
+  protected static int ingestQueueSize = 0;
   // Factor for low water level in queueing
   protected static float lowWaterFactor = 5.0f;
   // Factor in amount to stuff
   protected static float stuffAmtFactor = 0.5f;
+  // True if the stuffer thread should fetch documents ahead of need
+  protected static boolean prefetch = false;
+  // Most work to claim ahead of the worker threads, in seconds
+  protected static int prefetchWindow = 30;
+  // Most documents to hold in the document queue when prefetching
+  protected static int prefetchMaxDocuments = 10000;
 
   // Properties
   protected static final String workerThreadCountProperty = "org.apache.manifoldcf.crawler.threads";
   protected static final String deleteThreadCountProperty = "org.apache.manifoldcf.crawler.deletethreads";
   protected static final String cleanupThreadCountProperty = "org.apache.manifoldcf.crawler.cleanupthreads";
   protected static final String expireThreadCountProperty = "org.apache.manifoldcf.crawler.expirethreads";
+  protected static final String ingestThreadCountProperty = "org.apache.manifoldcf.crawler.ingestthreads";
+  protected static final String ingestQueueSizeProperty = "org.apache.manifoldcf.crawler.ingestqueuesize";
+  protected static final String prefetchProperty = "org.apache.manifoldcf.crawler.prefetch";
+  protected static final String prefetchWindowProperty = "org.apache.manifoldcf.crawler.prefetchwindow";
+  protected static final String prefetchMaxDocumentsProperty = "org.apache.manifoldcf.crawler.prefetchmaxdocuments";
   protected static final String lowWaterFactorProperty = "org.apache.manifoldcf.crawler.lowwaterfactor";
   protected static final String stuffAmtFactorProperty = "org.apache.manifoldcf.crawler.stuffamountfactor";
   protected static final String connectorsConfigurationFileProperty = "org.apache.manifoldcf.connectorsconfigurationfile";
@@ -559,6 +576,12 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       numExpireThreads = new Integer(maxExpireThreads).intValue();
       if (numExpireThreads < 1 || numExpireThreads > 300)
         throw new ManifoldCFException("Illegal value for the number of expire threads");
+      numIngestThreads = getIntProperty(ingestThreadCountProperty,0);
+      if (numIngestThreads < 0 || numIngestThreads > 300)
+        throw new ManifoldCFException("Illegal value for the number of ingest threads");
+      ingestQueueSize = getIntProperty(ingestQueueSizeProperty,numIngestThreads * 2);
+      if (numIngestThreads > 0 && ingestQueueSize < 1)
+        throw new ManifoldCFException("Illegal value for the ingest queue size");
       String lowWaterFactorString = getProperty(lowWaterFactorProperty);
       if (lowWaterFactorString == null)
         lowWaterFactorString = "5";
@@ -571,6 +594,13 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       stuffAmtFactor = new Float(stuffAmtFactorString).floatValue();
       if (stuffAmtFactor < 0.1 || stuffAmtFactor > 1000.0)
         throw new ManifoldCFException("Illegal value for the stuffing amount factor");
+      prefetch = getBooleanProperty(prefetchProperty,false);
+      prefetchWindow = getIntProperty(prefetchWindowProperty,30);
+      if (prefetchWindow < 1)
+        throw new ManifoldCFException("Illegal value for the prefetch window");
+      prefetchMaxDocuments = getIntProperty(prefetchMaxDocumentsProperty,10000);
+      if (prefetchMaxDocuments < 1)
+        throw new ManifoldCFException("Illegal value for the prefetch maximum documents");
 
 
       // Create the threads and objects.  This MUST be completed before there is any chance of "shutdownSystem" getting called.
@@ -595,18 +625,27 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       finisherThread = new FinisherThread();
       notificationThread = new JobNotificationThread();
       jobDeleteThread = new JobDeleteThread();
-      stufferThread = new StufferThread(documentQueue,numWorkerThreads,workerResetManager,queueTracker,blockingDocuments,lowWaterFactor,stuffAmtFactor);
+      stufferThread = new StufferThread(documentQueue,numWorkerThreads,workerResetManager,queueTracker,blockingDocuments,lowWaterFactor,stuffAmtFactor,
+        prefetch,1000L * (long)prefetchWindow,prefetchMaxDocuments);
       expireStufferThread = new ExpireStufferThread(expireQueue,numExpireThreads,workerResetManager);
       setPriorityThread = new SetPriorityThread(queueTracker,numWorkerThreads,blockingDocuments);
 
+      if (numIngestThreads > 0)
+      {
+        ingestStage = new IngestStage(numIngestThreads,ingestQueueSize,documentQueue,workerResetManager);
+        workerResetManager.setIngestStage(ingestStage);
+      }
+
       workerThreads = new WorkerThread[numWorkerThreads];
       int i = 0;
       while (i < numWorkerThreads)
       {
-        workerThreads[i] = new WorkerThread(Integer.toString(i),documentQueue,workerResetManager,queueTracker);
+        workerThreads[i] = new WorkerThread(Integer.toString(i),documentQueue,workerResetManager,queueTracker,ingestStage);
         i++;
       }
 
+      MetricsRegistry.registerSource("crawler",new CrawlerMetricsSource(documentQueue,numWorkerThreads,ingestStage));
+
       expireThreads = new ExpireThread[numExpireThreads];
       i = 0;
       while (i < numExpireThreads)
@@ -644,6 +683,38 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     Logging.root.info("Pull-agent started");
   }
 
+  /** Reports the depth of the document queue and how busy the worker threads and output ingest stage are.
+  */
+  protected static class CrawlerMetricsSource extends MetricsSource
+  {
+    protected final DocumentQueue documentQueue;
+    protected final int workerThreadCount;
+    protected final IngestStage ingestStage;
+
+    public CrawlerMetricsSource(DocumentQueue documentQueue, int workerThreadCount, IngestStage ingestStage)
+    {
+      this.documentQueue = documentQueue;
+      this.workerThreadCount = workerThreadCount;
+      this.ingestStage = ingestStage;
+    }
+
+    public void collect(Map<String,Number> values)
+    {
+      values.put("crawler.queue.documentsets",new Integer(documentQueue.getQueueDepth()));
+      values.put("crawler.queue.documents",new Integer(documentQueue.getDocumentCount()));
+      values.put("crawler.worker.threads",new Integer(workerThreadCount));
+      int busy = WorkerThread.getBusyWorkerCount();
+      values.put("crawler.worker.busy",new Integer(busy));
+      values.put("crawler.worker.utilization",new Double((double)busy / (double)workerThreadCount));
+      if (ingestStage != null)
+      {
+        values.put("crawler.ingest.threads",new Integer(ingestStage.getThreadCount()));
+        values.put("crawler.ingest.busy",new Integer(ingestStage.getBusyThreadCount()));
+        values.put("crawler.ingest.queue",new Integer(ingestStage.getQueueDepth()));
+      }
+    }
+  }
+
   protected static class InitializationThread extends Thread
   {
 
@@ -714,6 +785,9 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
         expireStufferThread.start();
         setPriorityThread.start();
 
+        if (ingestStage != null)
+          ingestStage.start();
+
         i = 0;
         while (i < numWorkerThreads)
         {
@@ -775,7 +849,7 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     {
       while (initializationThread != null || jobDeleteThread != null || startupThread != null || startDeleteThread != null ||
         jobStartThread != null || stufferThread != null ||
-        finisherThread != null || notificationThread != null || workerThreads != null || expireStufferThread != null || expireThreads != null ||
+        finisherThread != null || notificationThread != null || workerThreads != null || ingestStage != null || expireStufferThread != null || expireThreads != null ||
         deleteStufferThread != null || deleteThreads != null ||
         cleanupStufferThread != null || cleanupThreads != null ||
         jobResetThread != null || seedingThread != null || idleCleanupThread != null || setPriorityThread != null)
@@ -833,6 +907,10 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
               workerThread.interrupt();
           }
         }
+        if (ingestStage != null)
+        {
+          ingestStage.interrupt();
+        }
         if (expireThreads != null)
         {
           int i = 0;
@@ -964,6 +1042,12 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
             workerThreads = null;
         }
 
+        if (ingestStage != null)
+        {
+          if (!ingestStage.isAlive())
+            ingestStage = null;
+        }
+
         if (expireThreads != null)
         {
           int i = 0;
@@ -2673,11 +2757,6 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     }
     else if (reportType.equals("maxactivity"))
     {
-      long maxInterval = connectionManager.getMaxRows();
-      long actualRows = connectionManager.countHistoryRows(connectionName,filterCriteria);
-      if (actualRows > maxInterval)
-        throw new ManifoldCFException("Too many history rows specified for maxactivity report - actual is "+actualRows+", max is "+maxInterval+".");
-        
       BucketDescription idBucket;
       List<String> idBucketList = queryParameters.get("idbucket");
       List<String> idBucketInsensitiveList = queryParameters.get("idbucket_insensitive");
@@ -2707,6 +2786,11 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       else
         interval = new Long(intervalList.get(0)).longValue();
         
+      long maxInterval = connectionManager.getMaxRows();
+      long actualRows = connectionManager.countWindowedReportRows(connectionName,filterCriteria,idBucket,interval);
+      if (actualRows > maxInterval)
+        throw new ManifoldCFException("Too many history rows specified for maxactivity report - actual is "+actualRows+", max is "+maxInterval+".");
+
       try
       {
         result = connectionManager.genHistoryActivityCount(connectionName,filterCriteria,sortOrder,idBucket,interval,startRow,rowCount);
@@ -2720,11 +2804,6 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     }
     else if (reportType.equals("maxbandwidth"))
     {
-      long maxInterval = connectionManager.getMaxRows();
-      long actualRows = connectionManager.countHistoryRows(connectionName,filterCriteria);
-      if (actualRows > maxInterval)
-        throw new ManifoldCFException("Too many history rows specified for maxbandwidth report - actual is "+actualRows+", max is "+maxInterval+".");
-        
       BucketDescription idBucket;
       List<String> idBucketList = queryParameters.get("idbucket");
       List<String> idBucketInsensitiveList = queryParameters.get("idbucket_insensitive");
@@ -2754,6 +2833,11 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       else
         interval = new Long(intervalList.get(0)).longValue();
 
+      long maxInterval = connectionManager.getMaxRows();
+      long actualRows = connectionManager.countWindowedReportRows(connectionName,filterCriteria,idBucket,interval);
+      if (actualRows > maxInterval)
+        throw new ManifoldCFException("Too many history rows specified for maxbandwidth report - actual is "+actualRows+", max is "+maxInterval+".");
+
       try
       {
         result = connectionManager.genHistoryByteCount(connectionName,filterCriteria,sortOrder,idBucket,interval,startRow,rowCount);
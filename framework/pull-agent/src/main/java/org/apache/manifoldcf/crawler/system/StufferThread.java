@@ -48,6 +48,21 @@ public class StufferThread extends Thread
   // Blocking documents object.
   protected BlockingDocuments blockingDocuments;
 
+  // Prefetch mode.  When set, the next batch is queried as soon as the workers look likely to drain
+  // the queue before that query would finish, rather than waiting for the low water mark.
+  protected boolean prefetch;
+  // In prefetch mode, the longest stretch of work, in milliseconds, that may be claimed ahead of the workers
+  protected long prefetchWindow;
+  // In prefetch mode, the largest number of documents that may be sitting in the document queue
+  protected int prefetchMaxDocuments;
+
+  /** How often to check the queue in prefetch mode, in milliseconds */
+  protected static final long PREFETCH_CHECK_INTERVAL = 250L;
+  /** How often to sample the worker drain rate, in milliseconds */
+  protected static final long DRAIN_SAMPLE_INTERVAL = 1000L;
+  /** Weight given to each new sample in the drain rate and query time averages */
+  protected static final double SAMPLE_WEIGHT = 0.3;
+
   /** Constructor.
   *@param documentQueue is the document queue we'll be stuffing.
   *@param n represents the number of threads that will be processing queued stuff, NOT the
@@ -56,8 +71,27 @@ public class StufferThread extends Thread
   public StufferThread(DocumentQueue documentQueue, int n, WorkerResetManager resetManager, QueueTracker qt,
     BlockingDocuments blockingDocuments, float lowWaterFactor, float stuffSizeFactor)
     throws ManifoldCFException
+  {
+    this(documentQueue,n,resetManager,qt,blockingDocuments,lowWaterFactor,stuffSizeFactor,false,0L,0);
+  }
+
+  /** Constructor.
+  *@param documentQueue is the document queue we'll be stuffing.
+  *@param n represents the number of threads that will be processing queued stuff, NOT the
+  * number of documents to be done at once!
+  *@param prefetch is true if the next batch should be fetched ahead of need.
+  *@param prefetchWindow is the most work, in milliseconds, to claim ahead of the workers in prefetch mode.
+  *@param prefetchMaxDocuments is the most documents to have in the queue in prefetch mode.
+  */
+  public StufferThread(DocumentQueue documentQueue, int n, WorkerResetManager resetManager, QueueTracker qt,
+    BlockingDocuments blockingDocuments, float lowWaterFactor, float stuffSizeFactor,
+    boolean prefetch, long prefetchWindow, int prefetchMaxDocuments)
+    throws ManifoldCFException
   {
     super();
+    this.prefetch = prefetch;
+    this.prefetchWindow = prefetchWindow;
+    this.prefetchMaxDocuments = prefetchMaxDocuments;
     this.documentQueue = documentQueue;
     this.lowWaterMark = (int)(lowWaterFactor * (float)n);
     this.lowestStuffAmt = (int)(stuffSizeFactor * (float)n);
@@ -111,6 +145,13 @@ public class StufferThread extends Thread
       long lastQueueEnd = -1L;
       boolean lastQueueFullResults = false;
 
+      // Prefetch mode instead measures how fast the workers drain the queue, and how long the query takes.
+      // Both are in milliseconds; negative means not yet measured.
+      double drainRate = -1.0;
+      double queryTime = -1.0;
+      long lastSampleTime = System.currentTimeMillis();
+      long lastSampleRemoved = documentQueue.getDocumentsRemoved();
+
       // Loop
       while (true)
       {
@@ -123,20 +164,62 @@ public class StufferThread extends Thread
           // Check if we're okay
           resetManager.waitForReset(threadContext);
 
-          // System.out.println("Waiting...");
-          // Wait until queue is below low water mark.
-          boolean isEmpty = documentQueue.checkIfEmpty(lowWaterMark);
-          if (isEmpty == false)
+          if (prefetch)
           {
-            ManifoldCF.sleep(1000L);
-            continue;
+            // Update the drain rate
+            long sampleTime = System.currentTimeMillis();
+            if (sampleTime - lastSampleTime >= DRAIN_SAMPLE_INTERVAL)
+            {
+              long sampleRemoved = documentQueue.getDocumentsRemoved();
+              double rate = (double)(sampleRemoved - lastSampleRemoved) / (double)(sampleTime - lastSampleTime);
+              if (drainRate < 0.0)
+                drainRate = rate;
+              else
+                drainRate = drainRate * (1.0 - SAMPLE_WEIGHT) + rate * SAMPLE_WEIGHT;
+              lastSampleTime = sampleTime;
+              lastSampleRemoved = sampleRemoved;
+            }
+
+            int queuedDocuments = documentQueue.getDocumentCount();
+            if (!documentQueue.checkIfEmpty(lowWaterMark))
+            {
+              // Don't go over the memory bound, and don't bother until the workers would run dry before
+              // a query started now would be done.
+              if (queuedDocuments + lowestStuffAmt > prefetchMaxDocuments || drainRate <= 0.0 || queryTime < 0.0 ||
+                (double)queuedDocuments / drainRate > 2.0 * queryTime + (double)PREFETCH_CHECK_INTERVAL)
+              {
+                ManifoldCF.sleep(PREFETCH_CHECK_INTERVAL);
+                continue;
+              }
+            }
+
+            // Fetch enough to keep the workers busy for a few query times, but claim no more than the window
+            // allows, nor more than fits in the queue.
+            if (drainRate > 0.0 && queryTime >= 0.0)
+            {
+              double lookAhead = Math.min((double)prefetchWindow,Math.max(4.0 * queryTime,(double)DRAIN_SAMPLE_INTERVAL));
+              stuffAmt = (int)Math.min((double)(prefetchMaxDocuments - queuedDocuments),drainRate * lookAhead);
+              if (stuffAmt < lowestStuffAmt)
+                stuffAmt = lowestStuffAmt;
+            }
+            Logging.threads.debug("Document stuffer thread prefetching");
+          }
+          else
+          {
+            // System.out.println("Waiting...");
+            // Wait until queue is below low water mark.
+            boolean isEmpty = documentQueue.checkIfEmpty(lowWaterMark);
+            if (isEmpty == false)
+            {
+              ManifoldCF.sleep(1000L);
+              continue;
+            }
+            Logging.threads.debug("Document stuffer thread woke up");
           }
           long queueNeededTime = System.currentTimeMillis();
 
-          Logging.threads.debug("Document stuffer thread woke up");
-
           // Adjust stuffAmt based on how well we did in the last queuing attempt keeping up with the worker threads.
-          if (lastQueueFullResults)
+          if (!prefetch && lastQueueFullResults)
           {
             if (lastQueueEnd - lastQueueStart >= queueNeededTime - lastQueueEnd)
               stuffAmt *= 2;
@@ -158,6 +241,14 @@ public class StufferThread extends Thread
             blockingDocuments,queueTracker.getCurrentStatistics(),depthStatistics);
           lastQueueEnd = System.currentTimeMillis();
           lastQueueFullResults = (descs.length == stuffAmt);
+          // Only a full result tells us how long a query of this size takes
+          if (lastQueueFullResults || queryTime < 0.0)
+          {
+            if (queryTime < 0.0)
+              queryTime = (double)(lastQueueEnd - lastQueueStart);
+            else
+              queryTime = queryTime * (1.0 - SAMPLE_WEIGHT) + (double)(lastQueueEnd - lastQueueStart) * SAMPLE_WEIGHT;
+          }
 
           if (Thread.currentThread().isInterrupted())
             throw new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED);
@@ -169,6 +260,9 @@ public class StufferThread extends Thread
           if (Logging.threads.isDebugEnabled())
           {
             Logging.threads.debug("Stuffer thread: Found "+Integer.toString(descs.length)+" documents to queue");
+            if (prefetch)
+              Logging.threads.debug("Stuffer thread: Query took "+Long.toString(lastQueueEnd-lastQueueStart)+" ms; workers are draining "+
+                ((drainRate < 0.0)?"(unknown)":Double.toString(drainRate*1000.0))+" documents per second");
           }
 
           // If there are no queuable documents at all, then we can sleep for a while.
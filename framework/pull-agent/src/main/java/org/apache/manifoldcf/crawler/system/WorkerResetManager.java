@@ -34,6 +34,8 @@ public class WorkerResetManager extends ResetManager
   protected DocumentQueue dq;
   /** The expiration queue */
   protected DocumentCleanupQueue eq;
+  /** The output ingest stage, or null */
+  protected IngestStage ingestStage = null;
 
   /** Constructor. */
   public WorkerResetManager(DocumentQueue dq, DocumentCleanupQueue eq)
@@ -43,20 +45,39 @@ public class WorkerResetManager extends ResetManager
     this.eq = eq;
   }
 
+  /** Set the output ingest stage, whose threads take part in resets.  Must be called before any
+  * thread is started.
+  */
+  public void setIngestStage(IngestStage ingestStage)
+  {
+    this.ingestStage = ingestStage;
+  }
+
   /** Reset */
   protected void performResetLogic(IThreadContext tc)
     throws ManifoldCFException
   {
-    IJobManager jobManager = JobManagerFactory.make(tc);
-    jobManager.resetDocumentWorkerStatus();
-    dq.clear();
-    eq.clear();
+    try
+    {
+      IJobManager jobManager = JobManagerFactory.make(tc);
+      jobManager.resetDocumentWorkerStatus();
+      dq.clear();
+      eq.clear();
+    }
+    finally
+    {
+      if (ingestStage != null)
+        ingestStage.endReset();
+    }
   }
   
   /** Do the wakeup logic.
   */
   protected void performWakeupLogic()
   {
+    // Cancel queued ingest batches, so no worker thread waits on one while the ingest threads wait for the reset
+    if (ingestStage != null)
+      ingestStage.beginReset();
     // Wake up all sleeping worker threads
     dq.reset();
     eq.reset();
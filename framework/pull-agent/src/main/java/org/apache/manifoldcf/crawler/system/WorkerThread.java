@@ -22,9 +22,11 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import org.apache.manifoldcf.crawler.system.Logging;
+import org.apache.manifoldcf.core.metrics.*;
 import java.util.*;
 import java.io.*;
 import java.lang.reflect.*;
+import java.util.concurrent.atomic.*;
 
 /** This class represents a worker thread.  Hundreds of these threads are instantiated in order to
 * perform crawling and extraction.
@@ -33,6 +35,12 @@ public class WorkerThread extends Thread
 {
   public static final String _rcsid = "@(#)$Id: WorkerThread.java 988245 2010-08-23 18:39:35Z kwright $";
 
+  /** The number of worker threads currently processing a document set */
+  protected final static AtomicInteger busyWorkers = new AtomicInteger(0);
+  /** Time taken to process each document set, in microseconds */
+  protected final static LatencyTimer documentSetTimer = MetricsRegistry.getTimer("crawler.worker.documentset");
+  /** Documents handed to worker threads */
+  protected final static Counter documentsProcessed = MetricsRegistry.getCounter("crawler.worker.documents");
 
   // Local data
   protected String id;
@@ -42,18 +50,39 @@ public class WorkerThread extends Thread
   protected WorkerResetManager resetManager;
   /** Queue tracker */
   protected QueueTracker queueTracker;
+  /** Output ingest stage, or null if documents are ingested by the worker thread itself */
+  protected IngestStage ingestStage;
+
+  /** Get the number of worker threads currently processing documents, across the whole process.
+  */
+  public static int getBusyWorkerCount()
+  {
+    return busyWorkers.get();
+  }
 
   /** Constructor.
   *@param id is the worker thread id.
   */
   public WorkerThread(String id, DocumentQueue documentQueue, WorkerResetManager resetManager, QueueTracker queueTracker)
     throws ManifoldCFException
+  {
+    this(id,documentQueue,resetManager,queueTracker,null);
+  }
+
+  /** Constructor.
+  *@param id is the worker thread id.
+  *@param ingestStage is the output ingest stage to hand documents to, or null if this thread should ingest them itself.
+  */
+  public WorkerThread(String id, DocumentQueue documentQueue, WorkerResetManager resetManager, QueueTracker queueTracker,
+    IngestStage ingestStage)
+    throws ManifoldCFException
   {
     super();
     this.id = id;
     this.documentQueue = documentQueue;
     this.resetManager = resetManager;
     this.queueTracker = queueTracker;
+    this.ingestStage = ingestStage;
     setName("Worker thread '"+id+"'");
     setDaemon(true);
 
@@ -116,6 +145,9 @@ public class WorkerThread extends Thread
             // It's a reset, so recycle
             continue;
 
+          busyWorkers.incrementAndGet();
+          documentsProcessed.add((long)qds.getCount());
+          long setStartTime = documentSetTimer.start();
           try
           {
             // System.out.println("Got a document set");
@@ -523,7 +555,7 @@ public class WorkerThread extends Thread
 
                         // First, make the things we will need for all subsequent steps.
                         ProcessActivity activity = new ProcessActivity(threadContext,queueTracker,jobManager,ingester,
-                          currentTime,job,connection,connector,connMgr,legalLinkTypes,ingestLogger,abortSet,outputVersion,newParameterVersion);
+                          currentTime,job,connection,connector,connMgr,legalLinkTypes,ingestLogger,abortSet,outputVersion,newParameterVersion,ingestStage);
                         try
                         {
 
@@ -867,6 +899,8 @@ public class WorkerThread extends Thread
           }
           finally
           {
+            documentSetTimer.stop(setStartTime);
+            busyWorkers.decrementAndGet();
             // Go through qds and requeue any that aren't closed out in one way or another.  This allows the job
             // to be aborted; no dangling entries are left around.
             int i = 0;
@@ -1220,6 +1254,8 @@ public class WorkerThread extends Thread
 
   /** The maximum number of adds that happen in a single transaction */
   protected static final int MAX_ADDS_IN_TRANSACTION = 20;
+  /** The largest document that will be held in memory so it can be ingested as part of a batch */
+  protected static final long MAX_BATCHED_DOCUMENT_SIZE = 1048576L;
 
   // Nested classes
 
@@ -1450,13 +1486,27 @@ public class WorkerThread extends Thread
     // Origination times
     protected HashMap originationTimes = new HashMap();
 
+    // The output connection's batch size, or -1 if not yet known
+    protected int maxDocumentBatchSize = -1;
+    // Documents waiting to be ingested as a batch.  Their content has been captured in memory.
+    protected List<String> pendingIdentifierHashes = new ArrayList<String>();
+    protected List<String> pendingVersions = new ArrayList<String>();
+    protected List<String> pendingURIs = new ArrayList<String>();
+    protected List<RepositoryDocument> pendingDocuments = new ArrayList<RepositoryDocument>();
+    // The output ingest stage, or null if documents are ingested here
+    protected final IngestStage ingestStage;
+    // Batches handed to the ingest stage that have not yet been waited for
+    protected List<IngestStage.IngestRequest> pendingIngests = new ArrayList<IngestStage.IngestRequest>();
+
     /** Constructor.
     *@param jobManager is the job manager
     *@param ingester is the ingester
+    *@param ingestStage is the output ingest stage, or null.
     */
     public ProcessActivity(IThreadContext threadContext, QueueTracker queueTracker, IJobManager jobManager, IIncrementalIngester ingester,
       long currentTime, IJobDescription job, IRepositoryConnection connection, IRepositoryConnector connector, IRepositoryConnectionManager connMgr,
-      String[] legalLinkTypes, OutputActivity ingestLogger, HashMap abortSet, String outputVersion, String parameterVersion)
+      String[] legalLinkTypes, OutputActivity ingestLogger, HashMap abortSet, String outputVersion, String parameterVersion,
+      IngestStage ingestStage)
     {
       this.threadContext = threadContext;
       this.queueTracker = queueTracker;
@@ -1472,6 +1522,7 @@ public class WorkerThread extends Thread
       this.abortSet = abortSet;
       this.outputVersion = outputVersion;
       this.parameterVersion = parameterVersion;
+      this.ingestStage = ingestStage;
     }
 
     /** Clean up any dangling information, before abandoning this process activity object */
@@ -1485,6 +1536,10 @@ public class WorkerThread extends Thread
         dr.discard();
       }
       referenceList.clear();
+      clearPendingDocuments();
+      // Anything already handed to the ingest stage must be finished before the documents are requeued,
+      // or before this thread takes part in a reset, so wait for it; its outcome no longer matters.
+      abandonIngests();
     }
 
     /** Add a document description to the current job's queue.
@@ -1689,6 +1744,10 @@ public class WorkerThread extends Thread
       throws ManifoldCFException, ServiceInterruption
     {
       String documentIdentifierHash = ManifoldCF.hash(documentIdentifier);
+      // Any earlier ingestion of this document must be complete first
+      if (pendingIdentifierHashes.contains(documentIdentifierHash))
+        flushDocuments();
+      waitForIngests(documentIdentifierHash,null);
       ingester.documentRecord(job.getOutputConnectionName(),job.getConnectionName(),documentIdentifierHash,version,currentTime,ingestLogger);
     }
 
@@ -1728,6 +1787,29 @@ public class WorkerThread extends Thread
         }
       }
         
+      // If the output connection can take documents in batches, or there is an ingest stage to hand them to, and
+      // this document is small enough to hold in memory, queue it up rather than ingesting it right away.
+      if (data != null && documentURI != null && (getMaxDocumentBatchSize() > 1 || ingestStage != null) &&
+        data.getBinaryLength() <= MAX_BATCHED_DOCUMENT_SIZE)
+      {
+        // A document that's already pending must go out before it is ingested again.
+        if (pendingIdentifierHashes.contains(documentIdentifierHash) || pendingURIs.contains(documentURI))
+          flushDocuments();
+        waitForIngests(documentIdentifierHash,documentURI);
+        captureDocument(data);
+        pendingIdentifierHashes.add(documentIdentifierHash);
+        pendingVersions.add(version);
+        pendingURIs.add(documentURI);
+        pendingDocuments.add(data);
+        if (pendingDocuments.size() >= getMaxDocumentBatchSize())
+          flushDocuments();
+        return;
+      }
+
+      // Keep the order of operations the same as it would be without batching.
+      flushDocuments();
+      waitForIngests(documentIdentifierHash,documentURI);
+
       // First, we need to add into the metadata the stuff from the job description.
       ingester.documentIngest(job.getOutputConnectionName(),
         job.getConnectionName(),documentIdentifierHash,
@@ -1738,6 +1820,189 @@ public class WorkerThread extends Thread
         ingestLogger);
     }
 
+    /** Get the maximum batch size for the job's output connection.
+    */
+    protected int getMaxDocumentBatchSize()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      if (maxDocumentBatchSize == -1)
+        maxDocumentBatchSize = ingester.getMaxDocumentBatchSize(job.getOutputConnectionName());
+      return maxDocumentBatchSize;
+    }
+
+    /** Read the binary content and any reader-valued fields of a document into memory, so that the
+    * document remains valid after the repository connector closes its streams.
+    */
+    protected static void captureDocument(RepositoryDocument data)
+      throws ManifoldCFException
+    {
+      try
+      {
+        ContentHandle content = data.getBinaryContent();
+        // Content already in memory stays valid, so there is nothing to copy
+        if (content != null && !(content instanceof ByteArrayContentHandle))
+        {
+          ByteArrayOutputStream os = new ByteArrayOutputStream((int)content.getLength());
+          content.writeTo(os);
+          data.setBinary(new ByteArrayContentHandle(os.toByteArray()));
+        }
+        // Gather the field names first, since we will be replacing values
+        List<String> fieldNames = new ArrayList<String>();
+        Iterator<String> iter = data.getFields();
+        while (iter.hasNext())
+        {
+          fieldNames.add(iter.next());
+        }
+        for (String fieldName : fieldNames)
+        {
+          Object[] values = data.getField(fieldName);
+          if (values != null && values.length > 0 && values[0] instanceof Reader)
+            data.addField(fieldName,data.getFieldAsStrings(fieldName));
+        }
+      }
+      catch (InterruptedIOException e)
+      {
+        throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      }
+      catch (IOException e)
+      {
+        throw new ManifoldCFException("Error reading document content: "+e.getMessage(),e);
+      }
+    }
+
+    /** Ingest all pending documents as a batch.
+    */
+    protected void flushDocuments()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      int count = pendingDocuments.size();
+      if (count == 0)
+        return;
+      String[] identifierClasses = new String[count];
+      for (int i = 0; i < count; i++)
+      {
+        identifierClasses[i] = job.getConnectionName();
+      }
+      String[] identifierHashes = pendingIdentifierHashes.toArray(new String[0]);
+      String[] versions = pendingVersions.toArray(new String[0]);
+      String[] documentURIs = pendingURIs.toArray(new String[0]);
+      RepositoryDocument[] documents = pendingDocuments.toArray(new RepositoryDocument[0]);
+      clearPendingDocuments();
+      if (ingestStage != null)
+      {
+        // Hand the batch off, and go on fetching.  We'll wait for it before the documents are finished.
+        if (Logging.threads.isDebugEnabled())
+          Logging.threads.debug("Worker thread handing a batch of "+Integer.toString(count)+" documents to the ingest stage");
+        pendingIngests.add(ingestStage.submit(job.getOutputConnectionName(),job.getConnectionName(),
+          identifierHashes,versions,outputVersion,parameterVersion,
+          connection.getACLAuthority(),
+          documents,currentTime,
+          documentURIs));
+        return;
+      }
+      if (Logging.threads.isDebugEnabled())
+        Logging.threads.debug("Worker thread ingesting a batch of "+Integer.toString(count)+" documents");
+      ingester.documentIngestMultiple(job.getOutputConnectionName(),
+        identifierClasses,identifierHashes,
+        versions,outputVersion,parameterVersion,
+        connection.getACLAuthority(),
+        documents,currentTime,
+        documentURIs,
+        ingestLogger);
+    }
+
+    /** Forget about pending documents.
+    */
+    protected void clearPendingDocuments()
+    {
+      pendingIdentifierHashes.clear();
+      pendingVersions.clear();
+      pendingURIs.clear();
+      pendingDocuments.clear();
+    }
+
+    /** Wait for any batch handed to the ingest stage that includes the given document.
+    *@param documentIdentifierHash is the document identifier hash.
+    *@param documentURI is the document URI, or null.
+    */
+    protected void waitForIngests(String documentIdentifierHash, String documentURI)
+      throws ManifoldCFException, ServiceInterruption
+    {
+      for (IngestStage.IngestRequest request : pendingIngests)
+      {
+        if (request.includes(documentIdentifierHash,documentURI))
+        {
+          // Wait for everything, so the ingestion order is preserved
+          waitForIngests();
+          return;
+        }
+      }
+    }
+
+    /** Wait for all the batches handed to the ingest stage, ignoring their outcome.
+    */
+    protected void abandonIngests()
+      throws ManifoldCFException
+    {
+      if (pendingIngests.size() == 0)
+        return;
+      List<IngestStage.IngestRequest> requests = pendingIngests;
+      pendingIngests = new ArrayList<IngestStage.IngestRequest>();
+      for (IngestStage.IngestRequest request : requests)
+      {
+        try
+        {
+          request.waitForCompletion();
+        }
+        catch (ManifoldCFException e)
+        {
+          if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+            throw e;
+        }
+        catch (ServiceInterruption e)
+        {
+          // Discarded along with the documents
+        }
+      }
+    }
+
+    /** Wait for all the batches handed to the ingest stage.  If any failed, the first failure is thrown, but
+    * only after all the others have completed.
+    */
+    protected void waitForIngests()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      if (pendingIngests.size() == 0)
+        return;
+      List<IngestStage.IngestRequest> requests = pendingIngests;
+      pendingIngests = new ArrayList<IngestStage.IngestRequest>();
+      ManifoldCFException firstException = null;
+      ServiceInterruption firstServiceInterruption = null;
+      for (IngestStage.IngestRequest request : requests)
+      {
+        try
+        {
+          request.waitForCompletion();
+        }
+        catch (ManifoldCFException e)
+        {
+          if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+            throw e;
+          if (firstException == null && firstServiceInterruption == null)
+            firstException = e;
+        }
+        catch (ServiceInterruption e)
+        {
+          if (firstException == null && firstServiceInterruption == null)
+            firstServiceInterruption = e;
+        }
+      }
+      if (firstException != null)
+        throw firstException;
+      if (firstServiceInterruption != null)
+        throw firstServiceInterruption;
+    }
+
     /** Delete the current document from the search engine index, while keeping track of the version information
     * for it (to reduce churn).
     *@param documentIdentifier is the document's local identifier.
@@ -1764,7 +2029,10 @@ public class WorkerThread extends Thread
     public void deleteDocument(String documentIdentifier)
       throws ManifoldCFException, ServiceInterruption
     {
+      // Anything pending must be ingested first, in case it is this document
+      flushDocuments();
       String documentIdentifierHash = ManifoldCF.hash(documentIdentifier);
+      waitForIngests(documentIdentifierHash,null);
       ingester.documentDelete(job.getOutputConnectionName(),
         job.getConnectionName(),documentIdentifierHash,
         ingestLogger);
@@ -1940,11 +2208,13 @@ public class WorkerThread extends Thread
         resultDescription,childIdentifiers);
     }
 
-    /** Flush the outstanding references into the database.
+    /** Flush the outstanding documents and references into the database.
     */
     public void flush()
-      throws ManifoldCFException
+      throws ManifoldCFException, ServiceInterruption
     {
+      flushDocuments();
+      waitForIngests();
       processDocumentReferences();
     }
 
@@ -0,0 +1,98 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Checks that the request queue only joins, and the response cache only answers, requests that ask
+* the same authority about the same user.
+*/
+public class RequestQueueTest
+{
+
+  @Test
+  public void keysDoNotCollide()
+  {
+    // Joining the connection and user names with a separator would make these look alike
+    AuthRequest a = makeRequest("a","b/c");
+    AuthRequest b = makeRequest("a/b","c");
+    assertFalse(a.getKey().equals(b.getKey()));
+
+    AuthRequest c = new AuthRequest("c","Class:a","b",new ConfigParams(),10);
+    AuthRequest d = new AuthRequest("c","Class","a:b",new ConfigParams(),10);
+    assertFalse(c.getKey().equals(d.getKey()));
+
+    assertEquals(a.getKey(),makeRequest("a","b/c").getKey());
+    assertEquals(a.getKey().hashCode(),makeRequest("a","b/c").getKey().hashCode());
+    assertEquals(c.getKey(),new AuthRequest("c","Class:a","b",new ConfigParams(),10).getKey());
+  }
+
+  @Test
+  public void identicalRequestsAreJoined()
+    throws Exception
+  {
+    RequestQueue queue = new RequestQueue();
+    AuthRequest first = makeRequest("a","b/c");
+    assertSame(first,queue.addRequest(first));
+    assertSame(first,queue.addRequest(makeRequest("a","b/c")));
+
+    // A different question is queued separately
+    AuthRequest other = makeRequest("a/b","c");
+    assertSame(other,queue.addRequest(other));
+
+    assertSame(first,queue.getRequest());
+    assertSame(other,queue.getRequest());
+
+    // Once the first is complete, the same question is asked again
+    queue.completeRequest(first,new AuthorizationResponse(new String[]{"token"},AuthorizationResponse.RESPONSE_OK),null,true);
+    AuthRequest again = makeRequest("a","b/c");
+    assertSame(again,queue.addRequest(again));
+  }
+
+  @Test
+  public void cachedAnswersGoOnlyToTheSameQuestion()
+    throws Exception
+  {
+    RequestQueue queue = new RequestQueue(new AuthorizationResponseCache(60000L,60000L,1000000L,0));
+    AuthRequest first = makeRequest("a","b/c");
+    assertSame(first,queue.addRequest(first));
+    assertSame(first,queue.getRequest());
+    queue.completeRequest(first,new AuthorizationResponse(new String[]{"token"},AuthorizationResponse.RESPONSE_OK),null,true);
+
+    AuthRequest same = makeRequest("a","b/c");
+    assertSame(same,queue.addRequest(same));
+    assertTrue(same.waitForComplete(0L));
+    assertArrayEquals(new String[]{"token"},same.getAnswerResponse().getAccessTokens());
+
+    AuthRequest other = makeRequest("a/b","c");
+    assertSame(other,queue.addRequest(other));
+    assertFalse(other.waitForComplete(0L));
+    assertSame(other,queue.getRequest());
+  }
+
+  protected static AuthRequest makeRequest(String connectionName, String userID)
+  {
+    return new AuthRequest(userID,connectionName,"Class",connectionName,new ConfigParams(),10);
+  }
+
+}
@@ -0,0 +1,184 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.interfaces;
+
+import org.apache.manifoldcf.crawler.system.Logging;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Checks that the QueueTracker's concurrent bin counts stay exact, including while empty counters are
+* being swept out by other threads.
+*/
+public class QueueTrackerTest
+{
+
+  @BeforeClass
+  public static void setUpLogging()
+  {
+    org.apache.manifoldcf.core.system.Logging.initializeLoggingSystem(new File("logging.ini"));
+    Logging.initializeLoggers();
+  }
+
+  @Test
+  public void queuedAndActiveCounts()
+  {
+    QueueTracker tracker = new QueueTracker();
+    tracker.addRecord(new String[]{"a","b"});
+    tracker.addRecord(new String[]{"a"});
+    assertEquals(2,count(tracker.queuedBinCounts,"a"));
+    assertEquals(1,count(tracker.queuedBinCounts,"b"));
+    assertEquals(0,count(tracker.activeBinCounts,"a"));
+
+    tracker.beginProcessing(new String[]{"a","b"});
+    assertEquals(1,count(tracker.queuedBinCounts,"a"));
+    assertEquals(0,count(tracker.queuedBinCounts,"b"));
+    assertEquals(1,count(tracker.activeBinCounts,"a"));
+    assertEquals(1,count(tracker.activeBinCounts,"b"));
+
+    tracker.endProcessing(new String[]{"a","b"});
+    assertEquals(0,count(tracker.activeBinCounts,"a"));
+    assertEquals(0,count(tracker.activeBinCounts,"b"));
+
+    // Counts never go below zero
+    tracker.endProcessing(new String[]{"a"});
+    tracker.addRecord(new String[]{"a"});
+    tracker.beginProcessing(new String[]{"a"});
+    assertEquals(1,count(tracker.activeBinCounts,"a"));
+  }
+
+  @Test
+  public void sweepRemovesOnlyEmptyCounters()
+  {
+    QueueTracker tracker = new QueueTracker();
+    tracker.addRecord(new String[]{"held"});
+    tracker.beginProcessing(new String[]{"held"});
+    tracker.addRecord(new String[]{"queued"});
+
+    QueueTracker.sweepBinCounts(tracker.queuedBinCounts);
+    QueueTracker.sweepBinCounts(tracker.activeBinCounts);
+    assertNull(tracker.queuedBinCounts.get("held"));
+    assertEquals(1,count(tracker.queuedBinCounts,"queued"));
+    assertEquals(1,count(tracker.activeBinCounts,"held"));
+
+    // A bin whose counter was swept starts again from zero
+    tracker.addRecord(new String[]{"held"});
+    assertEquals(1,count(tracker.queuedBinCounts,"held"));
+  }
+
+  @Test
+  public void retiredCounterIsReplaced()
+  {
+    QueueTracker tracker = new QueueTracker();
+    QueueTracker.BinCount retired = new QueueTracker.BinCount();
+    assertTrue(retired.retire());
+    assertFalse(retired.increment());
+    assertEquals(0,retired.getValue());
+
+    // A counter retired by a sweep, but not yet removed, must not swallow the increment
+    tracker.queuedBinCounts.put("bin",retired);
+    tracker.addRecord(new String[]{"bin"});
+    assertEquals(1,count(tracker.queuedBinCounts,"bin"));
+    assertNotSame(retired,tracker.queuedBinCounts.get("bin"));
+
+    // A counter that is in use cannot be retired
+    QueueTracker.BinCount inUse = new QueueTracker.BinCount();
+    assertTrue(inUse.increment());
+    assertFalse(inUse.retire());
+    assertEquals(1,inUse.getValue());
+  }
+
+  @Test
+  public void concurrentCountsAreExact()
+    throws Exception
+  {
+    // Enough bins that counters are created, emptied and swept repeatedly while the threads run
+    final QueueTracker tracker = new QueueTracker();
+    final int threadCount = 8;
+    final int iterations = 20000;
+    final int binCount = 2000;
+    final CyclicBarrier start = new CyclicBarrier(threadCount);
+    Thread[] threads = new Thread[threadCount];
+    final Throwable[] failure = new Throwable[1];
+    for (int t = 0; t < threadCount; t++)
+    {
+      final int offset = t;
+      threads[t] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            start.await();
+            for (int i = 0; i < iterations; i++)
+            {
+              String[] bins = new String[]{"bin"+Integer.toString((i + offset) % binCount)};
+              tracker.addRecord(bins);
+              tracker.beginProcessing(bins);
+            }
+          }
+          catch (Throwable e)
+          {
+            synchronized (failure)
+            {
+              failure[0] = e;
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (int t = 0; t < threadCount; t++)
+    {
+      threads[t].join();
+    }
+    assertNull(failure[0]);
+
+    int expected = threadCount * iterations / binCount;
+    for (int b = 0; b < binCount; b++)
+    {
+      String bin = "bin"+Integer.toString(b);
+      assertEquals(bin,0,count(tracker.queuedBinCounts,bin));
+      assertEquals(bin,expected,count(tracker.activeBinCounts,bin));
+    }
+
+    for (int b = 0; b < binCount; b++)
+    {
+      String[] bins = new String[]{"bin"+Integer.toString(b)};
+      for (int i = 0; i < expected; i++)
+      {
+        tracker.endProcessing(bins);
+      }
+    }
+    QueueTracker.sweepBinCounts(tracker.queuedBinCounts);
+    QueueTracker.sweepBinCounts(tracker.activeBinCounts);
+    assertEquals(0,tracker.queuedBinCounts.size());
+    assertEquals(0,tracker.activeBinCounts.size());
+  }
+
+  protected static int count(Map<String,QueueTracker.BinCount> map, String binName)
+  {
+    QueueTracker.BinCount value = map.get(binName);
+    return (value == null)?0:value.getValue();
+  }
+
+}
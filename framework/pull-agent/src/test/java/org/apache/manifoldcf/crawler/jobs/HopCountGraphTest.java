@@ -0,0 +1,391 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Checks the snapshot hopcount calculation in HopCountGraph: on small graphs against distances and delete
+* dependencies worked out by hand, and on synthetic link graphs against a model of the incremental queue
+* processing in HopCount.
+*/
+public class HopCountGraphTest
+{
+  protected static final String[] linkTypes = new String[]{"link","redirect"};
+
+  @Test
+  public void chain()
+  {
+    // root -> a -link-> b -redirect-> c -link-> d
+    HopCountGraph graph = new HopCountGraph();
+    graph.addLink("","a","");
+    graph.addLink("a","b","link");
+    graph.addLink("b","c","redirect");
+    graph.addLink("c","d","link");
+
+    HopCountGraph.Distances links = graph.calculateDistances("link");
+    assertEquals(0,distance(graph,links,"a"));
+    assertEquals(1,distance(graph,links,"b"));
+    assertEquals(1,distance(graph,links,"c"));
+    assertEquals(2,distance(graph,links,"d"));
+
+    HopCountGraph.Distances redirects = graph.calculateDistances("redirect");
+    assertEquals(0,distance(graph,redirects,"a"));
+    assertEquals(0,distance(graph,redirects,"b"));
+    assertEquals(1,distance(graph,redirects,"c"));
+    assertEquals(1,distance(graph,redirects,"d"));
+
+    List<DeleteDependency> expected = new ArrayList<DeleteDependency>();
+    expected.add(new DeleteDependency("link","d","c"));
+    expected.add(new DeleteDependency("redirect","c","b"));
+    expected.add(new DeleteDependency("link","b","a"));
+    expected.add(new DeleteDependency("","a",""));
+    assertEquals(expected,links.getDeleteDependencies(graph.getNodeIndex("d")));
+    assertEquals(expected,redirects.getDeleteDependencies(graph.getNodeIndex("d")));
+  }
+
+  @Test
+  public void freeLinksWin()
+  {
+    // b is one counted link from a, or two free links away through x
+    HopCountGraph graph = new HopCountGraph();
+    graph.addLink("","a","");
+    graph.addLink("a","b","link");
+    graph.addLink("a","x","redirect");
+    graph.addLink("x","b","redirect");
+
+    HopCountGraph.Distances links = graph.calculateDistances("link");
+    assertEquals(0,distance(graph,links,"b"));
+    List<DeleteDependency> expected = new ArrayList<DeleteDependency>();
+    expected.add(new DeleteDependency("redirect","b","x"));
+    expected.add(new DeleteDependency("redirect","x","a"));
+    expected.add(new DeleteDependency("","a",""));
+    assertEquals(expected,links.getDeleteDependencies(graph.getNodeIndex("b")));
+
+    HopCountGraph.Distances redirects = graph.calculateDistances("redirect");
+    assertEquals(0,distance(graph,redirects,"b"));
+    expected.clear();
+    expected.add(new DeleteDependency("link","b","a"));
+    expected.add(new DeleteDependency("","a",""));
+    assertEquals(expected,redirects.getDeleteDependencies(graph.getNodeIndex("b")));
+  }
+
+  @Test
+  public void unreachableAndCycles()
+  {
+    HopCountGraph graph = new HopCountGraph();
+    graph.addLink("","a","");
+    graph.addLink("a","b","link");
+    graph.addLink("b","a","link");
+    // e and f link to each other, but nothing reachable links to them
+    graph.addLink("e","f","link");
+    graph.addLink("f","e","link");
+
+    HopCountGraph.Distances links = graph.calculateDistances("link");
+    assertEquals(0,distance(graph,links,"a"));
+    assertEquals(1,distance(graph,links,"b"));
+    assertEquals(HopCount.ANSWER_INFINITY,distance(graph,links,"e"));
+    assertEquals(HopCount.ANSWER_INFINITY,distance(graph,links,"f"));
+    assertEquals(0,links.getDeleteDependencies(graph.getNodeIndex("e")).size());
+    assertEquals(-1,graph.getNodeIndex("unknown"));
+
+    // A link type that never occurs costs nothing
+    HopCountGraph.Distances other = graph.calculateDistances("other");
+    assertEquals(0,distance(graph,other,"b"));
+    assertEquals(HopCount.ANSWER_INFINITY,distance(graph,other,"f"));
+  }
+
+  @Test
+  public void treeMatchesIncremental()
+  {
+    // With only one path to each document, the delete dependencies must be identical too
+    for (long seed = 1L; seed <= 5L; seed++)
+    {
+      SyntheticGraph g = new SyntheticGraph(500,1,3,seed);
+      compare(g,true);
+    }
+  }
+
+  @Test
+  public void webGraphMatchesIncremental()
+  {
+    for (long seed = 1L; seed <= 5L; seed++)
+    {
+      SyntheticGraph g = new SyntheticGraph(2000,6,5,seed);
+      compare(g,false);
+    }
+  }
+
+  /** Compare the snapshot calculation with the incremental model on a synthetic graph.  Distances must be
+  * identical.  Where there are several shortest paths, the two may pick different ones, so the snapshot's
+  * delete dependencies are checked to be a real shortest path, and are compared exactly only when asked.
+  */
+  protected static void compare(SyntheticGraph g, boolean exactDependencies)
+  {
+    HopCountGraph graph = new HopCountGraph();
+    Set<DeleteDependency> allLinks = new HashSet<DeleteDependency>();
+    for (int i = 0; i < g.linkCount; i++)
+    {
+      graph.addLink(g.hashes[g.children[i]],g.hashes[g.parents[i]],g.linkType(i));
+      allLinks.add(g.dependency(i));
+    }
+    for (int t = 0; t < linkTypes.length; t++)
+    {
+      HopCountGraph.Distances distances = graph.calculateDistances(linkTypes[t]);
+      IncrementalModel model = new IncrementalModel(g,t);
+      model.run();
+      for (int n = 1; n < g.nodeCount; n++)
+      {
+        String message = "Document "+Integer.toString(n)+", link type '"+linkTypes[t]+"'";
+        int node = graph.getNodeIndex(g.hashes[n]);
+        int actual = (node == -1)?HopCount.ANSWER_INFINITY:distances.getDistance(node);
+        assertEquals(message,model.distance[n],actual);
+        if (node == -1)
+          continue;
+        List<DeleteDependency> dependencies = distances.getDeleteDependencies(node);
+        if (actual == HopCount.ANSWER_INFINITY)
+        {
+          assertEquals(message,0,dependencies.size());
+          continue;
+        }
+        checkPath(message,g.hashes[n],linkTypes[t],actual,dependencies,allLinks);
+        if (exactDependencies)
+          assertEquals(message,model.getDeleteDependencies(n),dependencies);
+      }
+    }
+  }
+
+  /** Check that delete dependencies describe a path of real links from the root to a document, with
+  * the right number of counted links on it.
+  */
+  protected static void checkPath(String message, String documentHash, String linkType, int distance,
+    List<DeleteDependency> dependencies, Set<DeleteDependency> allLinks)
+  {
+    assertTrue(message,dependencies.size() > 0);
+    String expectedParent = documentHash;
+    int counted = 0;
+    for (DeleteDependency dd : dependencies)
+    {
+      assertTrue(message,allLinks.contains(dd));
+      assertEquals(message,expectedParent,dd.getParentIDHash());
+      if (dd.getLinkType().equals(linkType))
+        counted++;
+      expectedParent = dd.getChildIDHash();
+    }
+    assertEquals(message,"",expectedParent);
+    assertEquals(message,distance,counted);
+  }
+
+  protected static int distance(HopCountGraph graph, HopCountGraph.Distances distances, String documentHash)
+  {
+    return distances.getDistance(graph.getNodeIndex(documentHash));
+  }
+
+  /** A synthetic link graph, shaped roughly like a web crawl: a few seeds, and documents that mostly link to
+  * documents discovered not long before or after them, with some redirects mixed in.  Node 0 is the root.
+  */
+  protected static class SyntheticGraph
+  {
+    public final int nodeCount;
+    public int linkCount = 0;
+    public int[] children;
+    public int[] parents;
+    public int[] types;
+    public String[] hashes;
+
+    /** Constructor.
+    *@param fanout is the number of links into each document; 1 makes a tree.
+    */
+    public SyntheticGraph(int documentCount, int fanout, int seedCount, long seed)
+    {
+      nodeCount = documentCount + 1;
+      int capacity = seedCount + documentCount * fanout;
+      children = new int[capacity];
+      parents = new int[capacity];
+      types = new int[capacity];
+      hashes = new String[nodeCount];
+      hashes[0] = "";
+      for (int i = 1; i < nodeCount; i++)
+      {
+        hashes[i] = "D"+Integer.toString(i);
+      }
+      Random r = new Random(seed);
+      for (int i = 1; i <= seedCount && i < nodeCount; i++)
+      {
+        add(0,i,linkTypes.length);
+      }
+      // Links are unique per (child, parent, type), as in the intrinsic link table
+      Set<Long> seen = new HashSet<Long>();
+      for (int parent = seedCount + 1; parent < nodeCount; parent++)
+      {
+        for (int k = 0; k < fanout; k++)
+        {
+          int child;
+          if (fanout == 1)
+            child = 1 + r.nextInt(parent - 1);
+          else if (r.nextInt(10) == 0)
+            child = 1 + r.nextInt(documentCount);
+          else
+            child = Math.max(1,Math.min(documentCount,parent + (int)(r.nextGaussian() * 20.0)));
+          if (child == parent)
+            continue;
+          int type = (r.nextInt(5) == 0)?1:0;
+          long key = ((long)child * (long)nodeCount + (long)parent) * 2L + (long)type;
+          if (seen.add(new Long(key)))
+            add(child,parent,type);
+        }
+      }
+    }
+
+    protected void add(int child, int parent, int type)
+    {
+      children[linkCount] = child;
+      parents[linkCount] = parent;
+      types[linkCount] = type;
+      linkCount++;
+    }
+
+    /** The type of a link; seed links have none. */
+    public String linkType(int link)
+    {
+      if (types[link] == linkTypes.length)
+        return "";
+      return linkTypes[types[link]];
+    }
+
+    public DeleteDependency dependency(int link)
+    {
+      return new DeleteDependency(linkType(link),hashes[parents[link]],hashes[children[link]]);
+    }
+  }
+
+  /** A model of incremental queue processing for one link type: every distance starts unknown, and queued
+  * documents are evaluated in batches from their incoming links, requeuing their targets on improvement.
+  * Like HopCount, it remembers the link each distance came through, which gives the delete dependencies.
+  */
+  protected static class IncrementalModel
+  {
+    protected final SyntheticGraph g;
+    protected final int countedType;
+    public final int[] distance;
+    public final int[] viaLink;
+
+    protected final int[] inStart;
+    protected final int[] inLinks;
+    protected final int[] outStart;
+    protected final int[] outLinks;
+
+    public IncrementalModel(SyntheticGraph g, int countedType)
+    {
+      this.g = g;
+      this.countedType = countedType;
+      distance = new int[g.nodeCount];
+      viaLink = new int[g.nodeCount];
+      Arrays.fill(distance,HopCount.ANSWER_INFINITY);
+      Arrays.fill(viaLink,-1);
+      distance[0] = 0;
+      inStart = new int[g.nodeCount+1];
+      outStart = new int[g.nodeCount+1];
+      inLinks = new int[g.linkCount];
+      outLinks = new int[g.linkCount];
+      index(g.parents,inStart,inLinks);
+      index(g.children,outStart,outLinks);
+    }
+
+    protected void index(int[] keys, int[] start, int[] links)
+    {
+      for (int i = 0; i < g.linkCount; i++)
+      {
+        start[keys[i]+1]++;
+      }
+      for (int i = 0; i < g.nodeCount; i++)
+      {
+        start[i+1] += start[i];
+      }
+      int[] fill = new int[g.nodeCount];
+      System.arraycopy(start,0,fill,0,g.nodeCount);
+      for (int i = 0; i < g.linkCount; i++)
+      {
+        links[fill[keys[i]]++] = i;
+      }
+    }
+
+    public void run()
+    {
+      LinkedHashSet<Integer> queue = new LinkedHashSet<Integer>();
+      for (int n = 1; n < g.nodeCount; n++)
+      {
+        queue.add(new Integer(n));
+      }
+      int[] batch = new int[200];
+      while (queue.size() > 0)
+      {
+        int batchSize = 0;
+        Iterator<Integer> iter = queue.iterator();
+        while (batchSize < batch.length && iter.hasNext())
+        {
+          batch[batchSize++] = iter.next().intValue();
+          iter.remove();
+        }
+        for (int b = 0; b < batchSize; b++)
+        {
+          int node = batch[b];
+          int best = HopCount.ANSWER_INFINITY;
+          int bestLink = -1;
+          for (int i = inStart[node]; i < inStart[node+1]; i++)
+          {
+            int link = inLinks[i];
+            int childDistance = distance[g.children[link]];
+            if (childDistance == HopCount.ANSWER_INFINITY)
+              continue;
+            int candidate = (g.types[link] == countedType)?childDistance+1:childDistance;
+            if (best == HopCount.ANSWER_INFINITY || candidate < best)
+            {
+              best = candidate;
+              bestLink = link;
+            }
+          }
+          if (best != HopCount.ANSWER_INFINITY && (distance[node] == HopCount.ANSWER_INFINITY || best < distance[node]))
+          {
+            distance[node] = best;
+            viaLink[node] = bestLink;
+            for (int i = outStart[node]; i < outStart[node+1]; i++)
+            {
+              queue.add(new Integer(g.parents[outLinks[i]]));
+            }
+          }
+        }
+      }
+    }
+
+    public List<DeleteDependency> getDeleteDependencies(int node)
+    {
+      List<DeleteDependency> rval = new ArrayList<DeleteDependency>();
+      int link = viaLink[node];
+      while (link != -1)
+      {
+        rval.add(g.dependency(link));
+        link = viaLink[g.children[link]];
+      }
+      return rval;
+    }
+  }
+
+}
@@ -0,0 +1,225 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.database.RRow;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Tests for the parts of RepositoryHistoryManager that answer reports from the history rollups.
+*/
+public class RepositoryHistoryRollupTest
+{
+
+  @Test
+  public void noBuckets()
+  {
+    assertNull(RepositoryHistoryManager.findMaxWindow(new long[0],new long[0],60000L));
+  }
+
+  @Test
+  public void singleBucket()
+  {
+    long[] best = RepositoryHistoryManager.findMaxWindow(new long[]{120000L},new long[]{5L},60000L);
+    assertEquals(120000L,best[0]);
+    assertEquals(5L,best[1]);
+  }
+
+  @Test
+  public void windowCoversSeveralBuckets()
+  {
+    // Minute buckets; a three-minute window starting at 1 minute holds 2+4+6
+    long[] starts = new long[]{0L,60000L,120000L,180000L,240000L,420000L};
+    long[] values = new long[]{3L,2L,4L,6L,1L,9L};
+    long[] best = RepositoryHistoryManager.findMaxWindow(starts,values,180000L);
+    assertEquals(60000L,best[0]);
+    assertEquals(12L,best[1]);
+  }
+
+  @Test
+  public void windowEndIsExclusive()
+  {
+    // A bucket starting exactly at the window end belongs to the next window
+    long[] starts = new long[]{0L,60000L};
+    long[] values = new long[]{2L,3L};
+    long[] best = RepositoryHistoryManager.findMaxWindow(starts,values,60000L);
+    assertEquals(60000L,best[0]);
+    assertEquals(3L,best[1]);
+  }
+
+  @Test
+  public void windowSkipsEmptyBuckets()
+  {
+    // Buckets with no activity are simply missing; the window still spans them by time
+    long[] starts = new long[]{0L,300000L,360000L,900000L};
+    long[] values = new long[]{7L,4L,4L,5L};
+    long[] best = RepositoryHistoryManager.findMaxWindow(starts,values,360000L);
+    assertEquals(0L,best[0]);
+    assertEquals(11L,best[1]);
+    best = RepositoryHistoryManager.findMaxWindow(starts,values,120000L);
+    assertEquals(300000L,best[0]);
+    assertEquals(8L,best[1]);
+  }
+
+  @Test
+  public void earliestWindowWinsTies()
+  {
+    long[] starts = new long[]{0L,60000L,120000L};
+    long[] values = new long[]{5L,5L,5L};
+    long[] best = RepositoryHistoryManager.findMaxWindow(starts,values,60000L);
+    assertEquals(0L,best[0]);
+    assertEquals(5L,best[1]);
+  }
+
+  @Test
+  public void windowMatchesBruteForce()
+  {
+    Random random = new Random(42L);
+    int trial = 0;
+    while (trial < 200)
+    {
+      int count = random.nextInt(30) + 1;
+      long[] starts = new long[count];
+      long[] values = new long[count];
+      long time = 0L;
+      int i = 0;
+      while (i < count)
+      {
+        time += (random.nextInt(5) + 1) * 60000L;
+        starts[i] = time;
+        values[i] = random.nextInt(100);
+        i++;
+      }
+      long interval = (random.nextInt(10) + 1) * 60000L;
+
+      long bestStart = 0L;
+      long bestTotal = -1L;
+      i = 0;
+      while (i < count)
+      {
+        long total = 0L;
+        int j = 0;
+        while (j < count)
+        {
+          if (starts[j] >= starts[i] && starts[j] < starts[i] + interval)
+            total += values[j];
+          j++;
+        }
+        if (total > bestTotal)
+        {
+          bestTotal = total;
+          bestStart = starts[i];
+        }
+        i++;
+      }
+
+      long[] best = RepositoryHistoryManager.findMaxWindow(starts,values,interval);
+      assertEquals(bestStart,best[0]);
+      assertEquals(bestTotal,best[1]);
+      trial++;
+    }
+  }
+
+  @Test
+  public void comparatorUsesSortOrderFirst()
+  {
+    SortOrder sort = new SortOrder();
+    sort.addCriteria("resultcodebucket",SortOrder.SORT_ASCENDING);
+    List<IResultRow> rows = new ArrayList<IResultRow>();
+    rows.add(makeRow(new Long(3L),"200"));
+    rows.add(makeRow(new Long(9L),"404"));
+    rows.add(makeRow(new Long(1L),"-1"));
+    Collections.sort(rows,new RepositoryHistoryManager.RowComparator(sort,new String[]{"eventcount","resultcodebucket","idbucket"}));
+    assertEquals("-1",rows.get(0).getValue("resultcodebucket"));
+    assertEquals("200",rows.get(1).getValue("resultcodebucket"));
+    assertEquals("404",rows.get(2).getValue("resultcodebucket"));
+  }
+
+  @Test
+  public void comparatorFallsBackToDescendingFieldList()
+  {
+    // Columns not in the sort order are compared in field list order, descending, as addOrdering() does
+    SortOrder sort = new SortOrder();
+    List<IResultRow> rows = new ArrayList<IResultRow>();
+    rows.add(makeRow(new Long(3L),"200"));
+    rows.add(makeRow(new Long(9L),"404"));
+    rows.add(makeRow(new Long(3L),"500"));
+    Collections.sort(rows,new RepositoryHistoryManager.RowComparator(sort,new String[]{"eventcount","resultcodebucket","idbucket"}));
+    assertEquals("404",rows.get(0).getValue("resultcodebucket"));
+    assertEquals("500",rows.get(1).getValue("resultcodebucket"));
+    assertEquals("200",rows.get(2).getValue("resultcodebucket"));
+  }
+
+  @Test
+  public void comparatorDoesNotRepeatSortedColumns()
+  {
+    // eventcount is sorted ascending by the sort order, and must not be compared again descending
+    SortOrder sort = new SortOrder();
+    sort.addCriteria("eventcount",SortOrder.SORT_ASCENDING);
+    List<IResultRow> rows = new ArrayList<IResultRow>();
+    rows.add(makeRow(new Long(10L),"200"));
+    rows.add(makeRow(new Long(2L),"200"));
+    rows.add(makeRow(new Long(2L),"404"));
+    Collections.sort(rows,new RepositoryHistoryManager.RowComparator(sort,new String[]{"eventcount","resultcodebucket","idbucket"}));
+    assertEquals(new Long(2L),rows.get(0).getValue("eventcount"));
+    assertEquals("404",rows.get(0).getValue("resultcodebucket"));
+    assertEquals(new Long(2L),rows.get(1).getValue("eventcount"));
+    assertEquals(new Long(10L),rows.get(2).getValue("eventcount"));
+  }
+
+  @Test
+  public void comparatorComparesNumbersByValue()
+  {
+    // Numbers must not be compared as strings ("10" < "9"), and mixed number types must compare
+    assertTrue(RepositoryHistoryManager.RowComparator.compareValues(new Long(9L),new Long(10L)) < 0);
+    assertTrue(RepositoryHistoryManager.RowComparator.compareValues(new Double(2.5),new Long(2L)) > 0);
+    assertEquals(0,RepositoryHistoryManager.RowComparator.compareValues(new Double(3.0),new Long(3L)));
+  }
+
+  @Test
+  public void comparatorPutsNullsLast()
+  {
+    assertTrue(RepositoryHistoryManager.RowComparator.compareValues(null,"200") > 0);
+    assertTrue(RepositoryHistoryManager.RowComparator.compareValues("200",null) < 0);
+    assertEquals(0,RepositoryHistoryManager.RowComparator.compareValues(null,null));
+
+    SortOrder sort = new SortOrder();
+    sort.addCriteria("resultcodebucket",SortOrder.SORT_ASCENDING);
+    List<IResultRow> rows = new ArrayList<IResultRow>();
+    rows.add(makeRow(new Long(1L),null));
+    rows.add(makeRow(new Long(1L),"200"));
+    Collections.sort(rows,new RepositoryHistoryManager.RowComparator(sort,new String[]{"eventcount","resultcodebucket","idbucket"}));
+    assertEquals("200",rows.get(0).getValue("resultcodebucket"));
+    assertNull(rows.get(1).getValue("resultcodebucket"));
+  }
+
+  protected static IResultRow makeRow(Long eventCount, String resultCodeBucket)
+  {
+    RRow row = new RRow();
+    row.put("eventcount",eventCount);
+    row.put("resultcodebucket",resultCodeBucket);
+    row.put("idbucket","");
+    return row;
+  }
+
+}